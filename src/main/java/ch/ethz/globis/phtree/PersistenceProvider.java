@@ -110,6 +110,25 @@ public abstract class PersistenceProvider {
 	 */
 	public abstract Object registerNode(Externalizable o);
 	public abstract void updateNode(Externalizable o);
+
+	/**
+	 * Called when a node has been removed from the tree. 
+	 * The default implementation does nothing.
+	 * @param o the discarded node
+	 */
+	public void discardNode(Externalizable o) {
+		//
+	}
+
+	/**
+	 * Called before a value is stored in the tree. 
+	 * The default implementation accepts all values.
+	 * @param value the value, this is never {@code null}
+	 * @throws IllegalArgumentException if the value cannot be stored
+	 */
+	public void checkValue(Object value) {
+		//
+	}
 	
 	public abstract String getDescription();
 	public abstract int statsGetPageReads();
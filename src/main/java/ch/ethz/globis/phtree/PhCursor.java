@@ -0,0 +1,140 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Continuation token for window queries that are processed in pages.
+ * The cursor consists of the query window and the key of the last returned entry.
+ * A query that is resumed with the cursor, for example with
+ * {@link ch.ethz.globis.phtree.v12.PhIteratorNoGC#resume(PhCursor)}, returns
+ * all entries in the window that come after that key in the iteration order of the tree.
+ * <p>
+ * The cursor does not reference the tree, so the tree may be modified between two pages.
+ * Entries that are inserted or removed after the cursor position are then returned or
+ * skipped as usual.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * PhTree12<T> tree = ...;
+ * PhCursor cursor = new PhCursor(min, max);
+ * PhIteratorNoGC<T> q = tree.query(min, max);
+ * q.resume(cursor);
+ * for (int i = 0; i < pageSize && q.hasNext(); i++) {
+ *   long[] key = q.nextKey();
+ *   ...
+ *   cursor = cursor.after(key);
+ * }
+ * }</pre>
+ *
+ * @author ztilmann
+ */
+public final class PhCursor implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long[] min;
+	private final long[] max;
+	private final long[] key;
+
+	/**
+	 * Creates a cursor for the start of a query.
+	 * @param min minimum values of the query window
+	 * @param max maximum values of the query window
+	 */
+	public PhCursor(long[] min, long[] max) {
+		this(min, max, null);
+	}
+
+	/**
+	 * @param min minimum values of the query window
+	 * @param max maximum values of the query window
+	 * @param key the last returned key, the key must lie inside the window.
+	 * {@code null} indicates the start of the query.
+	 */
+	public PhCursor(long[] min, long[] max, long[] key) {
+		if (min.length != max.length || (key != null && key.length != min.length)) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +
+					" / " + max.length + " / " + (key == null ? "-" : key.length));
+		}
+		this.min = min.clone();
+		this.max = max.clone();
+		this.key = key == null ? null : key.clone();
+		if (key != null) {
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] < min[i] || key[i] > max[i]) {
+					throw new IllegalArgumentException("Key is outside the query window: " +
+							Arrays.toString(key));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param key the last returned key
+	 * @return a cursor for the same query window that continues after 'key'
+	 */
+	public PhCursor after(long[] key) {
+		return new PhCursor(min, max, key);
+	}
+
+	/**
+	 * @return the minimum values of the query window
+	 */
+	public long[] getMin() {
+		return min.clone();
+	}
+
+	/**
+	 * @return the maximum values of the query window
+	 */
+	public long[] getMax() {
+		return max.clone();
+	}
+
+	/**
+	 * @return the last returned key or {@code null} if the cursor is at the start of
+	 * the query
+	 */
+	public long[] getKey() {
+		return key == null ? null : key.clone();
+	}
+
+	/**
+	 * @param key a key
+	 * @return true if 'key' comes after the cursor position in the iteration order of
+	 * the tree
+	 */
+	public boolean isAfter(long[] key) {
+		return this.key == null || PhTreeHelper.compareZ(key, this.key, -1L) > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "PhCursor[min=" + Arrays.toString(min) + ", max=" + Arrays.toString(max) +
+				", key=" + Arrays.toString(key) + "]";
+	}
+}
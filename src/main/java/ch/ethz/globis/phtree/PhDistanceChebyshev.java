@@ -0,0 +1,79 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Chebyshev distance (L-infinity norm), the maximum absolute difference of all dimensions. 
+ * Use {@link #L} for integer keys and {@link #F} for encoded {@code double} keys.
+ * 
+ * @author ztilmann
+ */
+public class PhDistanceChebyshev implements PhDistanceNode {
+
+	/** Chebyshev distance for integer keys. */
+	public static final PhDistanceChebyshev L = new PhDistanceChebyshev(false);
+	/** Chebyshev distance for encoded {@code double} keys. */
+	public static final PhDistanceChebyshev F = new PhDistanceChebyshev(true);
+	
+	private final boolean isDouble;
+	
+	private PhDistanceChebyshev(boolean isDouble) {
+		this.isDouble = isDouble;
+	}
+	
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = PhDistanceKeys.toDouble(v1[i], isDouble) - 
+					PhDistanceKeys.toDouble(v2[i], isDouble);
+			d = Math.max(d, Math.abs(dl));
+		}
+		return d;
+	}
+
+	/**
+	 * The MBB is exact, it is identical to the L-infinity sphere.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			outMin[i] = PhDistanceKeys.toMin(center[i], distance, isDouble);
+			outMax[i] = PhDistanceKeys.toMax(center[i], distance, isDouble);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long min = prefix[i] & maskMin;
+			long max = prefix[i] | maskMax;
+			d = Math.max(d, PhDistanceKeys.distToRange(center[i], min, max, isDouble));
+		}
+		return d;
+	}
+}
@@ -10,7 +10,7 @@ import ch.ethz.globis.phtree.util.BitTools;
  * 
  * @author ztilmann
  */
-public class PhDistanceF implements PhDistance {
+public class PhDistanceF implements PhDistanceNode {
 
 	public static final PhDistanceF THIS = new PhDistanceF();
 
@@ -38,4 +38,18 @@ public class PhDistanceF implements PhDistance {
       outMax[i] = BitTools.toSortableLong(c + distance);
     }
   }
-}
\ No newline at end of file
+
+  @Override
+  public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+    long maskMin = (-1L) << bitsToIgnore;
+    long maskMax = ~maskMin;
+    double d = 0;
+    for (int i = 0; i < center.length; i++) {
+      long min = prefix[i] & maskMin;
+      long max = prefix[i] | maskMax;
+      double dl = PhDistanceKeys.distToRange(center[i], min, max, true);
+      d += dl*dl;
+    }
+    return Math.sqrt(d);
+  }
+}
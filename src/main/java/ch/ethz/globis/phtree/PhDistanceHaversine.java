@@ -0,0 +1,171 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+/**
+ * Great circle distance on a sphere, calculated with the haversine formula.
+ * Keys must have two dimensions, latitude and longitude, in degrees, encoded as 
+ * {@code double} (see {@link BitTools#toSortableLong(double)}). 
+ * Latitudes must be in [-90, 90], longitudes in [-180, 180].
+ * <p>
+ * The MBB of a distance covers the range of longitudes that can be reached from the 
+ * center, it is widened to all longitudes if it contains a pole or crosses the 
+ * antimeridian.
+ * 
+ * @author ztilmann
+ */
+public class PhDistanceHaversine implements PhDistanceNode {
+
+	/** Mean radius of the earth in kilometres. */
+	public static final double EARTH_RADIUS_KM = 6371.0088;
+	/** Distances in kilometres on earth. */
+	public static final PhDistanceHaversine EARTH_KM = new PhDistanceHaversine(EARTH_RADIUS_KM);
+	
+	private static final int LAT = 0;
+	private static final int LON = 1;
+
+	private final double radius;
+	
+	/**
+	 * @param radius the radius of the sphere
+	 */
+	public PhDistanceHaversine(double radius) {
+		this.radius = radius;
+	}
+	
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		return dist(BitTools.toDouble(v1[LAT]), BitTools.toDouble(v1[LON]), 
+				BitTools.toDouble(v2[LAT]), BitTools.toDouble(v2[LON]));
+	}
+
+	/**
+	 * @param lat1 latitude of first point in degrees
+	 * @param lon1 longitude of first point in degrees
+	 * @param lat2 latitude of second point in degrees
+	 * @param lon2 longitude of second point in degrees
+	 * @return The great circle distance.
+	 */
+	public double dist(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double sinDPhi = Math.sin((phi2 - phi1) / 2);
+		double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+		double a = sinDPhi*sinDPhi + Math.cos(phi1)*Math.cos(phi2)*sinDLambda*sinDLambda;
+		//avoid NaN due to rounding errors
+		a = Math.min(1, a);
+		return 2 * radius * Math.asin(Math.sqrt(a));
+	}
+
+	/**
+	 * Calculates the bounding coordinates of a circle, see
+	 * <a href="http://janmatuschek.de/LatitudeLongitudeBoundingCoordinates">
+	 * http://janmatuschek.de/LatitudeLongitudeBoundingCoordinates</a>.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		double lat = Math.toRadians(BitTools.toDouble(center[LAT]));
+		double lon = Math.toRadians(BitTools.toDouble(center[LON]));
+		//widen slightly to account for rounding errors
+		double r = distance / radius * (1 + 1e-12);
+		double latMin = lat - r;
+		double latMax = lat + r;
+		double lonMin;
+		double lonMax;
+		if (latMin > -Math.PI/2 && latMax < Math.PI/2) {
+			double dLon = Math.asin(Math.min(1, Math.sin(r) / Math.cos(lat)));
+			lonMin = lon - dLon;
+			lonMax = lon + dLon;
+			if (lonMin < -Math.PI || lonMax > Math.PI) {
+				//crosses the antimeridian
+				lonMin = -Math.PI;
+				lonMax = Math.PI;
+			}
+		} else {
+			//contains a pole
+			latMin = Math.max(latMin, -Math.PI/2);
+			latMax = Math.min(latMax, Math.PI/2);
+			lonMin = -Math.PI;
+			lonMax = Math.PI;
+		}
+		outMin[LAT] = BitTools.toSortableLong(Math.toDegrees(latMin));
+		outMax[LAT] = BitTools.toSortableLong(Math.toDegrees(latMax));
+		outMin[LON] = BitTools.toSortableLong(Math.toDegrees(lonMin));
+		outMax[LON] = BitTools.toSortableLong(Math.toDegrees(lonMax));
+	}
+
+	/**
+	 * The closest point of a latitude/longitude rectangle is either directly north or 
+	 * south of the center, or on one of the two bounding meridians. 
+	 */
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double lat = BitTools.toDouble(center[LAT]);
+		double lon = BitTools.toDouble(center[LON]);
+		double latMin = BitTools.toDouble(prefix[LAT] & maskMin);
+		double latMax = BitTools.toDouble(prefix[LAT] | maskMax);
+		double lonMin = BitTools.toDouble(prefix[LON] & maskMin);
+		double lonMax = BitTools.toDouble(prefix[LON] | maskMax);
+		//Large nodes may include NaN or infinity, limit them to valid coordinates. 
+		//Note that comparisons with NaN are always false.
+		latMin = latMin > -90 ? latMin : -90;
+		latMax = latMax < 90 ? latMax : 90;
+		lonMin = lonMin > -180 ? lonMin : -180;
+		lonMax = lonMax < 180 ? lonMax : 180;
+		if (latMin > latMax || lonMin > lonMax) {
+			//node is outside the valid range
+			return Double.POSITIVE_INFINITY;
+		}
+		
+		if (lon >= lonMin && lon <= lonMax) {
+			if (lat < latMin) {
+				return Math.toRadians(latMin - lat) * radius;
+			} else if (lat > latMax) {
+				return Math.toRadians(lat - latMax) * radius;
+			}
+			return 0;
+		}
+		return Math.min(distToMeridian(lat, lon, lonMin, latMin, latMax),
+				distToMeridian(lat, lon, lonMax, latMin, latMax));
+	}
+	
+	private double distToMeridian(double lat, double lon, double lonM, 
+			double latMin, double latMax) {
+		//Along the meridian, the distance is a sinusoid of the latitude, its minimum is at
+		//'latClosest' (which may be beyond the pole). The minimum on the meridian 
+		//segment is therefore at 'latClosest' or at one of the end points.
+		double phi = Math.toRadians(lat);
+		double cosDLambda = Math.cos(Math.toRadians(lonM - lon));
+		double latClosest = Math.toDegrees(Math.atan2(Math.sin(phi), Math.cos(phi)*cosDLambda));
+		double d = Math.min(dist(lat, lon, latMin, lonM), dist(lat, lon, latMax, lonM));
+		if (latClosest > latMin && latClosest < latMax) {
+			d = Math.min(d, dist(lat, lon, latClosest, lonM));
+		}
+		return d;
+	}
+}
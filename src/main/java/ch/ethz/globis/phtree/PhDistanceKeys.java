@@ -0,0 +1,80 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import ch.ethz.globis.phtree.util.BitTools;
+
+/**
+ * Conversion of keys for distance functions that support integer keys as well as 
+ * encoded {@code double} keys.
+ * 
+ * @author ztilmann
+ */
+final class PhDistanceKeys {
+
+	private static final long ULP_SLACK = 2;
+
+	private PhDistanceKeys() {
+		//static utility
+	}
+	
+	static double toDouble(long key, boolean isDouble) {
+		return isDouble ? BitTools.toDouble(key) : key;
+	}
+	
+	/**
+	 * @return The lowest key that can be within 'dist' of 'c' in one dimension.
+	 */
+	static long toMin(long c, double dist, boolean isDouble) {
+		if (isDouble) {
+			//widen by two ulps to account for rounding errors
+			return BitTools.toSortableLong(BitTools.toDouble(c) - dist) - ULP_SLACK;
+		}
+		//casting to 'long' always rounds towards 0, which is safe for integer keys
+		return (long) (c - dist);
+	}
+	
+	/**
+	 * @return The highest key that can be within 'dist' of 'c' in one dimension.
+	 */
+	static long toMax(long c, double dist, boolean isDouble) {
+		if (isDouble) {
+			return BitTools.toSortableLong(BitTools.toDouble(c) + dist) + ULP_SLACK;
+		}
+		//casting to 'long' after adding 1.0 always rounds up (ceiling)
+		return (long) (c + dist + 1);
+	}
+	
+	/**
+	 * @return The distance in one dimension between 'c' and the closest key in [min, max].
+	 */
+	static double distToRange(long c, long min, long max, boolean isDouble) {
+		if (c < min) {
+			return toDouble(min, isDouble) - toDouble(c, isDouble);
+		} else if (c > max) {
+			return toDouble(c, isDouble) - toDouble(max, isDouble);
+		}
+		return 0;
+	}
+}
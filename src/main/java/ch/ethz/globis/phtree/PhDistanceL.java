@@ -30,7 +30,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
  * 
  * @author ztilmann
  */
-public class PhDistanceL implements PhDistance {
+public class PhDistanceL implements PhDistanceNode {
 
   public static final PhDistanceL THIS = new PhDistanceL();
   
@@ -71,4 +71,18 @@ public class PhDistanceL implements PhDistance {
 			outMax[i] = (long) (center[i] + distance + 1);
     }
   }
-}
\ No newline at end of file
+
+  @Override
+  public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+    long maskMin = (-1L) << bitsToIgnore;
+    long maskMax = ~maskMin;
+    double d = 0;
+    for (int i = 0; i < center.length; i++) {
+      long min = prefix[i] & maskMin;
+      long max = prefix[i] | maskMax;
+      double dl = PhDistanceKeys.distToRange(center[i], min, max, false);
+      d += dl*dl;
+    }
+    return Math.sqrt(d);
+  }
+}
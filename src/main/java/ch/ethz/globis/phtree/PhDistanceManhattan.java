@@ -0,0 +1,80 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Manhattan distance (L1 norm), the sum of the absolute differences in all dimensions. 
+ * Use {@link #L} for integer keys and {@link #F} for encoded {@code double} keys.
+ * 
+ * @author ztilmann
+ */
+public class PhDistanceManhattan implements PhDistanceNode {
+
+	/** Manhattan distance for integer keys. */
+	public static final PhDistanceManhattan L = new PhDistanceManhattan(false);
+	/** Manhattan distance for encoded {@code double} keys. */
+	public static final PhDistanceManhattan F = new PhDistanceManhattan(true);
+	
+	private final boolean isDouble;
+	
+	private PhDistanceManhattan(boolean isDouble) {
+		this.isDouble = isDouble;
+	}
+	
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = PhDistanceKeys.toDouble(v1[i], isDouble) - 
+					PhDistanceKeys.toDouble(v2[i], isDouble);
+			d += Math.abs(dl);
+		}
+		return d;
+	}
+
+	/**
+	 * The MBB is exact in the sense that every face of the MBB touches the 
+	 * L1-sphere (which is a cross-polytope).
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			outMin[i] = PhDistanceKeys.toMin(center[i], distance, isDouble);
+			outMax[i] = PhDistanceKeys.toMax(center[i], distance, isDouble);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long min = prefix[i] & maskMin;
+			long max = prefix[i] | maskMax;
+			d += PhDistanceKeys.distToRange(center[i], min, max, isDouble);
+		}
+		return d;
+	}
+}
@@ -0,0 +1,126 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Weighted Minkowski distance: {@code (sum(w[i]*|v1[i]-v2[i]|^p))^(1/p)}, with 
+ * {@code p >= 1}. For {@code p = Double.POSITIVE_INFINITY} this is the weighted 
+ * Chebyshev distance {@code max(w[i]*|v1[i]-v2[i]|)}.
+ * 
+ * @author ztilmann
+ */
+public class PhDistanceMinkowski implements PhDistanceNode {
+
+	private final double p;
+	private final double[] weights;
+	private final boolean isDouble;
+	//per dimension scaling for toMBB: w[i]^(-1/p)
+	private final double[] mbbScale;
+	
+	/**
+	 * @param p the exponent, must be {@code >= 1}, may be {@code Double.POSITIVE_INFINITY} 
+	 * @param weights weights for all dimensions, must be {@code > 0}. 
+	 * {@code null} indicates weights of 1 in all dimensions.
+	 * @param isDouble {@code true} for encoded {@code double} keys, {@code false} for 
+	 * integer keys
+	 */
+	public PhDistanceMinkowski(double p, double[] weights, boolean isDouble) {
+		if (!(p >= 1)) {
+			throw new IllegalArgumentException("p must be >= 1: " + p);
+		}
+		this.p = p;
+		this.isDouble = isDouble;
+		if (weights == null) {
+			this.weights = null;
+			this.mbbScale = null;
+			return;
+		}
+		this.weights = weights.clone();
+		this.mbbScale = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			if (!(weights[i] > 0)) {
+				throw new IllegalArgumentException("Weights must be > 0: " + weights[i]);
+			}
+			mbbScale[i] = Double.isInfinite(p) ? 1/weights[i] : Math.pow(weights[i], -1/p);
+		}
+	}
+	
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = PhDistanceKeys.toDouble(v1[i], isDouble) - 
+					PhDistanceKeys.toDouble(v2[i], isDouble);
+			d = add(d, i, dl);
+		}
+		return finish(d);
+	}
+
+	/**
+	 * The MBB is exact in the sense that every face of the MBB touches the sphere.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		for (int i = 0; i < center.length; i++) {
+			double r = mbbScale == null ? distance : distance * mbbScale[i];
+			outMin[i] = PhDistanceKeys.toMin(center[i], r, isDouble);
+			outMax[i] = PhDistanceKeys.toMax(center[i], r, isDouble);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long min = prefix[i] & maskMin;
+			long max = prefix[i] | maskMax;
+			d = add(d, i, PhDistanceKeys.distToRange(center[i], min, max, isDouble));
+		}
+		return finish(d);
+	}
+	
+	private double add(double d, int dim, double dl) {
+		dl = Math.abs(dl);
+		double w = weights == null ? 1 : weights[dim];
+		if (p == 1) {
+			return d + w*dl;
+		} else if (p == 2) {
+			return d + w*dl*dl;
+		} else if (Double.isInfinite(p)) {
+			return Math.max(d, w*dl);
+		}
+		return d + w*Math.pow(dl, p);
+	}
+	
+	private double finish(double d) {
+		if (p == 1 || Double.isInfinite(p)) {
+			return d;
+		} else if (p == 2) {
+			return Math.sqrt(d);
+		}
+		return Math.pow(d, 1/p);
+	}
+}
@@ -0,0 +1,46 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Distance functions that can calculate the minimum distance between a point and
+ * a node. A node contains all keys that share a given prefix. This allows kNN and range 
+ * queries to prune nodes that cannot contain any matching keys.
+ * 
+ * @author ztilmann
+ */
+public interface PhDistanceNode extends PhDistance {
+
+	/**
+	 * Returns the minimum distance between {@code center} and any key that starts with
+	 * {@code prefix}. The result must never be larger than the distance to any such key.
+	 * This method should not allocate any objects.
+	 * 
+	 * @param center the center
+	 * @param prefix the prefix, the trailing {@code bitsToIgnore} bits are ignored
+	 * @param bitsToIgnore the number of trailing bits that are not part of the prefix
+	 * @return The minimum distance.
+	 */
+	double distToNode(long[] center, long[] prefix, int bitsToIgnore);
+}
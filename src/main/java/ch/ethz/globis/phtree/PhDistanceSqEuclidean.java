@@ -0,0 +1,82 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Squared euclidean distance. This avoids the square root of {@link PhDistanceL} and
+ * {@link PhDistanceF}, but it is not a metric. Query distances need to be squared as well. 
+ * Use {@link #L} for integer keys and {@link #F} for encoded {@code double} keys.
+ * 
+ * @author ztilmann
+ */
+public class PhDistanceSqEuclidean implements PhDistanceNode {
+
+	/** Squared euclidean distance for integer keys. */
+	public static final PhDistanceSqEuclidean L = new PhDistanceSqEuclidean(false);
+	/** Squared euclidean distance for encoded {@code double} keys. */
+	public static final PhDistanceSqEuclidean F = new PhDistanceSqEuclidean(true);
+	
+	private final boolean isDouble;
+	
+	private PhDistanceSqEuclidean(boolean isDouble) {
+		this.isDouble = isDouble;
+	}
+	
+	@Override
+	public double dist(long[] v1, long[] v2) {
+		double d = 0;
+		for (int i = 0; i < v1.length; i++) {
+			double dl = PhDistanceKeys.toDouble(v1[i], isDouble) - 
+					PhDistanceKeys.toDouble(v2[i], isDouble);
+			d += dl*dl;
+		}
+		return d;
+	}
+
+	/**
+	 * The MBB is exact in the sense that every face of the MBB touches the sphere.
+	 */
+	@Override
+	public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+		double r = Math.sqrt(distance);
+		for (int i = 0; i < center.length; i++) {
+			outMin[i] = PhDistanceKeys.toMin(center[i], r, isDouble);
+			outMax[i] = PhDistanceKeys.toMax(center[i], r, isDouble);
+		}
+	}
+
+	@Override
+	public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+		long maskMin = (-1L) << bitsToIgnore;
+		long maskMax = ~maskMin;
+		double d = 0;
+		for (int i = 0; i < center.length; i++) {
+			long min = prefix[i] & maskMin;
+			long max = prefix[i] | maskMax;
+			double dl = PhDistanceKeys.distToRange(center[i], min, max, isDouble);
+			d += dl*dl;
+		}
+		return d;
+	}
+}
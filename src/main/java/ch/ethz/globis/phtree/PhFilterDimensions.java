@@ -0,0 +1,173 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Dimension filter for subspace queries. Only the selected dimensions are considered 
+ * by queries, all other dimensions are treated as wildcards.
+ * <p>
+ * For kNN queries, the filter can be passed as 'dims' parameter to
+ * {@link PhTree#nearestNeighbour(int, PhDistance, PhFilter, long...)}.
+ * The same applies to {@link PhTree#reverseNearestNeighbour(int, PhDistance, PhFilter, long...)}.
+ * For range queries, {@link #project(PhDistance)} returns a distance function that 
+ * considers only the selected dimensions. 
+ * <p>
+ * Window queries, such as {@link PhTree#query(long[], long[])}, do not accept the filter.
+ * Instead, {@link #widen(long[], long[])} removes the constraints of the unselected 
+ * dimensions from the query rectangle before the query is executed. 
+ * 
+ * @author Tilmann Zäschke
+ *
+ */
+public class PhFilterDimensions implements PhFilter {
+
+	/** */
+	private static final long serialVersionUID = 1L;
+
+	private final boolean[] selected;
+
+	/**
+	 * @param dims the number of dimensions of the tree
+	 * @param selectedDims the dimensions to be considered by queries
+	 */
+	public PhFilterDimensions(int dims, int ... selectedDims) {
+		this.selected = new boolean[dims];
+		for (int d: selectedDims) {
+			selected[d] = true;
+		}
+	}
+
+	/**
+	 * @param dim a dimension
+	 * @return true if the dimension is considered by queries.
+	 */
+	public boolean isSelected(int dim) {
+		return selected[dim];
+	}
+
+	/**
+	 * The filter does not reject any keys, it only defines which dimensions are considered.
+	 */
+	@Override
+	public boolean isValid(long[] key) {
+		return true;
+	}
+
+	@Override
+	public boolean isValid(int bitsToIgnore, long[] prefix) {
+		return true;
+	}
+
+	/**
+	 * Turn all unselected dimensions of a query rectangle into wildcards.
+	 * @param min the minimum values, will be modified
+	 * @param max the maximum values, will be modified
+	 */
+	public void widen(long[] min, long[] max) {
+		for (int i = 0; i < selected.length; i++) {
+			if (!selected[i]) {
+				min[i] = Long.MIN_VALUE;
+				max[i] = Long.MAX_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Create a distance function that ignores the unselected dimensions. 
+	 * @param dist the distance function for the full space
+	 * @return A distance function for the subspace of selected dimensions.
+	 */
+	public PhDistance project(PhDistance dist) {
+		return new ProjectedDistance(dist, selected);
+	}
+
+	/**
+	 * The projected distance function copies the unselected dimensions of the first argument 
+	 * into the second argument. The unselected dimensions thus do not contribute to the 
+	 * distance. This works for all distance functions that return 0 for identical 
+	 * coordinates, such as the Minkowski distances.
+	 * <p>
+	 * The projected key is written to a buffer of the calling thread, so instances can 
+	 * be shared between threads without allocating a new array on every call.
+	 */
+	private static class ProjectedDistance implements PhDistanceNode {
+
+		private final PhDistance dist;
+		private final boolean[] selected;
+		private final ThreadLocal<long[]> buffer = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[selected.length];
+			}
+		};
+
+		ProjectedDistance(PhDistance dist, boolean[] selected) {
+			this.dist = dist;
+			this.selected = selected;
+		}
+
+		@Override
+		public double dist(long[] v1, long[] v2) {
+			long[] v = buffer.get();
+			for (int i = 0; i < v.length; i++) {
+				v[i] = selected[i] ? v2[i] : v1[i];
+			}
+			return dist.dist(v1, v);
+		}
+
+		@Override
+		public double distToNode(long[] center, long[] prefix, int bitsToIgnore) {
+			long[] v = buffer.get();
+			if (dist instanceof PhDistanceNode) {
+				//the node contains the center in the unselected dimensions
+				for (int i = 0; i < v.length; i++) {
+					v[i] = selected[i] ? prefix[i] : center[i];
+				}
+				return ((PhDistanceNode) dist).distToNode(center, v, bitsToIgnore);
+			}
+			long maskMin = (-1L) << bitsToIgnore;
+			long maskMax = ~maskMin;
+			for (int i = 0; i < v.length; i++) {
+				//if the center is outside the node, use the closest edge,
+				//otherwise use the center itself (assume possible distance=0)
+				long min = prefix[i] & maskMin;
+				long max = prefix[i] | maskMax;
+				v[i] = !selected[i] ? center[i] : 
+					(min > center[i] ? min : (max < center[i] ? max : center[i])); 
+			}
+			return dist.dist(center, v);
+		}
+
+		@Override
+		public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+			dist.toMBB(distance, center, outMin, outMax);
+			for (int i = 0; i < selected.length; i++) {
+				if (!selected[i]) {
+					outMin[i] = Long.MIN_VALUE;
+					outMax[i] = Long.MAX_VALUE;
+				}
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 /**
  * Check distance to a point using a distance function.
+ * Instances are not thread-safe.
  * 
  * @author Tilmann Zäschke
  *
@@ -38,6 +39,8 @@ public class PhFilterDistance implements PhFilter {
   private long[] v;
   private PhDistance dist;
   private double maxDist;
+  /** Buffer for prefix checks, avoids allocation during traversal. */
+  private transient long[] buf;
 
 	/**
 	 * Set the parameters for this distance filter.
@@ -62,9 +65,16 @@ public class PhFilterDistance implements PhFilter {
 
   @Override
   public boolean isValid(int bitsToIgnore, long[] prefix) {
+    if (dist instanceof PhDistanceNode) {
+      return ((PhDistanceNode) dist).distToNode(v, prefix, bitsToIgnore) <= maxDist;
+    }
     long maskMin = (-1L) << bitsToIgnore;
     long maskMax = ~maskMin;
-    long[] buf = new long[prefix.length];
+    long[] buf = this.buf;
+    if (buf == null || buf.length != prefix.length) {
+      buf = new long[prefix.length];
+      this.buf = buf;
+    }
     for (int i = 0; i < buf.length; i++) {
       //if v is outside the node, return distance to closest edge,
       //otherwise return v itself (assume possible distance=0)
@@ -79,4 +89,12 @@ public class PhFilterDistance implements PhFilter {
 		return dist;
 	}
 
+	public long[] getCenter() {
+		return v;
+	}
+
+	public double getMaxDist() {
+		return maxDist;
+	}
+
 }
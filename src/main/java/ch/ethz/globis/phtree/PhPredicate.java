@@ -0,0 +1,45 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+/**
+ * Condition for removing entries, see {@link PhTree#removeIf(long[], long[], PhPredicate)}.
+ * <p>
+ * The key that is passed to {@link #test(long[], Object)} is an internal buffer. 
+ * It is only valid during the call and must not be modified.
+ *
+ * @author ztilmann
+ *
+ * @param <T> The value type of the tree 
+ */
+public interface PhPredicate<T> {
+
+	/**
+	 * @param key the key, this is only valid during the call and must not be modified
+	 * @param value the value
+	 * @return 'true' if the entry should be removed
+	 */
+	boolean test(long[] key, T value);
+}
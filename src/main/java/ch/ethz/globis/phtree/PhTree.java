@@ -1,7 +1,15 @@
 package ch.ethz.globis.phtree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 
+import ch.ethz.globis.phtree.util.PhBiFunction;
+import ch.ethz.globis.phtree.util.PhFunction;
 import ch.ethz.globis.phtree.util.PhIteratorBase;
 import ch.ethz.globis.phtree.util.PhMapper;
 import ch.ethz.globis.phtree.util.PhTreeStats;
@@ -176,6 +184,352 @@ public abstract class PhTree<T> {
   public abstract <R> List<R> queryAll(long[] min, long[] max, int maxResults, 
       PhFilter filter, PhMapper<T, R> mapper);
 
+  /**
+   * Same as {@link #query(long[], long[])}, except that the entries are passed to
+   * a visitor instead of being returned by an iterator. The visitor can terminate
+   * the query early, see {@link PhVisitor.Action}.
+   * <p>
+   * This implementation uses the query iterator and treats
+   * {@link PhVisitor.Action#SKIP_SUBTREE} like {@link PhVisitor.Action#CONTINUE},
+   * subclasses may provide a more efficient implementation.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @param visitor the visitor
+   * @return 'false' if the visitor terminated the query with
+   * {@link PhVisitor.Action#STOP}, otherwise 'true'.
+   */
+  public boolean query(long[] min, long[] max, PhVisitor<T> visitor) {
+    PhQuery<T> q = query(min, max);
+    while (q.hasNext()) {
+      PhEntry<T> e = q.nextEntryReuse();
+      T v = e.getValue();
+      if (visitor.visit(e.getKey(), v == PhTreeHelper.NULL ? null : v) == PhVisitor.Action.STOP) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether a query window is empty.
+   * <p>
+   * This implementation uses the query iterator, subclasses may provide
+   * a more efficient implementation.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @return 'true' if the window contains no entries
+   */
+  public boolean isEmpty(long[] min, long[] max) {
+    return !query(min, max).hasNext();
+  }
+
+  /**
+   * Count the entries in a query window, but stop counting when 'limit' is reached.
+   * <p>
+   * This implementation uses the query iterator, subclasses may provide
+   * a more efficient implementation.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @param limit maximum number of entries to count
+   * @return The number of entries in the window or 'limit', whichever is smaller.
+   */
+  public int countUpTo(long[] min, long[] max, int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative: " + limit);
+    }
+    int n = 0;
+    PhQuery<T> q = query(min, max);
+    while (n < limit && q.hasNext()) {
+      q.nextEntryReuse();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Draw {@code k} entries uniformly at random from a query window.
+   * The entries are drawn independently, so the result may contain an entry more than once.
+   * <p>
+   * This implementation collects all entries in the window, subclasses may provide
+   * a more efficient implementation.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @param k number of samples
+   * @param random the random number generator
+   * @return List of k samples, or an empty list if the window contains no entries
+   */
+  public List<PhEntry<T>> sample(long[] min, long[] max, int k, Random random) {
+    if (k < 0) {
+      throw new IllegalArgumentException("k must not be negative: " + k);
+    }
+    List<PhEntry<T>> all = queryAll(min, max);
+    List<PhEntry<T>> ret = new ArrayList<>(all.isEmpty() ? 0 : k);
+    for (int i = 0; i < k && !all.isEmpty(); i++) {
+      ret.add(all.get(random.nextInt(all.size())));
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the entries of a query window in uniformly random order, i.e. every 
+   * prefix of the returned iteration is a sample without replacement. 
+   * <p>
+   * This implementation collects all entries in the window, subclasses may provide
+   * a more efficient implementation.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @param random the random number generator
+   * @return Iterator over the entries in random order
+   */
+  public Iterator<PhEntry<T>> sampleWithoutReplacement(long[] min, long[] max, 
+      final Random random) {
+    final List<PhEntry<T>> all = new ArrayList<>();
+    for (PhEntry<T> e: queryAll(min, max)) {
+      all.add(e);
+    }
+    return new Iterator<PhEntry<T>>() {
+      private int n = 0;
+
+      @Override
+      public boolean hasNext() {
+        return n < all.size();
+      }
+
+      @Override
+      public PhEntry<T> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        //Fisher-Yates shuffle, one step at a time
+        Collections.swap(all, n, n + random.nextInt(all.size() - n));
+        return all.get(n++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Remove all entries in a query window.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @return the number of removed entries
+   */
+  public int removeAll(long[] min, long[] max) {
+    return removeIf(min, max, null);
+  }
+
+  /**
+   * Remove all entries in a query window that match a predicate.
+   * <p>
+   * This implementation collects the matching keys with the query iterator and removes 
+   * them one by one, subclasses may provide a more efficient implementation.
+   * @param min the minimum values
+   * @param max the maximum values
+   * @param predicate the condition for removing an entry, {@code null} removes all entries 
+   * in the window
+   * @return the number of removed entries
+   */
+  public int removeIf(long[] min, long[] max, PhPredicate<T> predicate) {
+    List<long[]> keys = new ArrayList<>();
+    PhQuery<T> q = query(min, max);
+    while (q.hasNext()) {
+      PhEntry<T> e = q.nextEntryReuse();
+      T v = e.getValue();
+      if (predicate == null || 
+          predicate.test(e.getKey(), v == PhTreeHelper.NULL ? null : v)) {
+        keys.add(e.getKey().clone());
+      }
+    }
+    for (long[] key: keys) {
+      remove(key);
+    }
+    return keys.size();
+  }
+
+  /**
+   * Calculates a new value for a key from its current value, or {@code null} if the key
+   * does not exist. If the new value is {@code null}, the entry is removed (or not inserted), 
+   * otherwise it is inserted or replaced.
+   * <p>
+   * This implementation uses separate calls to {@link #contains(long...)}, 
+   * {@link #get(long...)} and {@link #put(long[], Object)} or {@link #remove(long...)}, 
+   * subclasses may provide a more efficient implementation.
+   * @param key the key
+   * @param function the function that calculates the new value
+   * @return the new value
+   */
+  public T compute(long[] key, PhBiFunction<long[], ? super T, ? extends T> function) {
+    T oldValue = get(key);
+    T newValue = function.apply(key, oldValue);
+    if (newValue != null) {
+      put(key, newValue);
+    } else if (oldValue != null || contains(key)) {
+      remove(key);
+    }
+    return newValue;
+  }
+
+  /**
+   * If the key does not exist or has a {@code null} value, a value is calculated for it and 
+   * inserted, unless the calculated value is {@code null}.
+   * <p>
+   * This implementation uses separate calls to {@link #get(long...)} and 
+   * {@link #put(long[], Object)}, subclasses may provide a more efficient implementation.
+   * @param key the key
+   * @param function the function that calculates the value
+   * @return the current (existing or calculated) value
+   */
+  public T computeIfAbsent(long[] key, PhFunction<long[], ? extends T> function) {
+    T value = get(key);
+    if (value == null) {
+      value = function.apply(key);
+      if (value != null) {
+        put(key, value);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * If the key exists and has a value that is not {@code null}, a new value is calculated 
+   * from the current value. If the new value is {@code null}, the entry is removed, 
+   * otherwise its value is replaced.
+   * <p>
+   * This implementation uses separate calls to {@link #get(long...)} and 
+   * {@link #put(long[], Object)} or {@link #remove(long...)}, subclasses may provide a 
+   * more efficient implementation.
+   * @param key the key
+   * @param function the function that calculates the new value
+   * @return the new value
+   */
+  public T computeIfPresent(long[] key, PhBiFunction<long[], ? super T, ? extends T> function) {
+    T oldValue = get(key);
+    if (oldValue == null) {
+      return null;
+    }
+    T newValue = function.apply(key, oldValue);
+    if (newValue != null) {
+      put(key, newValue);
+    } else {
+      remove(key);
+    }
+    return newValue;
+  }
+
+  /**
+   * If the key does not exist or has a {@code null} value, 'value' is inserted. Otherwise 
+   * the new value is calculated from the current value and 'value'. If the new value is 
+   * {@code null}, the entry is removed, otherwise its value is replaced.
+   * <p>
+   * This implementation uses separate calls to {@link #get(long...)} and 
+   * {@link #put(long[], Object)} or {@link #remove(long...)}, subclasses may provide a 
+   * more efficient implementation.
+   * @param key the key
+   * @param value the value, must not be {@code null}
+   * @param function the function that calculates the new value
+   * @return the new value
+   */
+  public T merge(long[] key, T value, PhBiFunction<? super T, ? super T, ? extends T> function) {
+    if (value == null) {
+      throw new IllegalArgumentException("value must not be null");
+    }
+    T oldValue = get(key);
+    T newValue = oldValue == null ? value : function.apply(oldValue, value);
+    if (newValue != null) {
+      put(key, newValue);
+    } else {
+      remove(key);
+    }
+    return newValue;
+  }
+
+  /**
+   * Inserts a value if the key does not exist or has a {@code null} value.
+   * <p>
+   * This implementation uses separate calls to {@link #get(long...)} and 
+   * {@link #put(long[], Object)}, subclasses may provide a more efficient implementation.
+   * @param key the key
+   * @param value the value
+   * @return the previous value, or {@code null} if the value was inserted
+   */
+  public T putIfAbsent(long[] key, T value) {
+    T oldValue = get(key);
+    if (oldValue == null) {
+      put(key, value);
+    }
+    return oldValue;
+  }
+
+  /**
+   * Reverse k nearest neighbour query: find all entries that have 'center' among their
+   * 'k' nearest neighbours. An entry is returned if fewer than 'k' other entries are 
+   * strictly closer to it than 'center'. An entry at 'center' itself is not returned.
+   * @param k number of neighbours
+   * @param center the query point
+   * @return the entries with their distance from 'center', in no particular order
+   */
+  public List<PhEntryDist<T>> reverseNearestNeighbour(int k, long... center) {
+    return reverseNearestNeighbour(k, null, null, center);
+  }
+
+  /**
+   * Reverse k nearest neighbour query, see {@link #reverseNearestNeighbour(int, long...)}.
+   * If the dimension filter is a {@link PhFilterDimensions}, only the selected dimensions
+   * are considered, see {@link PhFilterDimensions#project(PhDistance)}.
+   * <p>
+   * This implementation performs a kNN query for every entry in the tree, subclasses 
+   * may provide a more efficient implementation.
+   * @param k number of neighbours
+   * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+   * @param dimsFilter the dimension filter, can be {@code null}
+   * @param center the query point
+   * @return the entries with their distance from 'center', in no particular order
+   */
+  public List<PhEntryDist<T>> reverseNearestNeighbour(int k, PhDistance dist, 
+      PhFilter dimsFilter, long... center) {
+    if (k < 1) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    if (center.length != getDim()) {
+      throw new IllegalArgumentException("Invalid number of arguments: " + center.length + 
+          "  DIM=" + getDim());
+    }
+    if (dist == null) {
+      dist = PhDistanceL.THIS;
+    }
+    if (dimsFilter instanceof PhFilterDimensions) {
+      dist = ((PhFilterDimensions) dimsFilter).project(dist);
+    }
+    List<PhEntryDist<T>> ret = new ArrayList<>();
+    PhExtent<T> it = queryExtent();
+    while (it.hasNext()) {
+      PhEntry<T> e = it.nextEntry();
+      long[] key = e.getKey();
+      if (Arrays.equals(key, center)) {
+        continue;
+      }
+      double d = dist.dist(center, key);
+      //'key' itself is one of its k+1 nearest neighbours
+      PhKnnQuery<T> knn = nearestNeighbour(k + 1, dist, null, key);
+      int nCloser = 0;
+      while (knn.hasNext() && nCloser < k) {
+        PhEntryDist<T> n = knn.nextEntryReuse();
+        if (n.dist() < d && !Arrays.equals(n.getKey(), key)) {
+          nCloser++;
+        }
+      }
+      if (nCloser < k) {
+        T v = e.getValue();
+        ret.add(new PhEntryDist<>(key, v == PhTreeHelper.NULL ? null : v, d));
+      }
+    }
+    return ret;
+  }
+
   /**
    * Create a new tree with the specified number of dimensions.
    * 
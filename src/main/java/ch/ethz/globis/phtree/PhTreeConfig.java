@@ -29,6 +29,9 @@ public class PhTreeConfig {
 	private int dimActual;
 	private boolean[] unique; 
 	private PersistenceProvider persProvider = PersistenceProvider.NONE;
+	private boolean subtreeCounts = false;
+	private double ahcLhcBias = 2.0;
+	private int ntThreshold = 150;
 	
 	public PhTreeConfig(int dim) {
 		this.dimUser = dim;
@@ -77,6 +80,54 @@ public class PhTreeConfig {
 		return ret;
 	}
 
+	/**
+	 * Maintain the number of entries in the subtree of every node. This allows
+	 * counting the entries in a window without visiting every entry, 
+	 * see {@code PhTree12.count(long[], long[])}. 
+	 * The counts slightly slow down put() and remove(). They cannot be combined
+	 * with a {@link PersistenceProvider} other than {@link PersistenceProvider#NONE}.
+	 * @param subtreeCounts whether subtree counts should be maintained 
+	 */
+	public void setSubtreeCounts(boolean subtreeCounts) {
+		this.subtreeCounts = subtreeCounts;
+	}
+	
+	public boolean isSubtreeCounts() {
+		return subtreeCounts;
+	}
+
+	/**
+	 * Nodes switch from LHC to AHC representation when space(LHC)*bias >= space(AHC).
+	 * Larger values trade space for speed. The default is 2.0.
+	 * @param ahcLhcBias the bias, must be positive
+	 */
+	public void setAhcLhcBias(double ahcLhcBias) {
+		if (!(ahcLhcBias > 0)) {
+			throw new IllegalArgumentException("ahcLhcBias=" + ahcLhcBias);
+		}
+		this.ahcLhcBias = ahcLhcBias;
+	}
+
+	public double getAhcLhcBias() {
+		return ahcLhcBias;
+	}
+
+	/**
+	 * Nodes with at least this number of entries switch to NT representation.
+	 * The default is 150.
+	 * @param ntThreshold the threshold, must be at least 2
+	 */
+	public void setNtThreshold(int ntThreshold) {
+		if (ntThreshold < 2) {
+			throw new IllegalArgumentException("ntThreshold=" + ntThreshold);
+		}
+		this.ntThreshold = ntThreshold;
+	}
+
+	public int getNtThreshold() {
+		return ntThreshold;
+	}
+
 	public void setPersistenceProvider(PersistenceProvider persProvider) {
 		this.persProvider = persProvider;
 	}
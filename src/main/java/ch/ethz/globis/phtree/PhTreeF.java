@@ -6,6 +6,8 @@ import ch.ethz.globis.phtree.PhTree.PhExtent;
 import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
 import ch.ethz.globis.phtree.PhTree.PhQuery;
 import ch.ethz.globis.phtree.pre.PreProcessorPointF;
+import ch.ethz.globis.phtree.util.PhBiFunction;
+import ch.ethz.globis.phtree.util.PhFunction;
 import ch.ethz.globis.phtree.util.PhIteratorBase;
 import ch.ethz.globis.phtree.util.PhMapper;
 import ch.ethz.globis.phtree.util.PhMapperK;
@@ -33,8 +35,12 @@ public class PhTreeF<T> {
   }
 
   protected PhTreeF(PhTree<T> tree) {
+    this(tree, new PreProcessorPointF.IEEE());
+  }
+
+  protected PhTreeF(PhTree<T> tree, PreProcessorPointF pre) {
     this.pht = tree;
-    this.pre = new PreProcessorPointF.IEEE();
+    this.pre = pre;
   }
 
   /**
@@ -72,6 +78,19 @@ public class PhTreeF<T> {
     return new PhTreeF<>(tree);
   }
 
+  /**
+   * Create a new PhTreeF as a wrapper around an existing PhTree with
+   * a custom preprocessor.
+   * 
+   * @param tree another tree
+   * @param pre The preprocessor to be used
+   * @return PhTreeF
+   * @param <T> value type of the tree
+   */
+  public static <T> PhTreeF<T> wrap(PhTree<T> tree, PreProcessorPointF pre) {
+    return new PhTreeF<>(tree, pre);
+  }
+
   public int size() {
     return pht.size();
   }
@@ -112,6 +131,88 @@ public class PhTreeF<T> {
     return pht.remove(lKey);
   }
 
+  /**
+   * Calculates a new value for a key, see {@link PhTree#compute(long[], PhBiFunction)}.
+   * @param key the key
+   * @param function the function that calculates the new value
+   * @return the new value
+   */
+  public T compute(final double[] key, 
+      final PhBiFunction<double[], ? super T, ? extends T> function) {
+    long[] lKey = new long[key.length];
+    pre.pre(key, lKey);
+    return pht.compute(lKey, new PhBiFunction<long[], T, T>() {
+      @Override
+      public T apply(long[] k, T value) {
+        return function.apply(key, value);
+      }
+    });
+  }
+
+  /**
+   * Calculates a value for a key if it does not exist, 
+   * see {@link PhTree#computeIfAbsent(long[], PhFunction)}.
+   * @param key the key
+   * @param function the function that calculates the value
+   * @return the current (existing or calculated) value
+   */
+  public T computeIfAbsent(final double[] key, final PhFunction<double[], ? extends T> function) {
+    long[] lKey = new long[key.length];
+    pre.pre(key, lKey);
+    return pht.computeIfAbsent(lKey, new PhFunction<long[], T>() {
+      @Override
+      public T apply(long[] k) {
+        return function.apply(key);
+      }
+    });
+  }
+
+  /**
+   * Calculates a new value for a key if it exists, 
+   * see {@link PhTree#computeIfPresent(long[], PhBiFunction)}.
+   * @param key the key
+   * @param function the function that calculates the new value
+   * @return the new value
+   */
+  public T computeIfPresent(final double[] key, 
+      final PhBiFunction<double[], ? super T, ? extends T> function) {
+    long[] lKey = new long[key.length];
+    pre.pre(key, lKey);
+    return pht.computeIfPresent(lKey, new PhBiFunction<long[], T, T>() {
+      @Override
+      public T apply(long[] k, T value) {
+        return function.apply(key, value);
+      }
+    });
+  }
+
+  /**
+   * Inserts a value or merges it with the existing value, 
+   * see {@link PhTree#merge(long[], Object, PhBiFunction)}.
+   * @param key the key
+   * @param value the value, must not be {@code null}
+   * @param function the function that calculates the new value
+   * @return the new value
+   */
+  public T merge(double[] key, T value, 
+      PhBiFunction<? super T, ? super T, ? extends T> function) {
+    long[] lKey = new long[key.length];
+    pre.pre(key, lKey);
+    return pht.merge(lKey, value, function);
+  }
+
+  /**
+   * Inserts a value if the key does not exist, see {@link PhTree#putIfAbsent(long[], Object)}.
+   * @param key the key
+   * @param value the value
+   * @return the previous value, or {@code null} if the value was inserted
+   */
+  public T putIfAbsent(double[] key, T value) {
+    long[] lKey = new long[key.length];
+    pre.pre(key, lKey);
+    return pht.putIfAbsent(lKey, value);
+  }
+
   public PhExtentF<T> queryExtent() {
     return new PhExtentF<>(pht.queryExtent(), pht.getDim(), pre);
   }
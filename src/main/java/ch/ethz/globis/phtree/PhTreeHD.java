@@ -0,0 +1,382 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.util.PhBiFunction;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * PH-tree for keys with more dimensions than a single tree supports (hypercube 
+ * addresses are limited to 63 bits). 
+ * <p>
+ * The dimensions are split into up to {@link #MAX_INDEX_DIM} groups of consecutive 
+ * dimensions. Each group is represented by the sum of its coordinates (piecewise aggregate 
+ * approximation), and the resulting reduced keys are indexed in a {@link PhTree12}. 
+ * The full keys are stored with the values and used to filter the candidates 
+ * of the reduced tree:
+ * <ul>
+ * <li>Window queries: The sums of the query minima/maxima are a superset of the window
+ * in reduced space. </li>
+ * <li>kNN queries (euclidean): For a group with m dimensions, 
+ * {@code (sum(a)-sum(b))^2/m <= sum((a-b)^2)}, so the weighted euclidean distance in reduced 
+ * space is a lower bound of the full distance. Candidates are retrieved in 
+ * increasing reduced distance until that exceeds the k-th full distance.</li>
+ * </ul>
+ * Queries are exact. They are efficient if the group sums preserve the structure of the data,
+ * for example when neighbouring dimensions are correlated as in time series or 
+ * feature vectors.
+ * <p>
+ * This is a dimension reduction on top of an unchanged tree, it does not extend the nodes
+ * to hypercube addresses with more than 64 bits. The reduction determines the limits:
+ * <ul>
+ * <li>If the coordinates within a group are not correlated, the group sums of 
+ * different keys are similar and a query window in reduced space covers most entries.
+ * The kNN lower bound is then weak as well. Both queries degrade to an almost full scan 
+ * of the tree, which is slower than a linear scan over an array of keys.</li>
+ * <li>Window queries that restrict only a few dimensions of a group are not selective,
+ * because the unrestricted dimensions widen the bounds of the group sum.</li>
+ * <li>Only the euclidean distance is supported for kNN queries.</li>
+ * </ul>
+ * <p>
+ * Keys must be small enough that the sum of each group does not overflow, 
+ * i.e. {@code |key[i]| < 2^63 / groupSize}. 
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+public class PhTreeHD<T> {
+
+	/** Maximum number of dimensions of the internal tree. */
+	public static final int MAX_INDEX_DIM = 60;
+	
+	private static final class HdEntry<T> {
+		private final long[] key;
+		private T value;
+		private HdEntry<T> next;
+		
+		HdEntry(long[] key, T value, HdEntry<T> next) {
+			this.key = key;
+			this.value = value;
+			this.next = next;
+		}
+	}
+	
+	private final int dims;
+	private final int indexDims;
+	//group i covers the dimensions [groupStart[i], groupStart[i+1])
+	private final int[] groupStart;
+	private final PhTree12<HdEntry<T>> pht;
+	private final PhDistanceMinkowski indexDist;
+	private int size = 0;
+	
+	/**
+	 * Create a tree with {@code min(dims, MAX_INDEX_DIM)} dimension groups.
+	 * @param dims number of dimensions
+	 */
+	public PhTreeHD(int dims) {
+		this(dims, Math.min(dims, MAX_INDEX_DIM));
+	}
+
+	/**
+	 * @param dims number of dimensions
+	 * @param indexDims number of dimension groups, i.e. dimensions of the internal tree
+	 */
+	public PhTreeHD(int dims, int indexDims) {
+		if (indexDims < 1 || indexDims > MAX_INDEX_DIM || indexDims > dims) {
+			throw new IllegalArgumentException("Invalid number of index dimensions: " + 
+					indexDims + " for dims=" + dims);
+		}
+		this.dims = dims;
+		this.indexDims = indexDims;
+		this.groupStart = new int[indexDims + 1];
+		double[] weights = new double[indexDims];
+		for (int i = 0; i <= indexDims; i++) {
+			groupStart[i] = (int) ((long)dims * i / indexDims);
+			if (i > 0) {
+				weights[i-1] = 1.0 / (groupStart[i] - groupStart[i-1]);
+			}
+		}
+		this.pht = new PhTree12<>(indexDims);
+		this.indexDist = new PhDistanceMinkowski(2, weights, false);
+	}
+	
+	private long[] reduce(long[] key) {
+		if (key.length != dims) {
+			throw new IllegalArgumentException("Invalid number of dimensions: " + key.length +  
+					" vs " + dims);
+		}
+		long[] ret = new long[indexDims];
+		for (int g = 0; g < indexDims; g++) {
+			long sum = 0;
+			for (int i = groupStart[g]; i < groupStart[g+1]; i++) {
+				sum += key[i];
+			}
+			ret[g] = sum;
+		}
+		return ret;
+	}
+	
+	/**
+	 * Group sums for query boundaries. These saturate instead of overflowing, so that 
+	 * {@code Long.MIN_VALUE/MAX_VALUE} can be used as wildcards.
+	 */
+	private long[] reduceSaturated(long[] key) {
+		long[] ret = new long[indexDims];
+		for (int g = 0; g < indexDims; g++) {
+			long sum = 0;
+			for (int i = groupStart[g]; i < groupStart[g+1]; i++) {
+				long s = sum + key[i];
+				//overflow iff both operands have the same sign, but the result does not
+				if (((sum ^ s) & (key[i] ^ s)) < 0) {
+					s = sum < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+				}
+				sum = s;
+			}
+			ret[g] = sum;
+		}
+		return ret;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public int getDim() {
+		return dims;
+	}
+	
+	/**
+	 * @return the number of dimension groups, i.e. the dimensionality of the internal tree
+	 */
+	public int getIndexDim() {
+		return indexDims;
+	}
+
+	/**
+	 * Insert an entry associated with a k dimensional key.
+	 * @param key the key to store the value to store
+	 * @param value the value
+	 * @return the previously associated value or {@code null} if the key was found
+	 */
+	public T put(long[] key, T value) {
+		long[] rKey = reduce(key);
+		//The new entry becomes the head of the chain, the old chain is appended to it
+		//without the entry that it replaces. This requires only one descent.
+		HdEntry<T> newE = new HdEntry<>(key.clone(), value, null);
+		HdEntry<T> head = pht.put(rKey, newE);
+		HdEntry<T> prev = null;
+		for (HdEntry<T> e = head; e != null; e = e.next) {
+			if (Arrays.equals(key, e.key)) {
+				if (prev == null) {
+					newE.next = e.next;
+				} else {
+					prev.next = e.next;
+					newE.next = head;
+				}
+				return e.value;
+			}
+			prev = e;
+		}
+		newE.next = head;
+		size++;
+		return null;
+	}
+	
+	public boolean contains(long... key) {
+		return find(key, pht.get(reduce(key))) != null;
+	}
+
+	public T get(long... key) {
+		HdEntry<T> e = find(key, pht.get(reduce(key)));
+		return e == null ? null : e.value;
+	}
+
+	private HdEntry<T> find(long[] key, HdEntry<T> head) {
+		for (HdEntry<T> e = head; e != null; e = e.next) {
+			if (Arrays.equals(key, e.key)) {
+				return e;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Remove the entry associated with a k dimensional key.
+	 * @param key the key to remove
+	 * @return the associated value or {@code null} if the key was found
+	 */
+	public T remove(long... key) {
+		Remover<T> remover = new Remover<>(key);
+		pht.computeIfPresent(reduce(key), remover);
+		if (remover.removed == null) {
+			return null;
+		}
+		size--;
+		return remover.removed.value;
+	}
+
+	/**
+	 * Unlinks an entry from the chain of a reduced key. The chain is updated (or removed
+	 * if it becomes empty) in the same descent that finds it.
+	 */
+	private static final class Remover<T> 
+			implements PhBiFunction<long[], HdEntry<T>, HdEntry<T>> {
+		private final long[] key;
+		private HdEntry<T> removed;
+		
+		Remover(long[] key) {
+			this.key = key;
+		}
+
+		@Override
+		public HdEntry<T> apply(long[] rKey, HdEntry<T> head) {
+			HdEntry<T> prev = null;
+			for (HdEntry<T> e = head; e != null; e = e.next) {
+				if (Arrays.equals(key, e.key)) {
+					removed = e;
+					if (prev == null) {
+						return e.next;
+					}
+					prev.next = e.next;
+					return head;
+				}
+				prev = e;
+			}
+			return head;
+		}
+	}
+
+	/**
+	 * Remove all entries from the tree.
+	 */
+	public void clear() {
+		pht.clear();
+		size = 0;
+	}
+	
+	/**
+	 * @return All entries of the tree.
+	 */
+	public List<PhEntry<T>> queryExtent() {
+		List<PhEntry<T>> ret = new ArrayList<>();
+		PhExtent<HdEntry<T>> it = pht.queryExtent();
+		while (it.hasNext()) {
+			for (HdEntry<T> e = it.nextValue(); e != null; e = e.next) {
+				ret.add(new PhEntry<>(e.key.clone(), e.value));
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Performs a rectangular window query. The parameters are the min and max keys which 
+	 * contain the minimum respectively the maximum keys in every dimension.
+	 * @param min Minimum values
+	 * @param max Maximum values
+	 * @return List of query results
+	 */
+	public List<PhEntry<T>> queryAll(long[] min, long[] max) {
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + "  DIM=" + dims);
+		}
+		List<PhEntry<T>> ret = new ArrayList<>();
+		PhQuery<HdEntry<T>> it = pht.query(reduceSaturated(min), reduceSaturated(max));
+		while (it.hasNext()) {
+			for (HdEntry<T> e = it.nextValue(); e != null; e = e.next) {
+				if (isInRange(e.key, min, max)) {
+					ret.add(new PhEntry<>(e.key.clone(), e.value));
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static boolean isInRange(long[] key, long[] min, long[] max) {
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] < min[i] || key[i] > max[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Locate nearest neighbours for a given point in space, using the euclidean distance 
+	 * ({@link PhDistanceL}).
+	 * @param nMin number of entries to be returned. More entries may be returned 
+	 * if several have the same distance.
+	 * @param center the center point
+	 * @return List of neighbours, sorted by distance.
+	 */
+	public List<PhEntryDist<T>> nearestNeighbour(int nMin, long... center) {
+		long[] rCenter = reduce(center);
+		List<PhEntryDist<T>> candidates = new ArrayList<>();
+		int nIndex = nMin;
+		while (true) {
+			candidates.clear();
+			PhKnnQuery<HdEntry<T>> q = pht.nearestNeighbour(nIndex, indexDist, null, rCenter);
+			int nFound = 0;
+			double maxIndexDist = 0;
+			while (q.hasNext()) {
+				PhEntryDist<HdEntry<T>> ie = q.nextEntryReuse();
+				maxIndexDist = Math.max(maxIndexDist, ie.dist());
+				nFound++;
+				for (HdEntry<T> e = ie.getValue(); e != null; e = e.next) {
+					double d = PhDistanceL.THIS.dist(center, e.key);
+					candidates.add(new PhEntryDist<>(e.key.clone(), e.value, d));
+				}
+			}
+			Collections.sort(candidates, PhEntryDist.COMP);
+			//Done if all entries were returned or if the remaining entries are further away. 
+			if (nFound < nIndex || (candidates.size() >= nMin && 
+					candidates.get(nMin-1).dist() <= maxIndexDist)) {
+				break;
+			}
+			nIndex *= 4;
+		}
+		
+		//return all entries with the same distance as the nMin-th entry
+		int n = Math.min(nMin, candidates.size());
+		while (n > 0 && n < candidates.size() && 
+				candidates.get(n).dist() == candidates.get(n-1).dist()) {
+			n++;
+		}
+		return new ArrayList<>(candidates.subList(0, n));
+	}
+	
+	@Override
+	public String toString() {
+		return "PhTreeHD: dims=" + dims + " indexDims=" + indexDims + " size=" + size;
+	}
+}
@@ -152,7 +152,48 @@ public abstract class PhTreeHelper {
         x &= mask;
         return Long.SIZE - Long.numberOfLeadingZeros(x);
     }
-    
+
+    /**
+     * Compares two keys in z-order, this is the order in which the PH-tree iterates over
+     * entries. The highest differing bit decides, bits are compared unsigned. If several
+     * dimensions differ in that bit, then the first of these dimensions decides.
+     * @param v1 one vector
+     * @param v2 another vector
+     * @param mask Mask that indicates which bits to compare.
+     * @return negative if 'v1' comes before 'v2', positive if it comes after 'v2' and
+     * 0 if the keys are equal for all bits in 'mask'.
+     */
+    public static final int compareZ(long[] v1, long[] v2, long mask) {
+        return compareZ(v1, 0, v2, mask);
+    }
+
+    /**
+     * Compares two keys in z-order, see {@link #compareZ(long[], long[], long)}.
+     * The first key is stored at an offset in a larger array.
+     * @param v1 an array that contains one vector at offset 'offs1'
+     * @param offs1 the offset of the vector in 'v1'
+     * @param v2 another vector, its length is the number of dimensions
+     * @param mask Mask that indicates which bits to compare.
+     * @return negative if 'v1' comes before 'v2', positive if it comes after 'v2' and
+     * 0 if the keys are equal for all bits in 'mask'.
+     */
+    public static final int compareZ(long[] v1, int offs1, long[] v2, long mask) {
+        int minLz = Long.SIZE;
+        int dim = -1;
+        for (int i = 0; i < v2.length; i++) {
+            int lz = Long.numberOfLeadingZeros((v1[offs1 + i] ^ v2[i]) & mask);
+            if (lz < minLz) {
+                minLz = lz;
+                dim = i;
+            }
+        }
+        if (dim < 0) {
+            return 0;
+        }
+        long bit = 1L << (Long.SIZE - 1 - minLz);
+        return (v1[offs1 + dim] & bit) == 0 ? -1 : 1;
+    }
+
 
     
     /**
@@ -0,0 +1,61 @@
+package ch.ethz.globis.phtree;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+/**
+ * Callback for window queries, see {@link PhTree#query(long[], long[], PhVisitor)}.
+ * <p>
+ * The key that is passed to {@link #visit(long[], Object)} is an internal buffer of the 
+ * query. It is only valid during the call and must not be modified.
+ *
+ * @author ztilmann
+ *
+ * @param <T> The value type of the tree 
+ */
+public interface PhVisitor<T> {
+
+	/**
+	 * Return values of {@link PhVisitor#visit(long[], Object)}.
+	 */
+	public static enum Action {
+		/** Continue with the next entry. */
+		CONTINUE,
+		/** 
+		 * Skip all remaining entries in the node that contains the current entry, 
+		 * including entries in sub-nodes of that node, and continue in the parent node. 
+		 */
+		SKIP_SUBTREE,
+		/** Terminate the query. */
+		STOP
+	}
+
+	/**
+	 * Called for every entry in the query window.
+	 * @param key the key, this is only valid during the call and must not be modified
+	 * @param value the value
+	 * @return How the query should proceed.
+	 */
+	Action visit(long[] key, T value);
+}
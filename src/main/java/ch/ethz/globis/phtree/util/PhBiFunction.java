@@ -0,0 +1,46 @@
+package ch.ethz.globis.phtree.util;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+/**
+ * A function with two arguments, see {@link ch.ethz.globis.phtree.PhTree#compute} and
+ * {@link ch.ethz.globis.phtree.PhTree#merge}.
+ * This corresponds to {@code java.util.function.BiFunction} in Java 8.
+ *
+ * @author ztilmann
+ *
+ * @param <A> the type of the first argument
+ * @param <B> the type of the second argument
+ * @param <R> the result type
+ */
+public interface PhBiFunction<A, B, R> {
+
+	/**
+	 * @param a the first argument
+	 * @param b the second argument
+	 * @return the result
+	 */
+	R apply(A a, B b);
+}
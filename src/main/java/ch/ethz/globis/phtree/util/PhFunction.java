@@ -0,0 +1,43 @@
+package ch.ethz.globis.phtree.util;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+/**
+ * A function with one argument, see {@link ch.ethz.globis.phtree.PhTree#computeIfAbsent}.
+ * This corresponds to {@code java.util.function.Function} in Java 8.
+ *
+ * @author ztilmann
+ *
+ * @param <A> the argument type
+ * @param <R> the result type
+ */
+public interface PhFunction<A, R> {
+
+	/**
+	 * @param a the argument
+	 * @return the result
+	 */
+	R apply(A a);
+}
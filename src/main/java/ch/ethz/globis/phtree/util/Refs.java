@@ -180,6 +180,24 @@ public class Refs {
     return a.length >= requiredSize;
   }
 
+  /**
+   * Shrinks an array to the size that is required for 'requiredSize' entries. 
+   * If the array is shrunk, the old array is given to the pool.
+   * @param oldA old array
+   * @param requiredSize required size
+   * @return the old array or a smaller copy
+   * @param <T> array type
+   */
+  public static <T> T[] arrayShrink(T[] oldA, int requiredSize) {
+    if (oldA.length <= calcArraySize(requiredSize)) {
+      return oldA;
+    }
+    T[] newA = arrayCreate(requiredSize);
+    System.arraycopy(oldA, 0, newA, 0, newA.length);
+    POOL.offer(oldA);
+    return newA;
+  }
+
   @Deprecated
   @SuppressWarnings("unchecked")
   public static <T> T[] arrayTrim(T[] oldA, int requiredSize) {
@@ -137,6 +137,24 @@ public class RefsByte {
     return newA;
   }
 
+  /**
+   * Shrinks an array to the size that is required for 'requiredSize' entries. 
+   * If the array is shrunk, the old array is given to the pool.
+   * @param oldA old array
+   * @param requiredSize required size
+   * @return the old array or a smaller copy
+   */
+  public static byte[] arrayTrim(byte[] oldA, int requiredSize) {
+    int reqSize = calcArraySize(requiredSize);
+    if (oldA.length <= reqSize) {
+      return oldA;
+    }
+    byte[] newA = POOL.getArray(reqSize);
+    arraycopy(oldA, 0, newA, 0, reqSize);
+    POOL.offer(oldA);
+    return newA;
+  }
+
   /**
    * Inserts an empty field at position 'pos'. If the required size is larger than the current
    * size, the array is copied to a new array. The new array is returned and the old array is
@@ -300,10 +300,14 @@ public class NodeIteratorListReuse<T, R> {
           if (node.checkAndApplyInfixNt(sub.getInfixLen(), resultBuffer.getKey(), 
               valTemplate, rangeMin, rangeMax)) {
             checkAndRunSubnode(sub, resultBuffer);
+          } else {
+            results.phReturnTemp(resultBuffer);
           }
         } else if (v != null) { 
           //read and check post-fix
           readValue(currentPos, v, resultBuffer);
+        } else {
+          results.phReturnTemp(resultBuffer);
         }
 
         currentPos = PhTree11.inc(currentPos, maskLower, maskUpper);
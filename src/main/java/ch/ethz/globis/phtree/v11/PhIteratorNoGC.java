@@ -25,6 +25,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 import java.util.NoSuchElementException;
 
+import ch.ethz.globis.phtree.PhCursor;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
 import ch.ethz.globis.phtree.PhTree.PhQuery;
@@ -115,6 +116,19 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 		findNextElement();
 	}
 
+	/**
+	 * Reset the query with the window of the cursor and continue after the key of the
+	 * cursor. This version of the tree skips all entries up to the cursor position.
+	 * @param cursor the cursor
+	 * @see PhCursor
+	 */
+	public void resume(PhCursor cursor) {
+		reset(cursor.getMin(), cursor.getMax());
+		while (!isFinished && !cursor.isAfter(resultToReturn.getKey())) {
+			findNextElement();
+		}
+	}
+
 	private void findNextElement() {
 		PhEntry<T> result = resultFree; 
 		while (!stack.isEmpty()) {
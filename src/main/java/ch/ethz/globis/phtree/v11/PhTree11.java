@@ -408,12 +408,12 @@ public class PhTree11<T> extends PhTree<T> {
 	 * @return Result iterator.
 	 */
 	@Override
-	public PhQuery<T> query(long[] min, long[] max) {
+	public PhIteratorNoGC<T> query(long[] min, long[] max) {
 		if (min.length != dims || max.length != dims) {
 			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
 					" / " + max.length + "  DIM=" + dims);
 		}
-		PhQuery<T> q = new PhIteratorNoGC<>(this, null);
+		PhIteratorNoGC<T> q = new PhIteratorNoGC<>(this, null);
 		q.reset(min, max);
 		return q;
 	}
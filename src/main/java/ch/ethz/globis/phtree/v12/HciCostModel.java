@@ -0,0 +1,341 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+import ch.ethz.globis.phtree.v12.nt.NtIteratorMask;
+import ch.ethz.globis.phtree.v12.nt.NtNode;
+
+/**
+ * Cost model for the traversal of a single node during a window query. 
+ * It chooses between three strategies:
+ * <ul>
+ * <li>SCAN: check every entry (LHC/NT) or every slot (AHC) between the lower and upper
+ * HC-position of the query.</li>
+ * <li>BSEARCH: LHC only, find the first entry with binary search and scan from there.</li>
+ * <li>HCI: enumerate all HC-positions that match the query with the HC-incrementer
+ * and look up each of them.</li>
+ * </ul>
+ * The costs per primitive operation are measured with {@link #calibrate()}, only their 
+ * ratios matter. The system property {@code phtree.hci.model} selects the model when the
+ * class is loaded: 'preset' (the default) uses costs that were calibrated on a 64 bit 
+ * HotSpot JVM, 'calibrate' measures the costs on the current machine (this takes a few 
+ * hundred ms) and 'fixed' uses the original fixed formulas.
+ * <p>
+ * The preset is the default because calibrated costs depend on the machine and on the 
+ * state of the JIT, so the traversal strategy and the performance of queries would 
+ * differ between runs. Calibration can also be requested later, after warm-up, with 
+ * {@link PhTree12#calibrateHciCostModel()}.
+ * 
+ * @author ztilmann
+ */
+final class HciCostModel {
+
+	static final int SCAN = 0;
+	static final int BSEARCH = 1;
+	static final int HCI = 2;
+
+	private static final HciCostModel PRESET = 
+			new HciCostModel(1.0, 1.05, 0.3, 0.3, 9.5, 15.0);
+	private static final HciCostModel FIXED = new HciCostModel(0, 0, 0, 0, 0, 0);
+	private static volatile HciCostModel current = init();
+
+	private static HciCostModel init() {
+		String model = System.getProperty("phtree.hci.model", "preset");
+		switch (model) {
+		case "calibrate": return calibrate();
+		case "fixed": return FIXED;
+		default: return PRESET;
+		}
+	}
+
+	//checking one LHC entry during a scan
+	private final double lhcScan;
+	//one step of a binary search in an LHC node
+	private final double lhcSearchStep;
+	//checking one AHC slot during a scan
+	private final double ahcScan;
+	//one HC increment
+	private final double hcInc;
+	//iterating over one entry of an NT node
+	private final double ntScan;
+	//looking up one HC-position in an NT node
+	private final double ntLookup;
+
+	HciCostModel(double lhcScan, double lhcSearchStep, double ahcScan, double hcInc, 
+			double ntScan, double ntLookup) {
+		this.lhcScan = lhcScan;
+		this.lhcSearchStep = lhcSearchStep;
+		this.ahcScan = ahcScan;
+		this.hcInc = hcInc;
+		this.ntScan = ntScan;
+		this.ntLookup = ntLookup;
+	}
+
+	static HciCostModel get() {
+		return current;
+	}
+
+	static void set(HciCostModel model) {
+		current = model;
+	}
+
+	/**
+	 * Choose the cheapest strategy for traversing a node.
+	 * @param isAHC whether the node is AHC
+	 * @param isNT whether the node is NT
+	 * @param nEntries number of entries in the node
+	 * @param dims number of dimensions
+	 * @param maskLower lower HC-position of the query
+	 * @param maskUpper upper HC-position of the query
+	 * @return SCAN, BSEARCH or HCI
+	 */
+	int choose(boolean isAHC, boolean isNT, int nEntries, int dims, 
+			long maskLower, long maskUpper) {
+		long maxHcAddr = ~((-1L)<<dims);
+		int nSetFilterBits = Long.bitCount(maskLower | ((~maskUpper) & maxHcAddr));
+		if (this == FIXED) {
+			return chooseFixed(isAHC, isNT, nEntries, dims, nSetFilterBits);
+		}
+		double nPossibleMatch = Math.scalb(1.0, dims - nSetFilterBits);
+		if (isNT) {
+			//The mask iterator skips sub-trees of the NT that do not match, so it visits
+			//the entries of the top NtNode plus the (expected) matching entries.
+			double nTop = Math.min(nEntries, 1 << NtNode.MAX_DIM);
+			double costScan = ntScan * (nTop + nEntries * nPossibleMatch / Math.scalb(1.0, dims));
+			double costHci = nPossibleMatch * (hcInc + ntLookup);
+			return costHci < costScan && dims < 50 ? HCI : SCAN;
+		}
+		//number of HC-positions between lower and upper limit
+		double nSlots = (double) maskUpper - maskLower + 1;
+		if (isAHC) {
+			double costScan = nSlots * ahcScan;
+			double costHci = nPossibleMatch * (hcInc + ahcScan);
+			return costHci < costScan ? HCI : SCAN;
+		}
+		//The scan stops at the upper limit. Binary search finds the lower limit and then
+		//scans to the upper limit. This assumes that the entries are evenly spread.
+		double logN = log2(nEntries);
+		double entriesPerSlot = nEntries / Math.scalb(1.0, dims);
+		double costScan = ((double) maskUpper + 1) * entriesPerSlot * lhcScan;
+		double costBSearch = logN * lhcSearchStep + nSlots * entriesPerSlot * lhcScan;
+		double costHci = nPossibleMatch * (hcInc + logN * lhcSearchStep);
+		if (costHci < costScan && costHci < costBSearch) {
+			return HCI;
+		}
+		return costBSearch < costScan ? BSEARCH : SCAN;
+	}
+
+	private static int chooseFixed(boolean isAHC, boolean isNT, int nEntries, int dims, 
+			int nSetFilterBits) {
+		if (dims <= 6 || nEntries <= 10) {
+			return SCAN;
+		}
+		long maxHcAddr = ~((-1L)<<dims);
+		//nPossibleMatch = (2^k-x)
+		long nPossibleMatch = 1L << (dims - nSetFilterBits);
+		boolean useHci;
+		if (isNT) {
+			int logNChild = Long.SIZE - Long.numberOfLeadingZeros(nEntries);
+			useHci = (nEntries > nPossibleMatch*(double)logNChild*2) && dims < 50;
+		} else if (isAHC) {
+			useHci = nPossibleMatch*2 <= maxHcAddr;
+		} else {
+			int logNPost = Long.SIZE - Long.numberOfLeadingZeros(nEntries) + 1+1;
+			useHci = (nEntries >= 2*nPossibleMatch*(double)logNPost); 
+		}
+		return useHci ? HCI : SCAN;
+	}
+
+	/**
+	 * Whether the next entry in an LHC node should be found with binary search instead of 
+	 * scanning. This is used when the lower limit of a query changes, for example in kNN
+	 * queries.
+	 * @param nEntries number of entries in the node
+	 * @param dims number of dimensions
+	 * @param from current HC-position
+	 * @param to HC-position to skip to
+	 * @return true if binary search is cheaper
+	 */
+	boolean useBinarySearch(int nEntries, int dims, long from, long to) {
+		if (this == FIXED) {
+			return from + PhTree12.LHC_BINARY_SEARCH_THRESHOLD < to;
+		}
+		double nSkipped = nEntries * ((double) to - from) / Math.scalb(1.0, dims);
+		return nSkipped * lhcScan > log2(nEntries) * lhcSearchStep;
+	}
+
+	private static double log2(int n) {
+		return Integer.SIZE - Integer.numberOfLeadingZeros(n);
+	}
+
+	@Override
+	public String toString() {
+		if (this == FIXED) {
+			return "fixed";
+		}
+		return String.format("lhcScan=%.2f lhcSearchStep=%.2f ahcScan=%.2f hcInc=%.2f " + 
+				"ntScan=%.2f ntLookup=%.2f", 
+				lhcScan, lhcSearchStep, ahcScan, hcInc, ntScan, ntLookup);
+	}
+
+	/**
+	 * Measure the costs of the primitive operations on synthetic nodes. 
+	 * Every measurement is repeated and the fastest run is used, this takes a few 
+	 * hundred ms. The result is not installed, see {@link #set(HciCostModel)}.
+	 * @return A new cost model. 
+	 */
+	static HciCostModel calibrate() {
+		Calibration c = new Calibration();
+		double[] t = new double[6];
+		Arrays.fill(t, Double.MAX_VALUE);
+		for (int r = 0; r < CALIBRATION_RUNS; r++) {
+			t[0] = Math.min(t[0], c.lhcScan());
+			t[1] = Math.min(t[1], c.lhcSearch() / log2(Calibration.N));
+			t[2] = Math.min(t[2], c.ahcScan());
+			t[3] = Math.min(t[3], c.hcInc());
+			t[4] = Math.min(t[4], c.ntScan());
+			t[5] = Math.min(t[5], c.ntLookup());
+		}
+		//normalize to lhcScan=1
+		double f = t[0];
+		return new HciCostModel(1.0, t[1]/f, t[2]/f, t[3]/f, t[4]/f, t[5]/f);
+	}
+
+	private static final int CALIBRATION_RUNS = 7;
+
+	/**
+	 * Synthetic nodes for the calibration. Each method returns the time per operation 
+	 * in nanoseconds.
+	 */
+	private static class Calibration {
+		private static final int DIMS = 10;
+		private static final int POST_LEN = 8;
+		private static final int N = 256;
+		private static final int N_OPS = 1 << 17;
+		//a mask that matches about half of the entries
+		private static final long LOWER = 0;
+		private static final long UPPER = 0x2AA;
+		private static final int ENTRY_WIDTH = DIMS + DIMS*POST_LEN;
+
+		private final long[] ba = new long[Bits.calcArraySize(N*ENTRY_WIDTH)];
+		private final long[] hcPos = new long[N];
+		private final byte[] subCodes = new byte[1 << DIMS];
+		private final Node nt = Node.createNode(DIMS, POST_LEN);
+		private final PersistenceProvider pp = PersistenceProvider.NONE;
+		private final NtIteratorMask<Object> iter = new NtIteratorMask<>(DIMS, pp);
+		private final NodeEntry<Object> e = 
+				new NodeEntry<>(new long[DIMS], Node.SUBCODE_EMPTY, null);
+		//prevents dead code elimination
+		long x = 0;
+
+		Calibration() {
+			Random R = new Random(0);
+			NodeConfig cfg = new NodeConfig(Node.AHC_LHC_BIAS, 2);
+			long[] key = new long[DIMS];
+			for (int i = 0; i < N; i++) {
+				hcPos[i] = i*4 + R.nextInt(4);
+				Bits.writeArray(ba, i*ENTRY_WIDTH, DIMS, hcPos[i]);
+				subCodes[(int) hcPos[i]] = 1;
+				for (int d = 0; d < DIMS; d++) {
+					key[d] = (((hcPos[i] >>> (DIMS-1-d)) & 1L) << POST_LEN) | 
+							R.nextInt(1 << POST_LEN);
+				}
+				nt.addPostPIN(hcPos[i], nt.getPosition(hcPos[i], DIMS), key.clone(), 
+						Boolean.TRUE, pp, cfg);
+			}
+		}
+
+		double lhcScan() {
+			long t0 = System.nanoTime();
+			for (int r = 0; r < N_OPS/N; r++) {
+				int offs = 0;
+				for (int i = 0; i < N; i++) {
+					long pos = Bits.readArray(ba, offs, DIMS);
+					if (((pos | LOWER) & UPPER) == pos) {
+						x++;
+					}
+					offs += ENTRY_WIDTH;
+				}
+			}
+			return (System.nanoTime() - t0) / (double) N_OPS;
+		}
+
+		double lhcSearch() {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N_OPS; i++) {
+				x += Bits.binarySearch(ba, 0, N, hcPos[i & (N-1)] + (i & 1), DIMS, 
+						DIMS*POST_LEN);
+			}
+			return (System.nanoTime() - t0) / (double) N_OPS;
+		}
+
+		double ahcScan() {
+			long t0 = System.nanoTime();
+			for (int r = 0; r < N_OPS/subCodes.length; r++) {
+				for (int i = 0; i < subCodes.length; i++) {
+					if (subCodes[i] != 0 && ((i | LOWER) & UPPER) == i) {
+						x++;
+					}
+				}
+			}
+			return (System.nanoTime() - t0) / (double) N_OPS;
+		}
+
+		double hcInc() {
+			long t0 = System.nanoTime();
+			long pos = LOWER;
+			for (int i = 0; i < N_OPS; i++) {
+				pos = PhTree12.inc(pos, LOWER, UPPER);
+				x += subCodes[(int) pos];
+			}
+			return (System.nanoTime() - t0) / (double) N_OPS;
+		}
+
+		double ntScan() {
+			long t0 = System.nanoTime();
+			for (int r = 0; r < N_OPS/N; r++) {
+				iter.reset(nt.ind(), 0, (1L << DIMS) - 1);
+				while (iter.hasNext()) {
+					x += iter.nextEntryReuse().getKey();
+				}
+			}
+			return (System.nanoTime() - t0) / (double) N_OPS;
+		}
+
+		double ntLookup() {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < N_OPS; i++) {
+				if (nt.ntGetEntry(hcPos[i & (N-1)] + (i & 1), e, pp) != null) {
+					x++;
+				}
+			}
+			return (System.nanoTime() - t0) / (double) N_OPS;
+		}
+	}
+}
@@ -38,11 +38,13 @@ public class Node implements Externalizable {
 
 	/**
 	 * Nodes switch to AHC when space(LHC)*AHC_HC_BIAS > space(AHC). 
+	 * This is the default, see {@link ch.ethz.globis.phtree.PhTreeConfig#setAhcLhcBias(double)}.
 	 */
 	public static final double AHC_LHC_BIAS = 2.0;
 	
 	/**
 	 * Threshold at which nodes should be turned into NT nodes.
+	 * This is the default, see {@link ch.ethz.globis.phtree.PhTreeConfig#setNtThreshold(int)}.
 	 */
 	public static final int NT_THRESHOLD = 150; 
 	
@@ -53,6 +55,10 @@ public class Node implements Externalizable {
 	
 	private int entryCnt = 0;
 
+	//Number of entries in this node and all its sub-nodes. This is only maintained if
+	//subtree counts are enabled in the tree, except for new nodes created by splits.
+	private int subtreeCnt = 0;
+
 	/**
 	 * Structure of the byte[] and the required bits
 	 * AHC:
@@ -93,13 +99,13 @@ public class Node implements Externalizable {
 	/**
 	 * @return true if NI should be used. 
 	 */
-	private static final boolean shouldSwitchToNT(int entryCount) {
+	private static final boolean shouldSwitchToNT(int entryCount, NodeConfig cfg) {
 		//Maybe just provide a switching threshold? 5-10?
-		return entryCount >= NT_THRESHOLD;
+		return entryCount >= cfg.ntThreshold;
 	}
 
-	private static final boolean shouldSwitchFromNtToHC(int entryCount) {
-		return entryCount <= NT_THRESHOLD-30;
+	private static final boolean shouldSwitchFromNtToHC(int entryCount, NodeConfig cfg) {
+		return entryCount <= cfg.ntThresholdBack;
 	}
 
 	static final int IK_WIDTH(int dims) { return dims; }; //post index key width 
@@ -116,6 +122,7 @@ public class Node implements Externalizable {
             this.values = Refs.arrayClone(original.values);
         }
         this.entryCnt = original.entryCnt;
+        this.subtreeCnt = original.subtreeCnt;
         this.isAHC = original.isAHC;
         this.postLen = original.postLen;
         if (original.ind != null) {
@@ -137,6 +144,7 @@ public class Node implements Externalizable {
 	private void initNode(int postLen, int dims) {
 		this.postLen = (byte) postLen;
 		this.entryCnt = 0;
+		this.subtreeCnt = 0;
 		this.ind = null;
 		this.isAHC = false;
 		int size = calcArraySizeTotalBits(2, dims);
@@ -159,6 +167,19 @@ public class Node implements Externalizable {
 		return new NodeEntry<>(key, subCode, value);
 	}
 	
+	/**
+	 * Discard a node that has been removed from the tree. The node and its NT sub-nodes
+	 * are released in the persistence provider, then the node is returned to the pool.
+	 * @param pp persistence provider
+	 */
+	void discardNode(PersistenceProvider pp) {
+		if (ind != null) {
+			NodeTreeV12.discardSubNodes(ind, pp);
+		}
+		pp.discardNode(this);
+		discardNode();
+	}
+
 	void discardNode() {
 		if (ind == null) {
 		Bits.arrayReplace(ba, null);
@@ -168,17 +189,28 @@ public class Node implements Externalizable {
 			ind = null;
 		}
 		entryCnt = 0;
+		subtreeCnt = 0;
 		NodePool.offer(this);
 	}
 	
 	int calcArraySizeTotalBits(int entryCount, final int dims) {
+		if (isNT() && !isAHC()) {
+			return getBitPosIndex();
+		}
+		return calcArraySizeTotalBitsHC(entryCount, dims);
+	}
+
+	/**
+	 * Size of the AHC or LHC representation (see {@link #isAHC()}). Unlike 
+	 * {@link #calcArraySizeTotalBits(int, int)}, this ignores whether the node is 
+	 * currently NT, so it can be used while converting from NT.
+	 */
+	private int calcArraySizeTotalBitsHC(int entryCount, final int dims) {
 		int nBits = getBitPosIndex();
 		//post-fixes
 		if (isAHC()) {
 			//hyper-cube
 			nBits += (INN_HC_WIDTH + dims * postLen) * (1 << dims);
-		} else if (isNT()) {
-			nBits += 0;
 		} else {
 			//hc-pos index
 			nBits += entryCount * (IK_WIDTH(dims) + dims * postLen);
@@ -249,7 +281,8 @@ public class Node implements Externalizable {
 		//check whether hcPos is valid
 		if (pin < 0) {
 			tree.increaseNrEntries();
-			addPostPIN(hcPos, pin, keyToMatch, newValueToInsert, tree.getPersistenceProvider());
+			addPostPIN(hcPos, pin, keyToMatch, newValueToInsert, tree.getPersistenceProvider(), 
+					tree.getNodeConfig());
 			return null;
 		}
 		
@@ -291,11 +324,12 @@ public class Node implements Externalizable {
 			if (getOnly) {
 				return ntGetEntryIfMatches(hcPos, keyToMatch, tree.getPersistenceProvider());
 			}			
+			int entryCountBefore = getEntryCount();
 			Object v = ntRemoveEntry(hcPos, keyToMatch, newKey, insertRequired, 
 					tree.getPersistenceProvider());
-			if (v != null && !(v instanceof Node)) {
+			//For update(), the entry may have been replaced in place without removal
+			if (v != null && !(v instanceof Node) && getEntryCount() < entryCountBefore) {
 				//Found and removed entry.
-				//TODO update counter?
 				tree.decreaseNrEntries();
 				if (getEntryCount() == 1) {
 					mergeIntoParentNt(keyToMatch, parent, tree.getPersistenceProvider());
@@ -365,6 +399,136 @@ public class Node implements Externalizable {
 		}
 	}
 	
+	/**
+	 * Replaces, inserts or removes the entry of a key, depending on the result of a 
+	 * function, see {@link PhTree12.ComputeFunction}. 
+	 * @param keyToMatch The key of the entry
+	 * @param fn The function that calculates the new value from the current value
+	 * @param parent The parent node
+	 * @param tree The tree
+	 * @return The sub node if the key lies in a sub node, otherwise {@code null}.
+	 */
+	Object doComputeIfMatching(long[] keyToMatch, PhTree12.ComputeFunction fn, Node parent, 
+			PhTree12<?> tree) {
+		long hcPos = posInArray(keyToMatch, getPostLen());
+		
+		if (isNT()) {
+			Object v = ntGetEntryIfMatches(hcPos, keyToMatch, tree.getPersistenceProvider());
+			if (v instanceof Node) {
+				return v;
+			}
+			Object newValue = fn.apply(keyToMatch, v);
+			if (v == null) {
+				if (newValue != null) {
+					doInsertIfMatching(keyToMatch, newValue, tree);
+				}
+			} else if (newValue == null) {
+				doIfMatching(keyToMatch, false, parent, null, null, tree);
+			} else if (newValue != v) {
+				//replace value
+				ntPut(hcPos, keyToMatch, SUBCODE_KEY_VALUE, newValue, tree.getPersistenceProvider());
+			}
+			return null;
+		}
+		
+		int dims = keyToMatch.length;
+		int pin;
+		int offs;
+		byte subCode;
+		if (isAHC()) {
+			pin = (int) hcPos;
+			subCode = getSubCode(pin);
+			offs = posToOffsBitsDataAHC(hcPos, getBitPosIndex(), dims);
+		} else {
+			pin = getPosition(hcPos, dims);
+			subCode = pin < 0 ? SUBCODE_EMPTY : getSubCode(pin);
+			offs = pin < 0 ? -1 : pinToOffsBitsDataLHC(pin, getBitPosIndex(), dims);
+		}
+		if (isSubNode(subCode)) {
+			if (!hasSubInfix(subCode) || 
+					readAndCheckKdKey(offs, keyToMatch, calcInfixMaskFromSC(subCode))) {
+				return tree.getPersistenceProvider().loadNode(getValue(pin));
+			}
+		} else if (!isSubEmpty(subCode) && readAndCheckKdKey(offs, keyToMatch, calcPostfixMask())) {
+			//the key exists
+			Object v = getValue(pin);
+			Object newValue = fn.apply(keyToMatch, v);
+			if (newValue == null) {
+				deleteAndMergeIntoParent(pin, hcPos, keyToMatch, parent, null, null, v, tree);
+			} else if (newValue != v) {
+				//replace value
+				setValue(pin, newValue, SUBCODE_KEY_VALUE);
+			}
+			return null;
+		}
+		
+		//The key does not exist. A conflicting sub node or post-fix is split during insert.
+		Object newValue = fn.apply(keyToMatch, null);
+		if (newValue != null) {
+			doInsertIfMatching(keyToMatch, newValue, tree);
+		}
+		return null;
+	}
+	
+	/**
+	 * Replaces the value of the entry at a known position, for example the current entry 
+	 * of an iterator. 
+	 * @param pin The position of the entry in the node, this is ignored for NT nodes
+	 * @param hcPos The hc-position of the entry
+	 * @param key The key of the entry
+	 * @param value The new value
+	 * @param pp persistence provider
+	 */
+	void replaceValueAt(int pin, long hcPos, long[] key, Object value, PersistenceProvider pp) {
+		if (isNT()) {
+			ntPut(hcPos, key, SUBCODE_KEY_VALUE, value, pp);
+		} else {
+			setValue(pin, value, SUBCODE_KEY_VALUE);
+		}
+	}
+
+	/**
+	 * Removes the entry at a known position, for example the current entry of an iterator.
+	 * If the node is left with only one entry, it is merged into the parent node.
+	 * @param pin The position of the entry in the node, this is ignored for NT nodes
+	 * @param hcPos The hc-position of the entry
+	 * @param key The key of the entry
+	 * @param parent The parent node
+	 * @param tree The tree
+	 * @return The removed value
+	 */
+	Object removeEntryAt(int pin, long hcPos, long[] key, Node parent, PhTree12<?> tree) {
+		if (isNT()) {
+			return doIfMatching(key, false, parent, null, null, tree);
+		}
+		return deleteAndMergeIntoParent(pin, hcPos, key, parent, null, null, getValue(pin), tree);
+	}
+
+	/**
+	 * @param hcPos A hc-position
+	 * @param dims The number of dimensions
+	 * @param pp persistence provider
+	 * @return Whether the node contains an entry at a larger hc-position 
+	 */
+	boolean hasEntryAfter(long hcPos, int dims, PersistenceProvider pp) {
+		if (isNT()) {
+			NtIteratorMinMax<Object> it = new NtIteratorMinMax<>(dims, pp);
+			it.reset(ind(), hcPos + 1, Long.MAX_VALUE);
+			return it.hasNext();
+		}
+		if (isAHC()) {
+			for (long i = hcPos + 1; i < (1L << dims); i++) {
+				if (!isSubEmpty(getSubCode((int) i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+		int pin = getPosition(hcPos, dims);
+		pin = pin < 0 ? -(pin+1) : pin+1;
+		return pin < getEntryCount();
+	}
+	
 	private boolean readAndCheckKdKey(int offs, long[] keyToMatch, long mask) {
 		for (int i = 0; i < keyToMatch.length; i++) {
 			long k = Bits.readArray(ba, offs, postLen);
@@ -469,6 +633,10 @@ public class Node implements Externalizable {
         }
         newNode.incEntryCount();
         newNode.incEntryCount();
+        //Only maintain subtree counts if the tree maintains them, i.e. if this node has one
+        if (subtreeCnt != 0) {
+        	newNode.subtreeCnt = calcSubtreeCount(subCode1, val1) + calcSubtreeCount(subCode2, val2);
+        }
         return newNode;
     }
 
@@ -535,7 +703,7 @@ public class Node implements Externalizable {
 		if (parent == null || getEntryCount() > 2) {
 			//no merging required
 			//value exists --> remove it
-			return removeEntry(hcPos, pinToDelete, dims);
+			return removeEntry(hcPos, pinToDelete, dims, tree.getNodeConfig());
 		}
 
 		//okay, at his point we have a post that matches and (since it matches) we need to remove
@@ -544,15 +712,11 @@ public class Node implements Externalizable {
 		//The pin of the entry that we want to keep
 		int pin2 = -1;
 		long pos2 = -1;
-		Object val2 = null;
-		byte subCode2 = -123;
 		if (isAHC()) {
 			for (int i = 0; i < (1<<key.length); i++) {
 				if (getValue(i) != null && i != pinToDelete) {
 					pin2 = i;
 					pos2 = i;
-					subCode2 = getSubCode(i);
-					val2 = getValue(i);
 					break;
 				}
 			}
@@ -561,33 +725,149 @@ public class Node implements Externalizable {
 			pin2 = (pinToDelete == 0) ? 1 : 0;
 			int offs = pinToOffsBitsLHC(pin2, getBitPosIndex(), dims);
 			pos2 = Bits.readArray(ba, offs, IK_WIDTH(dims));
-			subCode2 = getSubCode(pin2);
-			val2 = getValue(pin2);
 		}
 
+		mergeIntoParent(pin2, pos2, key, parent, tree.getPersistenceProvider());
+		return valueToDelete;
+	}
+
+	/**
+	 * Replaces this node in the parent with the entry at 'pin'. This node is discarded.
+	 * @param pin position of the remaining entry
+	 * @param hcPos hc-position of the remaining entry
+	 * @param key a key with the prefix of this node
+	 * @param parent the parent node
+	 * @param pp persistence provider
+	 */
+	private void mergeIntoParent(int pin, long hcPos, long[] key, Node parent, 
+			PersistenceProvider pp) {
+		int dims = key.length;
+		byte subCode2 = getSubCode(pin);
+		Object val2 = getValue(pin);
+
 		long[] newPost = new long[dims];
 		RefsLong.arraycopy(key, 0, newPost, 0, key.length);
 
 		long posInParent = PhTreeHelper.posInArray(key, parent.getPostLen());
 		int pinInParent = parent.getPosition(posInParent, dims);
 		if (isSubNode(subCode2)) {
-			PhTreeHelper.applyHcPos(pos2, getPostLen(), newPost);
-			getInfixOfSub(pin2, pos2, newPost, subCode2);
+			PhTreeHelper.applyHcPos(hcPos, getPostLen(), newPost);
+			getInfixOfSub(pin, hcPos, newPost, subCode2);
 			byte newSub2Code = calcSubCodeMerge(subCode2);
 			//update parent, the position is the same
 			//we use newPost as Infix
 			parent.replaceEntryWithSub(pinInParent, posInParent, newPost, newSub2Code, val2, true,
-					tree.getPersistenceProvider());
+					pp);
 		} else {
 			//this is also a post
-			getEntryByPIN(pin2, pos2, newPost);
-			parent.replaceSubWithPost(pinInParent, posInParent, newPost, val2, 
-					tree.getPersistenceProvider());
+			getEntryByPIN(pin, hcPos, newPost);
+			parent.replaceSubWithPost(pinInParent, posInParent, newPost, val2, pp);
 		}
 
-		tree.getPersistenceProvider().updateNode(parent);
-		discardNode();
-		return valueToDelete;
+		pp.updateNode(parent);
+		discardNode(pp);
+	}
+
+	/**
+	 * Replaces a node that has only one entry with this entry in the parent node. 
+	 * This node is discarded.
+	 * @param prefix the prefix of this node
+	 * @param parent the parent node
+	 * @param pp persistence provider
+	 */
+	void mergeLonelyIntoParent(long[] prefix, Node parent, PersistenceProvider pp) {
+		if (getEntryCount() != 1) {
+			throw new IllegalStateException("Entry count: " + getEntryCount());
+		}
+		if (isNT()) {
+			mergeIntoParentNt(prefix, parent, pp);
+			return;
+		}
+		int pin = 0;
+		long hcPos;
+		if (isAHC()) {
+			while (getValue(pin) == null) {
+				pin++;
+			}
+			hcPos = pin;
+		} else {
+			int offs = pinToOffsBitsLHC(pin, getBitPosIndex(), prefix.length);
+			hcPos = Bits.readArray(ba, offs, IK_WIDTH(prefix.length));
+		}
+		mergeIntoParent(pin, hcPos, prefix, parent, pp);
+	}
+
+	/**
+	 * Removes a node without entries from its parent node. This node is discarded.
+	 * @param prefix the prefix of this node
+	 * @param parent the parent node
+	 * @param pp persistence provider
+	 * @param cfg node settings of the tree
+	 */
+	void removeEmptyFromParent(long[] prefix, Node parent, PersistenceProvider pp, 
+			NodeConfig cfg) {
+		if (getEntryCount() != 0) {
+			throw new IllegalStateException("Entry count: " + getEntryCount());
+		}
+		int dims = prefix.length;
+		long hcPos = PhTreeHelper.posInArray(prefix, parent.getPostLen());
+		if (parent.isNT()) {
+			parent.removeEntryNT(hcPos, dims, pp, cfg);
+		} else {
+			parent.removeEntry(hcPos, parent.getPosition(hcPos, dims), dims, cfg);
+		}
+		pp.updateNode(parent);
+		discardNode(pp);
+	}
+
+	/**
+	 * Trims the arrays of this node to the size that is required by the current entries
+	 * and switches the representation (AHC->LHC, NT<->HC) if it does not fit the current 
+	 * number of entries anymore, for example after many removals.
+	 * @param prefix the prefix of this node
+	 * @param pp persistence provider
+	 * @param cfg node settings of the tree
+	 * @return true if the node was modified
+	 */
+	boolean compact(long[] prefix, PersistenceProvider pp, NodeConfig cfg) {
+		final int dims = prefix.length;
+		final int n = getEntryCount();
+		boolean modified = false;
+		if (isNT()) {
+			if (shouldSwitchFromNtToHC(n, cfg)) {
+				ntDeconstruct(dims, -1, pp, cfg);
+				modified = true;
+			}
+		} else if (shouldSwitchToNT(n, cfg)) {
+			ntBuild(n, dims, prefix, pp);
+			modified = true;
+		} else if (isAHC() && shouldSwitchToLHC(n, dims, cfg)) {
+			switchAhcToLhcAndShrink(n, dims, -1);
+			modified = true;
+		}
+		//LHC->AHC is left to put(), it trades space for speed and new nodes with two 
+		//entries are always LHC.
+
+		int reqBits = isNT() ? calcArraySizeTotalBitsNt() : calcArraySizeTotalBits(n, dims);
+		long[] ba2 = Bits.arrayTrim(ba, reqBits);
+		modified |= ba2 != ba;
+		ba = ba2;
+		if (!isNT() && !isAHC()) {
+			Object[] v2 = Refs.arrayShrink(values, n);
+			byte[] sc2 = RefsByte.arrayTrim(subCodes, n);
+			modified |= v2 != values || sc2 != subCodes;
+			values = v2;
+			subCodes = sc2;
+			//removeEntry() leaves stale references behind the last entry
+			for (int i = n; i < values.length; i++) {
+				if (values[i] != null) {
+					values[i] = null;
+					subCodes[i] = SUBCODE_EMPTY;
+					modified = true;
+				}
+			}
+		}
+		return modified;
 	}
 
 	private void mergeIntoParentNt(long[] key, Node parent, PersistenceProvider pp) {
@@ -626,7 +906,7 @@ public class Node implements Externalizable {
 		}
 
 		pp.updateNode(parent);
-		discardNode();
+		discardNode(pp);
 	}
 
 	/**
@@ -696,22 +976,22 @@ public class Node implements Externalizable {
 		return getValue(posInNode);
 	}
 
-	private boolean shouldSwitchToAHC(int entryCount, int dims) {
-		return useAHC(entryCount, dims);
+	private boolean shouldSwitchToAHC(int entryCount, int dims, NodeConfig cfg) {
+		return useAHC(entryCount, dims, cfg);
 	}
 	
-	private boolean shouldSwitchToLHC(int entryCount, int dims) {
-		return !useAHC(entryCount+2, dims);
+	private boolean shouldSwitchToLHC(int entryCount, int dims, NodeConfig cfg) {
+		return !useAHC(entryCount+2, dims, cfg);
 	}
 	
-	private boolean useAHC(int entryCount, int dims) {
+	private boolean useAHC(int entryCount, int dims, NodeConfig cfg) {
 		//calc post mode.
 		//+1 bit for null/not-null flag
 		long sizeAHC = (dims * postLen + INN_HC_WIDTH + REF_BITS + 8) * (1L << dims); 
 		//+DIM because every index entry needs DIM bits
 		long sizeLHC = (dims * postLen + IK_WIDTH(dims) + REF_BITS + 8) * (long)entryCount;
 		//Already 1.1 i.o. 1.0 has significant bad impact on perf.
-		return PhTree12.AHC_ENABLED && (dims<=31) && (sizeLHC*AHC_LHC_BIAS >= sizeAHC);
+		return PhTree12.AHC_ENABLED && (dims<=31) && (sizeLHC*cfg.ahcLhcBias >= sizeAHC);
 	}
 
 	/**
@@ -875,12 +1155,16 @@ public class Node implements Externalizable {
 	}
 	
 	
+	/**
+	 * @param hcPosToRemove position of the entry to remove or -1 to keep all entries
+	 */
 	private Object switchAhcToLhcAndShrink(int oldEntryCount, int dims, long hcPosToRemove) {
 		Object oldEntry = null;
 		setAHC( false );
-		long[] bia2 = Bits.arrayCreate(calcArraySizeTotalBits(oldEntryCount-1, dims));
-		Object[] v2 = Refs.arrayCreate(oldEntryCount-1);
-		byte[] sc2 = RefsByte.arrayCreate(oldEntryCount-1);
+		int newEntryCount = hcPosToRemove < 0 ? oldEntryCount : oldEntryCount-1;
+		long[] bia2 = Bits.arrayCreate(calcArraySizeTotalBits(newEntryCount, dims));
+		Object[] v2 = Refs.arrayCreate(newEntryCount);
+		byte[] sc2 = RefsByte.arrayCreate(newEntryCount);
 		int oldOffsIndex = getBitPosIndex();
 		int oldOffsData = oldOffsIndex + (1<<dims)*INN_HC_WIDTH;
 		//Copy only bits that are relevant. Otherwise we might mess up the not-null table!
@@ -918,7 +1202,8 @@ public class Node implements Externalizable {
 	 * @param pin position in node: ==hcPos for AHC or pos in array for LHC
 	 * @param key
 	 */
-	void addPostPIN(long hcPos, int pin, long[] key, Object value, PersistenceProvider pp) {
+	void addPostPIN(long hcPos, int pin, long[] key, Object value, PersistenceProvider pp,
+			NodeConfig cfg) {
 		final int dims = key.length;
 		final int bufEntryCnt = getEntryCount();
 		//decide here whether to use hyper-cube or linear representation
@@ -927,7 +1212,7 @@ public class Node implements Externalizable {
 		//    For one dimension, both need one additional bit to indicate either
 		//    null/not-null (hypercube, actually two bit) or to indicate the index. 
 
-		if (!isNT() && shouldSwitchToNT(bufEntryCnt)) {
+		if (!isNT() && shouldSwitchToNT(bufEntryCnt, cfg)) {
 			ntBuild(bufEntryCnt, dims, key, pp);
 		}
 		if (isNT()) {
@@ -936,7 +1221,7 @@ public class Node implements Externalizable {
 		}
 
 		//switch representation (HC <-> Linear)?
-		if (!isAHC() && shouldSwitchToAHC(bufEntryCnt + 1, dims)) {
+		if (!isAHC() && shouldSwitchToAHC(bufEntryCnt + 1, dims, cfg)) {
 			switchLhcToAhcAndGrow(bufEntryCnt, dims);
 			//no need to update pin now, we are in HC now.
 		}
@@ -1056,23 +1341,29 @@ public class Node implements Externalizable {
 	 * @param removeSub Remove sub or post?
 	 * @return Previous value if post was removed
 	 */
-	private Object ntDeconstruct(int dims, long posToRemove, PersistenceProvider pp) {
+	private Object ntDeconstruct(int dims, long posToRemove, PersistenceProvider pp, 
+			NodeConfig cfg) {
 		//Migrate node to node-index representation
 		if (ind == null || !isNT()) {
 			throw new IllegalStateException();
 		}
 
-		int entryCountNew = ntGetSize() - 1;
-		decEntryCount();
+		//posToRemove=-1: keep all entries
+		int entryCountNew = ntGetSize();
+		if (posToRemove >= 0) {
+			entryCountNew--;
+			decEntryCount();
+		}
 
 		//calc node mode.
-		boolean shouldBeAHC = useAHC(entryCountNew, dims);
+		boolean shouldBeAHC = useAHC(entryCountNew, dims, cfg);
 		setAHC(shouldBeAHC);
 
 
 		Object oldValue = null;
 		int offsIndex = getBitPosIndex();
-		long[] bia2 = Bits.arrayCreate(calcArraySizeTotalBits(entryCountNew, dims));
+		//the node is still NT, the size is that of the new representation
+		long[] bia2 = Bits.arrayCreate(calcArraySizeTotalBitsHC(entryCountNew, dims));
 		//Copy only bits that are relevant. Otherwise we might mess up the not-null table!
 		Bits.copyBitsLeft(ba, 0, bia2, 0, offsIndex);
 		int postLenTotal = dims*postLen;
@@ -1105,10 +1396,10 @@ public class Node implements Externalizable {
 			Object[] v2 = Refs.arrayCreate(entryCountNew);
 			byte[] sc2 = RefsByte.arrayCreate(entryCountNew);
 			int n=0;
-			PhIterator64<Object> it = ntIterator(dims, pp);
+			NtIteratorMinMax<Object> it = ntIterator(dims, pp);
 			int entryPosLHC = offsIndex;
 			while (it.hasNext()) {
-				NtEntry<Object> e = it.nextEntryReuse();
+				NtEntry12<Object> e = it.nextEntryReuse();
 				long pos = e.key();
 				if (pos == posToRemove) {
 					//skip the item that should be deleted.
@@ -1119,6 +1410,7 @@ public class Node implements Externalizable {
 				Bits.writeArray(bia2, entryPosLHC, IK_WIDTH(dims), pos);
 				entryPosLHC += IK_WIDTH(dims);
 				v2[n] = e.value();
+				sc2[n] = e.getKdSubCode();
 				postFromNI(bia2, entryPosLHC, e.getKdKey(), postLen);
 				entryPosLHC += postLenTotal;
 				n++;
@@ -1128,6 +1420,8 @@ public class Node implements Externalizable {
 			subCodes = RefsByte.arrayReplace(subCodes, sc2);
 		}			
 
+		//the root of the NT is not registered, only its sub-nodes
+		NodeTreeV12.discardSubNodes(ind, pp);
 		NtNodePool.offer(ind);
 		ind = null;
 		return oldValue;
@@ -1323,21 +1617,21 @@ public class Node implements Externalizable {
 		return true;
 	}
 	
-	Object removeEntryNT(long hcPos, final int dims, PersistenceProvider pp) {
+	Object removeEntryNT(long hcPos, final int dims, PersistenceProvider pp, NodeConfig cfg) {
 		final int bufEntryCnt = getEntryCount();
-		if (shouldSwitchFromNtToHC(bufEntryCnt)) {
-			return ntDeconstruct(dims, hcPos, pp);
+		if (shouldSwitchFromNtToHC(bufEntryCnt, cfg)) {
+			return ntDeconstruct(dims, hcPos, pp, cfg);
 		}
 		Object o = ntRemoveAnything(hcPos, dims, pp);
 		decEntryCount();
 		return o;
 	}
 	
-	Object removeEntry(long hcPos, int posInNode, final int dims) {
+	Object removeEntry(long hcPos, int posInNode, final int dims, NodeConfig cfg) {
 		final int bufEntryCnt = getEntryCount();
 		
 		//switch representation (HC <-> Linear)?
-		if (isAHC() && shouldSwitchToLHC(bufEntryCnt, dims)) {
+		if (isAHC() && shouldSwitchToLHC(bufEntryCnt, dims, cfg)) {
 			//revert to linearized representation, if applicable
 			Object oldVal = switchAhcToLhcAndShrink(bufEntryCnt, dims, hcPos);
 			decEntryCount();
@@ -1408,6 +1702,24 @@ public class Node implements Externalizable {
 	}
 
 
+	/**
+	 * @return number of entries in this node and all its sub-nodes
+	 */
+	public int getSubtreeCount() {
+		return subtreeCnt;
+	}
+
+
+	void adjustSubtreeCount(int delta) {
+		subtreeCnt += delta;
+	}
+
+
+	private static int calcSubtreeCount(byte subCode, Object value) {
+		return isSubNode(subCode) && value instanceof Node ? ((Node) value).subtreeCnt : 1;
+	}
+
+
 	int getBitPosIndex() {
 		return getBitPosInfix();
 	}
@@ -1538,7 +1850,14 @@ public class Node implements Externalizable {
 
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
-		out.writeInt(entryCnt);
+		//A negative entry count indicates that the subtree count follows. Nodes without
+		//subtree count are written in the same format as before.
+		if (subtreeCnt == 0) {
+			out.writeInt(entryCnt);
+		} else {
+			out.writeInt(-entryCnt-1);
+			out.writeInt(subtreeCnt);
+		}
 		out.writeByte(postLen);
 		out.writeBoolean(isAHC);
 		//is NT
@@ -1557,6 +1876,12 @@ public class Node implements Externalizable {
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		entryCnt = in.readInt();
+		if (entryCnt < 0) {
+			entryCnt = -entryCnt-1;
+			subtreeCnt = in.readInt();
+		} else {
+			subtreeCnt = 0;
+		}
 		postLen = in.readByte();
 		isAHC = in.readBoolean();
 		boolean isNT = in.readBoolean();
@@ -0,0 +1,64 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+
+/**
+ * Per-tree settings for the node representation (AHC, LHC or NT).
+ * The settings are fixed for the lifetime of the tree, there is no adaptive
+ * mode that changes them based on the workload. An adaptive mode was tried, but
+ * it was slower than the fixed settings and required counters on the read path.
+ * Use NodeSettingsBenchmark to choose settings for a given workload.
+ * 
+ * @author ztilmann
+ */
+final class NodeConfig {
+
+	/** Nodes switch to AHC when space(LHC)*ahcLhcBias >= space(AHC). */
+	final double ahcLhcBias;
+	/** Nodes switch to NT when they have at least this number of entries. */
+	final int ntThreshold;
+	/** NT nodes switch back to AHC/LHC when they have at most this number of entries. */
+	final int ntThresholdBack;
+
+	NodeConfig(double ahcLhcBias, int ntThreshold) {
+		this.ahcLhcBias = ahcLhcBias;
+		this.ntThreshold = ntThreshold;
+		this.ntThresholdBack = ntThreshold - Math.min(30, ntThreshold/2);
+	}
+
+	static NodeConfig create(PhTreeConfig cfg) {
+		return new NodeConfig(cfg.getAhcLhcBias(), cfg.getNtThreshold());
+	}
+
+	static NodeConfig createDefault() {
+		return new NodeConfig(Node.AHC_LHC_BIAS, Node.NT_THRESHOLD);
+	}
+
+	@Override
+	public String toString() {
+		return "AHC/LHC=" + ahcLhcBias + " NtLimit=" + ntThreshold;
+	}
+}
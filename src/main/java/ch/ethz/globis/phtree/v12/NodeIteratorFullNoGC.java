@@ -26,6 +26,8 @@ public class NodeIteratorFullNoGC<T> {
 	private boolean isNI;
 	private int postLen;
 	private long next = -1;
+	//position of the last returned entry in the node, not used for NT nodes
+	private int pin;
 	private Node node;
 	private int currentOffsetKey;
 	private NtIteratorMinMax<Object> ntIterator;
@@ -122,6 +124,7 @@ public class NodeIteratorFullNoGC<T> {
 			result.setPost(subCode, (T) v );
 		}
 		next = hcPos;
+		pin = posInNode;
 		
 		return true;
 	}
@@ -204,4 +207,45 @@ public class NodeIteratorFullNoGC<T> {
 		reinit(node, checker);
 	}
 
+	Node node() {
+		return node;
+	}
+
+	/**
+	 * @return the hc-position of the last returned entry
+	 */
+	long getCurrentPos() {
+		return next;
+	}
+
+	/**
+	 * @return the position in the node of the last returned entry, this is not defined for 
+	 * NT nodes
+	 */
+	int getCurrentPin() {
+		return pin;
+	}
+
+	/**
+	 * Continue the iteration after the node has been modified, i.e. after the last returned
+	 * entry has been removed or after a sub-node has been merged into this node. The node
+	 * may have changed its representation.
+	 * @param hcPos the hc-position where the iteration continues
+	 * @param inclusive whether an entry at 'hcPos' should be returned
+	 */
+	void resume(long hcPos, boolean inclusive) {
+		reinit(node, checker);
+		long first = inclusive ? hcPos : hcPos + 1;
+		if (isNI) {
+			ntIterator.reset(node.ind(), first, Long.MAX_VALUE);
+		} else if (isHC) {
+			next = first - 1;
+		} else {
+			int pinNext = node.getPosition(hcPos, dims);
+			pinNext = pinNext < 0 ? -(pinNext+1) : (inclusive ? pinNext : pinNext+1);
+			currentOffsetKey = node.pinToOffsBitsLHC(pinNext, node.getBitPosIndex(), dims);
+			nEntriesFound = pinNext;
+		}
+	}
+
 }
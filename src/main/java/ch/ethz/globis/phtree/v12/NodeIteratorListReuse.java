@@ -287,6 +287,8 @@ public class NodeIteratorListReuse<T, R> {
 						Object o = resultBuffer.getValue();
 						results.phReturnTemp(resultBuffer);
 						checkAndRunSubnode(subCode, o);
+					} else {
+						results.phReturnTemp(resultBuffer);
 					}
 				} else if (!Node.isSubEmpty(subCode)) { 
 					//read and check post-fix
@@ -316,6 +318,17 @@ public class NodeIteratorListReuse<T, R> {
 		this.pool = new PhIteratorStack();
 	}
 
+	/**
+	 * Run a query that starts at a node other than the root.
+	 * @param node the start node, all results must lie inside this node
+	 * @param prefix the prefix of the start node
+	 */
+	List<R> resetAndRun(Node node, long[] prefix, long[] rangeMin, long[] rangeMax, 
+			int maxResults) {
+		System.arraycopy(prefix, 0, valTemplate, 0, dims);
+		return resetAndRun(node, rangeMin, rangeMax, maxResults);
+	}
+
 	List<R> resetAndRun(Node node, long[] rangeMin, long[] rangeMax, int maxResults) {
 		results.clear();
 		this.rangeMin = rangeMin;
@@ -1,9 +1,15 @@
 package ch.ethz.globis.phtree.v12;
 
 import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterDistance;
+import ch.ethz.globis.phtree.util.BitTools;
 import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
 import ch.ethz.globis.phtree.v12.nt.NtIteratorMask;
+import ch.ethz.globis.phtree.v12.nt.NtNode;
 import ch.ethz.globis.phtree.v12.nt.NodeTreeV12.NtEntry12;
 
 
@@ -19,11 +25,18 @@ import ch.ethz.globis.phtree.v12.nt.NodeTreeV12.NtEntry12;
 public class NodeIteratorNoGC<T> {
 	
 	private static final long START = -1; 
+	private static final double QUAD_SLACK = 1 + 1e-10;
+	//In low dimensions the sphere covers most of the query box, pruning does not pay off.
+	private static final int QUAD_MIN_DIMS = 8;
 	
 	private final int dims;
 	private boolean isHC;
 	private boolean isNI;
 	private long next;
+	//position of the last returned entry in the node, not used for NT nodes
+	private int pin;
+	//the entry at 'next' should be returned again, see resume()
+	private boolean revisit;
 	private Node node;
 	private int currentOffsetKey;
 	private NtIteratorMask<Object> niIterator;
@@ -39,6 +52,10 @@ public class NodeIteratorNoGC<T> {
 	private boolean useNiHcIncrementer;
 	private PhFilter checker;
 	private final PersistenceProvider pp;
+	//quadrant pruning for range queries
+	private PhFilterDistance quadFilter;
+	private double[] quadDistLower;
+	private double[] quadDistUpper;
 
 	/**
 	 * 
@@ -65,6 +82,7 @@ public class NodeIteratorNoGC<T> {
 		this.rangeMin = rangeMin;
 		this.rangeMax = rangeMax;
 		next = START;
+		revisit = false;
 		currentOffsetKey = 0;
 		nFound = 0;
 		this.checker = checker;
@@ -84,10 +102,13 @@ public class NodeIteratorNoGC<T> {
 		useHcIncrementer = false;
 		useNiHcIncrementer = false;
 
+		//Small nodes are always scanned, this avoids the cost model for most nodes
 		if (dims > 6 && nMaxEntry > 10) {
 			initHCI();
 		}
 		
+		initQuadrantCheck();
+		
 		if (isNI && !useNiHcIncrementer) {
 			//TODO use non-mask iterator if node is fully included in query rectangle
 			if (niIterator == null) {
@@ -103,30 +124,20 @@ public class NodeIteratorNoGC<T> {
 
 	private void initHCI() {
 		//LHC, NI, ...
-		long maxHcAddr = ~((-1L)<<dims);
-		int nSetFilterBits = Long.bitCount(maskLower | ((~maskUpper) & maxHcAddr));
-		//nPossibleMatch = (2^k-x)
-		long nPossibleMatch = 1L << (dims - nSetFilterBits);
-		if (isNI) {
-			int nChild = node.ntGetSize();
-			int logNChild = Long.SIZE - Long.numberOfLeadingZeros(nChild);
-			//TODO div by logNChild i.o. (double)?
-			//the following will overflow for k=60
-			boolean useHcIncrementer = (nChild > nPossibleMatch*(double)logNChild*2);
-			//DIM < 60 as safeguard against overflow of (nPossibleMatch*logNChild)
-			if (useHcIncrementer && PhTree12.HCI_ENABLED && dims < 50) {
+		int mode = HciCostModel.get().choose(isHC, isNI, isNI ? node.ntGetSize() : nMaxEntry, 
+				dims, maskLower, maskUpper);
+		if (mode == HciCostModel.HCI && PhTree12.HCI_ENABLED) {
+			if (isNI) {
 				useNiHcIncrementer = true;
 			} else {
-				useNiHcIncrementer = false;
-			}
-		} else if (PhTree12.HCI_ENABLED){
-			if (isHC) {
-				//nPossibleMatch < 2^k?
-				useHcIncrementer = nPossibleMatch*2 <= maxHcAddr;
-			} else {
-				int logNPost = Long.SIZE - Long.numberOfLeadingZeros(nMaxEntry) + 1+1;
-				useHcIncrementer = (nMaxEntry >= 2*nPossibleMatch*(double)logNPost); 
+				useHcIncrementer = true;
 			}
+		} else if (mode == HciCostModel.BSEARCH) {
+			//LHC: skip all entries below the lower limit
+			int pin = node.getPosition(maskLower, dims);
+			pin = pin >= 0 ? pin : -(pin+1); 
+			currentOffsetKey = node.pinToOffsBitsLHC(pin, node.getBitPosIndex(), dims);
+			nFound = pin;
 		}
 	}
 	
@@ -144,6 +155,9 @@ public class NodeIteratorNoGC<T> {
 	 */
 	@SuppressWarnings("unchecked")
 	private boolean readValue(int pin, long pos, NodeEntry<T> result) {
+		if (Node.isSubEmpty(node.getSubCode(pin)) || !checkQuadrant(pos)) {
+			return false;
+		}
 		Object o = node.checkAndGetEntryPIN(pin, pos, valTemplate, result.getKey(), 
 				rangeMin, rangeMax);
 		if (o == null) {
@@ -159,6 +173,7 @@ public class NodeIteratorNoGC<T> {
 				return false;
 			}
 			result.setNodeKeepKey(subCode, o);
+			this.pin = pin;
 			return true;
 		}
 
@@ -166,10 +181,14 @@ public class NodeIteratorNoGC<T> {
 			return false;
 		}
 		result.setPost(subCode, (T) o);
+		this.pin = pin;
 		return true;
 	}
 
 	private boolean readValue(long pos, Object value, NodeEntry<T> result) {
+		if (!checkQuadrant(pos)) {
+			return false;
+		}
 		if (!node.checkAndGetEntryNt(pos, value, result, valTemplate, rangeMin, rangeMax)) {
 			return false;
 		}
@@ -196,6 +215,8 @@ public class NodeIteratorNoGC<T> {
 			if (currentPos == START) {
 				//starting position
 				currentPos = maskLower;
+			} else if (revisit) {
+				revisit = false;
 			} else {
 				currentPos = PhTree12.inc(currentPos, maskLower, maskUpper);
 				if (currentPos <= maskLower) {
@@ -284,13 +305,15 @@ public class NodeIteratorNoGC<T> {
 		//repeat until we found a value inside the given range
 		long currentPos = next; 
 		do {
-			if (currentPos != START && currentPos >= maskUpper) {
+			if (currentPos != START && currentPos >= maskUpper && !revisit) {
 				break;
 			}
 
 			if (currentPos == START) {
 				//starting position
 				currentPos = maskLower;
+			} else if (revisit) {
+				revisit = false;
 			} else {
 				currentPos = PhTree12.inc(currentPos, maskLower, maskUpper);
 				if (currentPos <= maskLower) {
@@ -298,6 +321,11 @@ public class NodeIteratorNoGC<T> {
 				}
 			}
 
+			if (!checkQuadrant(currentPos)) {
+				next = currentPos;
+				continue;
+			}
+
 			Object v = node.ntGetEntry(currentPos, result, pp);
 			if (v == null) {
 				continue;
@@ -318,10 +346,126 @@ public class NodeIteratorNoGC<T> {
 		return ((pos | maskLower) & maskUpper) == pos;
 	}
 
+	/**
+	 * Check whether the quadrant at the given HC-position can contain any entries that
+	 * pass the checker. This is cheaper than reading the entry, which allows pruning
+	 * quadrants (for example outside a range query's sphere) before their postfix or
+	 * infix is read. This method does not allocate any objects.
+	 * @param hcPos HC-position of the quadrant
+	 * @return False if no entry in the quadrant can pass the checker, otherwise true. 
+	 */
+	private boolean checkQuadrant(long hcPos) {
+		if (quadFilter == null) {
+			return true;
+		}
+		double maxDist = quadFilter.getMaxDist();
+		//Allow for rounding errors, we must never prune a valid quadrant.
+		double maxDist2 = maxDist*maxDist*QUAD_SLACK;
+		double d2 = 0;
+		for (int i = 0; i < dims; i++) {
+			d2 += ((hcPos >>> (dims-1-i)) & 1L) == 0 ? quadDistLower[i] : quadDistUpper[i];
+			if (d2 > maxDist2) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Prepare quadrant pruning. This is only used for Euclidean distance filters, where 
+	 * the squared distance from the center to a quadrant is the sum of the per dimension
+	 * distances to the lower or upper half of the node. These are calculated once per node.
+	 */
+	private void initQuadrantCheck() {
+		quadFilter = null;
+		if (dims < QUAD_MIN_DIMS || !(checker instanceof PhFilterDistance)) {
+			return;
+		}
+		PhFilterDistance f = (PhFilterDistance) checker;
+		PhDistance dist = f.getDistance();
+		boolean isDouble = dist instanceof PhDistanceF;
+		if (!isDouble && !(dist instanceof PhDistanceL)) {
+			return;
+		}
+		if (quadDistLower == null) {
+			quadDistLower = new double[dims];
+			quadDistUpper = new double[dims];
+		}
+		long[] center = f.getCenter();
+		int postLen = node.getPostLen();
+		long maskHcBit = 1L << postLen;
+		long maskMin = (-1L) << postLen;
+		long maskMax = ~maskMin;
+		for (int i = 0; i < dims; i++) {
+			//For postLen=63 this works as well, the hcBit then results in the negative half
+			long lower = valTemplate[i] & ~maskHcBit;
+			long upper = valTemplate[i] | maskHcBit;
+			quadDistLower[i] = dist2(center[i], lower & maskMin, lower | maskMax, isDouble);
+			quadDistUpper[i] = dist2(center[i], upper & maskMin, upper | maskMax, isDouble);
+		}
+		quadFilter = f;
+	}
+	
+	private static double dist2(long c, long min, long max, boolean isDouble) {
+		long v = min > c ? min : (max < c ? max : c);
+		double d;
+		if (isDouble) {
+			d = BitTools.toDouble(c) - BitTools.toDouble(v);
+		} else {
+			d = (double)c - (double)v;
+		}
+		return d*d;
+	}
+
 	public Node node() {
 		return node;
 	}
 
+	/**
+	 * @return the hc-position of the last returned entry
+	 */
+	long getCurrentPos() {
+		return next;
+	}
+
+	/**
+	 * @return the position in the node of the last returned entry, this is not defined for 
+	 * NT nodes
+	 */
+	int getCurrentPin() {
+		return pin;
+	}
+
+	/**
+	 * Continue the iteration after the node has been modified, i.e. after the last returned
+	 * entry has been removed or after a sub-node has been merged into this node. The node
+	 * may have changed its representation.
+	 * @param hcPos the hc-position where the iteration continues
+	 * @param inclusive whether an entry at 'hcPos' should be returned
+	 */
+	void resume(long hcPos, boolean inclusive) {
+		init(rangeMin, rangeMax, node, checker);
+		if (isNI && !useNiHcIncrementer) {
+			//skip entries that have already been returned
+			if (inclusive || hcPos != Long.MAX_VALUE) {
+				niIterator.reset(node.ind(), maskLower, maskUpper, inclusive ? hcPos : hcPos + 1);
+			} else {
+				niIterator.reset((NtNode<Object>) null, maskLower, maskUpper);
+			}
+		} else if (useHcIncrementer || useNiHcIncrementer) {
+			next = hcPos;
+			revisit = inclusive;
+		} else if (isHC) {
+			next = inclusive ? hcPos - 1 : hcPos;
+		} else {
+			//LHC
+			int pinNext = node.getPosition(hcPos, dims);
+			pinNext = pinNext < 0 ? -(pinNext+1) : (inclusive ? pinNext : pinNext+1);
+			currentOffsetKey = node.pinToOffsBitsLHC(pinNext, node.getBitPosIndex(), dims);
+			nFound = pinNext;
+		}
+	}
+
 	/**
 	 * 
 	 * @param rangeMin
@@ -411,7 +555,7 @@ public class NodeIteratorNoGC<T> {
 				}
 			} else {
 				//LHC
-				if (this.next + PhTree12.LHC_BINARY_SEARCH_THRESHOLD < this.maskLower) {
+				if (HciCostModel.get().useBinarySearch(nMaxEntry, dims, next, maskLower)) {
 					int pin = node.getPosition(maskLower, dims);
 					//If we don't find it we use the next following entry, i.e. -(pin+1)
 					pin = pin >= 0 ? pin : -(pin+1); 
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.v12;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Arena allocator for off-heap memory. Memory is reserved in large direct ByteBuffers
+ * (slabs) and handed out in blocks whose size is a power of two. Freed blocks are kept
+ * in one free list per block size and are reused by later allocations of the same size.
+ * <p>
+ * A block is identified by its address: the upper 32 bits contain the slab index,
+ * the lower 32 bits contain the offset in the slab.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author ztilmann
+ */
+class OffHeapArena {
+
+	private static final int MIN_BLOCK_BITS = 6;
+	private static final int N_SIZE_CLASSES = 32;
+
+	private final int slabSize;
+	private final ArrayList<ByteBuffer> slabs = new ArrayList<>();
+	//remaining space in the last regular slab starts here
+	private int slabPos;
+	private int currentSlab = -1;
+
+	//free lists, one per size class
+	private final long[][] freeLists = new long[N_SIZE_CLASSES][];
+	private final int[] freeListSizes = new int[N_SIZE_CLASSES];
+
+	private long nBytesReserved = 0;
+	private long nBytesUsed = 0;
+
+	/**
+	 * @param slabSize Size of the slabs in bytes. Blocks that are larger than a slab
+	 * get their own slab.
+	 */
+	OffHeapArena(int slabSize) {
+		if (slabSize < (1 << MIN_BLOCK_BITS) || Integer.bitCount(slabSize) != 1) {
+			throw new IllegalArgumentException("Slab size must be a power of two >= " +
+					(1 << MIN_BLOCK_BITS) + ": " + slabSize);
+		}
+		this.slabSize = slabSize;
+	}
+
+	/**
+	 * @param size minimum size in bytes
+	 * @return Size of the block that would be allocated for the given size.
+	 */
+	static int blockSize(int size) {
+		return 1 << sizeClass(size);
+	}
+
+	private static int sizeClass(int size) {
+		return Math.max(MIN_BLOCK_BITS, Integer.SIZE - Integer.numberOfLeadingZeros(size - 1));
+	}
+
+	/**
+	 * Allocate a block.
+	 * @param size minimum size of the block in bytes
+	 * @return the address of the block
+	 */
+	long allocate(int size) {
+		int sc = sizeClass(size);
+		int blockSize = 1 << sc;
+		nBytesUsed += blockSize;
+		if (freeListSizes[sc] > 0) {
+			return freeLists[sc][--freeListSizes[sc]];
+		}
+		if (blockSize > slabSize) {
+			//oversized block, this goes into its own slab
+			slabs.add(ByteBuffer.allocateDirect(blockSize));
+			nBytesReserved += blockSize;
+			return address(slabs.size() - 1, 0);
+		}
+		if (currentSlab < 0 || slabPos + blockSize > slabSize) {
+			//The remainder of the current slab is lost. This is at most one block of
+			//each size class, because blocks are aligned to their size.
+			slabs.add(ByteBuffer.allocateDirect(slabSize));
+			nBytesReserved += slabSize;
+			currentSlab = slabs.size() - 1;
+			slabPos = 0;
+		}
+		long address = address(currentSlab, slabPos);
+		slabPos += blockSize;
+		return address;
+	}
+
+	/**
+	 * Return a block to the arena.
+	 * @param address the address of the block
+	 * @param size the size that was requested when the block was allocated
+	 */
+	void free(long address, int size) {
+		int sc = sizeClass(size);
+		long[] list = freeLists[sc];
+		if (list == null) {
+			list = new long[16];
+			freeLists[sc] = list;
+		} else if (freeListSizes[sc] == list.length) {
+			list = Arrays.copyOf(list, list.length * 2);
+			freeLists[sc] = list;
+		}
+		list[freeListSizes[sc]++] = address;
+		nBytesUsed -= 1 << sc;
+	}
+
+	private static long address(int slab, int offset) {
+		return (((long) slab) << 32) | offset;
+	}
+
+	/**
+	 * @param address a block address
+	 * @return The slab that contains the block.
+	 */
+	ByteBuffer slab(long address) {
+		return slabs.get((int) (address >>> 32));
+	}
+
+	/**
+	 * @param address a block address
+	 * @return The offset of the block in its slab.
+	 */
+	static int offset(long address) {
+		return (int) address;
+	}
+
+	/**
+	 * @return Off-heap memory reserved by the slabs, in bytes.
+	 */
+	long getBytesReserved() {
+		return nBytesReserved;
+	}
+
+	/**
+	 * @return Off-heap memory in allocated blocks, in bytes.
+	 */
+	long getBytesUsed() {
+		return nBytesUsed;
+	}
+
+	int getSlabCount() {
+		return slabs.size();
+	}
+}
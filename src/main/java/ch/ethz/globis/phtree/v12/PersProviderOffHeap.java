@@ -0,0 +1,581 @@
+/*
+ * Copyright 2011-2016 ETH Zurich. All Rights Reserved.
+ *
+ * This software is the proprietary information of ETH Zurich.
+ * Use is subject to license terms.
+ */
+package ch.ethz.globis.phtree.v12;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.v12.nt.NtNode;
+import ch.ethz.globis.phtree.v12.nt.NtNodePool;
+
+/**
+ * Persistence provider that stores nodes off-heap. Nodes are serialized into blocks
+ * of direct ByteBuffer slabs, see {@link OffHeapArena}.
+ * <p>
+ * Nodes that are loaded or created are kept on the heap until {@link #flush()} is called.
+ * flush() writes them back into the slabs and releases them, so the number of nodes on
+ * the heap depends only on the number of nodes that were accessed since the last flush,
+ * not on the size of the tree. flush() must not be called while iterators or other
+ * queries on the tree are in progress.
+ * <p>
+ * Nodes are identified by Integer IDs. An ID maps to the address of the block that
+ * contains the node, so a node can move to a larger block without updating its parent.
+ * <p>
+ * Like all persistence providers, this requires the values of the tree to be Integers,
+ * except -1, which is used to encode 'null'. Other values are rejected when they are 
+ * stored in the tree.
+ *
+ * @author ztilmann
+ */
+public class PersProviderOffHeap extends PersistenceProvider {
+
+	public static final int DEFAULT_SLAB_SIZE = 16*1024*1024;
+
+	private static final byte NODE_PH = 2;
+	private static final byte NODE_NT = 3;
+
+	//length prefix of a block
+	private static final int HEADER_SIZE = 4;
+
+	private static final long NO_ADDRESS = -1;
+
+	private int dims;
+	private int nEntries = -1;
+	private Object rootId = null;
+
+	private final OffHeapArena arena;
+	//id -> block address
+	private long[] addresses = new long[1024];
+	//id -> length of serialized node
+	private int[] lengths = new int[1024];
+	private int idCnt = 0;
+	private int[] freeIds = new int[16];
+	private int nFreeIds = 0;
+
+	//Nodes on the heap. All of them are written back by flush(), they may have been
+	//modified without a call to updateNode().
+	private final HashMap<Integer, Externalizable> cacheById = new HashMap<>();
+	private final IdentityHashMap<Externalizable, Integer> cacheByObj = new IdentityHashMap<>();
+	//Nodes that were discarded since the last flush. The tree may still call updateNode() 
+	//for them at the end of an operation.
+	private final Set<Externalizable> discarded = 
+			Collections.newSetFromMap(new IdentityHashMap<Externalizable, Boolean>());
+
+	private final BlockWriter writer = new BlockWriter();
+	private final BlockReader reader = new BlockReader();
+
+	private int nNodeRead;
+	private int nNodeWrite;
+	private int nNodeNew;
+
+	public PersProviderOffHeap() {
+		this(DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * @param slabSize size of the direct ByteBuffers in bytes, must be a power of two
+	 */
+	public PersProviderOffHeap(int slabSize) {
+		this.arena = new OffHeapArena(slabSize);
+		Arrays.fill(addresses, NO_ADDRESS);
+	}
+
+	@Override
+	public Object loadNode(Object o) {
+		if (o == null) {
+			return null;
+		}
+		Integer id = (Integer) o;
+		Externalizable node = cacheById.get(id);
+		if (node != null) {
+			return node;
+		}
+
+		long address = addresses[id];
+		if (address == NO_ADDRESS) {
+			throw new IllegalArgumentException("id=" + id);
+		}
+		nNodeRead++;
+		reader.reset(arena.slab(address), OffHeapArena.offset(address) + HEADER_SIZE);
+		try {
+			byte nodeType = reader.readByte();
+			switch (nodeType) {
+			case NODE_PH:
+				node = NodePool.getNode();
+				break;
+			case NODE_NT:
+				node = NtNodePool.getNode();
+				break;
+			default:
+				throw new IllegalStateException("nt=" + nodeType);
+			}
+			releaseDiscarded(node);
+			node.readExternal(reader);
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+		cacheById.put(id, node);
+		cacheByObj.put(node, id);
+		return node;
+	}
+
+	@Override
+	public Object registerNode(Externalizable o) {
+		nNodeNew++;
+		releaseDiscarded(o);
+		Integer id = newId();
+		cacheById.put(id, o);
+		cacheByObj.put(o, id);
+		return id;
+	}
+
+	/**
+	 * Release the ID and the block of a discarded node. Node instances are pooled, 
+	 * so this is also done if a node instance is registered or loaded while it
+	 * is still cached with another ID.
+	 */
+	private void releaseDiscarded(Externalizable o) {
+		discarded.remove(o);
+		Integer oldId = cacheByObj.remove(o);
+		if (oldId != null) {
+			cacheById.remove(oldId);
+			releaseId(oldId);
+		}
+	}
+
+	@Override
+	public void updateNode(Externalizable o) {
+		if (!cacheByObj.containsKey(o) && !discarded.contains(o)) {
+			throw new IllegalArgumentException("Unknown node, was the tree flushed during " +
+					"an operation?");
+		}
+		//Nothing to do, cached nodes are written back by flush().
+	}
+
+	@Override
+	public void discardNode(Externalizable o) {
+		releaseDiscarded(o);
+		discarded.add(o);
+	}
+
+	@Override
+	public void checkValue(Object value) {
+		if (!(value instanceof Integer) || (Integer) value == -1) {
+			throw new IllegalArgumentException(
+					"Only Integer values other than -1 are supported: " + value);
+		}
+	}
+
+	@Override
+	public void flush() {
+		for (Map.Entry<Integer, Externalizable> e: cacheById.entrySet()) {
+			Integer id = e.getKey();
+			Externalizable node = e.getValue();
+			if (node instanceof Node && ((Node) node).getEntryCount() == 0 &&
+					!id.equals(rootId)) {
+				//discarded node
+				releaseId(id);
+				continue;
+			}
+			writeNode(id, node);
+		}
+		cacheById.clear();
+		cacheByObj.clear();
+		discarded.clear();
+	}
+
+	private void writeNode(int id, Externalizable node) {
+		nNodeWrite++;
+		writer.reset();
+		try {
+			writer.writeByte(node instanceof NtNode ? NODE_NT : NODE_PH);
+			node.writeExternal(writer);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		int len = writer.size();
+		long address = addresses[id];
+		if (address != NO_ADDRESS &&
+				OffHeapArena.blockSize(lengths[id] + HEADER_SIZE) !=
+				OffHeapArena.blockSize(len + HEADER_SIZE)) {
+			arena.free(address, lengths[id] + HEADER_SIZE);
+			address = NO_ADDRESS;
+		}
+		if (address == NO_ADDRESS) {
+			address = arena.allocate(len + HEADER_SIZE);
+			addresses[id] = address;
+		}
+		lengths[id] = len;
+		ByteBuffer slab = arena.slab(address);
+		int offs = OffHeapArena.offset(address);
+		slab.putInt(offs, len);
+		writer.copyTo(slab, offs + HEADER_SIZE);
+	}
+
+	private int newId() {
+		if (nFreeIds > 0) {
+			return freeIds[--nFreeIds];
+		}
+		int id = ++idCnt;
+		if (id >= addresses.length) {
+			int oldLen = addresses.length;
+			addresses = Arrays.copyOf(addresses, oldLen * 2);
+			lengths = Arrays.copyOf(lengths, oldLen * 2);
+			Arrays.fill(addresses, oldLen, addresses.length, NO_ADDRESS);
+		}
+		return id;
+	}
+
+	private void releaseId(int id) {
+		if (addresses[id] != NO_ADDRESS) {
+			arena.free(addresses[id], lengths[id] + HEADER_SIZE);
+			addresses[id] = NO_ADDRESS;
+		}
+		if (nFreeIds == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, nFreeIds * 2);
+		}
+		freeIds[nFreeIds++] = id;
+	}
+
+	@Override
+	public String getDescription() {
+		return "OFF-HEAP";
+	}
+
+	@Override
+	public int statsGetPageReads() {
+		return nNodeRead;
+	}
+
+	@Override
+	public int statsGetPageWrites() {
+		return nNodeWrite;
+	}
+
+	@Override
+	public void statsReset() {
+		nNodeRead = 0;
+		nNodeWrite = 0;
+		nNodeNew = 0;
+	}
+
+	/**
+	 * @return Number of nodes in the tree, including nodes that have not been flushed.
+	 */
+	public int getNodeCount() {
+		return idCnt - nFreeIds;
+	}
+
+	/**
+	 * @return Number of nodes that are currently on the heap.
+	 */
+	public int getCachedNodeCount() {
+		return cacheById.size();
+	}
+
+	/**
+	 * @return Off-heap memory reserved by the slabs, in bytes.
+	 */
+	public long getOffHeapBytes() {
+		return arena.getBytesReserved();
+	}
+
+	@Override
+	public String toString() {
+		return "nNodeRead=" + nNodeRead +
+				"  nNodeWrite=" + nNodeWrite +
+				"  nNodeNew=" + nNodeNew +
+				"  cached=" + cacheById.size() +
+				"  slabs=" + arena.getSlabCount() +
+				"  bytesReserved=" + arena.getBytesReserved() +
+				"  bytesUsed=" + arena.getBytesUsed();
+	}
+
+	@Override
+	public void writeTree(PhTree<?> tree, int dims) {
+		this.dims = dims;
+		this.nEntries = 0;
+	}
+
+	@Override
+	public void updateTree(PhTree<?> tree, int dims, int nEntries, Object rootId) {
+		this.dims = dims;
+		this.nEntries = nEntries;
+		this.rootId = rootId;
+	}
+
+	@Override
+	public <T> PhTree<T> loadTree() {
+		return new PhTree12<>(dims, nEntries, rootId, this);
+	}
+
+	/**
+	 * Serializes nodes into a growing byte[].
+	 * Only the primitive methods that are used by the nodes are supported.
+	 */
+	private static class BlockWriter implements ObjectOutput {
+		private byte[] buf = new byte[4096];
+		private int size;
+
+		void reset() {
+			size = 0;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void copyTo(ByteBuffer slab, int offs) {
+			for (int i = 0; i < size; i++) {
+				slab.put(offs + i, buf[i]);
+			}
+		}
+
+		private void ensureCapacity(int n) {
+			if (size + n > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			writeByte(b);
+		}
+
+		@Override
+		public void write(byte[] b) {
+			write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensureCapacity(len);
+			System.arraycopy(b, off, buf, size, len);
+			size += len;
+		}
+
+		@Override
+		public void writeBoolean(boolean v) {
+			writeByte(v ? 1 : 0);
+		}
+
+		@Override
+		public void writeByte(int v) {
+			ensureCapacity(1);
+			buf[size++] = (byte) v;
+		}
+
+		@Override
+		public void writeShort(int v) {
+			writeByte(v >>> 8);
+			writeByte(v);
+		}
+
+		@Override
+		public void writeChar(int v) {
+			writeShort(v);
+		}
+
+		@Override
+		public void writeInt(int v) {
+			writeShort(v >>> 16);
+			writeShort(v);
+		}
+
+		@Override
+		public void writeLong(long v) {
+			writeInt((int) (v >>> 32));
+			writeInt((int) v);
+		}
+
+		@Override
+		public void writeFloat(float v) {
+			writeInt(Float.floatToIntBits(v));
+		}
+
+		@Override
+		public void writeDouble(double v) {
+			writeLong(Double.doubleToLongBits(v));
+		}
+
+		@Override
+		public void writeBytes(String s) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeChars(String s) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeUTF(String s) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void writeObject(Object obj) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void flush() {
+			//nothing
+		}
+
+		@Override
+		public void close() {
+			//nothing
+		}
+	}
+
+	/**
+	 * Deserializes nodes directly from a slab.
+	 * Only the primitive methods that are used by the nodes are supported.
+	 */
+	private static class BlockReader implements ObjectInput {
+		private ByteBuffer slab;
+		private int pos;
+
+		void reset(ByteBuffer slab, int pos) {
+			this.slab = slab;
+			this.pos = pos;
+		}
+
+		@Override
+		public void readFully(byte[] b) {
+			readFully(b, 0, b.length);
+		}
+
+		@Override
+		public void readFully(byte[] b, int off, int len) {
+			for (int i = 0; i < len; i++) {
+				b[off + i] = slab.get(pos++);
+			}
+		}
+
+		@Override
+		public int skipBytes(int n) {
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public boolean readBoolean() {
+			return slab.get(pos++) != 0;
+		}
+
+		@Override
+		public byte readByte() {
+			return slab.get(pos++);
+		}
+
+		@Override
+		public int readUnsignedByte() {
+			return slab.get(pos++) & 0xFF;
+		}
+
+		@Override
+		public short readShort() {
+			short v = slab.getShort(pos);
+			pos += 2;
+			return v;
+		}
+
+		@Override
+		public int readUnsignedShort() {
+			return readShort() & 0xFFFF;
+		}
+
+		@Override
+		public char readChar() {
+			return (char) readShort();
+		}
+
+		@Override
+		public int readInt() {
+			int v = slab.getInt(pos);
+			pos += 4;
+			return v;
+		}
+
+		@Override
+		public long readLong() {
+			long v = slab.getLong(pos);
+			pos += 8;
+			return v;
+		}
+
+		@Override
+		public float readFloat() {
+			return Float.intBitsToFloat(readInt());
+		}
+
+		@Override
+		public double readDouble() {
+			return Double.longBitsToDouble(readLong());
+		}
+
+		@Override
+		public String readLine() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String readUTF() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object readObject() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read() {
+			return readUnsignedByte();
+		}
+
+		@Override
+		public int read(byte[] b) {
+			return read(b, 0, b.length);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			readFully(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return slab.capacity() - pos;
+		}
+
+		@Override
+		public void close() {
+			//nothing
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * Incremental compaction of a PhTree12, see {@link PhTree12#compact(int)}.
+ * <p>
+ * A compaction pass visits all nodes in the order of a depth-first traversal, which is 
+ * the z-order of the node prefixes. Between two calls, the position of the pass is kept
+ * as the prefix of the next node, no node references are kept. This way, the tree can be 
+ * modified between calls.
+ * 
+ * @author ztilmann
+ */
+final class PhCompactor {
+
+	private final PhTree12<?> tree;
+	private final int dims;
+	private final PersistenceProvider pp;
+	private final long[] valTemplate;
+	private final NodeIteratorNoGC<Object> iter;
+	private final NodeEntry<Object> buffer;
+	private final long[] rangeMin;
+	private final long[] rangeMax;
+	private final long[] zBuffer;
+
+	//Prefix and postLen of the next node to compact, 'null' at the start of a pass
+	private long[] cursor = null;
+	private int cursorPostLen;
+	private int budget;
+
+	PhCompactor(PhTree12<?> tree) {
+		this.tree = tree;
+		this.dims = tree.getDim();
+		this.pp = tree.getPersistenceProvider();
+		this.valTemplate = new long[dims];
+		this.iter = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+		this.buffer = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		this.rangeMin = new long[dims];
+		this.rangeMax = new long[dims];
+		Arrays.fill(rangeMin, Long.MIN_VALUE);
+		Arrays.fill(rangeMax, Long.MAX_VALUE);
+		this.zBuffer = new long[dims];
+	}
+
+	/**
+	 * Compact up to 'maxNodes' nodes.
+	 * @param maxNodes maximum number of nodes
+	 * @return true if the pass is complete
+	 */
+	boolean step(int maxNodes) {
+		Node root = tree.getRoot();
+		budget = maxNodes;
+		if (root == null || visit(root, new long[dims], null)) {
+			cursor = null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return false if the budget is exhausted
+	 */
+	private boolean visit(Node node, long[] prefix, Node parent) {
+		int postLen = node.getPostLen();
+		if (cursor != null && compareToCursor(prefix, postLen) < 0) {
+			//The node was compacted in an earlier call. Skip it, unless the cursor 
+			//lies inside the node.
+			if (!isInNode(cursor, prefix, postLen)) {
+				return true;
+			}
+		} else {
+			if (budget == 0) {
+				cursor = prefix;
+				cursorPostLen = postLen;
+				return false;
+			}
+			budget--;
+			if (node.compact(prefix, pp, tree.getNodeConfig())) {
+				pp.updateNode(node);
+			}
+		}
+
+		//Collect the sub-nodes first, because the node may be modified when a sub-node 
+		//is merged into it.
+		List<Node> subs = new ArrayList<>();
+		List<long[]> subPrefixes = new ArrayList<>();
+		System.arraycopy(prefix, 0, valTemplate, 0, dims);
+		iter.init(rangeMin, rangeMax, node, null);
+		while (iter.increment(buffer)) {
+			if (buffer.node != null) {
+				//'valTemplate' contains the prefix of the sub-node
+				subs.add((Node) pp.loadNode(buffer.node));
+				subPrefixes.add(valTemplate.clone());
+			}
+		}
+		for (int i = 0; i < subs.size(); i++) {
+			if (!visit(subs.get(i), subPrefixes.get(i), node)) {
+				return false;
+			}
+		}
+
+		//Nodes with less than two entries should not exist, except for the root. 
+		//This is checked after the sub-nodes, because these may have been merged into
+		//this node.
+		if (parent != null && node.getEntryCount() <= 1) {
+			if (node.getEntryCount() == 1) {
+				node.mergeLonelyIntoParent(prefix, parent, pp);
+			} else {
+				node.removeEmptyFromParent(prefix, parent, pp, tree.getNodeConfig());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares a node with the cursor in traversal order: z-order of the prefix, and
+	 * parent nodes before their sub-nodes. 
+	 */
+	private int compareToCursor(long[] prefix, int postLen) {
+		long mask = postLen == PhTree12.DEPTH_64 - 1 ? 0 : -1L << (postLen + 1);
+		long diff = 0;
+		for (int d = 0; d < dims; d++) {
+			zBuffer[d] = prefix[d] & mask;
+			diff |= zBuffer[d] ^ cursor[d];
+		}
+		if (diff == 0) {
+			return Integer.compare(cursorPostLen, postLen);
+		}
+		//compare the hc-positions at the highest bit that differs
+		int bit = 63 - Long.numberOfLeadingZeros(diff);
+		return Long.compare(PhTreeHelper.posInArray(zBuffer, bit), 
+				PhTreeHelper.posInArray(cursor, bit));
+	}
+
+	private static boolean isInNode(long[] key, long[] prefix, int postLen) {
+		if (postLen == PhTree12.DEPTH_64 - 1) {
+			return true;
+		}
+		long mask = -1L << (postLen + 1);
+		for (int d = 0; d < key.length; d++) {
+			if (((key[d] ^ prefix[d]) & mask) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -28,6 +28,7 @@ import java.util.NoSuchElementException;
 import ch.ethz.globis.phtree.PersistenceProvider;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhTreeHelper;
 import ch.ethz.globis.phtree.PhTree.PhExtent;
 import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
 
@@ -38,6 +39,8 @@ import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
  * respectively to maintain expected behaviour. However, the nextEntryUnstable() method
  * returns the internal PhEntry without creating any new objects. The returned PhEntry and long[]
  * are valid until the next call to nextXXX().
+ * <p>
+ * The iterator is weakly consistent, see {@link PhIteratorNoGC}.
  * 
  * @author ztilmann
  *
@@ -88,12 +91,30 @@ public final class PhIteratorFullNoGC<T> implements PhExtent<T> {
 	private NodeEntry<T> resultFree;
 	private NodeEntry<T> resultToReturn;
 	private boolean isFinished = false;
+	//The iterator advances only when the next entry is requested. Until then, the node 
+	//iterator on top of the stack is positioned at the last returned entry.
+	private boolean advancePending = false;
+	//The last returned entry, 'null' if there is none or if it has been removed
+	private NodeEntry<T> lastEntry;
+	private Node lastNode;
+	private int lastPin;
+	private long lastHcPos;
+	//Entries up to this key are skipped after the tree has been modified, see reseek(). 
+	//This is 'null' once an entry after the key has been found.
+	private long[] resumeKey;
+	private boolean resumeInclusive;
+	private final long[] seekKey;
+	//Modification counter of the tree when the stack was last valid
+	private int modCount;
+	//Modification counter of the tree when the last entry was returned
+	private int lastModCount;
 	
 	public PhIteratorFullNoGC(PhTree12<T> pht, PhFilter checker) {
 		this.dims = pht.getDim();
 		this.checker = checker;
 		this.stack = new PhIteratorStack();
 		this.valTemplate = new long[dims];
+		this.seekKey = new long[dims];
 		this.pht = pht;
 		this.pp = pht.getPersistenceProvider();
 		this.resultFree = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
@@ -104,6 +125,10 @@ public final class PhIteratorFullNoGC<T> implements PhExtent<T> {
 	public PhIteratorFullNoGC<T> reset() {	
 		this.stack.size = 0;
 		this.isFinished = false;
+		this.advancePending = false;
+		this.lastEntry = null;
+		this.resumeKey = null;
+		this.modCount = pht.getModCount();
 		
 		if (pht.getRoot() == null) {
 			//empty index
@@ -116,15 +141,72 @@ public final class PhIteratorFullNoGC<T> implements PhExtent<T> {
 		return this;
 	}
 
+	/**
+	 * The tree has been modified, the node iterators on the stack may be invalid. 
+	 * Descend again and continue after the last returned entry. If the next entry has 
+	 * already been found, it is found again, unless it has been removed.
+	 */
+	private void reseek() {
+		boolean inclusive = !advancePending;
+		this.stack.size = 0;
+		this.advancePending = false;
+		this.modCount = pht.getModCount();
+		Node node = pht.getRoot();
+		if (isFinished || node == null) {
+			isFinished = true;
+			return;
+		}
+		
+		long[] key = seekKey;
+		System.arraycopy(resultToReturn.getKey(), 0, key, 0, dims);
+		//The key has the prefix of all nodes on its path
+		System.arraycopy(key, 0, valTemplate, 0, dims);
+		while (true) {
+			NodeIteratorFullNoGC<T> ni = stack.prepareAndPush(node);
+			long hcPos = PhTreeHelper.posInArray(key, node.getPostLen());
+			Object v = node.doIfMatching(key, true, null, null, null, pht);
+			if (!(v instanceof Node)) {
+				//The entry at 'hcPos' is a post or a sub-node that does not contain 'key'.
+				//It may come before or after 'key', this is checked in findNextElement().
+				ni.resume(hcPos, true);
+				break;
+			}
+			ni.resume(hcPos, false);
+			node = (Node) v;
+		}
+		resumeKey = key;
+		resumeInclusive = inclusive;
+		findNextElement();
+	}
+
 	private void findNextElement() {
 		NodeEntry<T> result = resultFree; 
 		while (!stack.isEmpty()) {
 			NodeIteratorFullNoGC<T> p = stack.peek();
 			while (p.increment(result)) {
 				if (Node.isSubNode(result.getSubCode())) {
-					p = stack.prepareAndPush((Node) pp.loadNode(result.node));
+					Node sub = (Node) pp.loadNode(result.node);
+					if (resumeKey != null) {
+						//'valTemplate' contains the prefix of the sub-node
+						int c = PhTreeHelper.compareZ(valTemplate, resumeKey, 
+								(-1L) << (sub.getPostLen()+1));
+						if (c < 0) {
+							//all entries come before the key
+							continue;
+						} else if (c > 0) {
+							resumeKey = null;
+						}
+					}
+					p = stack.prepareAndPush(sub);
 					continue;
 				} else {
+					if (resumeKey != null) {
+						int c = PhTreeHelper.compareZ(result.getKey(), resumeKey, -1L);
+						if (c < 0 || (c == 0 && !resumeInclusive)) {
+							continue;
+						}
+						resumeKey = null;
+					}
 					resultFree = resultToReturn;
 					resultToReturn = result;
 					return;
@@ -158,6 +240,12 @@ public final class PhIteratorFullNoGC<T> implements PhExtent<T> {
 
 	@Override
 	public boolean hasNext() {
+		if (modCount != pht.getModCount()) {
+			reseek();
+		} else if (advancePending) {
+			advancePending = false;
+			findNextElement();
+		}
 		return !isFinished;
 	}
 
@@ -180,17 +268,89 @@ public final class PhIteratorFullNoGC<T> implements PhExtent<T> {
 	 */
 	@Override
 	public PhEntry<T> nextEntryReuse() {
-		if (isFinished) {
+		if (!hasNext()) {
 			throw new NoSuchElementException();
 		}
-		PhEntry<T> ret = resultToReturn;
-		findNextElement();
-		return ret;
+		NodeIteratorFullNoGC<T> p = stack.peek();
+		lastEntry = resultToReturn;
+		lastNode = p.node();
+		lastPin = p.getCurrentPin();
+		lastHcPos = p.getCurrentPos();
+		lastModCount = modCount;
+		advancePending = true;
+		return lastEntry;
 	}
 
+	/**
+	 * Replaces the value of the last returned entry. The entry is updated in place, 
+	 * the tree is not traversed again.
+	 * @param value the new value
+	 * @throws IllegalStateException if there is no last returned entry or if it has 
+	 * been removed
+	 */
+	@SuppressWarnings("unchecked")
+	public void setValue(T value) {
+		if (lastEntry == null) {
+			throw new IllegalStateException();
+		}
+		Object v = value == null ? PhTreeHelper.NULL : value;
+		pht.getPersistenceProvider().checkValue(v);
+		if (lastModCount != pht.getModCount()) {
+			//The tree has been modified, the entry may have moved
+			if (pht.contains(lastEntry.getKey())) {
+				pht.put(lastEntry.getKey(), value);
+			}
+		} else {
+			lastNode.replaceValueAt(lastPin, lastHcPos, lastEntry.getKey(), v, pp);
+			pp.updateNode(lastNode);
+		}
+		lastEntry.setValue((T) v);
+	}
+
+	/**
+	 * Removes the last returned entry. The entry is removed from the node where it was 
+	 * found, the tree is not traversed again. This must be called before 
+	 * {@link #hasNext()} is called, because that moves the iterator to the next entry.
+	 * @throws IllegalStateException if there is no last returned entry, if it has 
+	 * been removed or if the iterator has moved on
+	 */
 	@Override
 	public void remove() {
-		throw new UnsupportedOperationException();
+		if (lastEntry == null || !advancePending) {
+			throw new IllegalStateException();
+		}
+		if (lastModCount != pht.getModCount()) {
+			//The tree has been modified, the iterator descends again in hasNext()
+			pht.remove(lastEntry.getKey());
+			lastEntry = null;
+			return;
+		}
+		NodeIteratorFullNoGC<T> p = stack.peek();
+		Node node = p.node();
+		Node parent = stack.size > 1 ? stack.stack[stack.size-2].node() : null;
+		//The node is merged into its parent if only one entry remains
+		boolean merge = parent != null && node.getEntryCount() <= 2;
+		boolean remainingAfter = merge && node.hasEntryAfter(lastHcPos, dims, pp);
+		node.removeEntryAt(lastPin, lastHcPos, lastEntry.getKey(), parent, pht);
+		if (pht.isSubtreeCounts()) {
+			for (int i = 0; i < stack.size; i++) {
+				stack.stack[i].node().adjustSubtreeCount(-1);
+			}
+		}
+		lastEntry = null;
+		if (merge) {
+			//The remaining entry has replaced 'node' in the parent. Visit it there, 
+			//unless it has already been visited.
+			stack.pop();
+			p = stack.peek();
+			pp.updateNode(parent);
+			p.resume(p.getCurrentPos(), remainingAfter);
+		} else {
+			pp.updateNode(node);
+			p.resume(lastHcPos, false);
+		}
+		//The stack is still valid
+		modCount = pht.getModCount();
 	}
 	
 }
\ No newline at end of file
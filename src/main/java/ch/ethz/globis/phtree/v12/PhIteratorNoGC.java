@@ -26,6 +26,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 import java.util.NoSuchElementException;
 
 import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhCursor;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
 import ch.ethz.globis.phtree.PhTreeHelper;
@@ -39,6 +40,12 @@ import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
  * respectively to maintain expected behaviour. However, the nextEntryUnstable() method
  * returns the internal PhEntry without creating any new objects. The returned PhEntry and long[]
  * are valid until the next call to nextXXX().
+ * <p>
+ * The iterator is weakly consistent: The tree may be modified during the iteration. 
+ * If the tree has been modified, the iterator descends again to the last returned key and 
+ * continues after it. Entries that are added or removed after that key may or may not be
+ * returned. This only applies to modifications between calls to the iterator, the tree
+ * is not thread-safe.
  * 
  * @author ztilmann
  *
@@ -90,12 +97,30 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 	private NodeEntry<T> resultFree;
 	private NodeEntry<T> resultToReturn;
 	private boolean isFinished = false;
+	//The iterator advances only when the next entry is requested. Until then, the node 
+	//iterator on top of the stack is positioned at the last returned entry.
+	private boolean advancePending = false;
+	//The last returned entry, 'null' if there is none or if it has been removed
+	private NodeEntry<T> lastEntry;
+	private Node lastNode;
+	private int lastPin;
+	private long lastHcPos;
+	//Cursor key after resume(), entries up to this key are skipped. This is 'null' once 
+	//an entry after the cursor key has been found.
+	private long[] resumeKey;
+	private boolean resumeInclusive;
+	private final long[] seekKey;
+	//Modification counter of the tree when the stack was last valid
+	private int modCount;
+	//Modification counter of the tree when the last entry was returned
+	private int lastModCount;
 	
 	public PhIteratorNoGC(PhTree12<T> pht, PhFilter checker) {
 		this.dims = pht.getDim();
 		this.checker = checker;
 		this.stack = new PhIteratorStack();
 		this.valTemplate = new long[dims];
+		this.seekKey = new long[dims];
 		this.pht = pht;
 		this.pp = pht.getPersistenceProvider();
 		this.resultFree = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
@@ -108,6 +133,10 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 		this.rangeMax = rangeMax;
 		this.stack.size = 0;
 		this.isFinished = false;
+		this.advancePending = false;
+		this.lastEntry = null;
+		this.resumeKey = null;
+		this.modCount = pht.getModCount();
 		
 		if (pht.getRoot() == null) {
 			//empty index
@@ -119,15 +148,127 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 		findNextElement();
 	}
 
+	/**
+	 * Reset the query with the window of the cursor and continue after the key of the
+	 * cursor. This allows processing large results in pages without repeating
+	 * the iteration over earlier pages.
+	 * <p>
+	 * Instead of iterating over all entries up to the cursor key, this descends directly 
+	 * to the node that contains the cursor key. The node iterators on the path continue 
+	 * at the hc-position of the cursor key.
+	 * @param cursor the cursor
+	 * @see PhCursor
+	 */
+	public void resume(PhCursor cursor) {
+		long[] key = cursor.getKey();
+		if (key == null) {
+			reset(cursor.getMin(), cursor.getMax());
+			return;
+		}
+		if (key.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + key.length +
+					"  DIM=" + dims);
+		}
+		this.rangeMin = cursor.getMin();
+		this.rangeMax = cursor.getMax();
+		this.lastEntry = null;
+		seek(key, false);
+	}
+
+	/**
+	 * Descend to 'key' and continue the iteration there. 
+	 * @param key the key
+	 * @param inclusive whether 'key' should be returned if it is in the tree
+	 */
+	private void seek(long[] key, boolean inclusive) {
+		this.stack.size = 0;
+		this.isFinished = false;
+		this.advancePending = false;
+		this.modCount = pht.getModCount();
+		
+		Node node = pht.getRoot();
+		if (node == null) {
+			//empty index
+			isFinished = true;
+			return;
+		}
+		
+		//The key has the prefix of all nodes on its path
+		System.arraycopy(key, 0, valTemplate, 0, dims);
+		while (true) {
+			NodeIteratorNoGC<T> ni = stack.prepareAndPush(node);
+			long hcPos = PhTreeHelper.posInArray(key, node.getPostLen());
+			Object v = node.doIfMatching(key, true, null, null, null, pht);
+			if (!(v instanceof Node)) {
+				//The entry at 'hcPos' is a post or a sub-node that does not contain 'key'.
+				//It may come before or after 'key', this is checked in findNextElement().
+				ni.resume(hcPos, true);
+				break;
+			}
+			ni.resume(hcPos, false);
+			node = (Node) v;
+			if (!isInRange(node.getPostLen(), key)) {
+				//The range may have been changed with adjustMinMax()
+				break;
+			}
+		}
+		resumeKey = key;
+		resumeInclusive = inclusive;
+		findNextElement();
+	}
+
+	private boolean isInRange(int postLen, long[] prefix) {
+		long mask = (-1L) << (postLen+1);
+		for (int i = 0; i < dims; i++) {
+			if ((prefix[i] | ~mask) < rangeMin[i] || (prefix[i] & mask) > rangeMax[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The tree has been modified, the node iterators on the stack may be invalid. 
+	 * Descend again and continue after the last returned entry. If the next entry has 
+	 * already been found, it is found again, unless it has been removed.
+	 */
+	private void reseek() {
+		if (isFinished) {
+			modCount = pht.getModCount();
+			return;
+		}
+		System.arraycopy(resultToReturn.getKey(), 0, seekKey, 0, dims);
+		seek(seekKey, !advancePending);
+	}
+
 	private void findNextElement() {
 		NodeEntry<T> result = resultFree; 
 		while (!stack.isEmpty()) {
 			NodeIteratorNoGC<T> p = stack.peek();
 			while (p.increment(result)) {
 				if (result.node != null) {
-					p = stack.prepareAndPush((Node) pp.loadNode(result.node));
+					Node sub = (Node) pp.loadNode(result.node);
+					if (resumeKey != null) {
+						//'valTemplate' contains the prefix of the sub-node
+						int c = PhTreeHelper.compareZ(valTemplate, resumeKey, 
+								(-1L) << (sub.getPostLen()+1));
+						if (c < 0) {
+							//all entries come before the cursor key
+							continue;
+						} else if (c > 0) {
+							resumeKey = null;
+						}
+					}
+					p = stack.prepareAndPush(sub);
 					continue;
 				} else {
+					if (resumeKey != null) {
+						int c = PhTreeHelper.compareZ(result.getKey(), resumeKey, -1L);
+						if (c < 0 || (c == 0 && !resumeInclusive)) {
+							continue;
+						}
+						resumeKey = null;
+					}
 					resultFree = resultToReturn;
 					resultToReturn = result;
 					return;
@@ -161,6 +302,12 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 
 	@Override
 	public boolean hasNext() {
+		if (modCount != pht.getModCount()) {
+			reseek();
+		} else if (advancePending) {
+			advancePending = false;
+			findNextElement();
+		}
 		return !isFinished;
 	}
 
@@ -184,17 +331,89 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 	 */
 	@Override
 	public PhEntry<T> nextEntryReuse() {
-		if (isFinished) {
+		if (!hasNext()) {
 			throw new NoSuchElementException();
 		}
-		PhEntry<T> ret = resultToReturn;
-		findNextElement();
-		return ret;
+		NodeIteratorNoGC<T> p = stack.peek();
+		lastEntry = resultToReturn;
+		lastNode = p.node();
+		lastPin = p.getCurrentPin();
+		lastHcPos = p.getCurrentPos();
+		lastModCount = modCount;
+		advancePending = true;
+		return lastEntry;
 	}
 
+	/**
+	 * Replaces the value of the last returned entry. The entry is updated in place, 
+	 * the tree is not traversed again.
+	 * @param value the new value
+	 * @throws IllegalStateException if there is no last returned entry or if it has 
+	 * been removed
+	 */
+	@SuppressWarnings("unchecked")
+	public void setValue(T value) {
+		if (lastEntry == null) {
+			throw new IllegalStateException();
+		}
+		Object v = value == null ? PhTreeHelper.NULL : value;
+		pht.getPersistenceProvider().checkValue(v);
+		if (lastModCount != pht.getModCount()) {
+			//The tree has been modified, the entry may have moved
+			if (pht.contains(lastEntry.getKey())) {
+				pht.put(lastEntry.getKey(), value);
+			}
+		} else {
+			lastNode.replaceValueAt(lastPin, lastHcPos, lastEntry.getKey(), v, pp);
+			pp.updateNode(lastNode);
+		}
+		lastEntry.setValue((T) v);
+	}
+
+	/**
+	 * Removes the last returned entry. The entry is removed from the node where it was 
+	 * found, the tree is not traversed again. This must be called before 
+	 * {@link #hasNext()} is called, because that moves the iterator to the next entry.
+	 * @throws IllegalStateException if there is no last returned entry, if it has 
+	 * been removed or if the iterator has moved on
+	 */
 	@Override
 	public void remove() {
-		throw new UnsupportedOperationException();
+		if (lastEntry == null || !advancePending) {
+			throw new IllegalStateException();
+		}
+		if (lastModCount != pht.getModCount()) {
+			//The tree has been modified, the iterator descends again in hasNext()
+			pht.remove(lastEntry.getKey());
+			lastEntry = null;
+			return;
+		}
+		NodeIteratorNoGC<T> p = stack.peek();
+		Node node = p.node();
+		Node parent = stack.size > 1 ? stack.stack[stack.size-2].node() : null;
+		//The node is merged into its parent if only one entry remains
+		boolean merge = parent != null && node.getEntryCount() <= 2;
+		boolean remainingAfter = merge && node.hasEntryAfter(lastHcPos, dims, pp);
+		node.removeEntryAt(lastPin, lastHcPos, lastEntry.getKey(), parent, pht);
+		if (pht.isSubtreeCounts()) {
+			for (int i = 0; i < stack.size; i++) {
+				stack.stack[i].node().adjustSubtreeCount(-1);
+			}
+		}
+		lastEntry = null;
+		if (merge) {
+			//The remaining entry has replaced 'node' in the parent. Visit it there, 
+			//unless it has already been visited.
+			stack.pop();
+			p = stack.peek();
+			pp.updateNode(parent);
+			p.resume(p.getCurrentPos(), remainingAfter);
+		} else {
+			pp.updateNode(node);
+			p.resume(lastHcPos, false);
+		}
+		//The stack is still valid
+		modCount = pht.getModCount();
 	}
 
 	/**
@@ -204,6 +423,10 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
 	 * with the new MBBs.  
 	 */
 	public void adjustMinMax() {
+		if (modCount != pht.getModCount()) {
+			//The stack is invalid, the iterator descends again in hasNext()
+			return;
+		}
 		//First check: does the node still intersect with the query rectangle?
 		while (stack.size > 1 && !stack.peek().verifyMinMax()) {
 			stack.pop();
@@ -0,0 +1,147 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import ch.ethz.globis.phtree.PhTreeHelper;
+
+/**
+ * Result of an all-kNN query, see {@link PhTree12#nearestNeighbourAll(int, 
+ * ch.ethz.globis.phtree.PhDistance, java.util.concurrent.ExecutorService)}.
+ * <p>
+ * The entries of the tree are numbered in z-order, i.e. in the order in which they are 
+ * stored in the tree. For every entry, the result contains the indexes of its nearest 
+ * neighbours, ordered by distance, and their distances. The entry itself is not one of 
+ * its neighbours. All data is stored in primitive arrays.
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+public final class PhKnnAllResult<T> {
+
+	private final int dims;
+	private final int nNeighbours;
+	private final long[] keys;
+	private final Object[] values;
+	private final int[] neighbours;
+	private final double[] distances;
+
+	PhKnnAllResult(int dims, int nNeighbours, long[] keys, Object[] values) {
+		this.dims = dims;
+		this.nNeighbours = nNeighbours;
+		this.keys = keys;
+		this.values = values;
+		this.neighbours = new int[values.length * nNeighbours];
+		this.distances = new double[values.length * nNeighbours];
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * @return the number of neighbours of every entry. This is 'k' or, if the tree has
+	 * less than k+1 entries, the number of entries minus one.
+	 */
+	public int getNeighbourCount() {
+		return nNeighbours;
+	}
+
+	/**
+	 * @param i index of the entry
+	 * @return a copy of the key of the entry
+	 */
+	public long[] getKey(int i) {
+		long[] key = new long[dims];
+		System.arraycopy(keys, i*dims, key, 0, dims);
+		return key;
+	}
+
+	/**
+	 * @param i index of the entry
+	 * @return the value of the entry
+	 */
+	@SuppressWarnings("unchecked")
+	public T getValue(int i) {
+		return (T) values[i];
+	}
+
+	/**
+	 * @param i index of the entry
+	 * @param j rank of the neighbour, {@code 0 <= j < getNeighbourCount()}
+	 * @return the index of the j-th nearest neighbour of the entry
+	 */
+	public int getNeighbour(int i, int j) {
+		return neighbours[i*nNeighbours + checkRank(j)];
+	}
+
+	/**
+	 * @param i index of the entry
+	 * @param j rank of the neighbour, {@code 0 <= j < getNeighbourCount()}
+	 * @return the distance of the j-th nearest neighbour of the entry
+	 */
+	public double getDistance(int i, int j) {
+		return distances[i*nNeighbours + checkRank(j)];
+	}
+
+	private int checkRank(int j) {
+		if (j < 0 || j >= nNeighbours) {
+			throw new IndexOutOfBoundsException("j=" + j + " k=" + nNeighbours);
+		}
+		return j;
+	}
+
+	/**
+	 * @param key a key
+	 * @return the index of the entry with the given key, or -1 if there is no such entry
+	 */
+	public int indexOf(long... key) {
+		if (key.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + 
+					key.length + "  DIM=" + dims);
+		}
+		int lo = 0;
+		int hi = values.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = PhTreeHelper.compareZ(keys, mid*dims, key, -1L);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	void set(int i, int j, int neighbour, double distance) {
+		neighbours[i*nNeighbours + j] = neighbour;
+		distances[i*nNeighbours + j] = distance;
+	}
+}
@@ -0,0 +1,238 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * All-kNN query: find the k nearest neighbours of every entry in the tree.
+ * <p>
+ * The entries are processed in z-order, so consecutive entries are usually close to each 
+ * other. This is used in two ways:
+ * <ul>
+ * <li>If 'p' is the previous entry and 'r' the distance of its k-th neighbour, then the 
+ * k-th neighbour of the next entry 'q' is at most {@code r + dist(p, q)} away (for metric 
+ * distances). This is used as initial search distance, which avoids the initial 
+ * estimation of the kNN query. If the estimate turns out too small, the search distance
+ * is increased as in the normal search. The estimate is only used if 
+ * {@code dist(p, q) <= r}, otherwise it is usually worse than the normal estimation (this 
+ * happens mostly in higher dimensions). The normal estimation is then performed in the 
+ * last node of the path to 'q' instead of descending from the root.</li>
+ * <li>The kNN query starts in the deepest node on the path to 'q' that contains the
+ * whole search rectangle, instead of at the root.</li>
+ * </ul>
+ * The work is split by the entries of the root node, i.e. into disjoint subtrees, 
+ * which can be processed in parallel.
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+final class PhQueryKnnAll<T> {
+
+	private final PhDistance dist;
+	private final PhKnnAllResult<T> result;
+	private final int dims;
+	private final int nNeighbours;
+	private final PersistenceProvider pp;
+	private final PhQueryKnnMbbPPList<T> knn;
+	private final Node[] path = new Node[PhTree12.DEPTH_64 + 1];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final NodeIteratorFullNoGC<T>[] iters = new NodeIteratorFullNoGC[PhTree12.DEPTH_64 + 1];
+	private final long[] valTemplate;
+	private final NodeEntry<T> entry;
+	//previous entry
+	private final long[] prevKey;
+	private double prevRadius = Double.NaN;
+
+	private PhQueryKnnAll(PhTree12<T> tree, PhDistance dist, PhKnnAllResult<T> result) {
+		this.dist = dist;
+		this.result = result;
+		this.dims = tree.getDim();
+		this.nNeighbours = result.getNeighbourCount();
+		this.pp = tree.getPersistenceProvider();
+		this.knn = new PhQueryKnnMbbPPList<>(tree);
+		this.valTemplate = new long[dims];
+		this.entry = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		this.prevKey = new long[dims];
+	}
+
+	/**
+	 * @param tree the tree
+	 * @param k number of neighbours
+	 * @param dist distance function
+	 * @param executor executor for parallel processing, can be {@code null}
+	 * @return the neighbours of all entries
+	 * @param <T> value type
+	 */
+	static <T> PhKnnAllResult<T> run(final PhTree12<T> tree, int k, final PhDistance dist, 
+			ExecutorService executor) {
+		int dims = tree.getDim();
+		int n = tree.size();
+		long[] keys = new long[n*dims];
+		Object[] values = new Object[n];
+		PhExtent<T> it = tree.queryExtent();
+		for (int i = 0; i < n; i++) {
+			PhEntry<T> e = it.nextEntryReuse();
+			System.arraycopy(e.getKey(), 0, keys, i*dims, dims);
+			values[i] = e.getValue() == PhTreeHelper.NULL ? null : e.getValue();
+		}
+		final PhKnnAllResult<T> result = 
+				new PhKnnAllResult<>(dims, Math.max(0, Math.min(k, n-1)), keys, values);
+		if (result.getNeighbourCount() == 0) {
+			return result;
+		}
+		
+		//Split the work by the entries of the root node. Entries that are stored directly 
+		//in the root are processed together. 
+		final Node root = tree.getRoot();
+		List<Runnable> tasks = new ArrayList<>();
+		final List<long[]> rootEntries = new ArrayList<>();
+		long[] rootTemplate = new long[dims];
+		NodeIteratorFullNoGC<T> ni = new NodeIteratorFullNoGC<>(dims, rootTemplate, 
+				tree.getPersistenceProvider());
+		NodeEntry<T> e = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		ni.init(root, null);
+		while (ni.increment(e)) {
+			if (Node.isSubNode(e.getSubCode())) {
+				final Node sub = (Node) tree.getPersistenceProvider().loadNode(e.node);
+				final long[] prefix = rootTemplate.clone();
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						new PhQueryKnnAll<>(tree, dist, result).runSubtree(root, sub, prefix);
+					}
+				});
+			} else {
+				rootEntries.add(e.getKey().clone());
+			}
+		}
+		if (!rootEntries.isEmpty()) {
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					PhQueryKnnAll<T> q = new PhQueryKnnAll<>(tree, dist, result);
+					q.path[0] = root;
+					for (long[] key: rootEntries) {
+						q.process(key, 1);
+					}
+				}
+			});
+		}
+		
+		if (executor == null) {
+			for (Runnable task: tasks) {
+				task.run();
+			}
+			return result;
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		for (Runnable task: tasks) {
+			futures.add(executor.submit(task));
+		}
+		try {
+			for (Future<?> f: futures) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+		return result;
+	}
+
+	/**
+	 * Process all entries in the subtree of a sub-node of the root in z-order.
+	 */
+	private void runSubtree(Node root, Node sub, long[] prefix) {
+		System.arraycopy(prefix, 0, valTemplate, 0, dims);
+		path[0] = root;
+		path[1] = sub;
+		iterator(1).init(sub, null);
+		int size = 2;
+		while (size > 1) {
+			if (!iters[size-1].increment(entry)) {
+				size--;
+				continue;
+			}
+			if (Node.isSubNode(entry.getSubCode())) {
+				Node node = (Node) pp.loadNode(entry.node);
+				path[size] = node;
+				iterator(size++).init(node, null);
+				continue;
+			}
+			//'valTemplate' contains the prefix of the current node
+			process(entry.getKey(), size);
+		}
+	}
+
+	private NodeIteratorFullNoGC<T> iterator(int depth) {
+		if (iters[depth] == null) {
+			iters[depth] = new NodeIteratorFullNoGC<>(dims, valTemplate, pp);
+		}
+		return iters[depth];
+	}
+
+	/**
+	 * Find the neighbours of a key.
+	 * @param key the key
+	 * @param pathLen number of nodes on the path from the root to the key
+	 */
+	private void process(long[] key, int pathLen) {
+		double step = Double.isNaN(prevRadius) ? Double.NaN : dist.dist(prevKey, key);
+		if (step <= prevRadius) {
+			knn.reset(nNeighbours+1, dist, prevRadius + step, path, pathLen, valTemplate, key);
+		} else {
+			//no previous key or the bound would be too loose
+			knn.reset(nNeighbours+1, dist, path, pathLen, key);
+		}
+		int i = result.indexOf(key);
+		int j = 0;
+		double radius = 0;
+		while (knn.hasNext()) {
+			PhEntryDist<T> e = knn.nextEntryReuse();
+			radius = e.dist();
+			if (j < nNeighbours && !Arrays.equals(key, e.getKey())) {
+				result.set(i, j++, result.indexOf(e.getKey()), e.dist());
+			}
+		}
+		prevRadius = radius;
+		System.arraycopy(key, 0, prevKey, 0, dims);
+	}
+}
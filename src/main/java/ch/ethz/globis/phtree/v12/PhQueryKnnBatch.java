@@ -0,0 +1,210 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.KnnBatchConsumer;
+
+/**
+ * Batch kNN query: find the k nearest neighbours for many query points.
+ * <p>
+ * The query points are processed in z-order, so consecutive query points are usually 
+ * close to each other. This is used in two ways:
+ * <ul>
+ * <li>The path from the root to the query point is not descended from the root for 
+ * every query point. Only the nodes that do not contain the next query point are removed 
+ * from the path of the previous query point, then the path is extended downwards.</li>
+ * <li>If 'p' is the previous query point and 'r' the distance of its k-th neighbour, 
+ * then the k-th neighbour of the next query point 'q' is at most {@code r + dist(p, q)} 
+ * away. If {@code dist(p, q) <= r}, this is used as initial search distance, which 
+ * avoids the distance estimation of the kNN query. Otherwise the distance is estimated 
+ * in the last node of the path, see {@link PhQueryKnnAll}.</li>
+ * </ul>
+ * In both cases the search starts in the deepest node of the path that contains the 
+ * search rectangle. 
+ * The sorted query points can be split into chunks that are processed in parallel.
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+final class PhQueryKnnBatch<T> {
+
+	//Minimum number of query points per parallel task
+	private static final int MIN_CHUNK_SIZE = 256;
+
+	private final PhTree12<T> tree;
+	private final int k;
+	private final PhDistance dist;
+	private final long[][] centers;
+	private final KnnBatchConsumer<T> consumer;
+	private final int dims;
+	private final PhQueryKnnMbbPPList<T> knn;
+	private final Node[] path = new Node[PhTree12.DEPTH_64 + 1];
+	private int pathLen = 0;
+	//previous query point
+	private long[] prevCenter;
+	private double prevRadius = Double.NaN;
+
+	private PhQueryKnnBatch(PhTree12<T> tree, int k, PhDistance dist, long[][] centers, 
+			KnnBatchConsumer<T> consumer) {
+		this.tree = tree;
+		this.k = k;
+		this.dist = dist;
+		this.centers = centers;
+		this.consumer = consumer;
+		this.dims = tree.getDim();
+		this.knn = new PhQueryKnnMbbPPList<>(tree);
+	}
+
+	/**
+	 * @param tree the tree
+	 * @param k number of neighbours
+	 * @param dist distance function
+	 * @param centers the query points
+	 * @param consumer the consumer for the results
+	 * @param executor executor for parallel processing, can be {@code null}
+	 * @param <T> value type
+	 */
+	static <T> void run(PhTree12<T> tree, int k, PhDistance dist, final long[][] centers, 
+			KnnBatchConsumer<T> consumer, ExecutorService executor) {
+		final int dims = tree.getDim();
+		Integer[] order = new Integer[centers.length];
+		for (int i = 0; i < centers.length; i++) {
+			if (centers[i].length != dims) {
+				throw new IllegalArgumentException("Invalid number of arguments: " + 
+						centers[i].length + "  DIM=" + dims);
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return PhTreeHelper.compareZ(centers[i1], centers[i2], -1L);
+			}
+		});
+		
+		int nChunks = 1;
+		if (executor != null) {
+			int nThreads = Runtime.getRuntime().availableProcessors();
+			nChunks = Math.max(1, Math.min(4*nThreads, centers.length / MIN_CHUNK_SIZE));
+		}
+		if (nChunks == 1) {
+			new PhQueryKnnBatch<>(tree, k, dist, centers, consumer).run(order, 0, order.length);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		for (int c = 0; c < nChunks; c++) {
+			final PhQueryKnnBatch<T> q = new PhQueryKnnBatch<>(tree, k, dist, centers, consumer);
+			final Integer[] fOrder = order;
+			final int start = (int) ((long) centers.length * c / nChunks);
+			final int end = (int) ((long) centers.length * (c+1) / nChunks);
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					q.run(fOrder, start, end);
+				}
+			}));
+		}
+		try {
+			for (Future<?> f: futures) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+	}
+
+	private void run(Integer[] order, int start, int end) {
+		for (int i = start; i < end; i++) {
+			int index = order[i];
+			long[] center = centers[index];
+			updatePath(center);
+			double step = Double.isNaN(prevRadius) ? Double.NaN : dist.dist(prevCenter, center);
+			if (step <= prevRadius) {
+				//'center' has the same prefix as all nodes in 'path'
+				knn.reset(k, dist, prevRadius + step, path, pathLen, center, center);
+			} else if (pathLen > 0) {
+				//no previous query point or the bound would be too loose
+				knn.reset(k, dist, path, pathLen, center);
+			} else {
+				//empty tree
+				knn.reset(k, dist, center);
+			}
+			prevRadius = knn.getMaxResultDistance();
+			prevCenter = center;
+			consumer.accept(index, knn);
+		}
+	}
+
+	/**
+	 * Adjust the path such that it contains all nodes that contain 'center'.
+	 */
+	private void updatePath(long[] center) {
+		if (pathLen == 0) {
+			Node root = tree.getRoot();
+			if (root == null) {
+				return;
+			}
+			path[pathLen++] = root;
+		} else {
+			//remove nodes that do not contain 'center'. The root contains everything.
+			while (pathLen > 1 && !contains(path[pathLen-1], center)) {
+				pathLen--;
+			}
+		}
+		Object v = path[pathLen-1].doIfMatching(center, true, null, null, null, tree);
+		while (v instanceof Node) {
+			Node node = (Node) v;
+			path[pathLen++] = node;
+			v = node.doIfMatching(center, true, null, null, null, tree);
+		}
+	}
+
+	/**
+	 * @param node a node in 'path', it contains 'prevCenter'
+	 * @return true if the node also contains 'center'
+	 */
+	private boolean contains(Node node, long[] center) {
+		long mask = (-1L) << (node.getPostLen()+1);
+		for (int i = 0; i < dims; i++) {
+			if (((center[i] ^ prevCenter[i]) & mask) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
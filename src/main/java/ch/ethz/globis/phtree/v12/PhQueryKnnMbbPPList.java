@@ -28,6 +28,7 @@ import java.util.NoSuchElementException;
 
 import ch.ethz.globis.phtree.PersistenceProvider;
 import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceNode;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhEntryDist;
 import ch.ethz.globis.phtree.PhFilterDistance;
@@ -62,6 +63,12 @@ import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
  * increase in the search volume. 
  *   
  *   
+ * Approximate mode: With {@link #setApproximation(double, int)} the query prunes
+ * nodes and shrinks the query rectangle using {@code maxDistance/(1+epsilon)}. 
+ * Every returned i-th neighbour is then at most (1+epsilon) times as far away as the exact 
+ * i-th neighbour. Optionally, the number of visited nodes can be limited, in that case the
+ * query returns the best candidates found within the budget, which may be less than 'k'.
+ *   
  * WARNING:
  * The query rectangle is calculated using the PhDistance.toMBB() method.
  * The implementation of this method may not work with non-euclidean spaces! 
@@ -83,6 +90,9 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 	private final KnnResultList results; 
 	private final NodeIteratorFullNoGC<T> ni;
 	private final long[] niBuffer; 
+	//approximation: 1/(1+epsilon)
+	private double approxFactor = 1;
+	private int maxNodeVisits = Integer.MAX_VALUE;
 
 
 	/**
@@ -135,6 +145,41 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 		return nextValue();
 	}
 
+	/**
+	 * Configure approximate kNN search. The setting applies to all subsequent calls to
+	 * {@link #reset(int, PhDistance, long...)}.
+	 * @param epsilon the maximum relative error of the distance of returned neighbours, 
+	 * {@code 0} for exact results
+	 * @param maxNodeVisits the maximum number of nodes that are traversed, 
+	 * {@code Integer.MAX_VALUE} for no limit. If the budget is exhausted, the query returns 
+	 * the best entries found so far, this may be less than 'k'.
+	 * @return this
+	 */
+	public PhQueryKnnMbbPPList<T> setApproximation(double epsilon, int maxNodeVisits) {
+		if (!(epsilon >= 0) || maxNodeVisits < 1) {
+			throw new IllegalArgumentException("epsilon=" + epsilon + 
+					" maxNodeVisits=" + maxNodeVisits);
+		}
+		this.approxFactor = 1/(1+epsilon);
+		this.maxNodeVisits = maxNodeVisits;
+		return this;
+	}
+
+	/**
+	 * @return the number of nodes that were traversed by the last query, excluding the root
+	 */
+	public int getNodeVisits() {
+		return results.nNodeVisits;
+	}
+
+	/**
+	 * @return the distance of the farthest entry returned by the last query, or 
+	 * {@code NaN} if the last query returned no entries
+	 */
+	double getMaxResultDistance() {
+		return results.size() == 0 ? Double.NaN : results.distData[results.size()-1];
+	}
+
 	@Override
 	public PhKnnQuery<T> reset(int nMin, PhDistance dist, long... center) {
 		this.distance = dist == null ? this.distance : dist;
@@ -151,6 +196,117 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 		return this;
 	}
 
+	/**
+	 * Same as {@link #reset(int, PhDistance, long...)}, except that the search starts with 
+	 * a known estimate of the distance of the nMin-th neighbour. 
+	 * This avoids the initial estimation. If the estimate is too small, the search distance
+	 * is increased as in the normal search. 
+	 * <p>
+	 * The search starts in the deepest node of 'path' that contains the whole search 
+	 * rectangle, instead of the root.
+	 * @param nMin number of neighbours
+	 * @param dist distance function
+	 * @param maxDist estimated distance of the nMin-th neighbour
+	 * @param path nodes on a path from the root, {@code path[0]} is the root
+	 * @param pathLen number of nodes in 'path'
+	 * @param prefix contains the prefix of the last node in 'path', and therefore of all 
+	 * nodes in 'path'
+	 * @param center the center
+	 * @return this
+	 */
+	PhKnnQuery<T> reset(int nMin, PhDistance dist, double maxDist, 
+			Node[] path, int pathLen, long[] prefix, long[] center) {
+		this.distance = dist == null ? this.distance : dist;
+		this.nMin = nMin;
+		currentPos = 0;
+		if (nMin <= 0 || pht.size() <= nMin || !(maxDist > 0 && maxDist < Double.MAX_VALUE)) {
+			return reset(nMin, dist, center);
+		}
+		results.reset(nMin, center);
+		while (!findNeighbours(maxDist, nMin, center, path, pathLen, prefix)) {
+			if (results.nNodeVisits >= maxNodeVisits) {
+				//budget exhausted, return what we found
+				break;
+			}
+			maxDist *= 10;
+		}
+		return this;
+	}
+
+	/**
+	 * Same as {@link #reset(int, PhDistance, long...)}, except that the initial distance 
+	 * estimate is calculated in the last node of 'path' instead of descending from the root.
+	 * The search starts in the deepest node of 'path' that contains the whole search 
+	 * rectangle, see {@link #reset(int, PhDistance, double, Node[], int, long[], long[])}.
+	 * @param nMin number of neighbours
+	 * @param dist distance function
+	 * @param path nodes on the path from the root to 'center', i.e. every node in 'path'
+	 * contains 'center'. {@code path[0]} is the root. 
+	 * @param pathLen number of nodes in 'path'
+	 * @param center the center
+	 * @return this
+	 */
+	PhKnnQuery<T> reset(int nMin, PhDistance dist, Node[] path, int pathLen, long[] center) {
+		if (nMin <= 0 || pht.size() <= nMin) {
+			return reset(nMin, dist, center);
+		}
+		this.distance = dist == null ? this.distance : dist;
+		this.nMin = nMin;
+		double estimate = estimateDistance(center, path[pathLen-1]);
+		return reset(nMin, dist, estimate, path, pathLen, center, center);
+	}
+
+	/**
+	 * Count the entries that are closer than 'maxDist' to 'center', the entry at 'center' 
+	 * itself is not counted. Counting stops at 'limit'.
+	 * <p>
+	 * The search starts in the deepest node of 'path' that contains the whole search 
+	 * rectangle, see {@link #reset(int, PhDistance, double, Node[], int, long[], long[])}.
+	 * @param dist distance function
+	 * @param maxDist the distance, entries with exactly this distance are not counted
+	 * @param limit maximum count
+	 * @param path nodes on a path from the root, {@code path[0]} is the root
+	 * @param pathLen number of nodes in 'path'
+	 * @param prefix contains the prefix of the last node in 'path'
+	 * @param center the center
+	 * @return the number of closer entries or 'limit', whichever is smaller
+	 */
+	int countCloser(PhDistance dist, double maxDist, int limit, 
+			Node[] path, int pathLen, long[] prefix, long[] center) {
+		this.distance = dist == null ? this.distance : dist;
+		this.nMin = limit + 1;
+		currentPos = 0;
+		//one extra slot for 'center' itself
+		results.reset(limit + 1, center);
+		findNeighbours(maxDist, limit + 1, center, path, pathLen, prefix);
+		int n = 0;
+		for (int i = 0; i < results.size() && n < limit; i++) {
+			if (results.distData[i] < maxDist && !Arrays.equals(center, results.data[i].getKey())) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return true if the node with the given prefix and postLen covers the whole
+	 * search rectangle 'mbbMin'/'mbbMax'
+	 */
+	private boolean containsWindow(long[] prefix, int postLen) {
+		if (postLen >= PhTree12.DEPTH_64-1) {
+			return true;
+		}
+		long mask = (-1L) << (postLen+1);
+		for (int i = 0; i < prefix.length; i++) {
+			long lower = prefix[i] & mask;
+			long upper = lower | ~mask;
+			if (mbbMin[i] < lower || mbbMax[i] > upper) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private double estimateDistance(long[] key, Node node) {
 		Object v = node.doIfMatching(key, true, null, null, null, pht);
 		if (v == null) {
@@ -279,15 +435,32 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 		double estimatedDist = estimateDistance(val, pht.getRoot());
 
 		while (!findNeighbours(estimatedDist, nMin, val)) {
+			if (results.nNodeVisits >= maxNodeVisits) {
+				//budget exhausted, return what we found
+				return;
+			}
 			estimatedDist *= 10;
 		}
 	}
 
 	private final boolean findNeighbours(double maxDist, int nMin, long[] val) {
+		return findNeighbours(maxDist, nMin, val, null, 0, null);
+	}
+
+	private final boolean findNeighbours(double maxDist, int nMin, long[] val, 
+			Node[] path, int pathLen, long[] prefix) {
 		results.maxDistance = maxDist;
 		checker.set(val, distance, maxDist);
 		distance.toMBB(maxDist, val, mbbMin, mbbMax);
-		iter.resetAndRun(pht.getRoot(), mbbMin, mbbMax, Integer.MAX_VALUE);
+		int start = pathLen - 1;
+		while (start > 0 && !containsWindow(prefix, path[start].getPostLen())) {
+			start--;
+		}
+		if (start > 0) {
+			iter.resetAndRun(path[start], prefix, mbbMin, mbbMax, Integer.MAX_VALUE);
+		} else {
+			iter.resetAndRun(pht.getRoot(), mbbMin, mbbMax, Integer.MAX_VALUE);
+		}
 
 		if (results.size() < nMin) {
 			//too small, we need a bigger range
@@ -308,10 +481,14 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 		private double prevMaxDistance = maxDistance;
 		private final int dims;
 		private long[] center;
+		private int nNodeVisits;
+		//buffer for prefix checks
+		private final long[] prefixBuf;
 		
 		KnnResultList(int dims) {
 			this.free = new NodeEntry<>(new long[dims], Byte.MIN_VALUE, null, Double.NaN);
 			this.dims = dims;
+			this.prefixBuf = new long[dims];
 		}
 		
 		private NodeEntry<T> createEntry() {
@@ -322,6 +499,7 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 		void reset(int newSize, long[] center) {
 			size = 0;
 			this.center = center;
+			nNodeVisits = 0;
 			maxDistance = Double.MAX_VALUE;
 			if (data == null) {
 				data = new NodeEntry[newSize];
@@ -375,7 +553,7 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 					//TODO WHAT!!!?????? For nMin=1 we should not even get here!!!! (special case, see main method)
 					if (dims < 6 || data.length > 1 || oldMaxD/maxDistance > 1.1) {
 						//adjust minimum bounding box.
-						distance.toMBB(maxDistance, center, mbbMin, mbbMax);
+						distance.toMBB(maxDistance*approxFactor, center, mbbMin, mbbMax);
 						//prevMaxDistance = oldMaxD;
 					}
 //					if (madXIstNew - maxDistOld > nodeWidth/2) {
@@ -513,9 +691,24 @@ public class PhQueryKnnMbbPPList<T> implements PhKnnQuery<T> {
 
 		@Override
 		boolean phIsPrefixValid(long[] prefix, int bitsToIgnore) {
+			if (nNodeVisits >= maxNodeVisits) {
+				return false;
+			}
+			if (isPrefixInRange(prefix, bitsToIgnore, maxDistance*approxFactor)) {
+				nNodeVisits++;
+				return true;
+			}
+			return false;
+		}
+		
+		private boolean isPrefixInRange(long[] prefix, int bitsToIgnore, double maxDistance) {
+			if (distance instanceof PhDistanceNode) {
+				return ((PhDistanceNode) distance).distToNode(center, prefix, bitsToIgnore) 
+						<= maxDistance;
+			}
 			long maskMin = (-1L) << bitsToIgnore;
 			long maskMax = ~maskMin;
-			long[] buf = new long[prefix.length];
+			long[] buf = prefixBuf;
 			for (int i = 0; i < buf.length; i++) {
 				//if v is outside the node, return distance to closest edge,
 				//otherwise return v itself (assume possible distance=0)
@@ -0,0 +1,202 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * Reverse kNN query: find all entries that have the query point among their k nearest 
+ * neighbours.
+ * <p>
+ * The query traverses the whole tree and prunes sub-nodes with a per-node bound: 
+ * if a node contains at least k+1 entries and its diagonal is shorter than the minimum 
+ * distance between the node and the query point, then every entry in the node has 
+ * at least k other entries (in the same node) that are closer than the query point.
+ * The entries of a node are counted only up to k+1, or taken from the subtree count 
+ * if it is enabled.
+ * <p>
+ * The remaining entries are verified by counting the entries that are closer than the 
+ * query point, see {@link PhQueryKnnMbbPPList#countCloser}. This search starts in the 
+ * deepest node on the path to the entry that contains the search rectangle.
+ * <p>
+ * The pruning only works in low dimensions. The diagonal of a node grows with the number 
+ * of dimensions while the distances between entries become more similar, so fewer nodes 
+ * can be skipped. For uniformly distributed data in 2 or 3 dimensions, the query is much 
+ * faster than one kNN query per entry. With 6 or more dimensions, it is hardly 
+ * faster than that (50k entries, k=5, 6D: 3.4-6.4s vs 5.6-6.6s per query).
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+final class PhQueryReverseKnn<T> {
+
+	private final PhTree12<T> tree;
+	private final PhDistance dist;
+	private final int k;
+	private final long[] center;
+	private final int dims;
+	private final PersistenceProvider pp;
+	private final PhQueryKnnMbbPPList<T> knn;
+	private final Node[] path = new Node[PhTree12.DEPTH_64 + 1];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final NodeIteratorFullNoGC<T>[] iters = new NodeIteratorFullNoGC[PhTree12.DEPTH_64 + 1];
+	private final long[] valTemplate;
+	private final NodeEntry<T> entry;
+	//node corners
+	private final long[] lower;
+	private final long[] upper;
+	private final long[] closest;
+	//for counting the entries of a sub-node
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final NodeIteratorFullNoGC<T>[] countIters = 
+			new NodeIteratorFullNoGC[PhTree12.DEPTH_64 + 1];
+	private final long[] countTemplate;
+	private final NodeEntry<T> countEntry;
+
+	private PhQueryReverseKnn(PhTree12<T> tree, int k, PhDistance dist, long[] center) {
+		this.tree = tree;
+		this.dist = dist;
+		this.k = k;
+		this.center = center;
+		this.dims = tree.getDim();
+		this.pp = tree.getPersistenceProvider();
+		this.knn = new PhQueryKnnMbbPPList<>(tree);
+		this.valTemplate = new long[dims];
+		this.entry = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		this.lower = new long[dims];
+		this.upper = new long[dims];
+		this.closest = new long[dims];
+		this.countTemplate = new long[dims];
+		this.countEntry = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+	}
+
+	/**
+	 * @param tree the tree
+	 * @param k number of neighbours
+	 * @param dist distance function
+	 * @param center the query point
+	 * @return the entries with their distance from 'center'
+	 * @param <T> value type
+	 */
+	static <T> List<PhEntryDist<T>> run(PhTree12<T> tree, int k, PhDistance dist, 
+			long[] center) {
+		List<PhEntryDist<T>> ret = new ArrayList<>();
+		Node root = tree.getRoot();
+		if (root != null) {
+			new PhQueryReverseKnn<>(tree, k, dist, center).run(root, ret);
+		}
+		return ret;
+	}
+
+	private void run(Node root, List<PhEntryDist<T>> ret) {
+		path[0] = root;
+		iterator(0).init(root, null);
+		int size = 1;
+		while (size > 0) {
+			if (!iters[size-1].increment(entry)) {
+				size--;
+				continue;
+			}
+			if (Node.isSubNode(entry.getSubCode())) {
+				//'valTemplate' contains the prefix of the sub-node
+				Node node = (Node) pp.loadNode(entry.node);
+				if (canPrune(node)) {
+					continue;
+				}
+				path[size] = node;
+				iterator(size++).init(node, null);
+				continue;
+			}
+			long[] key = entry.getKey();
+			if (Arrays.equals(key, center)) {
+				continue;
+			}
+			double d = dist.dist(center, key);
+			//'key' has the same prefix as all nodes in 'path'
+			if (knn.countCloser(dist, d, k, path, size, key, key) < k) {
+				T v = entry.getValue();
+				ret.add(new PhEntryDist<>(key.clone(), v == PhTreeHelper.NULL ? null : v, d));
+			}
+		}
+	}
+
+	private NodeIteratorFullNoGC<T> iterator(int depth) {
+		if (iters[depth] == null) {
+			iters[depth] = new NodeIteratorFullNoGC<>(dims, valTemplate, pp);
+		}
+		return iters[depth];
+	}
+
+	/**
+	 * @param node a sub-node, 'valTemplate' must contain its prefix
+	 * @return true if no entry in the node can have 'center' among its k nearest neighbours
+	 */
+	private boolean canPrune(Node node) {
+		long mask = (-1L) << (node.getPostLen()+1);
+		for (int i = 0; i < dims; i++) {
+			lower[i] = valTemplate[i] & mask;
+			upper[i] = lower[i] | ~mask;
+			closest[i] = center[i] < lower[i] ? lower[i] : (center[i] > upper[i] ? upper[i] : center[i]);
+		}
+		//fails for NaN
+		if (!(dist.dist(lower, upper) < dist.dist(center, closest))) {
+			return false;
+		}
+		if (tree.isSubtreeCounts()) {
+			return node.getSubtreeCount() > k;
+		}
+		return countUpTo(node, 0, k+1) > k;
+	}
+
+	/**
+	 * @return the number of entries in the subtree or at least 'limit'
+	 */
+	private int countUpTo(Node node, int depth, int limit) {
+		if (countIters[depth] == null) {
+			countIters[depth] = new NodeIteratorFullNoGC<>(dims, countTemplate, pp);
+		}
+		NodeIteratorFullNoGC<T> it = countIters[depth];
+		it.init(node, null);
+		int n = 0;
+		while (n < limit && it.increment(countEntry)) {
+			if (Node.isSubNode(countEntry.getSubCode())) {
+				//every sub-node has at least two entries
+				n += limit - n <= 2 ? 2 : 
+					countUpTo((Node) pp.loadNode(countEntry.node), depth+1, limit-n);
+			} else {
+				n++;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,171 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * Sampling frame for a query window. Every entry in the window has a rank in 
+ * {@code [0, size())}, {@link #get(int)} returns the entry for a given rank.
+ * <p>
+ * The frame consists of the sub-nodes that lie completely inside the window and of 
+ * the entries of the nodes that intersect with the border of the window. Building the frame 
+ * costs about the same as counting the window with subtree counts. 
+ * Finding an entry by rank descends from a frame node, guided by the subtree counts of 
+ * the sub-nodes. This requires subtree counts to be enabled in the tree.
+ * <p>
+ * The frame is only valid as long as the tree is not modified.
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+final class PhSampler<T> {
+
+	private final int dims;
+	private final long[] rangeMin;
+	private final long[] rangeMax;
+	private final PersistenceProvider pp;
+	private final long[] valTemplate;
+	private final NodeIteratorNoGC<T> iter;
+	private final NodeEntry<T> buffer;
+
+	//Frame parts: either a Node or a PhEntry
+	private final List<Object> parts = new ArrayList<>();
+	//For nodes: the prefix of the node
+	private final List<long[]> prefixes = new ArrayList<>();
+	//Cumulative number of entries up to and including the part
+	private int[] ends = new int[16];
+	private int size = 0;
+	
+	PhSampler(PhTree12<T> pht, Node root, long[] rangeMin, long[] rangeMax) {
+		this.dims = pht.getDim();
+		this.rangeMin = rangeMin;
+		this.rangeMax = rangeMax;
+		this.pp = pht.getPersistenceProvider();
+		this.valTemplate = new long[dims];
+		this.iter = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+		this.buffer = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		if (root != null) {
+			buildFrame(root);
+		}
+	}
+	
+	private void buildFrame(Node root) {
+		if (PhTree12.isInside(valTemplate, root.getPostLen(), rangeMin, rangeMax)) {
+			addPart(root, root.getSubtreeCount());
+			return;
+		}
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		NodeIteratorNoGC<T>[] stack = new NodeIteratorNoGC[PhTree12.DEPTH_64];
+		stack[0] = iter;
+		stack[0].init(rangeMin, rangeMax, root, null);
+		int stackSize = 1;
+		while (stackSize > 0) {
+			if (!stack[stackSize-1].increment(buffer)) {
+				stackSize--;
+				continue;
+			}
+			if (buffer.node == null) {
+				addPart(new PhEntry<>(buffer.getKey().clone(), value(buffer.getValue())), 1);
+				continue;
+			}
+			//'valTemplate' contains the prefix of the sub-node
+			Node sub = (Node) pp.loadNode(buffer.node);
+			if (PhTree12.isInside(valTemplate, sub.getPostLen(), rangeMin, rangeMax)) {
+				addPart(sub, sub.getSubtreeCount());
+				continue;
+			}
+			if (stack[stackSize] == null) {
+				stack[stackSize] = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+			}
+			stack[stackSize++].init(rangeMin, rangeMax, sub, null);
+		}
+	}
+	
+	private void addPart(Object part, int count) {
+		if (parts.size() == ends.length) {
+			ends = Arrays.copyOf(ends, ends.length*2);
+		}
+		size += count;
+		ends[parts.size()] = size;
+		parts.add(part);
+		prefixes.add(part instanceof Node ? valTemplate.clone() : null);
+	}
+	
+	/**
+	 * @return Number of entries in the window
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * @param rank the rank, must be in {@code [0, size())}
+	 * @return The entry with the given rank
+	 */
+	@SuppressWarnings("unchecked")
+	PhEntry<T> get(int rank) {
+		//find first part with end > rank
+		int pos = Arrays.binarySearch(ends, 0, parts.size(), rank);
+		pos = pos >= 0 ? pos + 1 : -(pos + 1);
+		Object part = parts.get(pos);
+		if (!(part instanceof Node)) {
+			return new PhEntry<>((PhEntry<T>) part);
+		}
+		int r = rank - (pos > 0 ? ends[pos-1] : 0);
+		long[] prefix = prefixes.get(pos);
+		System.arraycopy(prefix, 0, valTemplate, 0, dims);
+		iter.init(rangeMin, rangeMax, (Node) part, null);
+		while (iter.increment(buffer)) {
+			if (buffer.node == null) {
+				if (r == 0) {
+					return new PhEntry<>(buffer.getKey().clone(), value(buffer.getValue()));
+				}
+				r--;
+				continue;
+			}
+			Node sub = (Node) pp.loadNode(buffer.node);
+			int c = sub.getSubtreeCount();
+			if (r < c) {
+				//'valTemplate' contains the prefix of the sub-node
+				iter.init(rangeMin, rangeMax, sub, null);
+			} else {
+				r -= c;
+			}
+		}
+		throw new IllegalStateException("Inconsistent subtree counts, rank=" + rank);
+	}
+	
+	private T value(T v) {
+		return v == PhTreeHelper.NULL ? null : v;
+	}
+}
@@ -8,7 +8,17 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import ch.ethz.globis.phtree.PersistenceProvider;
@@ -17,11 +27,16 @@ import ch.ethz.globis.phtree.PhDistanceL;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhEntryDist;
 import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterDimensions;
 import ch.ethz.globis.phtree.PhFilterDistance;
+import ch.ethz.globis.phtree.PhPredicate;
 import ch.ethz.globis.phtree.PhRangeQuery;
 import ch.ethz.globis.phtree.PhTree;
 import ch.ethz.globis.phtree.PhTreeConfig;
 import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.PhVisitor;
+import ch.ethz.globis.phtree.util.PhBiFunction;
+import ch.ethz.globis.phtree.util.PhFunction;
 import ch.ethz.globis.phtree.util.PhMapper;
 import ch.ethz.globis.phtree.util.PhTreeStats;
 import ch.ethz.globis.phtree.util.StringBuilderLn;
@@ -91,7 +106,8 @@ public class PhTree12<T> extends PhTree<T> {
 			PERS_ENABLED ? new PersProviderOStr() : PersistenceProvider.NONE;
 	
 	//This threshold is used to decide during query iteration whether the first value
-	//should be found by binary search or by full scan.
+	//should be found by binary search or by full scan. It is only used by the 'fixed'
+	//HciCostModel.
 	public static final int LHC_BINARY_SEARCH_THRESHOLD = 50;
 	
 	static final int DEPTH_64 = 64;
@@ -103,9 +119,21 @@ public class PhTree12<T> extends PhTree<T> {
 	private final int dims;
 
 	private final AtomicInteger nEntries = new AtomicInteger();
+
+	//Maintain the number of entries in the subtree of each node, see count()
+	private final boolean subtreeCounts;
 	
 	private Object rootId = null;
 
+	//Settings for the node representation
+	private final NodeConfig nodeConfig;
+
+	//Position of the current compaction pass, see compact()
+	private PhCompactor compactor = null;
+
+	//Changes whenever entries are added, removed or moved, see getModCount()
+	private int modCount = 0;
+
 	
 	/**
 	 * @param <T>
@@ -156,11 +184,19 @@ public class PhTree12<T> extends PhTree<T> {
 
 	public PhTree12(int dim) {
 		dims = dim;
+		subtreeCounts = false;
+		nodeConfig = NodeConfig.createDefault();
 		debugCheck();
 	}
 
 	public PhTree12(PhTreeConfig cfg) {
+		if (cfg.isSubtreeCounts() && cfg.getPersistenceProvider() != PersistenceProvider.NONE) {
+			throw new IllegalArgumentException(
+					"Subtree counts are not supported with a PersistenceProvider.");
+		}
 		dims = cfg.getDimActual();
+		subtreeCounts = cfg.isSubtreeCounts();
+		nodeConfig = NodeConfig.create(cfg);
 		pp = cfg.getPersistenceProvider();
 		pp.writeTree(this, dims);
 		debugCheck();
@@ -168,17 +204,29 @@ public class PhTree12<T> extends PhTree<T> {
 
 	public PhTree12(int dims, int nEntries, Object rootId, PersistenceProvider pp) {
 		this.dims = dims;
+		this.subtreeCounts = false;
+		this.nodeConfig = NodeConfig.createDefault();
 		this.nEntries.set(nEntries);
 		this.rootId = rootId;
 		this.pp = pp;
 	}
 	
+	NodeConfig getNodeConfig() {
+		return nodeConfig;
+	}
+
+	boolean isSubtreeCounts() {
+		return subtreeCounts;
+	}
+
 	void increaseNrEntries() {
+		modCount++;
 		nEntries.incrementAndGet();
 		pp.updateTree(this, dims, nEntries.get(), rootId);
 	}
 
 	void decreaseNrEntries() {
+		modCount++;
 		nEntries.decrementAndGet();
 		pp.updateTree(this, dims, nEntries.get(), rootId);
 	}
@@ -188,6 +236,17 @@ public class PhTree12<T> extends PhTree<T> {
 		return nEntries.get();
 	}
 
+	/**
+	 * The modification counter changes whenever entries are added, removed or moved
+	 * inside the tree, i.e. whenever the position of an entry in a node may have changed.
+	 * Replacing the value of an entry does not change it.
+	 * Iterators use it to detect that their node iterators have become invalid.
+	 * @return the modification counter
+	 */
+	int getModCount() {
+		return modCount;
+	}
+
 	@Override
 	public PhTreeStats getStats() {
 		return getStats(0, getRoot(), new PhTreeStats(DEPTH_64));
@@ -212,7 +271,9 @@ public class PhTree12<T> extends PhTree<T> {
 
 		if (node.values() != null) {
 			Object[] data = node.values();
-			for (int i = 0; i < data.length; i++) {
+			//LHC arrays may contain stale entries behind the last entry
+			int nSlots = node.isAHC() ? data.length : node.getEntryCount();
+			for (int i = 0; i < nSlots; i++) {
 				byte subCode = node.getSubCode(i);
 				if (Node.isSubNode(subCode)) {
 					getStats(currentDepth + 1, (Node) pp.loadNode(data[i]), stats);
@@ -267,6 +328,7 @@ public class PhTree12<T> extends PhTree<T> {
 	@Override
 	public T put(long[] key, T value) {
 		Object nonNullValue = value == null ? PhTreeHelper.NULL : value;
+		pp.checkValue(nonNullValue);
 		if (getRoot() == null) {
 			insertRoot(key, nonNullValue);
 			return null;
@@ -274,19 +336,45 @@ public class PhTree12<T> extends PhTree<T> {
 
 		Object o = getRoot();
 			Node currentNode = (Node) o;
+		Node[] path = subtreeCounts ? new Node[DEPTH_64] : null;
+		int pathSize = 0;
 		while (o instanceof Node) {
 			currentNode = (Node) o;
+			if (path != null) {
+				path[pathSize++] = currentNode;
+			}
 			o = currentNode.doInsertIfMatching(key, nonNullValue, this);
 		}
 		pp.updateNode(currentNode);
+		if (path != null && o == null) {
+			adjustCounts(path, 0, pathSize, 1);
+		}
 		return (T) o;
     }
 
+	/**
+	 * Adjust the subtree counts of the nodes in a descent path.
+	 * Nodes that were created by a split during the operation should not be part
+	 * of the path, their subtree count is already correct.
+	 * @param path the nodes
+	 * @param start first node to adjust 
+	 * @param end end (exclusive) of the nodes to adjust
+	 * @param delta the change of the number of entries 
+	 */
+	private static void adjustCounts(Node[] path, int start, int end, int delta) {
+		for (int i = start; i < end; i++) {
+			path[i].adjustSubtreeCount(delta);
+		}
+	}
+
     void insertRoot(long[] key, Object value) {
         Node root = Node.createNode(dims, DEPTH_64-1);
         //calcPostfixes(valueSet, root, 0);
         long pos = posInArray(key, root.getPostLen());
-        root.addPostPIN(pos, -1, key, value, getPersistenceProvider());
+        root.addPostPIN(pos, -1, key, value, getPersistenceProvider(), nodeConfig);
+        if (subtreeCounts) {
+        	root.adjustSubtreeCount(1);
+        }
         rootId = pp.registerNode(root);
         increaseNrEntries();
     }
@@ -326,12 +414,21 @@ public class PhTree12<T> extends PhTree<T> {
 		Object o = getRoot();
 		Node currentNode = (Node) o;
 		Node parentNode = null;
+		Node[] path = subtreeCounts ? new Node[DEPTH_64] : null;
+		int pathSize = 0;
 		while (o instanceof Node) {
 			currentNode = (Node) o;
+			if (path != null) {
+				path[pathSize++] = currentNode;
+			}
 			o = currentNode.doIfMatching(key, false, parentNode, null, null, this);
 			parentNode = currentNode;
 		}
 		pp.updateNode(currentNode);
+		if (path != null && o != null) {
+			//This may include a node that was merged into its parent, that is harmless.
+			adjustCounts(path, 0, pathSize, -1);
+		}
 		//TODO update parent node!!!
 		//TODO update parent node!!!
 		//TODO update parent node!!!
@@ -340,58 +437,461 @@ public class PhTree12<T> extends PhTree<T> {
 		//TODO update parent node!!!
 		//TODO update parent node!!!
 		//TODO update parent node!!!
-		return (T) o;
+		return o == PhTreeHelper.NULL ? null : (T) o;
+	}
+
+	/**
+	 * Function for {@link Node#doComputeIfMatching(long[], ComputeFunction, Node, PhTree12)}. 
+	 * It works with the internal values, i.e. with {@link PhTreeHelper#NULL} instead 
+	 * of {@code null}. {@code null} means that there is no entry.
+	 */
+	abstract static class ComputeFunction {
+		Object oldValue;
+		Object newValue;
+		PersistenceProvider pp;
+
+		final Object apply(long[] key, Object oldValue) {
+			this.oldValue = oldValue;
+			this.newValue = remap(key, oldValue);
+			if (newValue != null && newValue != oldValue) {
+				pp.checkValue(newValue);
+			}
+			return newValue;
+		}
+
+		/**
+		 * @param key the key
+		 * @param oldValue the current value or {@code null} if the key does not exist
+		 * @return the new value or {@code null} if the entry should be removed
+		 */
+		abstract Object remap(long[] key, Object oldValue);
+	}
+
+	/**
+	 * Find or create the entry of a key in a single descent.
+	 */
+	private void compute(long[] key, ComputeFunction fn) {
+		fn.pp = pp;
+		Object o = getRoot();
+		if (o == null) {
+			Object v = fn.apply(key, null);
+			if (v != null) {
+				insertRoot(key, v);
+			}
+			return;
+		}
+		Node currentNode = null;
+		Node parentNode = null;
+		Node[] path = subtreeCounts ? new Node[DEPTH_64] : null;
+		int pathSize = 0;
+		while (o instanceof Node) {
+			currentNode = (Node) o;
+			if (path != null) {
+				path[pathSize++] = currentNode;
+			}
+			o = currentNode.doComputeIfMatching(key, fn, parentNode, this);
+			parentNode = currentNode;
+		}
+		if (fn.newValue != fn.oldValue) {
+			pp.updateNode(currentNode);
+		}
+		int delta = (fn.newValue != null ? 1 : 0) - (fn.oldValue != null ? 1 : 0);
+		if (path != null && delta != 0) {
+			//This may include a node that was merged into its parent, that is harmless.
+			adjustCounts(path, 0, pathSize, delta);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T toValue(Object o) {
+		return o == PhTreeHelper.NULL ? null : (T) o;
+	}
+
+	private static boolean isAbsent(Object o) {
+		return o == null || o == PhTreeHelper.NULL;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entry is found or created in a single descent.
+	 */
+	@Override
+	public T compute(long[] key, final PhBiFunction<long[], ? super T, ? extends T> function) {
+		ComputeFunction fn = new ComputeFunction() {
+			@Override
+			Object remap(long[] key, Object oldValue) {
+				return function.apply(key, PhTree12.<T>toValue(oldValue));
+			}
+		};
+		compute(key, fn);
+		return toValue(fn.newValue);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entry is found or created in a single descent.
+	 */
+	@Override
+	public T computeIfAbsent(long[] key, final PhFunction<long[], ? extends T> function) {
+		ComputeFunction fn = new ComputeFunction() {
+			@Override
+			Object remap(long[] key, Object oldValue) {
+				if (!isAbsent(oldValue)) {
+					return oldValue;
+				}
+				T v = function.apply(key);
+				return v == null ? oldValue : v;
+			}
+		};
+		compute(key, fn);
+		return toValue(fn.newValue);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entry is found in a single descent.
+	 */
+	@Override
+	public T computeIfPresent(long[] key, 
+			final PhBiFunction<long[], ? super T, ? extends T> function) {
+		ComputeFunction fn = new ComputeFunction() {
+			@Override
+			Object remap(long[] key, Object oldValue) {
+				if (isAbsent(oldValue)) {
+					return oldValue;
+				}
+				return function.apply(key, PhTree12.<T>toValue(oldValue));
+			}
+		};
+		compute(key, fn);
+		return toValue(fn.newValue);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entry is found or created in a single descent.
+	 */
+	@Override
+	public T merge(long[] key, final T value, 
+			final PhBiFunction<? super T, ? super T, ? extends T> function) {
+		if (value == null) {
+			throw new IllegalArgumentException("value must not be null");
+		}
+		ComputeFunction fn = new ComputeFunction() {
+			@Override
+			Object remap(long[] key, Object oldValue) {
+				if (isAbsent(oldValue)) {
+					return value;
+				}
+				return function.apply(PhTree12.<T>toValue(oldValue), value);
+			}
+		};
+		compute(key, fn);
+		return toValue(fn.newValue);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entry is found or created in a single descent.
+	 */
+	@Override
+	public T putIfAbsent(long[] key, final T value) {
+		ComputeFunction fn = new ComputeFunction() {
+			@Override
+			Object remap(long[] key, Object oldValue) {
+				if (!isAbsent(oldValue)) {
+					return oldValue;
+				}
+				return value == null ? PhTreeHelper.NULL : value;
+			}
+		};
+		compute(key, fn);
+		return toValue(fn.oldValue);
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public T update(long[] oldKey, long[] newKey) {
-		Node[] stack = new Node[64];
-		int stackSize = 0;
-		
-		Object o = getRoot();
-		Node parentNode = null;
+		//entries may be moved in place without changing the entry count
+		modCount++;
+		Object o = update(oldKey, newKey, new UpdateStack());
+		return o == PhTreeHelper.NULL ? null : (T) o;
+	}
+
+	/**
+	 * Update the keys of many entries. This is equivalent to calling
+	 * {@link #update(long[], long[])} for every pair of keys, except that the moves are 
+	 * applied in (approximate) z-order of the old keys. Consecutive moves then share most 
+	 * of their path through the tree and the descent stack of one move is reused for the next.
+	 * <p>
+	 * The old keys should be distinct. If moves depend on each other, for example if one entry
+	 * moves to a position that another entry is leaving, the result depends on the z-order 
+	 * of the old keys.
+	 * 
+	 * @param oldKeys the old keys
+	 * @param newKeys the new keys, {@code newKeys[i]} is the new key for {@code oldKeys[i]}
+	 * @return the number of entries that could be updated
+	 * @see #update(long[], long[])
+	 */
+	public int updateAll(long[][] oldKeys, long[][] newKeys) {
+		return updateAll(oldKeys, newKeys, null);
+	}
+
+	/**
+	 * Update the keys of many entries, see {@link #updateAll(long[][], long[][])}.
+	 * <p>
+	 * If an executor is provided, moves are grouped by the sub-node of the root that contains
+	 * them. Groups that can not modify the root node (the old and the new key lie in the 
+	 * same sub-node and the sub-node is large enough not to be merged into the root) are 
+	 * processed in parallel. All remaining moves are processed sequentially afterwards.
+	 * 
+	 * @param oldKeys the old keys
+	 * @param newKeys the new keys, {@code newKeys[i]} is the new key for {@code oldKeys[i]}
+	 * @param executor executor for parallel processing, can be {@code null}
+	 * @return the number of entries that could be updated
+	 */
+	public int updateAll(long[][] oldKeys, long[][] newKeys, ExecutorService executor) {
+		if (oldKeys.length != newKeys.length) {
+			throw new IllegalArgumentException("Key count mismatch: " + oldKeys.length +  
+					" / " + newKeys.length);
+		}
+		if (getRoot() == null || oldKeys.length == 0) {
+			return 0;
+		}
+		modCount++;
+		final int[] order = zOrder(oldKeys);
+		if (executor == null || pp != PersistenceProvider.NONE || subtreeCounts) {
+			return updateAll(oldKeys, newKeys, order, 0, order.length);
+		}
+
+		//Group moves by sub-node of the root. 'order' is sorted by z-order, so moves in the
+		//same sub-node are consecutive.
+		Node root = getRoot();
+		int[] sequential = new int[order.length];
+		int nSequential = 0;
+		int[] local = new int[order.length];
+		List<Future<Integer>> futures = new ArrayList<>();
+		int start = 0;
+		while (start < order.length) {
+			Object sub = root.doIfMatching(oldKeys[order[start]], true, null, null, null, this);
+			int end = start + 1;
+			while (end < order.length && 
+					root.doIfMatching(oldKeys[order[end]], true, null, null, null, this) == sub) {
+				end++;
+			}
+			int nLocal = 0;
+			if (sub instanceof Node) {
+				int subPostLen = ((Node) sub).getPostLen();
+				for (int i = start; i < end; i++) {
+					int pos = order[i];
+					if (Node.calcConflictingBits(oldKeys[pos], newKeys[pos], -1L) <= subPostLen+1) {
+						local[start + nLocal++] = pos;
+					}
+				}
+			}
+			//Every move can reduce the entry count of the sub-node by at most one.
+			//The sub-node must keep at least three entries to not be merged into the root.
+			if (nLocal > 0 && ((Node) sub).getEntryCount() - nLocal > 2) {
+				futures.add(executor.submit(
+						newUpdateTask(oldKeys, newKeys, local, start, start + nLocal)));
+				int subPostLen = ((Node) sub).getPostLen();
+				for (int i = start; i < end; i++) {
+					int pos = order[i];
+					if (Node.calcConflictingBits(oldKeys[pos], newKeys[pos], -1L) > subPostLen+1) {
+						sequential[nSequential++] = pos;
+					}
+				}
+			} else {
+				for (int i = start; i < end; i++) {
+					sequential[nSequential++] = order[i];
+				}
+			}
+			start = end;
+		}
+
+		int n = 0;
+		try {
+			for (Future<Integer> f: futures) {
+				n += f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		return n + updateAll(oldKeys, newKeys, sequential, 0, nSequential);
+	}
+
+	private Callable<Integer> newUpdateTask(final long[][] oldKeys, final long[][] newKeys, 
+			final int[] order, final int start, final int end) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return updateAll(oldKeys, newKeys, order, start, end);
+			}
+		};
+	}
+
+	private int updateAll(long[][] oldKeys, long[][] newKeys, int[] order, int start, int end) {
+		UpdateStack stack = new UpdateStack();
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			if (update(oldKeys[order[i]], newKeys[order[i]], stack) != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Sort the keys in z-order, i.e. in the order in which they would be traversed 
+	 * in the tree. 
+	 * The z-order is approximated by the leading bits of the keys, the trailing bits of the
+	 * sort value are used to store the position of the key.
+	 * @param keys the keys
+	 * @return Positions of the keys in z-order.
+	 */
+	private static int[] zOrder(long[][] keys) {
+		int n = keys.length;
+		int dims = keys[0].length;
+		int posBits = Integer.SIZE - Integer.numberOfLeadingZeros(n);
+		int zBits = Long.SIZE - posBits;
+		int bitsPerDim = Math.max(1, zBits / dims);
+		int zDims = Math.min(dims, zBits);
+		long[] z = new long[n];
+		for (int i = 0; i < n; i++) {
+			long[] key = keys[i];
+			long v = 0;
+			for (int b = Long.SIZE-1; b >= Long.SIZE-bitsPerDim; b--) {
+				for (int d = 0; d < zDims; d++) {
+					v = (v << 1) | ((key[d] >>> b) & 1L);
+				}
+			}
+			v <<= zBits - bitsPerDim*zDims;
+			//flip leading bit for signed sorting
+			z[i] = ((v << posBits) | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(z);
+		int[] ret = new int[n];
+		long posMask = ~((-1L) << posBits);
+		for (int i = 0; i < n; i++) {
+			ret[i] = (int) (z[i] & posMask);
+		}
+		return ret;
+	}
+
+	/**
+	 * Descent stack for updates. The stack can be reused by consecutive updates.
+	 * After an update, the stack contains only nodes that are still part of the tree and 
+	 * whose parent is the previous node on the stack.
+	 */
+	private static class UpdateStack {
+		private final Node[] nodes = new Node[DEPTH_64];
+		private int size = 0;
+		//The old key of the previous update, all nodes in the stack contain this key.
+		private long[] prevKey;
+	}
+
+	/**
+	 * Update the key of an entry, starting from the deepest node in the stack that 
+	 * can contain the old key. 
+	 * @param oldKey the old key
+	 * @param newKey the new key
+	 * @param us the descent stack
+	 * @return The value (possibly NULL) if the entry was updated, otherwise {@code null}
+	 */
+	private Object update(long[] oldKey, long[] newKey, UpdateStack us) {
+		Node[] stack = us.nodes;
+		if (us.size == 0) {
+			Node root = getRoot();
+			if (root == null) {
+				return null;
+			}
+			stack[us.size++] = root;
+		} else {
+			//Pop all nodes that cannot contain the old key. The nodes on the stack contain
+			//'prevKey', so they can contain 'oldKey' only if both keys share their prefix.
+			int cb = Node.calcConflictingBits(us.prevKey, oldKey, -1L);
+			while (us.size > 1 && stack[us.size-1].getPostLen()+1 < cb) {
+				us.size--;
+			}
+		}
+		us.prevKey = oldKey;
+
+		//Resume the descent at the top of the stack
+		Object o = stack[--us.size];
+		Node parentNode = us.size > 0 ? stack[us.size-1] : null;
 		final int[] insertRequired = new int[]{NO_INSERT_REQUIRED};
 		while (o instanceof Node) {
 			Node currentNode = (Node) o;
-			stack[stackSize++] = currentNode;
+			stack[us.size++] = currentNode;
 			o = currentNode.doIfMatching(oldKey, false, parentNode, newKey, insertRequired, this);
 			parentNode = currentNode;
 		}
 		
-		Object value = o == PhTreeHelper.NULL ? null : o;
+		if (o == null) {
+			//not found, the stack remains valid
+			return null;
+		}
 
 		//traverse the tree from bottom to top
 		//this avoids extracting and checking infixes.
 		if (insertRequired[0] != NO_INSERT_REQUIRED) {
-      //ignore lowest node, except if it is the root node
-      if (stack[stackSize-1].getEntryCount() == 0 && stackSize > 1) {
+			int stackSize = us.size;
+			//ignore lowest node, except if it is the root node
+			if (stack[stackSize-1].getEntryCount() == 0 && stackSize > 1) {
 				//The node may have been deleted
 				stackSize--;
 			}
 			while (stackSize > 0) {
 				if (stack[--stackSize].getPostLen()+1 >= insertRequired[0]) {
-					o = stack[stackSize];
-					while (o instanceof Node) {
-						Node currentNode = (Node) o;
-						o = currentNode.doInsertIfMatching(newKey, value, this);
+					if (subtreeCounts) {
+						//The entry was removed below the insertion node. This has to be done 
+						//before the insert, the insert may reuse nodes that were discarded.
+						adjustCounts(stack, stackSize+1, us.size, -1);
+					}
+					Node[] path = subtreeCounts ? new Node[DEPTH_64] : null;
+					int pathSize = 0;
+					Object o2 = stack[stackSize];
+					while (o2 instanceof Node) {
+						Node currentNode = (Node) o2;
+						if (path != null) {
+							path[pathSize++] = currentNode;
+						}
+						o2 = currentNode.doInsertIfMatching(newKey, o, this);
+					}
+					if (path != null) {
+						if (o2 == null) {
+							//the insertion node itself has the same count as before
+							adjustCounts(path, 1, pathSize, 1);
+						} else {
+							//the new key existed already, the entry is lost
+							adjustCounts(stack, 0, stackSize+1, -1);
+						}
 					}
-					insertRequired[0] = NO_INSERT_REQUIRED;
 					break;
 				}
 			}
+			//The insert may have split nodes below the insertion node, so their parent 
+			//is not on the stack anymore.
+			us.size = stackSize+1;
 		}		
 		
-		return (T) value;
+		return o;
 	}
 
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName() + 
-				" AHC/LHC=" + Node.AHC_LHC_BIAS +  
+				" " + nodeConfig +  
 				" AHC-on=" + AHC_ENABLED +  
 				" HCI-on=" + HCI_ENABLED +  
-				" NtLimit=" + Node.NT_THRESHOLD +  
 				" NtMaxDim=" + NtNode.MAX_DIM +
 				" I/O=" + pp.getDescription() +
 				" DEBUG=" + PhTreeHelper.DEBUG;
@@ -478,8 +978,15 @@ public class PhTree12<T> extends PhTree<T> {
 	}
 
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned iterator supports {@link PhIteratorFullNoGC#remove()} and 
+	 * {@link PhIteratorFullNoGC#setValue(Object)}. It is weakly consistent, the tree may
+	 * be modified during the iteration, see {@link PhIteratorFullNoGC}.
+	 */
 	@Override
-	public PhExtent<T> queryExtent() {
+	public PhIteratorFullNoGC<T> queryExtent() {
 		return new PhIteratorFullNoGC<T>(this, null).reset();
 	}
 
@@ -487,22 +994,310 @@ public class PhTree12<T> extends PhTree<T> {
 	/**
 	 * Performs a rectangular window query. The parameters are the min and max keys which 
 	 * contain the minimum respectively the maximum keys in every dimension.
+	 * The returned iterator supports {@link PhIteratorNoGC#remove()} and 
+	 * {@link PhIteratorNoGC#setValue(Object)}. It is weakly consistent, the tree may
+	 * be modified during the iteration, see {@link PhIteratorNoGC}.
 	 * @param min Minimum values
 	 * @param max Maximum values
 	 * @return Result iterator.
 	 */
 	@Override
-	public PhQuery<T> query(long[] min, long[] max) {
+	public PhIteratorNoGC<T> query(long[] min, long[] max) {
 		if (min.length != dims || max.length != dims) {
 			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
 					" / " + max.length + "  DIM=" + dims);
 		}
 		//PhQuery<T> q = new PhIteratorHighK<T>(this, null);
-		PhQuery<T> q = new PhIteratorNoGC<>(this, null);
+		PhIteratorNoGC<T> q = new PhIteratorNoGC<>(this, null);
 		q.reset(min, max);
 		return q;
 	}
 
+	/**
+	 * Create a read-only copy of this tree. The copy stores all nodes in a single array,
+	 * see {@link PhTreeFrozen}. It supports all queries, but no modifications. 
+	 * Later modifications of this tree are not reflected in the copy.
+	 * 
+	 * @return A frozen copy of this tree.
+	 */
+	public PhTreeFrozen<T> freeze() {
+		return PhTreeFrozen.create(this);
+	}
+
+	/**
+	 * Compact a part of the tree. After many insertions and removals, nodes may hold 
+	 * arrays that are larger than required or a representation (AHC/LHC/NT) that does 
+	 * not fit the current number of entries. This method visits up to 'maxNodes' nodes, 
+	 * trims their arrays, switches their representation where necessary and merges 
+	 * nodes with a single entry into their parent.
+	 * <p>
+	 * A compaction pass visits all nodes. It is spread over several calls, each call 
+	 * continues where the previous call stopped. The tree may be modified between calls, 
+	 * nodes that are created behind the current position are visited in the next pass.
+	 * <p>
+	 * This method is not thread-safe. Iterators that are used during compaction continue 
+	 * after their last returned entry.
+	 * 
+	 * @param maxNodes maximum number of nodes to visit
+	 * @return 'true' if the pass is complete. The next call starts a new pass.
+	 */
+	public boolean compact(int maxNodes) {
+		if (maxNodes < 1) {
+			throw new IllegalArgumentException("maxNodes=" + maxNodes);
+		}
+		if (compactor == null) {
+			compactor = new PhCompactor(this);
+		}
+		modCount++;
+		return compactor.step(maxNodes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This traverses the tree directly, without a {@link PhQuery} and without copying
+	 * entries. The key that is passed to the visitor is the internal key buffer.
+	 */
+	@Override
+	public boolean query(long[] min, long[] max, PhVisitor<T> visitor) {
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +
+					" / " + max.length + "  DIM=" + dims);
+		}
+		Node root = getRoot();
+		if (root == null) {
+			return true;
+		}
+		long[] valTemplate = new long[dims];
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		NodeIteratorNoGC<T>[] stack = new NodeIteratorNoGC[DEPTH_64];
+		NodeEntry<T> e = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		stack[0] = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+		stack[0].init(min, max, root, null);
+		int size = 1;
+		while (size > 0) {
+			if (!stack[size-1].increment(e)) {
+				size--;
+				continue;
+			}
+			if (e.node != null) {
+				if (stack[size] == null) {
+					stack[size] = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+				}
+				stack[size++].init(min, max, (Node) pp.loadNode(e.node), null);
+				continue;
+			}
+			T v = e.getValue();
+			switch (visitor.visit(e.getKey(), v == PhTreeHelper.NULL ? null : v)) {
+			case STOP:
+				return false;
+			case SKIP_SUBTREE:
+				size--;
+				break;
+			default:
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Count the entries in a query window.
+	 * <p>
+	 * If subtree counts are enabled (see {@link PhTreeConfig#setSubtreeCounts(boolean)}), 
+	 * sub-nodes that lie completely inside the window are counted without descending into 
+	 * them. Only nodes that intersect with the border of the window are traversed.
+	 * Otherwise this iterates over all entries in the window.
+	 * 
+	 * @param min minimum values of the window
+	 * @param max maximum values of the window
+	 * @return the number of entries in the window
+	 */
+	public int count(long[] min, long[] max) {
+		return countUpTo(min, max, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This delegates to {@link #countUpTo(long[], long[], int) countUpTo(min, max, 1)}.
+	 */
+	@Override
+	public boolean isEmpty(long[] min, long[] max) {
+		return countUpTo(min, max, 1) == 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This returns as soon as 'limit' entries are found. Sub-nodes that lie completely 
+	 * inside the window contain at least two entries, they are not traversed if that is 
+	 * enough to reach the limit. If subtree counts are enabled 
+	 * (see {@link PhTreeConfig#setSubtreeCounts(boolean)}), such sub-nodes are never 
+	 * traversed, see {@link #count(long[], long[])}.
+	 */
+	@Override
+	public int countUpTo(long[] min, long[] max, int limit) {
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + "  DIM=" + dims);
+		}
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative: " + limit);
+		}
+		Node root = getRoot();
+		if (root == null || limit == 0) {
+			return 0;
+		}
+		
+		long[] valTemplate = new long[dims];
+		if (subtreeCounts && isInside(valTemplate, root.getPostLen(), min, max)) {
+			return Math.min(root.getSubtreeCount(), limit);
+		}
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		NodeIteratorNoGC<T>[] stack = new NodeIteratorNoGC[DEPTH_64];
+		NodeEntry<T> e = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+		stack[0] = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+		stack[0].init(min, max, root, null);
+		int size = 1;
+		int n = 0;
+		while (size > 0) {
+			if (!stack[size-1].increment(e)) {
+				size--;
+				continue;
+			}
+			if (e.node == null) {
+				if (++n >= limit) {
+					return n;
+				}
+				continue;
+			}
+			//'valTemplate' contains the prefix of the sub-node
+			Node sub = (Node) pp.loadNode(e.node);
+			if (isInside(valTemplate, sub.getPostLen(), min, max)) {
+				if (subtreeCounts) {
+					n += sub.getSubtreeCount();
+					if (n >= limit) {
+						return limit;
+					}
+					continue;
+				} else if (limit - n <= 2) {
+					//every sub-node has at least two entries
+					return limit;
+				}
+			}
+			if (stack[size] == null) {
+				stack[size] = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+			}
+			stack[size++].init(min, max, sub, null);
+		}
+		return n;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If subtree counts are enabled (see {@link PhTreeConfig#setSubtreeCounts(boolean)}), 
+	 * the cost is about that of {@link #count(long[], long[])} plus k descents through 
+	 * the tree, independent of the number of entries in the window.
+	 */
+	@Override
+	public List<PhEntry<T>> sample(long[] min, long[] max, int k, Random random) {
+		if (!subtreeCounts) {
+			return super.sample(min, max, k, random);
+		}
+		if (k < 0) {
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		}
+		PhSampler<T> sampler = createSampler(min, max);
+		List<PhEntry<T>> ret = new ArrayList<>(sampler.size() == 0 ? 0 : k);
+		for (int i = 0; i < k && sampler.size() > 0; i++) {
+			ret.add(sampler.get(random.nextInt(sampler.size())));
+		}
+		return ret;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If subtree counts are enabled (see {@link PhTreeConfig#setSubtreeCounts(boolean)}), 
+	 * the entries are looked up lazily, the cost per returned entry is one descent 
+	 * through the tree. The tree must not be modified while iterating.
+	 */
+	@Override
+	public Iterator<PhEntry<T>> sampleWithoutReplacement(long[] min, long[] max, 
+			final Random random) {
+		if (!subtreeCounts) {
+			return super.sampleWithoutReplacement(min, max, random);
+		}
+		final PhSampler<T> sampler = createSampler(min, max);
+		return new Iterator<PhEntry<T>>() {
+			//Fisher-Yates shuffle of the ranks, only displaced ranks are stored
+			private final Map<Integer, Integer> displaced = new HashMap<>();
+			private int n = 0;
+
+			@Override
+			public boolean hasNext() {
+				return n < sampler.size();
+			}
+
+			@Override
+			public PhEntry<T> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int j = n + random.nextInt(sampler.size() - n);
+				int rank = rankAt(j);
+				displaced.put(j, rankAt(n));
+				displaced.remove(n);
+				n++;
+				return sampler.get(rank);
+			}
+
+			private int rankAt(int pos) {
+				Integer rank = displaced.get(pos);
+				return rank == null ? pos : rank;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private PhSampler<T> createSampler(long[] min, long[] max) {
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
+					" / " + max.length + "  DIM=" + dims);
+		}
+		return new PhSampler<>(this, getRoot(), min, max);
+	}
+
+	/**
+	 * @return true if all keys with the given prefix lie inside the window
+	 */
+	static boolean isInside(long[] prefix, int postLen, long[] min, long[] max) {
+		if (postLen >= DEPTH_64-1) {
+			//root node, it covers the whole space
+			for (int i = 0; i < prefix.length; i++) {
+				if (min[i] != Long.MIN_VALUE || max[i] != Long.MAX_VALUE) {
+					return false;
+				}
+			}
+			return true;
+		}
+		long mask = (-1L) << (postLen+1);
+		for (int i = 0; i < prefix.length; i++) {
+			long lower = prefix[i] & mask;
+			long upper = lower | ~mask;
+			if (lower < min[i] || upper > max[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Performs a rectangular window query. The parameters are the min and max keys which 
 	 * contain the minimum respectively the maximum keys in every dimension.
@@ -588,13 +1383,166 @@ public class PhTree12<T> extends PhTree<T> {
 		return new PhQueryKnnMbbPPList<T>(this).reset(nMin, PhDistanceL.THIS, v);
 	}
 
+	/**
+	 * Locate nearest neighbours for a given point in space.
+	 * 
+	 * If the dimension filter is a {@link PhFilterDimensions}, the query considers only the
+	 * selected dimensions. The other dimensions are treated as wildcards during 
+	 * traversal and do not contribute to the distance.
+	 * 
+	 * @param nMin number of values to be returned. More values may or may not be returned when 
+	 * several have	the same distance.
+	 * @param dist the distance function, can be {@code null}. The default is {@link PhDistanceL}.
+	 * @param dimsFilter the dimension filter, can be {@code null}
+	 * @param center the center point
+	 * @return Result iterator.
+	 */
 	@Override
 	public PhKnnQuery<T> nearestNeighbour(int nMin, PhDistance dist,
 			PhFilter dimsFilter, long... center) {
+		if (dist == null) {
+			dist = PhDistanceL.THIS;
+		}
+		if (dimsFilter instanceof PhFilterDimensions) {
+			dist = ((PhFilterDimensions) dimsFilter).project(dist);
+		}
 		//return new PhQueryKnnMbbPP<T>(this).reset(nMin, dist, center);
 		return new PhQueryKnnMbbPPList<T>(this).reset(nMin, dist, center);
 	}
 
+	/**
+	 * Approximate kNN query. Every returned i-th neighbour is at most (1+epsilon) times as 
+	 * far away from the center as the exact i-th neighbour. 
+	 * Additionally, the number of traversed nodes can be limited, in that case the result
+	 * is the best effort within the budget and may contain less than 'nMin' entries. 
+	 * 
+	 * @param nMin number of values to be returned
+	 * @param epsilon maximum relative distance error, {@code 0} for exact results 
+	 * @param maxNodeVisits maximum number of nodes to traverse, {@code Integer.MAX_VALUE} 
+	 * for no limit
+	 * @param dist the distance function, can be {@code null}. The default is 
+	 * {@link PhDistanceL}.
+	 * @param center the center point
+	 * @return Result iterator.
+	 * @see PhQueryKnnMbbPPList#setApproximation(double, int)
+	 */
+	public PhKnnQuery<T> nearestNeighbourApprox(int nMin, double epsilon, int maxNodeVisits,
+			PhDistance dist, long... center) {
+		if (dist == null) {
+			dist = PhDistanceL.THIS;
+		}
+		return new PhQueryKnnMbbPPList<T>(this).setApproximation(epsilon, maxNodeVisits)
+				.reset(nMin, dist, center);
+	}
+
+	/**
+	 * All-kNN query: find the 'k' nearest neighbours of every entry in the tree.
+	 * This is faster than one kNN query per entry because the entries are processed in
+	 * z-order and every query reuses the neighbour distance of the previous entry as
+	 * initial search distance, see {@link PhQueryKnnAll}.
+	 * <p>
+	 * The tree must not be modified during the query.
+	 *
+	 * @param k number of neighbours, the entry itself is not counted as a neighbour
+	 * @param dist the distance function, can be {@code null}. The default is
+	 * {@link PhDistanceL}.
+	 * @param executor executor for processing disjoint subtrees in parallel,
+	 * can be {@code null}
+	 * @return the neighbours of all entries
+	 */
+	public PhKnnAllResult<T> nearestNeighbourAll(int k, PhDistance dist,
+			ExecutorService executor) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		return PhQueryKnnAll.run(this, k, dist == null ? PhDistanceL.THIS : dist, executor);
+	}
+
+	/**
+	 * Consumer for the results of 
+	 * {@link PhTree12#nearestNeighbourBatch(int, long[][], PhDistance, KnnBatchConsumer)}.
+	 *
+	 * @param <T> value type
+	 */
+	public static interface KnnBatchConsumer<T> {
+		/**
+		 * @param index the index of the query point in the array of query points 
+		 * @param neighbours the neighbours of the query point, this is only valid until 
+		 * the method returns
+		 */
+		void accept(int index, PhKnnQuery<T> neighbours);
+	}
+
+	/**
+	 * Batch kNN query: find the 'k' nearest neighbours for each of the query points.
+	 * This is faster than one kNN query per query point because the query points are 
+	 * processed in z-order and every query reuses the path and the neighbour distance of 
+	 * the previous query point, see {@link PhQueryKnnBatch}.
+	 * <p>
+	 * The tree must not be modified during the query.
+	 *
+	 * @param k number of neighbours
+	 * @param centers the query points
+	 * @param dist the distance function, can be {@code null}. The default is
+	 * {@link PhDistanceL}.
+	 * @param consumer receives the neighbours of each query point, the query points
+	 * are not passed to the consumer in the order of 'centers'
+	 */
+	public void nearestNeighbourBatch(int k, long[][] centers, PhDistance dist, 
+			KnnBatchConsumer<T> consumer) {
+		nearestNeighbourBatch(k, centers, dist, consumer, null);
+	}
+
+	/**
+	 * Same as {@link #nearestNeighbourBatch(int, long[][], PhDistance, KnnBatchConsumer)},
+	 * except that the query points can be processed in parallel. 
+	 *
+	 * @param k number of neighbours
+	 * @param centers the query points
+	 * @param dist the distance function, can be {@code null}. The default is
+	 * {@link PhDistanceL}.
+	 * @param consumer receives the neighbours of each query point. If an executor is 
+	 * given, the consumer is called concurrently from several threads.
+	 * @param executor executor for processing chunks of the query points in parallel,
+	 * can be {@code null}
+	 */
+	public void nearestNeighbourBatch(int k, long[][] centers, PhDistance dist, 
+			KnnBatchConsumer<T> consumer, ExecutorService executor) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		PhQueryKnnBatch.run(this, k, dist == null ? PhDistanceL.THIS : dist, centers, 
+				consumer, executor);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Sub-nodes are skipped if they contain more than 'k' entries and their diagonal is 
+	 * shorter than their distance from 'center'. Only the entries in the remaining nodes 
+	 * are verified with a bounded search, see {@link PhQueryReverseKnn}.
+	 * With 6 or more dimensions, hardly any nodes are skipped and the query is not much 
+	 * faster than one kNN query per entry.
+	 */
+	@Override
+	public List<PhEntryDist<T>> reverseNearestNeighbour(int k, PhDistance dist, 
+			PhFilter dimsFilter, long... center) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		if (center.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + center.length +  
+					"  DIM=" + dims);
+		}
+		if (dist == null) {
+			dist = PhDistanceL.THIS;
+		}
+		if (dimsFilter instanceof PhFilterDimensions) {
+			dist = ((PhFilterDimensions) dimsFilter).project(dist);
+		}
+		return PhQueryReverseKnn.run(this, k, dist, center);
+	}
+
 	@Override
 	public PhRangeQuery<T> rangeQuery(double dist, long... center) {
 		return rangeQuery(dist, null, center);
@@ -613,18 +1561,48 @@ public class PhTree12<T> extends PhTree<T> {
 		return qr;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Sub-nodes that lie completely inside the window are removed as a whole, see 
+	 * {@link PhWindowRemover}.
+	 */
+	@Override
+	public int removeAll(long[] min, long[] max) {
+		return removeIf(min, max, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If a predicate is given, all entries in the window are tested, i.e. sub-nodes are 
+	 * not removed as a whole.
+	 */
+	@Override
+	public int removeIf(long[] min, long[] max, PhPredicate<T> predicate) {
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length + 
+					"/" + max.length + "  DIM=" + dims);
+		}
+		return PhWindowRemover.run(this, min, max, predicate);
+	}
+
 	/**
 	 * Remove all entries from the tree.
 	 */
 	@Override
 	public void clear() {
 		rootId = null;
+		compactor = null;
+		modCount++;
 		nEntries.set(0);
 		pp.updateTree(this, dims, nEntries.get(), rootId);
 	}
 
 	void adjustCounts(int deletedPosts) {
+		modCount++;
 		nEntries.addAndGet(-deletedPosts);
+		pp.updateTree(this, dims, nEntries.get(), rootId);
 	}
 
 
@@ -669,6 +1647,19 @@ public class PhTree12<T> extends PhTree<T> {
 	public PersistenceProvider getPersistenceProvider() {
 		return pp;
 	}
+
+	/**
+	 * Measure the costs of the node traversal strategies on this machine and use them for 
+	 * all subsequent window queries of all trees. By default, window queries use a preset 
+	 * cost model. The measurement takes a few hundred ms and should only be done after 
+	 * the JVM has been warmed up, otherwise it mainly measures the interpreter.
+	 * @return a description of the measured costs
+	 */
+	public static String calibrateHciCostModel() {
+		HciCostModel model = HciCostModel.calibrate();
+		HciCostModel.set(model);
+		return model.toString();
+	}
 	
 	private void logErr(String str) {
 		System.err.println(str);
@@ -0,0 +1,922 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static ch.ethz.globis.phtree.PhTreeHelper.posInArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhCursor;
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhDistanceNode;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterDimensions;
+import ch.ethz.globis.phtree.PhFilterDistance;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.util.PhMapper;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+import ch.ethz.globis.phtree.util.StringBuilderLn;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * Read-only PH-tree, see {@link PhTree12#freeze()}.
+ * <p>
+ * All nodes are stored in a single {@code long[]}, in depth-first pre-order, so that a
+ * node is usually followed by its first sub-node. Every node is one block:
+ * <pre>
+ * | postLen + (nEntries << 8) | prefix[dims] | hcPos[nEntries] | ref[nEntries] | postfix bits |
+ * </pre>
+ * The hypercube positions are sorted, so an entry is found with a binary search.
+ * A reference {@code >= 0} is the offset of a sub-node in the array, a negative reference
+ * {@code r} refers to the value at {@code -(r+1)} in the value array. 
+ * The postfix bits contain the lower {@code postLen} bits of every dimension of every entry,
+ * the higher bits follow from the prefix of the node and from the hypercube position.
+ * For sub-nodes, these bits are the infix, the full prefix is also stored in the sub-node.
+ * <p>
+ * Compared to {@link PhTree12}, there are no node objects, no pooled arrays and no spare
+ * capacity. Entries are always stored as sorted list (LHC), there are no NT nodes.
+ * <p>
+ * All modifying operations throw {@link UnsupportedOperationException}. The frozen tree
+ * is immutable, it can be queried concurrently by any number of threads.
+ *
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+public class PhTreeFrozen<T> extends PhTree<T> {
+
+	private static final int ROOT = 0;
+
+	private final int dims;
+	private final int size;
+	private final int nNodes;
+	private final long[] arena;
+	private final Object[] values;
+
+	private PhTreeFrozen(int dims, int size, int nNodes, long[] arena, Object[] values) {
+		this.dims = dims;
+		this.size = size;
+		this.nNodes = nNodes;
+		this.arena = arena;
+		this.values = values;
+	}
+
+	static <T> PhTreeFrozen<T> create(PhTree12<T> tree) {
+		Builder b = new Builder(tree);
+		return new PhTreeFrozen<>(tree.getDim(), tree.size(), b.nNodes,
+				Arrays.copyOf(b.arena, b.arenaSize), Arrays.copyOf(b.values, b.nValues));
+	}
+
+	/**
+	 * Writes the nodes of a PhTree12 into an array. The entries of a node are collected
+	 * before any of its sub-nodes are written, so a single node iterator is sufficient.
+	 */
+	private static class Builder {
+		private final int dims;
+		private final PersistenceProvider pp;
+		private final long[] valTemplate;
+		private final NodeIteratorNoGC<Object> iter;
+		private final NodeEntry<Object> buffer;
+		private final long[] rangeMin;
+		private final long[] rangeMax;
+		private long[] arena = new long[64];
+		private int arenaSize = 0;
+		private Object[] values = new Object[16];
+		private int nValues = 0;
+		private int nNodes = 0;
+
+		@SuppressWarnings("unchecked")
+		Builder(PhTree12<?> tree) {
+			this.dims = tree.getDim();
+			this.pp = tree.getPersistenceProvider();
+			this.valTemplate = new long[dims];
+			this.iter = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+			this.buffer = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+			this.rangeMin = new long[dims];
+			this.rangeMax = new long[dims];
+			Arrays.fill(rangeMin, Long.MIN_VALUE);
+			Arrays.fill(rangeMax, Long.MAX_VALUE);
+			Node root = ((PhTree12<Object>) tree).getRoot();
+			if (root == null) {
+				//empty root node
+				allocate(1 + dims);
+				arena[ROOT] = PhTree12.DEPTH_64 - 1;
+				nNodes = 1;
+			} else {
+				writeNode(root);
+			}
+		}
+
+		/**
+		 * Writes a node and all its sub-nodes. 'valTemplate' must contain the prefix of
+		 * the node.
+		 * @return offset of the node
+		 */
+		private int writeNode(Node node) {
+			int n = node.getEntryCount();
+			int postLen = node.getPostLen();
+			int offs = allocate(1 + dims + 2*n + bitWords(n, dims, postLen));
+			arena[offs] = postLen | ((long) n << 8);
+			System.arraycopy(valTemplate, 0, arena, offs + 1, dims);
+			nNodes++;
+			int hcOffs = offs + 1 + dims;
+			int refOffs = hcOffs + n;
+			long[] keys = new long[n*dims];
+			Node[] subs = null;
+			iter.init(rangeMin, rangeMax, node, null);
+			int i = 0;
+			while (iter.increment(buffer)) {
+				long[] key;
+				if (buffer.node == null) {
+					key = buffer.getKey();
+					arena[refOffs + i] = -(addValue(buffer.getValue()) + 1);
+				} else {
+					//'valTemplate' contains the prefix of the sub-node
+					key = valTemplate;
+					if (subs == null) {
+						subs = new Node[n];
+					}
+					subs[i] = (Node) pp.loadNode(buffer.node);
+				}
+				long hcPos = posInArray(key, postLen);
+				if (i > 0 && arena[hcOffs + i - 1] >= hcPos) {
+					throw new IllegalStateException("Unsorted node entries: " + hcPos);
+				}
+				arena[hcOffs + i] = hcPos;
+				System.arraycopy(key, 0, keys, i*dims, dims);
+				i++;
+			}
+			if (i != n) {
+				throw new IllegalStateException("Entry count mismatch: " + i + " / " + n);
+			}
+			if (postLen > 0) {
+				int bitsOffs = refOffs + n;
+				long mask = -1L >>> (64 - postLen);
+				long bitPos = 0;
+				for (long k: keys) {
+					writeBits(bitsOffs, bitPos, postLen, k & mask);
+					bitPos += postLen;
+				}
+			}
+			if (subs != null) {
+				for (i = 0; i < n; i++) {
+					if (subs[i] != null) {
+						System.arraycopy(keys, i*dims, valTemplate, 0, dims);
+						//writeNode() may replace the array, so don't read 'arena' before calling it
+						int subOffs = writeNode(subs[i]);
+						arena[refOffs + i] = subOffs;
+					}
+				}
+			}
+			return offs;
+		}
+
+		private void writeBits(int offs, long bitPos, int nBits, long bits) {
+			int w = offs + (int) (bitPos >>> 6);
+			int b = (int) (bitPos & 63);
+			arena[w] |= bits << b;
+			if (b + nBits > 64) {
+				arena[w + 1] |= bits >>> (64 - b);
+			}
+		}
+
+		private int allocate(int len) {
+			if (arenaSize + len > arena.length) {
+				arena = Arrays.copyOf(arena, Math.max(arena.length*2, arenaSize + len));
+			}
+			int offs = arenaSize;
+			arenaSize += len;
+			return offs;
+		}
+
+		private int addValue(Object v) {
+			if (nValues == values.length) {
+				values = Arrays.copyOf(values, values.length*2);
+			}
+			values[nValues] = v == PhTreeHelper.NULL ? null : v;
+			return nValues++;
+		}
+	}
+
+	private static int bitWords(int nEntries, int dims, int postLen) {
+		return (int) (((long) nEntries*dims*postLen + 63) >>> 6);
+	}
+
+	private int postLen(int node) {
+		return (int) (arena[node] & 0xFF);
+	}
+
+	private int entryCount(int node) {
+		return (int) (arena[node] >>> 8);
+	}
+
+	private int hcOffs(int node) {
+		return node + 1 + dims;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(long ref) {
+		return (T) values[(int) -(ref + 1)];
+	}
+
+	private long readBits(int offs, long bitPos, int nBits) {
+		int w = offs + (int) (bitPos >>> 6);
+		int b = (int) (bitPos & 63);
+		long v = arena[w] >>> b;
+		if (b + nBits > 64) {
+			v |= arena[w + 1] << (64 - b);
+		}
+		return v & (-1L >>> (64 - nBits));
+	}
+
+	/**
+	 * Reads the key of a postfix or the prefix of a sub-node.
+	 * @param node the node
+	 * @param i the position of the entry in the node
+	 * @param key output
+	 */
+	private void readKey(int node, int i, long[] key) {
+		readKey(node, i, key, null, null);
+	}
+
+	/**
+	 * Reads the key of a postfix or the prefix of a sub-node. Stops early if the key 
+	 * lies outside the given range.
+	 * @param node the node
+	 * @param i the position of the entry in the node
+	 * @param key output
+	 * @param min minimum of the range or {@code null} 
+	 * @param max maximum of the range or {@code null}
+	 * @return {@code false} if the key lies outside the range
+	 */
+	private boolean readKey(int node, int i, long[] key, long[] min, long[] max) {
+		int postLen = postLen(node);
+		int n = entryCount(node);
+		long hcPos = arena[hcOffs(node) + i];
+		long maskHigh = postLen == PhTree12.DEPTH_64 - 1 ? 0 : -1L << (postLen + 1);
+		int bitsOffs = hcOffs(node) + 2*n;
+		long bitPos = (long) i*dims*postLen;
+		for (int d = 0; d < dims; d++) {
+			long k = (arena[node + 1 + d] & maskHigh) | (((hcPos >>> (dims - 1 - d)) & 1L) << postLen);
+			if (postLen > 0) {
+				k |= readBits(bitsOffs, bitPos, postLen);
+				bitPos += postLen;
+			}
+			if (min != null && (k < min[d] || k > max[d])) {
+				return false;
+			}
+			key[d] = k;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Lower bound of the node with the given prefix.
+	 */
+	private static long nodeMin(long prefix, int postLen) {
+		return postLen == PhTree12.DEPTH_64 - 1 ? Long.MIN_VALUE : prefix & (-1L << (postLen+1));
+	}
+
+	/**
+	 * @return Upper bound of the node with the given prefix.
+	 */
+	private static long nodeMax(long prefix, int postLen) {
+		return postLen == PhTree12.DEPTH_64 - 1 ? Long.MAX_VALUE : prefix | ~(-1L << (postLen+1));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Size of the node array and value array in bytes, excluding the values.
+	 */
+	public long getMemorySize() {
+		//16 byte array headers, 4 byte references (compressed OOPs)
+		return 16 + arena.length * 8L + 16 + values.length * 4L;
+	}
+
+	@Override
+	public PhTreeStats getStats() {
+		PhTreeStats s = new PhTreeStats(PhTree12.DEPTH_64);
+		s.nNodes = nNodes;
+		s.nTotalChildren = nNodes - 1 + size;
+		s.size = getMemorySize();
+		return s;
+	}
+
+	@Override
+	public T put(long[] key, T value) {
+		throw new UnsupportedOperationException("The tree is frozen.");
+	}
+
+	@Override
+	public boolean contains(long... key) {
+		return find(key) != 0;
+	}
+
+	@Override
+	public T get(long... key) {
+		long ref = find(key);
+		return ref == 0 ? null : value(ref);
+	}
+
+	/**
+	 * @return The (negative) value reference of the key or 0 if the key was not found.
+	 */
+	private long find(long[] key) {
+		int node = ROOT;
+		while (true) {
+			int postLen = postLen(node);
+			int n = entryCount(node);
+			int hcOffs = hcOffs(node);
+			int pos = Arrays.binarySearch(arena, hcOffs, hcOffs + n, posInArray(key, postLen));
+			if (pos < 0) {
+				return 0;
+			}
+			int i = pos - hcOffs;
+			long ref = arena[hcOffs + n + i];
+			if (ref < 0) {
+				//The higher bits match the prefix and the hypercube position, 
+				//only the postfix bits are left.
+				if (postLen > 0) {
+					long mask = -1L >>> (64 - postLen);
+					int bitsOffs = hcOffs + 2*n;
+					long bitPos = (long) i*dims*postLen;
+					for (int d = 0; d < dims; d++) {
+						if ((key[d] & mask) != readBits(bitsOffs, bitPos, postLen)) {
+							return 0;
+						}
+						bitPos += postLen;
+					}
+				}
+				return ref;
+			}
+			node = (int) ref;
+			long mask = -1L << (postLen(node) + 1);
+			for (int d = 0; d < dims; d++) {
+				if (((key[d] ^ arena[node + 1 + d]) & mask) != 0) {
+					return 0;
+				}
+			}
+		}
+	}
+
+	@Override
+	public T remove(long... key) {
+		throw new UnsupportedOperationException("The tree is frozen.");
+	}
+
+	@Override
+	public String toStringPlain() {
+		StringBuilderLn sb = new StringBuilderLn();
+		PhExtent<T> it = queryExtent();
+		while (it.hasNext()) {
+			PhEntry<T> e = it.nextEntryReuse();
+			sb.appendLn(Arrays.toString(e.getKey()) + " v=" + e.getValue());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toStringTree() {
+		StringBuilderLn sb = new StringBuilderLn();
+		toStringTree(sb, ROOT, 0);
+		return sb.toString();
+	}
+
+	private void toStringTree(StringBuilderLn sb, int node, int depth) {
+		char[] indent = new char[depth*2];
+		Arrays.fill(indent, ' ');
+		int n = entryCount(node);
+		sb.appendLn(new String(indent) + "node@" + node + " postLen=" + postLen(node) + " n=" + n);
+		long[] key = new long[dims];
+		for (int i = 0; i < n; i++) {
+			long ref = arena[hcOffs(node) + n + i];
+			if (ref < 0) {
+				readKey(node, i, key);
+				sb.appendLn(new String(indent) + "  " + arena[hcOffs(node) + i] + ": " +
+						Arrays.toString(key) + " v=" + value(ref));
+			} else {
+				toStringTree(sb, (int) ref, depth + 1);
+			}
+		}
+	}
+
+	@Override
+	public PhExtent<T> queryExtent() {
+		return new FrozenIterator(null).reset();
+	}
+
+	@Override
+	public FrozenIterator query(long[] min, long[] max) {
+		checkDims(min, max);
+		FrozenIterator it = new FrozenIterator(null);
+		it.reset(min, max);
+		return it;
+	}
+
+	private void checkDims(long[] min, long[] max) {
+		if (min.length != dims || max.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + min.length +
+					" / " + max.length + "  DIM=" + dims);
+		}
+	}
+
+	@Override
+	public int getDim() {
+		return dims;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return PhTree12.DEPTH_64;
+	}
+
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, long... key) {
+		return new FrozenKnnQuery().reset(nMin, PhDistanceL.THIS, key);
+	}
+
+	@Override
+	public PhKnnQuery<T> nearestNeighbour(int nMin, PhDistance dist, PhFilter dimsFilter,
+			long... center) {
+		if (dist == null) {
+			dist = PhDistanceL.THIS;
+		}
+		if (dimsFilter instanceof PhFilterDimensions) {
+			dist = ((PhFilterDimensions) dimsFilter).project(dist);
+		}
+		return new FrozenKnnQuery().reset(nMin, dist, center);
+	}
+
+	@Override
+	public PhRangeQuery<T> rangeQuery(double dist, long... center) {
+		return rangeQuery(dist, null, center);
+	}
+
+	@Override
+	public PhRangeQuery<T> rangeQuery(double dist, PhDistance optionalDist, long... center) {
+		PhFilterDistance filter = new PhFilterDistance();
+		if (optionalDist == null) {
+			optionalDist = PhDistanceL.THIS;
+		}
+		filter.set(center, optionalDist, dist);
+		PhQuery<T> q = new FrozenIterator(filter);
+		PhRangeQuery<T> qr = new PhRangeQuery<>(q, this, optionalDist, filter);
+		qr.reset(dist, center);
+		return qr;
+	}
+
+	@Override
+	public T update(long[] oldKey, long[] newKey) {
+		throw new UnsupportedOperationException("The tree is frozen.");
+	}
+
+	@Override
+	public List<PhEntry<T>> queryAll(long[] min, long[] max) {
+		checkDims(min, max);
+		FrozenIterator it = new FrozenIterator(null);
+		it.reset(min, max);
+		List<PhEntry<T>> list = new ArrayList<>();
+		while (it.hasNext()) {
+			list.add(it.nextEntry());
+		}
+		return list;
+	}
+
+	@Override
+	public <R> List<R> queryAll(long[] min, long[] max, int maxResults, PhFilter filter,
+			PhMapper<T, R> mapper) {
+		checkDims(min, max);
+		FrozenIterator it = new FrozenIterator(filter);
+		it.reset(min, max);
+		List<R> list = new ArrayList<>();
+		while (it.hasNext() && list.size() < maxResults) {
+			list.add(mapper.map(it.nextEntry()));
+		}
+		return list;
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("The tree is frozen.");
+	}
+
+
+	/**
+	 * Window query iterator. For every node on the current path, the iterator keeps the
+	 * current position and two masks that restrict the hypercube positions to the
+	 * quadrants that overlap with the query window.
+	 */
+	public class FrozenIterator implements PhQuery<T>, PhExtent<T> {
+
+		private final PhFilter checker;
+		private final int[] nodes = new int[PhTree12.DEPTH_64];
+		private final int[] positions = new int[PhTree12.DEPTH_64];
+		private final long[] masksLower = new long[PhTree12.DEPTH_64];
+		private final long[] masksUpper = new long[PhTree12.DEPTH_64];
+		private int stackSize;
+		private long[] rangeMin;
+		private long[] rangeMax;
+		private final long[] prefix = new long[dims];
+
+		private boolean hasNext;
+		private final long[] nextKey = new long[dims];
+		private long nextRef;
+		private final PhEntry<T> resultBuf = new PhEntry<>(new long[dims], null);
+
+		FrozenIterator(PhFilter checker) {
+			this.checker = checker;
+		}
+
+		@Override
+		public PhExtent<T> reset() {
+			long[] min = new long[dims];
+			long[] max = new long[dims];
+			Arrays.fill(min, Long.MIN_VALUE);
+			Arrays.fill(max, Long.MAX_VALUE);
+			reset(min, max);
+			return this;
+		}
+
+		@Override
+		public void reset(long[] min, long[] max) {
+			this.rangeMin = min;
+			this.rangeMax = max;
+			this.stackSize = 0;
+			push(ROOT);
+			findNext();
+		}
+
+		/**
+		 * Reset the query with the window of the cursor and continue after the key of 
+		 * the cursor. This skips all entries up to the cursor position.
+		 * @param cursor the cursor
+		 * @see PhCursor
+		 */
+		public void resume(PhCursor cursor) {
+			checkDims(cursor.getMin(), cursor.getMax());
+			reset(cursor.getMin(), cursor.getMax());
+			while (hasNext && !cursor.isAfter(nextKey)) {
+				findNext();
+			}
+		}
+
+		private void push(int node) {
+			int postLen = postLen(node);
+			long maskLower = 0;
+			long maskUpper = 0;
+			long hcBit = 1L << postLen;
+			for (int d = 0; d < dims; d++) {
+				//Both halves of the node in this dimension: bit 'postLen' is 0 or 1.
+				//For the root, this is the sign bit, so the '1' half contains the negative values.
+				long base = nodeMin(arena[node + 1 + d], postLen) & ~hcBit;
+				long upper0 = base | (hcBit - 1);
+				long lower1 = base | hcBit;
+				long upper1 = lower1 | (hcBit - 1);
+				boolean allow0 = rangeMin[d] <= upper0 && rangeMax[d] >= base;
+				boolean allow1 = rangeMin[d] <= upper1 && rangeMax[d] >= lower1;
+				long bit = 1L << (dims - 1 - d);
+				if (allow1) {
+					maskUpper |= bit;
+					if (!allow0) {
+						maskLower |= bit;
+					}
+				}
+			}
+			int hcOffs = hcOffs(node);
+			int n = entryCount(node);
+			int pos = 0;
+			if (n > 8) {
+				//skip entries below 'maskLower', for small nodes a linear scan is faster
+				pos = Arrays.binarySearch(arena, hcOffs, hcOffs + n, maskLower);
+				pos = (pos >= 0 ? pos : -(pos + 1)) - hcOffs;
+			}
+			nodes[stackSize] = node;
+			positions[stackSize] = pos;
+			masksLower[stackSize] = maskLower;
+			masksUpper[stackSize] = maskUpper;
+			stackSize++;
+		}
+
+		private void findNext() {
+			while (stackSize > 0) {
+				int level = stackSize - 1;
+				int node = nodes[level];
+				int n = entryCount(node);
+				int i = positions[level]++;
+				if (i >= n) {
+					stackSize--;
+					continue;
+				}
+				long hcPos = arena[hcOffs(node) + i];
+				long maskUpper = masksUpper[level];
+				if (hcPos > maskUpper) {
+					stackSize--;
+					continue;
+				}
+				long maskLower = masksLower[level];
+				if (((hcPos | maskLower) & maskUpper) != hcPos) {
+					continue;
+				}
+				long ref = arena[hcOffs(node) + n + i];
+				if (ref < 0) {
+					if (readKey(node, i, nextKey, rangeMin, rangeMax) && 
+							(checker == null || checker.isValid(nextKey))) {
+						hasNext = true;
+						nextRef = ref;
+						return;
+					}
+				} else {
+					int sub = (int) ref;
+					int subPostLen = postLen(sub);
+					if (checkNode(sub, subPostLen)) {
+						if (checker != null) {
+							System.arraycopy(arena, sub + 1, prefix, 0, dims);
+							if (!checker.isValid(subPostLen + 1, prefix)) {
+								continue;
+							}
+						}
+						push(sub);
+					}
+				}
+			}
+			hasNext = false;
+		}
+
+		private boolean checkNode(int node, int postLen) {
+			for (int d = 0; d < dims; d++) {
+				long p = arena[node + 1 + d];
+				if (nodeMin(p, postLen) > rangeMax[d] || nodeMax(p, postLen) < rangeMin[d]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+		private void checkHasNext() {
+			if (!hasNext) {
+				throw new NoSuchElementException();
+			}
+		}
+
+		@Override
+		public T next() {
+			return nextValue();
+		}
+
+		@Override
+		public T nextValue() {
+			checkHasNext();
+			T v = value(nextRef);
+			findNext();
+			return v;
+		}
+
+		@Override
+		public long[] nextKey() {
+			checkHasNext();
+			long[] key = nextKey.clone();
+			findNext();
+			return key;
+		}
+
+		@Override
+		public PhEntry<T> nextEntry() {
+			checkHasNext();
+			PhEntry<T> e = new PhEntry<>(nextKey.clone(), value(nextRef));
+			findNext();
+			return e;
+		}
+
+		@Override
+		public PhEntry<T> nextEntryReuse() {
+			checkHasNext();
+			System.arraycopy(nextKey, 0, resultBuf.getKey(), 0, dims);
+			resultBuf.setValueInternal(value(nextRef));
+			findNext();
+			return resultBuf;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("The tree is frozen.");
+		}
+	}
+
+
+	/**
+	 * Best-first kNN search. Candidate nodes are kept in a priority queue ordered by their
+	 * minimum distance to the center, the search stops when the closest candidate node
+	 * is farther away than the current k-th result.
+	 */
+	private class FrozenKnnQuery implements PhKnnQuery<T> {
+
+		private final ArrayList<PhEntryDist<T>> results = new ArrayList<>();
+		private int resultPos;
+		//candidate nodes, a binary min-heap over the distance
+		private double[] heapDist = new double[16];
+		private int[] heapNode = new int[16];
+		private int heapSize;
+		private final long[] buffer = new long[dims];
+		private final long[] nodeBuffer = new long[dims];
+		private PhDistance dist;
+		private long[] center;
+		private int nMin;
+
+		@Override
+		public PhKnnQuery<T> reset(int nMin, PhDistance dist, long... center) {
+			this.nMin = nMin;
+			this.dist = dist == null ? PhDistanceL.THIS : dist;
+			this.center = center;
+			results.clear();
+			resultPos = 0;
+			heapSize = 0;
+			if (nMin > 0) {
+				search();
+			}
+			return this;
+		}
+
+		private double maxDist() {
+			return results.size() < nMin ? Double.POSITIVE_INFINITY :
+				results.get(nMin - 1).dist();
+		}
+
+		private void search() {
+			heapPush(0, ROOT);
+			while (heapSize > 0) {
+				double d = heapDist[0];
+				int node = heapNode[0];
+				heapPop();
+				if (d > maxDist()) {
+					return;
+				}
+				int n = entryCount(node);
+				for (int i = 0; i < n; i++) {
+					long ref = arena[hcOffs(node) + n + i];
+					if (ref < 0) {
+						readKey(node, i, buffer);
+						double dk = dist.dist(center, buffer);
+						if (dk < maxDist()) {
+							addResult(buffer.clone(), value(ref), dk);
+						}
+					} else {
+						int sub = (int) ref;
+						System.arraycopy(arena, sub + 1, buffer, 0, dims);
+						double dn = distToNode(buffer, postLen(sub));
+						if (dn <= maxDist()) {
+							heapPush(dn, sub);
+						}
+					}
+				}
+			}
+		}
+
+		private double distToNode(long[] prefix, int postLen) {
+			if (dist instanceof PhDistanceNode) {
+				return ((PhDistanceNode) dist).distToNode(center, prefix, postLen + 1);
+			}
+			//closest point of the node
+			for (int d = 0; d < dims; d++) {
+				long lower = nodeMin(prefix[d], postLen);
+				long upper = nodeMax(prefix[d], postLen);
+				nodeBuffer[d] = center[d] < lower ? lower : (center[d] > upper ? upper : center[d]);
+			}
+			return dist.dist(center, nodeBuffer);
+		}
+
+		private void addResult(long[] key, T value, double d) {
+			int pos = results.size();
+			while (pos > 0 && results.get(pos - 1).dist() > d) {
+				pos--;
+			}
+			results.add(pos, new PhEntryDist<>(key, value, d));
+			if (results.size() > nMin) {
+				results.remove(results.size() - 1);
+			}
+		}
+
+		private void heapPush(double d, int node) {
+			if (heapSize == heapDist.length) {
+				heapDist = Arrays.copyOf(heapDist, heapSize*2);
+				heapNode = Arrays.copyOf(heapNode, heapSize*2);
+			}
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (heapDist[parent] <= d) {
+					break;
+				}
+				heapDist[i] = heapDist[parent];
+				heapNode[i] = heapNode[parent];
+				i = parent;
+			}
+			heapDist[i] = d;
+			heapNode[i] = node;
+		}
+
+		private void heapPop() {
+			heapSize--;
+			double d = heapDist[heapSize];
+			int node = heapNode[heapSize];
+			int i = 0;
+			while (true) {
+				int child = 2*i + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize && heapDist[child + 1] < heapDist[child]) {
+					child++;
+				}
+				if (heapDist[child] >= d) {
+					break;
+				}
+				heapDist[i] = heapDist[child];
+				heapNode[i] = heapNode[child];
+				i = child;
+			}
+			heapDist[i] = d;
+			heapNode[i] = node;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return resultPos < results.size();
+		}
+
+		private PhEntryDist<T> nextResult() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return results.get(resultPos++);
+		}
+
+		@Override
+		public T next() {
+			return nextValue();
+		}
+
+		@Override
+		public T nextValue() {
+			return nextResult().getValue();
+		}
+
+		@Override
+		public long[] nextKey() {
+			return nextResult().getKey();
+		}
+
+		@Override
+		public PhEntryDist<T> nextEntry() {
+			return nextResult();
+		}
+
+		@Override
+		public PhEntryDist<T> nextEntryReuse() {
+			return nextResult();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("The tree is frozen.");
+		}
+	}
+}
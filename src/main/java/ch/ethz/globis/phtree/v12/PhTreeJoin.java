@@ -0,0 +1,368 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * Spatial joins between two trees.
+ * <p>
+ * The distance join traverses both trees at the same time. It starts with the pair of 
+ * root nodes. For every pair of nodes, the node with the larger region is expanded 
+ * and each of its entries is paired with the other node. Pairs whose regions are farther 
+ * apart than the maximum distance are pruned. This way, every node of one tree is only 
+ * compared with nearby nodes of the other tree, instead of running one range query 
+ * for every entry.
+ * <p>
+ * The minimum distance between two regions is calculated from the closest pair of points
+ * in the two regions. This requires that the distance function is monotone in every 
+ * dimension, which is true for {@link PhDistanceL}, {@link ch.ethz.globis.phtree.PhDistanceF} 
+ * and the other Minkowski distances. With {@link ch.ethz.globis.phtree.PhDistanceChebyshev}
+ * the join returns all pairs whose windows of size 2*maxDist overlap.
+ * <p>
+ * The trees must not be modified during a join.
+ * 
+ * @author ztilmann
+ */
+public final class PhTreeJoin {
+
+	/**
+	 * Receives the results of a join.
+	 * 
+	 * @param <A> value type of the first tree
+	 * @param <B> value type of the second tree
+	 */
+	public static interface JoinConsumer<A, B> {
+		/**
+		 * Called for every matching pair. The keys are internal buffers, they are only
+		 * valid during the call and must not be modified.
+		 * @param keyA key in the first tree
+		 * @param valueA value in the first tree
+		 * @param keyB key in the second tree
+		 * @param valueB value in the second tree
+		 */
+		void accept(long[] keyA, A valueA, long[] keyB, B valueB);
+	}
+
+	private PhTreeJoin() {
+		//static methods only
+	}
+
+	/**
+	 * Find all pairs of entries (a, b) with 'a' from treeA and 'b' from treeB where 
+	 * {@code dist(a, b) <= maxDist}.
+	 * 
+	 * @param treeA first tree
+	 * @param treeB second tree
+	 * @param maxDist maximum distance
+	 * @param dist the distance function, can be {@code null}. The default is 
+	 * {@link PhDistanceL}.
+	 * @param consumer receives the matching pairs
+	 * @param <A> value type of the first tree
+	 * @param <B> value type of the second tree
+	 */
+	public static <A, B> void distanceJoin(PhTree12<A> treeA, PhTree12<B> treeB, 
+			double maxDist, PhDistance dist, JoinConsumer<A, B> consumer) {
+		distanceJoin(treeA, treeB, maxDist, dist, consumer, null);
+	}
+
+	/**
+	 * Parallel version of 
+	 * {@link #distanceJoin(PhTree12, PhTree12, double, PhDistance, JoinConsumer)}.
+	 * <p>
+	 * The work is partitioned by the entries of the root node of treeA, i.e. by the 
+	 * top-level quadrants. Every partition is joined with treeB in a separate task. 
+	 * The consumer is called concurrently from several threads.
+	 * 
+	 * @param treeA first tree
+	 * @param treeB second tree
+	 * @param maxDist maximum distance
+	 * @param dist the distance function, can be {@code null}. The default is 
+	 * {@link PhDistanceL}.
+	 * @param consumer receives the matching pairs, must be thread-safe
+	 * @param executor executor for parallel processing, can be {@code null}
+	 * @param <A> value type of the first tree
+	 * @param <B> value type of the second tree
+	 */
+	public static <A, B> void distanceJoin(final PhTree12<A> treeA, final PhTree12<B> treeB, 
+			final double maxDist, PhDistance dist, final JoinConsumer<A, B> consumer, 
+			ExecutorService executor) {
+		if (treeA.getDim() != treeB.getDim()) {
+			throw new IllegalArgumentException("Dimension mismatch: " + treeA.getDim() + 
+					" / " + treeB.getDim());
+		}
+		if (!(maxDist >= 0)) {
+			throw new IllegalArgumentException("maxDist must not be negative: " + maxDist);
+		}
+		final PhDistance d = dist == null ? PhDistanceL.THIS : dist;
+		final Node rootA = treeA.getRoot();
+		final Node rootB = treeB.getRoot();
+		if (rootA == null || rootB == null) {
+			return;
+		}
+		final long[] rootPrefix = new long[treeA.getDim()];
+		if (executor == null) {
+			new Joiner<>(treeA, treeB, maxDist, d, consumer).join(
+					rootA, rootPrefix, null, rootB, rootPrefix, null, 0);
+			return;
+		}
+		
+		//one task per entry of the root of treeA
+		List<Future<?>> futures = new ArrayList<>();
+		long[] valTemplate = new long[treeA.getDim()];
+		NodeIteratorNoGC<A> iter = new NodeIteratorNoGC<>(treeA.getDim(), valTemplate, 
+				treeA.getPersistenceProvider());
+		NodeEntry<A> e = new NodeEntry<>(new long[treeA.getDim()], Node.SUBCODE_EMPTY, null);
+		long[] min = new long[treeA.getDim()];
+		long[] max = new long[treeA.getDim()];
+		Arrays.fill(min, Long.MIN_VALUE);
+		Arrays.fill(max, Long.MAX_VALUE);
+		iter.init(min, max, rootA, null);
+		while (iter.increment(e)) {
+			final Node sub;
+			final long[] key;
+			final Object value;
+			if (e.node != null) {
+				sub = (Node) treeA.getPersistenceProvider().loadNode(e.node);
+				key = valTemplate.clone();
+				value = null;
+			} else {
+				sub = null;
+				key = e.getKey().clone();
+				value = e.getValue();
+			}
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					new Joiner<>(treeA, treeB, maxDist, d, consumer).join(
+							sub, key, value, rootB, rootPrefix, null, 0);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> f: futures) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Traversal state of a join. Every recursion level has its own node iterators and 
+	 * buffers, they are reused by all node pairs on that level.
+	 */
+	private static final class Joiner<A, B> {
+		
+		private final int dims;
+		private final PersistenceProvider ppA;
+		private final PersistenceProvider ppB;
+		private final double maxDist;
+		private final PhDistance dist;
+		private final JoinConsumer<A, B> consumer;
+		private final List<Level> levels = new ArrayList<>();
+		//closest points of two regions, see minDist()
+		private final long[] closestA;
+		private final long[] closestB;
+		
+		private final class Level {
+			private final long[] valTemplate = new long[dims];
+			private final NodeIteratorNoGC<Object> iterA = 
+					new NodeIteratorNoGC<>(dims, valTemplate, ppA);
+			private final NodeIteratorNoGC<Object> iterB = 
+					new NodeIteratorNoGC<>(dims, valTemplate, ppB);
+			private final NodeEntry<Object> entry = 
+					new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+			private final long[] min = new long[dims];
+			private final long[] max = new long[dims];
+		}
+		
+		Joiner(PhTree12<A> treeA, PhTree12<B> treeB, double maxDist, PhDistance dist,
+				JoinConsumer<A, B> consumer) {
+			this.dims = treeA.getDim();
+			this.ppA = treeA.getPersistenceProvider();
+			this.ppB = treeB.getPersistenceProvider();
+			this.maxDist = maxDist;
+			this.dist = dist;
+			this.consumer = consumer;
+			this.closestA = new long[dims];
+			this.closestB = new long[dims];
+		}
+
+		/**
+		 * Join two regions. A region is either a node (then the key is the prefix 
+		 * of the node) or a single entry (then the node is {@code null}).
+		 */
+		void join(Node nodeA, long[] keyA, Object valueA, 
+				Node nodeB, long[] keyB, Object valueB, int depth) {
+			if (nodeA == null && nodeB == null) {
+				if (dist.dist(keyA, keyB) <= maxDist) {
+					accept(keyA, valueA, keyB, valueB);
+				}
+				return;
+			}
+			if (nodeB == null || (nodeA != null && nodeA.getPostLen() >= nodeB.getPostLen())) {
+				expand(nodeA, keyA, true, nodeB, keyB, valueB, depth);
+			} else {
+				expand(nodeB, keyB, false, nodeA, keyA, valueA, depth);
+			}
+		}
+
+		/**
+		 * Pair every entry of 'node' with the other region. 
+		 */
+		private void expand(Node node, long[] prefix, boolean isA, 
+				Node other, long[] otherKey, Object otherValue, int depth) {
+			if (levels.size() == depth) {
+				levels.add(new Level());
+			}
+			Level l = levels.get(depth);
+			int otherPostLen = other == null ? -1 : other.getPostLen();
+			calcWindow(otherKey, otherPostLen, l.min, l.max);
+			System.arraycopy(prefix, 0, l.valTemplate, 0, dims);
+			NodeIteratorNoGC<Object> iter = isA ? l.iterA : l.iterB;
+			PersistenceProvider pp = isA ? ppA : ppB;
+			NodeEntry<Object> e = l.entry;
+			iter.init(l.min, l.max, node, null);
+			while (iter.increment(e)) {
+				if (e.node != null) {
+					//'valTemplate' contains the prefix of the sub-node
+					Node sub = (Node) pp.loadNode(e.node);
+					if (minDist(l.valTemplate, sub.getPostLen(), otherKey, otherPostLen) <= maxDist) {
+						if (isA) {
+							join(sub, l.valTemplate, null, other, otherKey, otherValue, depth+1);
+						} else {
+							join(other, otherKey, otherValue, sub, l.valTemplate, null, depth+1);
+						}
+					}
+				} else if (other == null) {
+					if (dist.dist(e.getKey(), otherKey) <= maxDist) {
+						if (isA) {
+							accept(e.getKey(), e.getValue(), otherKey, otherValue);
+						} else {
+							accept(otherKey, otherValue, e.getKey(), e.getValue());
+						}
+					}
+				} else if (minDist(e.getKey(), -1, otherKey, otherPostLen) <= maxDist) {
+					if (isA) {
+						join(null, e.getKey(), e.getValue(), other, otherKey, null, depth+1);
+					} else {
+						join(other, otherKey, null, null, e.getKey(), e.getValue(), depth+1);
+					}
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void accept(long[] keyA, Object valueA, long[] keyB, Object valueB) {
+			consumer.accept(keyA, valueA == PhTreeHelper.NULL ? null : (A) valueA, 
+					keyB, valueB == PhTreeHelper.NULL ? null : (B) valueB);
+		}
+
+		/**
+		 * Calculate a query window that contains all points within 'maxDist' of the region.
+		 */
+		private void calcWindow(long[] key, int postLen, long[] outMin, long[] outMax) {
+			for (int i = 0; i < dims; i++) {
+				closestA[i] = lower(key[i], postLen);
+				closestB[i] = upper(key[i], postLen);
+			}
+			dist.toMBB(maxDist, closestA, outMin, outMax);
+			//We need only the lower corner of the first and the upper corner of the second
+			//window. Overflows are detected by comparing with the region.
+			for (int i = 0; i < dims; i++) {
+				if (outMin[i] > closestA[i]) {
+					outMin[i] = Long.MIN_VALUE;
+				}
+				closestA[i] = outMin[i];
+			}
+			dist.toMBB(maxDist, closestB, outMin, outMax);
+			for (int i = 0; i < dims; i++) {
+				outMin[i] = closestA[i];
+				if (outMax[i] < closestB[i]) {
+					outMax[i] = Long.MAX_VALUE;
+				}
+			}
+		}
+
+		/**
+		 * @return The minimum distance between any two points in the two regions. 
+		 */
+		private double minDist(long[] keyA, int postLenA, long[] keyB, int postLenB) {
+			for (int i = 0; i < dims; i++) {
+				long minA = lower(keyA[i], postLenA);
+				long maxA = upper(keyA[i], postLenA);
+				long minB = lower(keyB[i], postLenB);
+				long maxB = upper(keyB[i], postLenB);
+				if (maxA < minB) {
+					closestA[i] = maxA;
+					closestB[i] = minB;
+				} else if (maxB < minA) {
+					closestA[i] = minA;
+					closestB[i] = maxB;
+				} else {
+					closestA[i] = closestB[i] = Math.max(minA, minB);
+				}
+			}
+			double d = dist.dist(closestA, closestB);
+			//The corners of large regions may not be valid keys, for example NaN for
+			//floating point keys. Such regions can not be pruned.
+			return Double.isNaN(d) ? 0 : d;
+		}
+		
+		/**
+		 * @return The lowest value in the region of a node with the given prefix and
+		 * postLen. A postLen of -1 denotes a single entry.
+		 */
+		private static long lower(long prefix, int postLen) {
+			if (postLen >= PhTree12.DEPTH_64-1) {
+				return Long.MIN_VALUE;
+			}
+			return prefix & ((-1L) << (postLen+1));
+		}
+
+		private static long upper(long prefix, int postLen) {
+			if (postLen >= PhTree12.DEPTH_64-1) {
+				return Long.MAX_VALUE;
+			}
+			return prefix | ~((-1L) << (postLen+1));
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhPredicate;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhTree12.NodeEntry;
+
+/**
+ * Removal of all entries in a query window, see 
+ * {@link PhTree12#removeIf(long[], long[], PhPredicate)}.
+ * <p>
+ * Sub-nodes that lie completely inside the window are removed from their parent with a 
+ * single operation and then discarded together with their subtree, without removing
+ * their entries one by one. Only nodes that intersect the window boundary are 
+ * processed entry by entry. These are also the only nodes that can end up with less 
+ * than two entries, so they are merged into their parent afterwards, as in 
+ * {@link PhCompactor}.
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+final class PhWindowRemover<T> {
+
+	private final PhTree12<T> tree;
+	private final int dims;
+	private final PersistenceProvider pp;
+	private final long[] min;
+	private final long[] max;
+	private final PhPredicate<T> predicate;
+	private final long[] valTemplate;
+	private final NodeIteratorNoGC<T> iter;
+	private final NodeEntry<T> buffer;
+
+	private PhWindowRemover(PhTree12<T> tree, long[] min, long[] max, PhPredicate<T> predicate) {
+		this.tree = tree;
+		this.dims = tree.getDim();
+		this.pp = tree.getPersistenceProvider();
+		this.min = min;
+		this.max = max;
+		this.predicate = predicate;
+		this.valTemplate = new long[dims];
+		this.iter = new NodeIteratorNoGC<>(dims, valTemplate, pp);
+		this.buffer = new NodeEntry<>(new long[dims], Node.SUBCODE_EMPTY, null);
+	}
+
+	/**
+	 * @param tree the tree
+	 * @param min the minimum values of the window
+	 * @param max the maximum values of the window
+	 * @param predicate the condition for removing an entry, can be {@code null}
+	 * @return the number of removed entries
+	 * @param <T> value type
+	 */
+	static <T> int run(PhTree12<T> tree, long[] min, long[] max, PhPredicate<T> predicate) {
+		Node root = tree.getRoot();
+		if (root == null) {
+			return 0;
+		}
+		PhWindowRemover<T> r = new PhWindowRemover<>(tree, min, max, predicate);
+		int n = r.remove(root, new long[tree.getDim()], null);
+		if (n > 0) {
+			tree.adjustCounts(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Remove the matching entries in a node and its sub-nodes.
+	 * @return the number of removed entries
+	 */
+	private int remove(Node node, long[] prefix, Node parent) {
+		//Collect the entries first, because the node is modified during removal.
+		List<Node> subs = new ArrayList<>();
+		List<long[]> subPrefixes = new ArrayList<>();
+		List<long[]> keys = new ArrayList<>();
+		System.arraycopy(prefix, 0, valTemplate, 0, dims);
+		iter.init(min, max, node, null);
+		while (iter.increment(buffer)) {
+			if (buffer.node != null) {
+				//'valTemplate' contains the prefix of the sub-node
+				subs.add((Node) pp.loadNode(buffer.node));
+				subPrefixes.add(valTemplate.clone());
+			} else {
+				T v = buffer.getValue();
+				if (predicate == null || 
+						predicate.test(buffer.getKey(), v == PhTreeHelper.NULL ? null : v)) {
+					keys.add(buffer.getKey().clone());
+				}
+			}
+		}
+
+		int nRemoved = 0;
+		for (int i = 0; i < subs.size(); i++) {
+			Node sub = subs.get(i);
+			long[] subPrefix = subPrefixes.get(i);
+			if (predicate == null && PhTree12.isInside(subPrefix, sub.getPostLen(), min, max)) {
+				//detach the whole subtree
+				removeEntry(node, subPrefix);
+				nRemoved += discardSubtree(sub);
+			} else {
+				//This may merge 'sub' into 'node'
+				nRemoved += remove(sub, subPrefix, node);
+			}
+		}
+		for (long[] key: keys) {
+			removeEntry(node, key);
+		}
+		nRemoved += keys.size();
+
+		if (nRemoved == 0) {
+			return 0;
+		}
+		if (tree.isSubtreeCounts()) {
+			node.adjustSubtreeCount(-nRemoved);
+		}
+		pp.updateNode(node);
+		//Nodes with less than two entries should not exist, except for the root. 
+		if (parent != null && node.getEntryCount() <= 1) {
+			if (node.getEntryCount() == 1) {
+				node.mergeLonelyIntoParent(prefix, parent, pp);
+			} else {
+				node.removeEmptyFromParent(prefix, parent, pp, tree.getNodeConfig());
+			}
+		}
+		return nRemoved;
+	}
+
+	private void removeEntry(Node node, long[] key) {
+		long hcPos = PhTreeHelper.posInArray(key, node.getPostLen());
+		if (node.isNT()) {
+			node.removeEntryNT(hcPos, dims, pp, tree.getNodeConfig());
+		} else {
+			node.removeEntry(hcPos, node.getPosition(hcPos, dims), dims, tree.getNodeConfig());
+		}
+	}
+
+	/**
+	 * Discard a node that has been removed from the tree, including all its sub-nodes.
+	 * @return the number of entries in the subtree
+	 */
+	private int discardSubtree(Node node) {
+		List<Node> subs = new ArrayList<>();
+		int nEntries = 0;
+		NodeIteratorFullNoGC<T> it = new NodeIteratorFullNoGC<>(dims, new long[dims], pp);
+		it.init(node, null);
+		while (it.increment(buffer)) {
+			if (Node.isSubNode(buffer.getSubCode())) {
+				subs.add((Node) pp.loadNode(buffer.node));
+			} else {
+				nEntries++;
+			}
+		}
+		//return the arrays to the pools
+		node.discardNode(pp);
+		for (Node sub: subs) {
+			nEntries += discardSubtree(sub);
+		}
+		return nEntries;
+	}
+}
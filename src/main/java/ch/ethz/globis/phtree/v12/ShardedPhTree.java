@@ -0,0 +1,571 @@
+package ch.ethz.globis.phtree.v12;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ch.ethz.globis.phtree.PersistenceProvider;
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeHelper;
+
+/**
+ * A PH-tree that is partitioned into several independent {@link PhTree12} shards.
+ * <p>
+ * Every key is assigned to one shard by a {@link Partitioner}. By default, keys are
+ * partitioned by the top bits of their hypercube address, see {@link ZOrderPartitioner}.
+ * <p>
+ * Every shard is protected by its own read/write lock, so the tree can be used by 
+ * several threads concurrently. Writes to different shards proceed in parallel.
+ * Window queries and kNN queries are sent only to the shards that overlap 
+ * the query, the shards can be queried in parallel by passing an executor.
+ * 
+ * @author ztilmann
+ *
+ * @param <T> value type
+ */
+public class ShardedPhTree<T> {
+
+	/**
+	 * Assigns keys to shards.
+	 */
+	public static interface Partitioner {
+		/**
+		 * @param key a key
+		 * @return the shard of the key, between 0 and the number of shards - 1
+		 */
+		int shardOf(long[] key);
+
+		/**
+		 * @param shard a shard
+		 * @param min the minimum values of a query window
+		 * @param max the maximum values of a query window
+		 * @return false if the shard cannot contain any key inside the window. 
+		 * Returning 'true' is always correct, but may be slow.
+		 */
+		boolean overlaps(int shard, long[] min, long[] max);
+	}
+
+	/**
+	 * Partitions keys by the top bits of their hypercube address, i.e. every shard 
+	 * contains one cell of a regular grid. The number of shards must be a power of two,
+	 * {@code log2(nShards)} bits of the z-address are used, starting with bit 'topBit' of 
+	 * the first dimension, followed by bit 'topBit' of the second dimension, and so on.
+	 * <p>
+	 * With {@code topBit = 63} the signed key space is partitioned. If all keys are, for
+	 * example, positive 32 bit values, the top bit should be 31. Otherwise all keys would 
+	 * end up in the same shard.
+	 */
+	public static class ZOrderPartitioner implements Partitioner {
+
+		private final int dims;
+		private final int nBits;
+		private final int topBit;
+
+		/**
+		 * @param dims number of dimensions
+		 * @param nShards number of shards, must be a power of two
+		 * @param topBit the highest bit that is used for partitioning
+		 */
+		public ZOrderPartitioner(int dims, int nShards, int topBit) {
+			if (nShards < 1 || Integer.bitCount(nShards) != 1) {
+				throw new IllegalArgumentException("Shard count must be a power of two: " + nShards);
+			}
+			this.dims = dims;
+			this.nBits = Integer.numberOfTrailingZeros(nShards);
+			this.topBit = topBit;
+			if (topBit < 0 || topBit > 63 || (topBit+1)*dims < nBits) {
+				throw new IllegalArgumentException("Invalid top bit: " + topBit);
+			}
+		}
+
+		@Override
+		public int shardOf(long[] key) {
+			int shard = 0;
+			for (int i = 0; i < nBits; i++) {
+				long bit = key[i % dims] >>> (topBit - i/dims);
+				shard = (shard << 1) | (int) (bit & 1);
+			}
+			return shard;
+		}
+
+		@Override
+		public boolean overlaps(int shard, long[] min, long[] max) {
+			long maskAbove = topBit == 63 ? 0 : (-1L) << (topBit+1);
+			for (int d = 0; d < dims; d++) {
+				//number of bits of dimension 'd' that are used for partitioning
+				int len = (nBits - d + dims - 1) / dims;
+				if (len == 0) {
+					continue;
+				}
+				if (((min[d] ^ max[d]) & maskAbove) != 0) {
+					//cell is not contiguous in the window
+					continue;
+				}
+				long pattern = 0;
+				for (int j = 0; j < len; j++) {
+					int pos = j*dims + d;
+					pattern = (pattern << 1) | ((shard >>> (nBits - 1 - pos)) & 1);
+				}
+				int shift = topBit + 1 - len;
+				long lower = (min[d] & maskAbove) | (pattern << shift);
+				long upper = lower | ~((-1L) << shift);
+				if (lower > max[d] || upper < min[d]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final int dims;
+	private final PhTree12<T>[] shards;
+	private final Lock[] readLocks;
+	private final Lock[] writeLocks;
+	private final Partitioner partitioner;
+
+	/**
+	 * Create a sharded tree with a {@link ZOrderPartitioner} that uses the top bits of the 
+	 * signed key space.
+	 * @param dims number of dimensions
+	 * @param nShards number of shards, must be a power of two
+	 */
+	public ShardedPhTree(int dims, int nShards) {
+		this(new PhTreeConfig(dims), nShards, new ZOrderPartitioner(dims, nShards, 63));
+	}
+
+	/**
+	 * @param cfg configuration of the shards, persistence providers are not supported
+	 * @param nShards number of shards
+	 * @param partitioner assigns keys to shards
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ShardedPhTree(PhTreeConfig cfg, int nShards, Partitioner partitioner) {
+		if (nShards < 1) {
+			throw new IllegalArgumentException("Shard count must be positive: " + nShards);
+		}
+		if (cfg.getPersistenceProvider() != PersistenceProvider.NONE) {
+			//the shards would share the persistence provider
+			throw new IllegalArgumentException("Persistence providers are not supported");
+		}
+		this.dims = cfg.getDimActual();
+		this.partitioner = partitioner;
+		this.shards = new PhTree12[nShards];
+		this.readLocks = new Lock[nShards];
+		this.writeLocks = new Lock[nShards];
+		for (int i = 0; i < nShards; i++) {
+			shards[i] = new PhTree12<>(cfg);
+			ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+			readLocks[i] = rwl.readLock();
+			writeLocks[i] = rwl.writeLock();
+		}
+	}
+
+	private int shardOf(long[] key) {
+		if (key.length != dims) {
+			throw new IllegalArgumentException("Invalid number of arguments: " + key.length +  
+					"  DIM=" + dims);
+		}
+		int shard = partitioner.shardOf(key);
+		if (shard < 0 || shard >= shards.length) {
+			throw new IllegalStateException("Invalid shard: " + shard);
+		}
+		return shard;
+	}
+
+	/**
+	 * @return the number of entries in the tree
+	 */
+	public int size() {
+		int n = 0;
+		for (int i = 0; i < shards.length; i++) {
+			n += shards[i].size();
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of dimensions
+	 */
+	public int getDim() {
+		return dims;
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @param shard a shard
+	 * @return the number of entries in the shard
+	 */
+	public int getShardSize(int shard) {
+		return shards[shard].size();
+	}
+
+	/**
+	 * @see PhTree12#put(long[], Object)
+	 * @param key the key
+	 * @param value the value
+	 * @return the previous value or {@code null}
+	 */
+	public T put(long[] key, T value) {
+		int shard = shardOf(key);
+		writeLocks[shard].lock();
+		try {
+			return shards[shard].put(key, value);
+		} finally {
+			writeLocks[shard].unlock();
+		}
+	}
+
+	/**
+	 * @see PhTree12#get(long...)
+	 * @param key the key
+	 * @return the value or {@code null}
+	 */
+	public T get(long... key) {
+		int shard = shardOf(key);
+		readLocks[shard].lock();
+		try {
+			return shards[shard].get(key);
+		} finally {
+			readLocks[shard].unlock();
+		}
+	}
+
+	/**
+	 * @see PhTree12#contains(long...)
+	 * @param key the key
+	 * @return true if the key exists
+	 */
+	public boolean contains(long... key) {
+		int shard = shardOf(key);
+		readLocks[shard].lock();
+		try {
+			return shards[shard].contains(key);
+		} finally {
+			readLocks[shard].unlock();
+		}
+	}
+
+	/**
+	 * @see PhTree12#remove(long...)
+	 * @param key the key
+	 * @return the value of the removed entry or {@code null}
+	 */
+	public T remove(long... key) {
+		int shard = shardOf(key);
+		writeLocks[shard].lock();
+		try {
+			return shards[shard].remove(key);
+		} finally {
+			writeLocks[shard].unlock();
+		}
+	}
+
+	/**
+	 * Update the key of an entry. If the keys are in different shards, the entry is moved
+	 * while both shards are locked.
+	 * An existing entry with the new key is replaced.
+	 * @see PhTree12#update(long[], long[])
+	 * @param oldKey the old key
+	 * @param newKey the new key
+	 * @return the value of the entry if it could be updated, otherwise {@code null}
+	 */
+	public T update(long[] oldKey, long[] newKey) {
+		int s1 = shardOf(oldKey);
+		int s2 = shardOf(newKey);
+		if (s1 == s2) {
+			writeLocks[s1].lock();
+			try {
+				return shards[s1].update(oldKey, newKey);
+			} finally {
+				writeLocks[s1].unlock();
+			}
+		}
+		//lock in a fixed order to avoid deadlocks
+		writeLocks[Math.min(s1, s2)].lock();
+		writeLocks[Math.max(s1, s2)].lock();
+		try {
+			if (!shards[s1].contains(oldKey)) {
+				return null;
+			}
+			//like PhTree12, this replaces an existing entry with the new key
+			T v = shards[s1].remove(oldKey);
+			shards[s2].put(newKey, v);
+			return v;
+		} finally {
+			writeLocks[Math.max(s1, s2)].unlock();
+			writeLocks[Math.min(s1, s2)].unlock();
+		}
+	}
+
+	/**
+	 * Insert many entries. The entries are grouped by shard and the shards are 
+	 * filled in parallel.
+	 * @param keys the keys
+	 * @param values the values, {@code values[i]} belongs to {@code keys[i]}
+	 * @param executor executor for parallel processing, can be {@code null}
+	 */
+	public void putAll(final long[][] keys, final T[] values, ExecutorService executor) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("Key count mismatch: " + keys.length +  
+					" / " + values.length);
+		}
+		//counting sort by shard
+		int[] shardOfKey = new int[keys.length];
+		final int[] start = new int[shards.length + 1];
+		for (int i = 0; i < keys.length; i++) {
+			shardOfKey[i] = shardOf(keys[i]);
+			start[shardOfKey[i] + 1]++;
+		}
+		for (int s = 0; s < shards.length; s++) {
+			start[s+1] += start[s];
+		}
+		final int[] order = new int[keys.length];
+		int[] pos = Arrays.copyOf(start, shards.length);
+		for (int i = 0; i < keys.length; i++) {
+			order[pos[shardOfKey[i]]++] = i;
+		}
+		
+		List<Callable<Object>> tasks = new ArrayList<>();
+		for (int s = 0; s < shards.length; s++) {
+			if (start[s] == start[s+1]) {
+				continue;
+			}
+			final int shard = s;
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					writeLocks[shard].lock();
+					try {
+						for (int i = start[shard]; i < start[shard+1]; i++) {
+							shards[shard].put(keys[order[i]], values[order[i]]);
+						}
+					} finally {
+						writeLocks[shard].unlock();
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks, executor);
+	}
+
+	/**
+	 * Window query. Only the shards that overlap the window are queried.
+	 * @param min the minimum values
+	 * @param max the maximum values
+	 * @param executor executor for querying the shards in parallel, can be {@code null}
+	 * @return all entries in the window, in no particular order
+	 */
+	public List<PhEntry<T>> queryAll(final long[] min, final long[] max, 
+			ExecutorService executor) {
+		List<Callable<List<PhEntry<T>>>> tasks = new ArrayList<>();
+		for (int s = 0; s < shards.length; s++) {
+			if (!partitioner.overlaps(s, min, max)) {
+				continue;
+			}
+			final int shard = s;
+			tasks.add(new Callable<List<PhEntry<T>>>() {
+				@Override
+				public List<PhEntry<T>> call() {
+					List<PhEntry<T>> ret = new ArrayList<>();
+					readLocks[shard].lock();
+					try {
+						PhQuery<T> q = shards[shard].query(min, max);
+						while (q.hasNext()) {
+							PhEntry<T> e = q.nextEntry();
+							ret.add(new PhEntry<>(e.getKey(), nonNull(e.getValue())));
+						}
+					} finally {
+						readLocks[shard].unlock();
+					}
+					return ret;
+				}
+			});
+		}
+		List<PhEntry<T>> ret = new ArrayList<>();
+		for (List<PhEntry<T>> list: run(tasks, executor)) {
+			ret.addAll(list);
+		}
+		return ret;
+	}
+
+	/**
+	 * Find the 'k' nearest neighbours. 
+	 * <p>
+	 * The shard that contains 'center' is queried first. The distance of its k-th 
+	 * neighbour limits the search to the shards that overlap the bounding box of that 
+	 * distance. These shards are queried (in parallel if an executor is given) and the 
+	 * results are merged.
+	 * @param k number of neighbours
+	 * @param dist the distance function, can be {@code null}. The default is
+	 * {@link PhDistanceL}.
+	 * @param executor executor for querying the shards in parallel, can be {@code null}
+	 * @param center the center point
+	 * @return the 'k' nearest neighbours, sorted by distance. This may be less than 'k'
+	 * if the tree contains less than 'k' entries.
+	 */
+	public List<PhEntryDist<T>> nearestNeighbour(final int k, PhDistance dist, 
+			ExecutorService executor, final long... center) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		final PhDistance distance = dist == null ? PhDistanceL.THIS : dist;
+		int home = shardOf(center);
+		List<PhEntryDist<T>> first = knn(home, k, distance, center);
+		long[] min = null;
+		long[] max = null;
+		if (first.size() >= k) {
+			min = new long[dims];
+			max = new long[dims];
+			distance.toMBB(first.get(k-1).dist(), center, min, max);
+		}
+		List<Callable<List<PhEntryDist<T>>>> tasks = new ArrayList<>();
+		for (int s = 0; s < shards.length; s++) {
+			if (s == home || (min != null && !partitioner.overlaps(s, min, max))) {
+				continue;
+			}
+			final int shard = s;
+			tasks.add(new Callable<List<PhEntryDist<T>>>() {
+				@Override
+				public List<PhEntryDist<T>> call() {
+					return knn(shard, k, distance, center);
+				}
+			});
+		}
+		List<List<PhEntryDist<T>>> lists = run(tasks, executor);
+		lists.add(first);
+		return merge(lists, k);
+	}
+
+	private List<PhEntryDist<T>> knn(int shard, int k, PhDistance dist, long[] center) {
+		List<PhEntryDist<T>> ret = new ArrayList<>(k);
+		readLocks[shard].lock();
+		try {
+			if (shards[shard].size() == 0) {
+				return ret;
+			}
+			PhKnnQuery<T> q = shards[shard].nearestNeighbour(k, dist, null, center);
+			while (q.hasNext() && ret.size() < k) {
+				PhEntryDist<T> e = q.nextEntryReuse();
+				ret.add(new PhEntryDist<>(e.getKey().clone(), nonNull(e.getValue()), e.dist()));
+			}
+		} finally {
+			readLocks[shard].unlock();
+		}
+		return ret;
+	}
+
+	/**
+	 * k-way merge of lists that are sorted by distance.
+	 */
+	private static <T> List<PhEntryDist<T>> merge(List<List<PhEntryDist<T>>> lists, int k) {
+		List<PhEntryDist<T>> ret = new ArrayList<>(k);
+		int[] pos = new int[lists.size()];
+		while (ret.size() < k) {
+			int best = -1;
+			for (int i = 0; i < pos.length; i++) {
+				List<PhEntryDist<T>> list = lists.get(i);
+				if (pos[i] < list.size() && (best < 0 || 
+						list.get(pos[i]).dist() < lists.get(best).get(pos[best]).dist())) {
+					best = i;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			ret.add(lists.get(best).get(pos[best]++));
+		}
+		return ret;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		for (int s = 0; s < shards.length; s++) {
+			writeLocks[s].lock();
+			try {
+				shards[s].clear();
+			} finally {
+				writeLocks[s].unlock();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T nonNull(Object v) {
+		return v == PhTreeHelper.NULL ? null : (T) v;
+	}
+
+	private static <R> List<R> run(List<Callable<R>> tasks, ExecutorService executor) {
+		List<R> ret = new ArrayList<>(tasks.size());
+		if (executor == null || tasks.size() <= 1) {
+			for (Callable<R> task: tasks) {
+				try {
+					ret.add(task.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return ret;
+		}
+		List<Future<R>> futures = new ArrayList<>();
+		for (Callable<R> task: tasks) {
+			futures.add(executor.submit(task));
+		}
+		try {
+			for (Future<R> f: futures) {
+				ret.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		return ret;
+	}
+}
@@ -359,6 +359,7 @@ public class NodeTreeV12<T> implements NodeTree64<T> {
 					long[] kdKey2 = new long[outerDims];
 					currentNode.getKdKeyByPIN(pin2, kdKey2);
 					parentNode.localReplaceEntry(parentPin, kdKey2, kdSubCode2, ntSubCode2, val2);
+					pp.discardNode(currentNode);
 					currentNode.discardNode();
 				}
 				return ret;
@@ -367,6 +368,27 @@ public class NodeTreeV12<T> implements NodeTree64<T> {
 		
 	}
 	
+	/**
+	 * Release all NT sub-nodes of an NT in the persistence provider. 
+	 * The nodes themselves are not modified.
+	 * @param root the root of the NT
+	 * @param pp persistence provider
+	 */
+	public static void discardSubNodes(NtNode<?> root, PersistenceProvider pp) {
+		if (pp == PersistenceProvider.NONE) {
+			return;
+		}
+		Object[] data = root.values();
+		int nSlots = root.isAHC() ? data.length : root.getEntryCount();
+		for (int i = 0; i < nSlots; i++) {
+			if (NtNode.isNtSubNode(root.getNtSubCode(i))) {
+				NtNode<?> sub = resolve(pp, data[i]);
+				discardSubNodes(sub, pp);
+				pp.discardNode(sub);
+			}
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private static <T> NtNode<T> resolve(PersistenceProvider pp, Object o) {
 		//return (NtNode<T>) ((pp == null) ? o : pp.resolveObject(o));
@@ -678,7 +700,9 @@ public class NodeTreeV12<T> implements NodeTree64<T> {
 
 		int nNodeEntriesFound = 0;
 		Object[] data = node.values();
-		for (int i = 0; i < data.length; i++) {
+		//LHC arrays may contain stale entries behind the last entry
+		int nSlots = node.isAHC() ? data.length : node.getEntryCount();
+		for (int i = 0; i < nSlots; i++) {
 			byte ntSubCode = node.getNtSubCode(i);
 			if (NtNode.isNtSubEmpty(ntSubCode)) {
 				continue;
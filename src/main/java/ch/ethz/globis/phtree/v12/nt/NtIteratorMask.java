@@ -65,7 +65,7 @@ public final class NtIteratorMask<T> implements PhIterator64<T> {
 				ni = new NtNodeIteratorMask<>(pp);
 				stack[size-1] = ni;
 			}
-			ni.init(minMask, maxMask, currentPrefix, node);
+			ni.init(minMask, maxMask, min, currentPrefix, node);
 			return ni;
 		}
 
@@ -81,6 +81,7 @@ public final class NtIteratorMask<T> implements PhIterator64<T> {
 	private final PhIteratorStack stack;
 	private long minMask;
 	private long maxMask;
+	private long min;
 	
 	private final NtEntry12<T> resultBuf1;
 	private final NtEntry12<T> resultBuf2;
@@ -109,8 +110,22 @@ public final class NtIteratorMask<T> implements PhIterator64<T> {
 	}
 	
 	public NtIteratorMask<T> reset(NtNode<T> root, long minMask, long maxMask) {	
+		return reset(root, minMask, maxMask, Long.MIN_VALUE);
+	}
+	
+	/**
+	 * Reset the iterator such that it starts at a given key. Sub-nodes that contain 
+	 * only smaller keys are skipped without being traversed.
+	 * @param root the root of the tree
+	 * @param minMask lower mask
+	 * @param maxMask upper mask
+	 * @param min the minimum key, smaller keys are not returned
+	 * @return this iterator
+	 */
+	public NtIteratorMask<T> reset(NtNode<T> root, long minMask, long maxMask, long min) {	
 		this.minMask = minMask;
 		this.maxMask = maxMask;
+		this.min = min;
 		this.stack.size = 0;
 		this.isFinished = false;
 		
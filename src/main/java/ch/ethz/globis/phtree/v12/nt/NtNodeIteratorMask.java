@@ -31,6 +31,7 @@ public class NtNodeIteratorMask<T> {
 	private long maskUpper;
 	private long globalMinMask;
 	private long globalMaxMask;
+	private long globalMin;
 	private boolean useHcIncrementer;
 	private final PersistenceProvider store;
 
@@ -122,9 +123,13 @@ public class NtNodeIteratorMask<T> {
 			if (((prefix | globalMinMask) & globalMaxMask & mask) != (prefix & mask)) {
 				return false;
 			}
+			if ((prefix | ~mask) < globalMin) {
+				//all keys in the sub-node are smaller than the minimum
+				return false;
+			}
 			nextSubNode = (NtNode<T>) store.loadNode(node.getValueByPIN(pin));
 		} else {
-			if (((prefix | globalMinMask) & globalMaxMask) != prefix) {
+			if (((prefix | globalMinMask) & globalMaxMask) != prefix || prefix < globalMin) {
 				return false;
 			}
 			nextSubNode = null;
@@ -280,8 +285,10 @@ public class NtNodeIteratorMask<T> {
 		return true;
 	}
 
-	void init(long globalMinMask, long globalMaxMask, long valTemplate, NtNode<T> node) {
+	void init(long globalMinMask, long globalMaxMask, long globalMin, long valTemplate, 
+			NtNode<T> node) {
 		this.node = node; //for calcLimits
+		this.globalMin = globalMin;
 		calcLimits(globalMinMask, globalMaxMask);
 		reinit(node, valTemplate);
 	}
@@ -25,6 +25,7 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 import java.util.NoSuchElementException;
 
+import ch.ethz.globis.phtree.PhCursor;
 import ch.ethz.globis.phtree.PhEntry;
 import ch.ethz.globis.phtree.PhFilter;
 import ch.ethz.globis.phtree.PhTreeHelper;
@@ -131,6 +132,19 @@ public final class PhIteratorNoGC<T> implements PhQuery<T> {
     }
   }
 
+  /**
+   * Reset the query with the window of the cursor and continue after the key of the
+   * cursor. This version of the tree skips all entries up to the cursor position.
+   * @param cursor the cursor
+   * @see PhCursor
+   */
+  public void resume(PhCursor cursor) {
+    reset(cursor.getMin(), cursor.getMax());
+    while (!isFinished && !cursor.isAfter(result.getKey())) {
+      findNextElement();
+    }
+  }
+
   private void findNextElement() {
     stackLoop:
       while (!stack.isEmpty()) {
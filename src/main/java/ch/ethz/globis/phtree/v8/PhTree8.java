@@ -427,7 +427,7 @@ public class PhTree8<T> extends PhTree<T> {
    * @return Result iterator.
    */
   @Override
-  public PhQuery<T> query(long[] min, long[] max) {
+  public PhIteratorNoGC<T> query(long[] min, long[] max) {
     if (min.length != DIM || max.length != DIM) {
       throw new IllegalArgumentException("Invalid number of arguments: " + min.length +  
           " / " + max.length + "  DIM=" + DIM);
@@ -435,7 +435,7 @@ public class PhTree8<T> extends PhTree<T> {
     //return new PhIteratorHighK<T>(this, min, max, DIM);
     //return new PhIteratorReuse<>(this, min, max, DIM, false);
     //return new PhIteratorReuseLoop<>(this, min, max, DIM, false);
-    PhQuery<T> q = new PhIteratorNoGC<>(this, null);
+    PhIteratorNoGC<T> q = new PhIteratorNoGC<>(this, null);
     q.reset(min, max);
     return q;
   }
@@ -1,9 +1,11 @@
 package de.lmu.ifi.dbs.elki.index.tree.spatial.ph;
 
+import ch.ethz.globis.phtree.PhTreeConfig;
 import ch.ethz.globis.phtree.PhTreeF;
 import ch.ethz.globis.phtree.PhTreeF.PhKnnQueryF;
 import ch.ethz.globis.phtree.PhTreeF.PhRangeQueryF;
 import ch.ethz.globis.phtree.pre.PreProcessorPointF;
+import ch.ethz.globis.phtree.v12.PhTree12;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
@@ -77,13 +79,30 @@ public class MemoryPHTree<O extends NumberVector> extends AbstractIndex<O>
    * @param relation Relation to index
    */
   public MemoryPHTree(Relation<O> relation) {
+    this(relation, null);
+  }
+
+  /**
+   * Constructor. Node settings are only supported by the PhTree12, so
+   * a non-null 'settings' selects a PhTree12 instead of the default tree.
+   *
+   * @param relation Relation to index
+   * @param settings Node settings of the tree, or null for the default tree
+   */
+  public MemoryPHTree(Relation<O> relation, PhtSettings settings) {
     super(relation);
     dims = RelationUtil.dimensionality(relation);
     //TODO
     //standard preprocessor
     //tree = PhTreeF.create(dims);
     //IntegerPP: about 20% faster, but slightly less accurate
-    tree = PhTreeF.create(dims, new PreProcessorPointF.Multiply(100L*1000L*1000L));
+    PreProcessorPointF pre = new PreProcessorPointF.Multiply(100L*1000L*1000L);
+    if (settings == null) {
+      tree = PhTreeF.create(dims, pre);
+    } else {
+      PhTreeConfig cfg = settings.applyTo(new PhTreeConfig(dims));
+      tree = PhTreeF.wrap(new PhTree12<DBID>(cfg), pre);
+    }
   }
 
   @Override
@@ -287,16 +306,32 @@ public class MemoryPHTree<O extends NumberVector> extends AbstractIndex<O>
    */
   @Alias({ "miniph", "ph" })
   public static class Factory<O extends NumberVector> implements IndexFactory<O, MemoryPHTree<O>> {
+    /**
+     * Node settings of the trees, or null for the default tree.
+     */
+    private final PhtSettings settings;
+
     /**
      * Constructor. Trivial parameterizable.
      */
     public Factory() {
+      this(null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param settings Node settings of the trees, or null for the default tree
+     * @see MemoryPHTree#MemoryPHTree(Relation, PhtSettings)
+     */
+    public Factory(PhtSettings settings) {
       super();
+      this.settings = settings;
     }
 
     @Override
     public MemoryPHTree<O> instantiate(Relation<O> relation) {
-      return new MemoryPHTree<>(relation);
+      return new MemoryPHTree<>(relation, settings);
     }
 
     @Override
@@ -341,6 +376,13 @@ public class MemoryPHTree<O extends NumberVector> extends AbstractIndex<O>
     }
   }
 
+  /**
+   * @return the PH-tree instance
+   */
+  PhTreeF<DBID> getTree() {
+    return tree;
+  }
+
   private double[] oToDouble(O o, double[] v) {
     for (int k = 0; k < dims; k++) {
       v[k] = o.doubleValue(k);
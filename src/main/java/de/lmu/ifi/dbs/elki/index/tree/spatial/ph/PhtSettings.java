@@ -22,9 +22,22 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.ph;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import ch.ethz.globis.phtree.PhTreeConfig;
+
 public class PhtSettings {
 
-  public double ahcLhcBias;
-  public int ntThreshold;
+  public double ahcLhcBias = 2.0;
+  public int ntThreshold = 150;
 
+  /**
+   * Copy the node settings into a tree configuration.
+   * 
+   * @param cfg the tree configuration
+   * @return the tree configuration
+   */
+  public PhTreeConfig applyTo(PhTreeConfig cfg) {
+    cfg.setAhcLhcBias(ahcLhcBias);
+    cfg.setNtThreshold(ntThreshold);
+    return cfg;
+  }
 }
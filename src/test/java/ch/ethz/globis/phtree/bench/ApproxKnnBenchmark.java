@@ -0,0 +1,138 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.HashSet;
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.v12.PhQueryKnnMbbPPList;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Approximate kNN benchmark: recall and latency of approximate kNN queries compared to
+ * exact kNN queries. The data consists of gaussian clusters in 'dims' dimensions, 
+ * queries are located near random data points.
+ * 
+ * Usage: ApproxKnnBenchmark [nPoints] [dims] [k] [nQueries]
+ * 
+ * @author ztilmann
+ */
+public class ApproxKnnBenchmark {
+
+	private static final int N_CLUSTERS = 100;
+	private static final double RANGE = 1 << 20;
+	private static final double SIGMA = RANGE / 20;
+	
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100*1000;
+		int dims = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int nQueries = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		
+		Random R = new Random(0);
+		long[][] clusters = new long[N_CLUSTERS][dims];
+		for (long[] c: clusters) {
+			for (int d = 0; d < dims; d++) {
+				c[d] = (long) (R.nextDouble() * RANGE);
+			}
+		}
+		PhTree12<Object> tree = new PhTree12<>(dims);
+		long[][] data = new long[n][];
+		for (int i = 0; i < n; i++) {
+			data[i] = gaussian(clusters[R.nextInt(N_CLUSTERS)], R);
+			tree.put(data[i], null);
+		}
+		long[][] centers = new long[nQueries][];
+		for (int i = 0; i < nQueries; i++) {
+			centers[i] = gaussian(data[R.nextInt(n)], R, SIGMA/10);
+		}
+		
+		System.out.println("Approximate kNN: n=" + n + " dims=" + dims + " k=" + k + 
+				" queries=" + nQueries);
+		HashSet<String>[] exact = exact(tree, k, centers);
+		run(tree, k, centers, exact, 0, Integer.MAX_VALUE);
+		for (double eps: new double[]{0.1, 0.5, 1, 2, 5}) {
+			run(tree, k, centers, exact, eps, Integer.MAX_VALUE);
+		}
+		for (int budget: new int[]{10, 30, 100, 300, 1000, 3000}) {
+			run(tree, k, centers, exact, 0, budget);
+		}
+		run(tree, k, centers, exact, 1, 300);
+	}
+	
+	private static long[] gaussian(long[] center, Random R) {
+		return gaussian(center, R, SIGMA);
+	}
+
+	private static long[] gaussian(long[] center, Random R, double sigma) {
+		long[] v = new long[center.length];
+		for (int d = 0; d < v.length; d++) {
+			v[d] = center[d] + (long) (R.nextGaussian() * sigma);
+		}
+		return v;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static HashSet<String>[] exact(PhTree12<Object> tree, int k, long[][] centers) {
+		HashSet<String>[] ret = new HashSet[centers.length];
+		for (int i = 0; i < centers.length; i++) {
+			ret[i] = new HashSet<>();
+			PhKnnQuery<Object> q = tree.nearestNeighbour(k, PhDistanceL.THIS, null, centers[i]);
+			while (q.hasNext()) {
+				ret[i].add(java.util.Arrays.toString(q.nextKey()));
+			}
+		}
+		return ret;
+	}
+	
+	private static void run(PhTree12<Object> tree, int k, long[][] centers, 
+			HashSet<String>[] exact, double eps, int budget) {
+		PhQueryKnnMbbPPList<Object> q = new PhQueryKnnMbbPPList<>(tree);
+		q.setApproximation(eps, budget);
+		//warm up
+		for (long[] c: centers) {
+			q.reset(k, PhDistanceL.THIS, c);
+		}
+		long nHits = 0;
+		long nVisits = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < centers.length; i++) {
+			q.reset(k, PhDistanceL.THIS, centers[i]);
+			nVisits += q.getNodeVisits();
+			while (q.hasNext()) {
+				if (exact[i].contains(java.util.Arrays.toString(q.nextEntryReuse().getKey()))) {
+					nHits++;
+				}
+			}
+		}
+		long t1 = System.nanoTime();
+		System.out.println("eps=" + eps + 
+				" budget=" + (budget == Integer.MAX_VALUE ? "-" : budget) + 
+				" recall=" + String.format("%.3f", nHits/(double)(k*centers.length)) +
+				" nodes/query=" + nVisits/centers.length +
+				" time/query=" + (t1-t0)/1000/centers.length + "us");
+	}
+}
@@ -0,0 +1,114 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Window count benchmark: uniform random points, square windows that cover a given 
+ * fraction of the space. Compares counting by iteration with counting by subtree counts.
+ * 
+ * Usage: CountBenchmark [nPoints] [nQueries]
+ * 
+ * @author ztilmann
+ */
+public class CountBenchmark {
+
+	private static final int RANGE = 1000*1000;
+	private static final int N_RUNS = 5;
+	
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000*1000;
+		int nQueries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		
+		System.out.println("Window count: n=" + n + " queries=" + nQueries);
+		for (int dims: new int[]{2, 3}) {
+			run(dims, n, nQueries);
+		}
+	}
+
+	private static void run(int dims, int n, int nQueries) {
+		PhTree12<Object> plain = new PhTree12<>(dims);
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(true);
+		PhTree12<Object> counted = new PhTree12<>(cfg);
+		long[][] data = new long[n][dims];
+		Random R = new Random(0);
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < dims; d++) {
+				data[i][d] = R.nextInt(RANGE);
+			}
+		}
+		long tPlain = load(plain, data);
+		long tCounted = load(counted, data);
+		System.out.println("dims=" + dims + " load: plain=" + tPlain/1000000 + "ms counted=" + 
+				tCounted/1000000 + "ms");
+		
+		for (double fraction: new double[]{0.0001, 0.01, 0.1, 0.5}) {
+			long[][] mins = new long[nQueries][dims];
+			long[][] maxs = new long[nQueries][dims];
+			long w = (long) (RANGE * Math.pow(fraction, 1./dims));
+			for (int q = 0; q < nQueries; q++) {
+				for (int d = 0; d < dims; d++) {
+					mins[q][d] = R.nextInt((int) (RANGE - w));
+					maxs[q][d] = mins[q][d] + w;
+				}
+			}
+			long nPlain = 0;
+			long nCounted = 0;
+			long bestPlain = Long.MAX_VALUE;
+			long bestCounted = Long.MAX_VALUE;
+			for (int run = 0; run < N_RUNS; run++) {
+				long t0 = System.nanoTime();
+				nPlain = 0;
+				for (int q = 0; q < nQueries; q++) {
+					nPlain += plain.count(mins[q], maxs[q]);
+				}
+				long t1 = System.nanoTime();
+				nCounted = 0;
+				for (int q = 0; q < nQueries; q++) {
+					nCounted += counted.count(mins[q], maxs[q]);
+				}
+				long t2 = System.nanoTime();
+				bestPlain = Math.min(bestPlain, t1 - t0);
+				bestCounted = Math.min(bestCounted, t2 - t1);
+			}
+			System.out.println("  window=" + fraction + " iteration=" + 
+					bestPlain/1000/nQueries + "us subtree-counts=" + 
+					bestCounted/1000/nQueries + "us  avg=" + nPlain/nQueries + 
+					" check=" + (nPlain == nCounted));
+		}
+	}
+
+	private static long load(PhTree12<Object> tree, long[][] data) {
+		long t0 = System.nanoTime();
+		for (long[] key: data) {
+			tree.put(key, key);
+		}
+		return System.nanoTime() - t0;
+	}
+}
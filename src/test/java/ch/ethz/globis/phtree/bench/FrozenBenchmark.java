@@ -0,0 +1,155 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import ch.ethz.globis.phtree.v12.PhTreeFrozen;
+
+/**
+ * Frozen tree benchmark: loads uniform random points into a PhTree12 and optionally 
+ * freezes it, then reports the heap that is used by the tree after a full GC and the 
+ * times for point queries, window queries (about 10 results) and 10-NN queries.
+ * Both modes should be run in separate JVMs. In 'tree' mode, the heap includes the 
+ * pooled arrays that were allocated while loading the tree.
+ * 
+ * Usage: FrozenBenchmark [tree|frozen] [dims] [nPoints] [nQueries]
+ * 
+ * @author ztilmann
+ */
+public class FrozenBenchmark {
+
+	private static final int RANGE = 1000*1000;
+	private static final int N_RUNS = 20;
+	
+	public static void main(String[] args) {
+		boolean frozen = args.length > 0 ? "frozen".equals(args[0]) : true;
+		int dims = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int n = args.length > 2 ? Integer.parseInt(args[2]) : 1000*1000;
+		int nQueries = args.length > 3 ? Integer.parseInt(args[3]) : 10*1000;
+		
+		Random R = new Random(0);
+		long[][] data = new long[n][dims];
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < dims; d++) {
+				data[i][d] = R.nextInt(RANGE);
+			}
+		}
+		long[][] points = new long[nQueries][];
+		long[][] mins = new long[nQueries][dims];
+		long[][] maxs = new long[nQueries][dims];
+		long w = (long) (RANGE * Math.pow(10./n, 1./dims));
+		for (int q = 0; q < nQueries; q++) {
+			points[q] = data[R.nextInt(n)];
+			for (int d = 0; d < dims; d++) {
+				mins[q][d] = R.nextInt((int) (RANGE - w));
+				maxs[q][d] = mins[q][d] + w;
+			}
+		}
+		System.out.println("Frozen tree: n=" + n + " dims=" + dims + " queries=" + nQueries);
+
+		long heap0 = usedHeap();
+		PhTree12<Object> tree = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			tree.put(data[i], data[i]);
+		}
+		long heap1 = usedHeap();
+		if (!frozen) {
+			run("tree  ", tree, heap1 - heap0, points, mins, maxs);
+			return;
+		}
+		long t0 = System.nanoTime();
+		PhTreeFrozen<Object> f = tree.freeze();
+		long t1 = System.nanoTime();
+		long heap2 = usedHeap();
+		System.out.println("freeze=" + (t1-t0)/1000000 + "ms");
+		run("frozen", f, heap2 - heap1, points, mins, maxs);
+	}
+
+	private static void run(String name, PhTree<Object> tree, long heap, long[][] points,
+			long[][] mins, long[][] maxs) {
+		int nQueries = points.length;
+		System.out.println(name + ": heap=" + heap/1024 + "KB  get=" + 
+				timeGet(tree, points)/nQueries + "ns  window=" + 
+				timeWindow(tree, mins, maxs)/nQueries + "ns  10-NN=" + 
+				timeKnn(tree, points)/nQueries + "ns");
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static long timeGet(PhTree<Object> tree, long[][] points) {
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < N_RUNS; run++) {
+			long t0 = System.nanoTime();
+			for (long[] p: points) {
+				if (tree.get(p) == null) {
+					throw new IllegalStateException();
+				}
+			}
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+		return best;
+	}
+
+	private static long timeWindow(PhTree<Object> tree, long[][] mins, long[][] maxs) {
+		long best = Long.MAX_VALUE;
+		PhQuery<Object> q = tree.query(mins[0], maxs[0]);
+		for (int run = 0; run < N_RUNS; run++) {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < mins.length; i++) {
+				q.reset(mins[i], maxs[i]);
+				while (q.hasNext()) {
+					q.nextEntryReuse();
+				}
+			}
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+		return best;
+	}
+
+	private static long timeKnn(PhTree<Object> tree, long[][] points) {
+		long best = Long.MAX_VALUE;
+		PhKnnQuery<Object> q = tree.nearestNeighbour(1, points[0]);
+		for (int run = 0; run < N_RUNS; run++) {
+			long t0 = System.nanoTime();
+			for (long[] p: points) {
+				q.reset(10, null, p);
+				while (q.hasNext()) {
+					q.nextEntryReuse();
+				}
+			}
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+		return best;
+	}
+}
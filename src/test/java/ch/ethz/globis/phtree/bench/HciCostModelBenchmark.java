@@ -0,0 +1,147 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Window queries on skewed data with skewed windows. This compares the strategies for 
+ * traversing nodes (scan, binary search, HC-incrementer) that are chosen by the different
+ * cost models of NodeIteratorNoGC.
+ * The points are clustered: every coordinate is drawn from an exponential distribution,
+ * so most points are close to the origin. The windows are:
+ * <ul>
+ * <li>slab: one dimension is restricted to 0.1% of the range, all others are unrestricted</li>
+ * <li>half: half of the dimensions are restricted to 1%, the others are unrestricted</li>
+ * <li>dense: small cubes inside the cluster</li>
+ * <li>sparse: cubes of the same size far from the cluster</li>
+ * </ul>
+ * The cost model is selected with the system property 'phtree.hci.model', so every model
+ * must be run in its own JVM.
+ * 
+ * Usage: HciCostModelBenchmark [calibrate|preset|fixed] [dims] [nPoints] [nQueries]
+ * 
+ * @author ztilmann
+ */
+public class HciCostModelBenchmark {
+
+	private static final int RANGE = 1000*1000;
+	private static final int N_RUNS = 5;
+	private static final String[] WINDOWS = {"slab", "half", "dense", "sparse"};
+
+	public static void main(String[] args) {
+		String model = args.length > 0 ? args[0] : "preset";
+		int dims = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int n = args.length > 2 ? Integer.parseInt(args[2]) : 200*1000;
+		int nQueries = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+		//this must be set before the first query
+		System.setProperty("phtree.hci.model", model);
+		System.out.println("HCI cost model: " + model + " n=" + n + " dims=" + dims + 
+				" queries=" + nQueries);
+
+		Random R = new Random(0);
+		PhTree12<Object> tree = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			long[] p = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				p[d] = expRandom(R);
+			}
+			tree.put(p, p);
+		}
+
+		for (String window: WINDOWS) {
+			long[][] mins = new long[nQueries][dims];
+			long[][] maxs = new long[nQueries][dims];
+			for (int q = 0; q < nQueries; q++) {
+				createWindow(window, mins[q], maxs[q], R);
+			}
+			long best = Long.MAX_VALUE;
+			long nResults = 0;
+			for (int run = 0; run < N_RUNS; run++) {
+				nResults = 0;
+				long t0 = System.nanoTime();
+				for (int q = 0; q < nQueries; q++) {
+					PhQuery<Object> it = tree.query(mins[q], maxs[q]);
+					while (it.hasNext()) {
+						it.nextValue();
+						nResults++;
+					}
+				}
+				best = Math.min(best, System.nanoTime() - t0);
+			}
+			System.out.println(String.format("%-7s %10.2f us/query  %8.1f results/query", 
+					window, best/1000./nQueries, nResults/(double)nQueries));
+		}
+	}
+
+	private static long expRandom(Random R) {
+		//mean = 5% of the range
+		long x = (long) (-Math.log(1 - R.nextDouble()) * RANGE * 0.05);
+		return Math.min(x, RANGE - 1);
+	}
+
+	private static void createWindow(String window, long[] min, long[] max, Random R) {
+		int dims = min.length;
+		switch (window) {
+		case "slab": {
+			int dim = R.nextInt(dims);
+			for (int d = 0; d < dims; d++) {
+				min[d] = 0;
+				max[d] = RANGE;
+			}
+			min[dim] = expRandom(R);
+			max[dim] = min[dim] + RANGE/1000;
+			break;
+		}
+		case "half":
+			for (int d = 0; d < dims; d++) {
+				if (d % 2 == 0) {
+					min[d] = expRandom(R);
+					max[d] = min[d] + RANGE/100;
+				} else {
+					min[d] = 0;
+					max[d] = RANGE;
+				}
+			}
+			break;
+		case "dense":
+			for (int d = 0; d < dims; d++) {
+				min[d] = expRandom(R);
+				max[d] = min[d] + RANGE/20;
+			}
+			break;
+		case "sparse":
+			for (int d = 0; d < dims; d++) {
+				min[d] = RANGE/2 + R.nextInt(RANGE/3);
+				max[d] = min[d] + RANGE/20;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException(window);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Arrays;
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhTreeHD;
+
+/**
+ * High dimensional benchmark: clustered random walks (similar to time series), 
+ * window and kNN queries on {@link PhTreeHD} versus a linear scan over all keys.
+ * 
+ * Usage: HighDimBenchmark [nPoints] [nQueries]
+ * 
+ * @author ztilmann
+ */
+public class HighDimBenchmark {
+
+	private static final int N_CLUSTER = 100;
+	private static final int K = 10;
+	
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100*1000;
+		int nQueries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		
+		System.out.println("High dimensional: n=" + n + " queries=" + nQueries + " k=" + K);
+		for (int dims: new int[]{64, 128, 256}) {
+			run(dims, n, nQueries);
+		}
+	}
+
+	private static long[][] createData(int dims, int n, Random R) {
+		long[][] centers = new long[N_CLUSTER][dims];
+		for (long[] c: centers) {
+			long v = R.nextInt(1000*1000);
+			for (int d = 0; d < dims; d++) {
+				v += R.nextInt(20001) - 10000;
+				c[d] = v;
+			}
+		}
+		long[][] data = new long[n][dims];
+		for (int i = 0; i < n; i++) {
+			long[] c = centers[R.nextInt(N_CLUSTER)];
+			long v = 0;
+			for (int d = 0; d < dims; d++) {
+				v += R.nextInt(201) - 100;
+				data[i][d] = c[d] + v;
+			}
+		}
+		return data;
+	}
+	
+	private static void run(int dims, int n, int nQueries) {
+		Random R = new Random(0);
+		long[][] data = createData(dims, n, R);
+		PhTreeHD<long[]> tree = new PhTreeHD<>(dims);
+		long t0 = System.nanoTime();
+		for (long[] v: data) {
+			tree.put(v, v);
+		}
+		long tLoad = System.nanoTime() - t0;
+		
+		long[][] mins = new long[nQueries][dims];
+		long[][] maxs = new long[nQueries][dims];
+		long[][] centers = new long[nQueries][];
+		for (int q = 0; q < nQueries; q++) {
+			long[] c = data[R.nextInt(n)];
+			centers[q] = c;
+			for (int d = 0; d < dims; d++) {
+				mins[q][d] = c[d] - 1000;
+				maxs[q][d] = c[d] + 1000;
+			}
+		}
+		
+		//window queries
+		long nTree = 0;
+		t0 = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			nTree += tree.queryAll(mins[q], maxs[q]).size();
+		}
+		long tWqTree = System.nanoTime() - t0;
+		long nScan = 0;
+		t0 = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			nScan += scanWindow(data, mins[q], maxs[q]);
+		}
+		long tWqScan = System.nanoTime() - t0;
+		
+		//kNN queries
+		double dTree = 0;
+		t0 = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			dTree += tree.nearestNeighbour(K, centers[q]).get(K-1).dist();
+		}
+		long tKnnTree = System.nanoTime() - t0;
+		double dScan = 0;
+		t0 = System.nanoTime();
+		for (int q = 0; q < nQueries; q++) {
+			dScan += scanKnn(data, centers[q]);
+		}
+		long tKnnScan = System.nanoTime() - t0;
+		
+		System.out.println("dims=" + dims + " load=" + tLoad/1000000 + "ms");
+		System.out.println("  window: tree=" + tWqTree/1000/nQueries + "us scan=" + 
+				tWqScan/1000/nQueries + "us  results=" + nTree + "/" + nScan);
+		System.out.println("  kNN:    tree=" + tKnnTree/1000/nQueries + "us scan=" + 
+				tKnnScan/1000/nQueries + "us  check=" + (dTree == dScan));
+	}
+
+	private static int scanWindow(long[][] data, long[] min, long[] max) {
+		int n = 0;
+		for (long[] v: data) {
+			boolean match = true;
+			for (int d = 0; d < v.length && match; d++) {
+				match = v[d] >= min[d] && v[d] <= max[d];
+			}
+			n += match ? 1 : 0;
+		}
+		return n;
+	}
+
+	private static double scanKnn(long[][] data, long[] center) {
+		//returns distance of k-th neighbour
+		double[] best = new double[K];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+		for (long[] v: data) {
+			double d = PhDistanceL.THIS.dist(center, v);
+			if (d < best[K-1]) {
+				int i = K-1;
+				while (i > 0 && best[i-1] > d) {
+					best[i] = best[i-1];
+					i--;
+				}
+				best[i] = d;
+			}
+		}
+		return best[K-1];
+	}
+}
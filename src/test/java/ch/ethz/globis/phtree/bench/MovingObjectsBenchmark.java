@@ -0,0 +1,109 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Moving objects benchmark: every round, all objects move by a small random step.
+ * Compares {@link PhTree12#update(long[], long[])} with 
+ * {@link PhTree12#updateAll(long[][], long[][])}, sequential and parallel.
+ * 
+ * Usage: MovingObjectsBenchmark [nObjects] [nRounds] [nThreads]
+ * 
+ * @author ztilmann
+ */
+public class MovingObjectsBenchmark {
+
+	private static final int DIMS = 2;
+	private static final int RANGE = 1 << 30;
+	private static final int STEP = 1 << 10;
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000*1000;
+		int nRounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int nThreads = args.length > 2 ? Integer.parseInt(args[2]) : 
+			Runtime.getRuntime().availableProcessors();
+		
+		System.out.println("Moving objects: n=" + n + " rounds=" + nRounds + 
+				" threads=" + nThreads);
+		run("update()    ", n, nRounds, 0);
+		run("updateAll() ", n, nRounds, 1);
+		run("updateAll(P)", n, nRounds, nThreads);
+	}
+	
+	/**
+	 * @param nThreads 0 for single updates, 1 for sequential updateAll(), otherwise parallel.
+	 */
+	private static void run(String name, int n, int nRounds, int nThreads) {
+		Random R = new Random(0);
+		PhTree12<Integer> tree = new PhTree12<>(DIMS);
+		long[][] keys = new long[n][DIMS];
+		for (int i = 0; i < n; i++) {
+			do {
+				for (int d = 0; d < DIMS; d++) {
+					keys[i][d] = R.nextInt(RANGE);
+				}
+			} while (tree.put(keys[i], i) != null);
+		}
+		
+		ExecutorService executor = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+		long totalTime = 0;
+		long nMoved = 0;
+		for (int r = 0; r < nRounds; r++) {
+			long[][] newKeys = new long[n][DIMS];
+			for (int i = 0; i < n; i++) {
+				for (int d = 0; d < DIMS; d++) {
+					newKeys[i][d] = keys[i][d] + R.nextInt(2*STEP+1) - STEP;
+				}
+			}
+			
+			long t1 = System.nanoTime();
+			if (nThreads == 0) {
+				for (int i = 0; i < n; i++) {
+					if (tree.update(keys[i], newKeys[i]) != null) {
+						nMoved++;
+					}
+				}
+			} else {
+				nMoved += tree.updateAll(keys, newKeys, executor);
+			}
+			long t2 = System.nanoTime();
+			totalTime += t2-t1;
+			keys = newKeys;
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+		
+		double msPerRound = totalTime/1000000.0/nRounds; 
+		System.out.println(name + ": " + (long)msPerRound + " ms/round,  " + 
+				(long)(nMoved*1000000000.0/totalTime) + " moves/s,  moved=" + nMoved + 
+				"  size=" + tree.size());
+	}
+}
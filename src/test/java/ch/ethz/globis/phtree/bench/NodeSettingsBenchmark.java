@@ -0,0 +1,139 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Compares node settings (AHC/LHC bias and NT threshold) of the PhTree12 on
+ * a given workload. The benchmark loads uniform random points and then runs a mixed 
+ * workload of point queries, window queries (about 10 results) and moves 
+ * (remove + put). The 'read' workload has 95% queries, the 'write' workload has 
+ * 90% moves. It reports the time per operation and the heap that is used by the 
+ * tree after a full GC. Different settings should be run in separate JVMs.
+ * 
+ * Usage: NodeSettingsBenchmark [read|write] [ahcLhcBias] [ntThreshold] [dims] [nPoints] [nOps]
+ * 
+ * @author ztilmann
+ */
+public class NodeSettingsBenchmark {
+
+	private static final int RANGE = 1000*1000;
+	private static final int N_RUNS = 3;
+	
+	public static void main(String[] args) {
+		boolean readHeavy = args.length > 0 ? "read".equals(args[0]) : true;
+		double ahcLhcBias = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+		int ntThreshold = args.length > 2 ? Integer.parseInt(args[2]) : 150;
+		int dims = args.length > 3 ? Integer.parseInt(args[3]) : 6;
+		int n = args.length > 4 ? Integer.parseInt(args[4]) : 200*1000;
+		int nOps = args.length > 5 ? Integer.parseInt(args[5]) : 200*1000;
+		double readRatio = readHeavy ? 0.95 : 0.1;
+		System.out.println("Node settings: workload=" + (readHeavy ? "read" : "write") + 
+				" n=" + n + " dims=" + dims + " ops=" + nOps);
+
+		long best = Long.MAX_VALUE;
+		long heap = 0;
+		String config = null;
+		for (int run = 0; run < N_RUNS; run++) {
+			Random R = new Random(run);
+			long[][] data = new long[n][dims];
+			for (int i = 0; i < n; i++) {
+				for (int d = 0; d < dims; d++) {
+					data[i][d] = R.nextInt(RANGE);
+				}
+			}
+			PhTreeConfig cfg = new PhTreeConfig(dims);
+			cfg.setAhcLhcBias(ahcLhcBias);
+			cfg.setNtThreshold(ntThreshold);
+			PhTree12<Object> tree = new PhTree12<>(cfg);
+			long heap0 = usedHeap();
+			for (int i = 0; i < n; i++) {
+				tree.put(data[i], data[i]);
+			}
+			
+			long t0 = System.nanoTime();
+			long nResults = run(tree, data, nOps, readRatio, R);
+			long t1 = System.nanoTime();
+			best = Math.min(best, t1 - t0);
+			if (run == 0) {
+				heap = usedHeap() - heap0;
+				config = tree.toString();
+			}
+			if (nResults < 0) {
+				System.out.println();
+			}
+		}
+		System.out.println(config);
+		System.out.println("Time:  " + (best/nOps) + " ns/op");
+		System.out.println("Heap:  " + (heap >> 20) + " MB");
+	}
+
+	private static long run(PhTree12<Object> tree, long[][] data, int nOps, 
+			double readRatio, Random R) {
+		int n = data.length;
+		int dims = tree.getDim();
+		long w = (long) (RANGE * Math.pow(10./n, 1./dims));
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		long nResults = 0;
+		for (int i = 0; i < nOps; i++) {
+			if (R.nextDouble() >= readRatio) {
+				long[] p = data[R.nextInt(n)];
+				tree.remove(p);
+				for (int d = 0; d < dims; d++) {
+					p[d] = R.nextInt(RANGE);
+				}
+				tree.put(p, p);
+			} else if ((i & 1) == 0) {
+				if (tree.get(data[R.nextInt(n)]) != null) {
+					nResults++;
+				}
+			} else {
+				for (int d = 0; d < dims; d++) {
+					min[d] = R.nextInt((int) (RANGE - w));
+					max[d] = min[d] + w;
+				}
+				PhQuery<Object> q = tree.query(min, max);
+				while (q.hasNext()) {
+					q.nextValue();
+					nResults++;
+				}
+			}
+		}
+		return nResults;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
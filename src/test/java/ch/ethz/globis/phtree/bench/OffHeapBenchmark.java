@@ -0,0 +1,107 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PersProviderOffHeap;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Off-heap benchmark: loads uniform random points into a tree on the heap or into a tree
+ * with {@link PersProviderOffHeap}, then reports the heap that is used by the tree after 
+ * a full GC and the time for point queries. Both modes should be run in separate JVMs. 
+ * 
+ * Usage: OffHeapBenchmark [heap|offheap] [nPoints] [flushInterval]
+ * 
+ * @author ztilmann
+ */
+public class OffHeapBenchmark {
+
+	private static final int DIMS = 3;
+	
+	public static void main(String[] args) {
+		boolean offHeap = args.length > 0 ? "offheap".equals(args[0]) : true;
+		int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000*1000;
+		int flushInterval = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+		
+		long[][] keys = new long[n][DIMS];
+		Random R = new Random(0);
+		for (long[] key: keys) {
+			for (int d = 0; d < DIMS; d++) {
+				key[d] = R.nextLong();
+			}
+		}
+		long heapKeys = usedHeap();
+		System.out.println("Off-heap: n=" + n + " dims=" + DIMS + " flush=" + flushInterval);
+		
+		if (!offHeap) {
+			run("heap    ", new PhTree12<Integer>(DIMS), null, keys, flushInterval, heapKeys);
+			return;
+		}
+		PersProviderOffHeap pp = new PersProviderOffHeap();
+		PhTreeConfig cfg = new PhTreeConfig(DIMS);
+		cfg.setPersistenceProvider(pp);
+		run("off-heap", new PhTree12<Integer>(cfg), pp, keys, flushInterval, heapKeys);
+		System.out.println("  " + pp);
+	}
+
+	private static void run(String name, PhTree12<Integer> tree, PersProviderOffHeap pp, 
+			long[][] keys, int flushInterval, long heapKeys) {
+		long t0 = System.nanoTime();
+		for (int i = 0; i < keys.length; i++) {
+			tree.put(keys[i], i);
+			if (pp != null && i % flushInterval == 0) {
+				pp.flush();
+			}
+		}
+		if (pp != null) {
+			pp.flush();
+		}
+		long t1 = System.nanoTime();
+		long heap = usedHeap() - heapKeys;
+		long t2 = System.nanoTime();
+		int nFound = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (tree.get(keys[i]) != null) {
+				nFound++;
+			}
+			if (pp != null && i % flushInterval == 0) {
+				pp.flush();
+			}
+		}
+		long t3 = System.nanoTime();
+		System.out.println(name + ": load=" + (t1-t0)/1000000 + "ms  get=" + 
+				(t3-t2)/1000000 + "ms  heap=" + heap/1024/1024 + "MB  found=" + nFound);
+	}
+	
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
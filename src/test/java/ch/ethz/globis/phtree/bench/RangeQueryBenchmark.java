@@ -0,0 +1,145 @@
+package ch.ethz.globis.phtree.bench;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Random;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Range query benchmark: uniform random points, the radius is chosen such that 
+ * a query returns about 'nResult' points. Compares {@link PhDistanceL}, which allows
+ * pruning of quadrants during traversal, with an opaque wrapper of the same distance 
+ * function, which is only checked for whole entries. The wrapper also counts distance
+ * calculations.
+ * 
+ * Usage: RangeQueryBenchmark [nPoints] [nQueries] [nResult]
+ * 
+ * @author ztilmann
+ */
+public class RangeQueryBenchmark {
+
+	private static final int RANGE = 1000*1000;
+	private static final int N_RUNS = 5;
+	
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200*1000;
+		int nQueries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int nResult = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		
+		System.out.println("Range query: n=" + n + " queries=" + nQueries + 
+				" results/query~" + nResult);
+		for (int dims: new int[]{2, 3, 6, 10, 16}) {
+			run(dims, n, nQueries, nResult);
+		}
+	}
+
+	private static void run(int dims, int n, int nQueries, int nResult) {
+		Random R = new Random(0);
+		PhTree12<Object> tree = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			long[] v = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				v[d] = R.nextInt(RANGE);
+			}
+			tree.put(v, v);
+		}
+		
+		//volume of unit ball: pi^(d/2) / gamma(d/2+1)
+		double vBall = 1;
+		for (int d = dims; d > 1; d -= 2) {
+			vBall *= 2*Math.PI/d;
+		}
+		if (dims % 2 == 1) {
+			vBall *= 2;
+		}
+		double radius = RANGE * Math.pow(nResult/(n*vBall), 1./dims);
+
+		long[][] centers = new long[nQueries][dims];
+		for (int i = 0; i < nQueries; i++) {
+			for (int d = 0; d < dims; d++) {
+				centers[i][d] = R.nextInt(RANGE);
+			}
+		}
+		
+		CountingDistance dist = new CountingDistance();
+		//warm up
+		query(tree, centers, radius, dist);
+		query(tree, centers, radius, PhDistanceL.THIS);
+		dist.n = 0;
+		
+		//Use the best of several runs
+		long tWrapped = Long.MAX_VALUE;
+		long tL = Long.MAX_VALUE;
+		long nFound = 0;
+		for (int r = 0; r < N_RUNS; r++) {
+			long t0 = System.nanoTime();
+			nFound = query(tree, centers, radius, dist);
+			long t1 = System.nanoTime();
+			long nFoundL = query(tree, centers, radius, PhDistanceL.THIS);
+			long t2 = System.nanoTime();
+			if (nFound != nFoundL) {
+				throw new IllegalStateException(nFound + " != " + nFoundL);
+			}
+			tWrapped = Math.min(tWrapped, t1-t0);
+			tL = Math.min(tL, t2-t1);
+		}
+		System.out.println("dims=" + dims + " avgResult=" + nFound/(double)nQueries + 
+				" time/query: wrapped=" + tWrapped/1000/nQueries + "us" +
+				" (dist()/query=" + dist.n/N_RUNS/nQueries + ")" +
+				" PhDistanceL=" + tL/1000/nQueries + "us");
+	}
+	
+	private static long query(PhTree12<Object> tree, long[][] centers, double radius, 
+			PhDistance dist) {
+		long nFound = 0;
+		PhRangeQuery<Object> q = tree.rangeQuery(radius, dist, centers[0]);
+		for (long[] c: centers) {
+			q.reset(radius, c);
+			while (q.hasNext()) {
+				q.nextEntryReuse();
+				nFound++;
+			}
+		}
+		return nFound;
+	}
+	
+	private static class CountingDistance implements PhDistance {
+		long n = 0;
+		
+		@Override
+		public double dist(long[] v1, long[] v2) {
+			n++;
+			return PhDistanceL.THIS.dist(v1, v2);
+		}
+
+		@Override
+		public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+			PhDistanceL.THIS.toMBB(distance, center, outMin, outMax);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestCompact {
+
+	private static PhTree12<long[]> create(int dims, boolean subtreeCounts) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(subtreeCounts);
+		return new PhTree12<>(cfg);
+	}
+
+	private static List<long[]> fill(PhTree12<long[]> tree, int n, int range, Random R) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				key[d] = R.nextInt(range) - range/2;
+			}
+			if (!tree.contains(key)) {
+				tree.put(key, key);
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static List<long[]> removeMost(PhTree12<long[]> tree, List<long[]> keys, 
+			double ratio, Random R) {
+		List<long[]> remaining = new ArrayList<>();
+		for (long[] key: keys) {
+			if (R.nextDouble() < ratio) {
+				assertTrue(Arrays.equals(key, tree.remove(key)));
+			} else {
+				remaining.add(key);
+			}
+		}
+		return remaining;
+	}
+
+	private static int compactFully(PhTree12<long[]> tree, int maxNodes) {
+		int nCalls = 1;
+		while (!tree.compact(maxNodes)) {
+			nCalls++;
+		}
+		return nCalls;
+	}
+
+	private static void check(PhTree12<long[]> tree, List<long[]> keys) {
+		assertEquals(keys.size(), tree.size());
+		for (long[] key: keys) {
+			assertTrue(Arrays.equals(key, tree.get(key)));
+		}
+		long[] min = new long[tree.getDim()];
+		long[] max = new long[tree.getDim()];
+		Arrays.fill(min, Long.MIN_VALUE);
+		Arrays.fill(max, Long.MAX_VALUE);
+		int n = 0;
+		for (PhTree12.PhQuery<long[]> q = tree.query(min, max); q.hasNext(); q.next()) {
+			n++;
+		}
+		assertEquals(keys.size(), n);
+	}
+
+	private void runMixed(int dims, int n, int range) {
+		Random R = new Random(dims);
+		PhTree12<long[]> tree = create(dims, false);
+		List<long[]> keys = fill(tree, n, range, R);
+		keys = removeMost(tree, keys, 0.8, R);
+		check(tree, keys);
+
+		long sizeBefore = tree.getStats().getCalculatedMemSize();
+		int nCalls = compactFully(tree, 10);
+		assertTrue(nCalls > 1);
+		check(tree, keys);
+		long sizeAfter = tree.getStats().getCalculatedMemSize();
+		assertTrue(sizeBefore + " -> " + sizeAfter, sizeAfter <= sizeBefore);
+
+		//a second pass should not find anything to do
+		compactFully(tree, 10);
+		assertEquals(sizeAfter, tree.getStats().getCalculatedMemSize());
+		check(tree, keys);
+	}
+
+	@Test
+	public void testMixed2D() {
+		runMixed(2, 20000, 1000);
+	}
+
+	@Test
+	public void testMixed3D() {
+		runMixed(3, 20000, 100);
+	}
+
+	@Test
+	public void testMixed6D() {
+		runMixed(6, 50000, 16);
+	}
+
+	@Test
+	public void testMixedHighDim() {
+		//large nodes, this uses the NT representation
+		runMixed(10, 20000, 4);
+	}
+
+	/**
+	 * Small NT threshold: many small NT nodes that are merged into their parents or 
+	 * converted back to LHC/AHC during compaction.
+	 */
+	private void runSmallNt(int ntThreshold, int dims, long seed) {
+		Random R = new Random(seed);
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setNtThreshold(ntThreshold);
+		PhTree12<long[]> tree = new PhTree12<>(cfg);
+		List<long[]> keys = fill(tree, 3000, 4, R);
+		keys = removeMost(tree, keys, 0.9, R);
+		check(tree, keys);
+		for (int i = 0; i < 1000 && !tree.compact(1); i++) {
+			check(tree, keys);
+		}
+		assertTrue(tree.compact(1000));
+		check(tree, keys);
+		//NT nodes are also converted back by remove()
+		keys = removeMost(tree, keys, 1.0, R);
+		check(tree, keys);
+	}
+
+	@Test
+	public void testSmallNtThreshold() {
+		runSmallNt(20, 6, 0);
+		runSmallNt(8, 5, 1);
+		for (int seed = 0; seed < 20; seed++) {
+			runSmallNt(2 + seed % 10, 4 + seed % 5, seed);
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		PhTree12<long[]> tree = create(3, false);
+		assertTrue(tree.compact(1));
+		tree.put(new long[3], new long[3]);
+		tree.remove(new long[3]);
+		assertTrue(tree.compact(1));
+		assertEquals(0, tree.size());
+	}
+
+	@Test
+	public void testModifyBetweenCalls() {
+		Random R = new Random(0);
+		PhTree12<long[]> tree = create(3, false);
+		List<long[]> keys = fill(tree, 5000, 1000, R);
+		for (int round = 0; round < 20; round++) {
+			assertFalse(tree.compact(5));
+			keys = removeMost(tree, keys, 0.1, R);
+			keys.addAll(fill(tree, 100, 1000, R));
+			check(tree, keys);
+		}
+		compactFully(tree, 5);
+		check(tree, keys);
+	}
+
+	@Test
+	public void testSubtreeCounts() {
+		Random R = new Random(0);
+		PhTree12<long[]> tree = create(3, true);
+		List<long[]> keys = fill(tree, 20000, 100, R);
+		keys = removeMost(tree, keys, 0.7, R);
+		compactFully(tree, 7);
+		check(tree, keys);
+		for (int i = 0; i < 100; i++) {
+			long[] min = new long[3];
+			long[] max = new long[3];
+			for (int d = 0; d < 3; d++) {
+				min[d] = R.nextInt(100) - 50;
+				max[d] = min[d] + R.nextInt(30);
+			}
+			assertEquals(tree.queryAll(min, max).size(), tree.count(min, max));
+		}
+	}
+}
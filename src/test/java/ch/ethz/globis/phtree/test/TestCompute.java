@@ -0,0 +1,222 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.PhTreeF;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.util.PhBiFunction;
+import ch.ethz.globis.phtree.util.PhFunction;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestCompute {
+
+	private static final PhBiFunction<Integer, Integer, Integer> SUM = 
+			new PhBiFunction<Integer, Integer, Integer>() {
+		@Override
+		public Integer apply(Integer a, Integer b) {
+			int s = a + b;
+			//remove entries that reach 0, replace 3 with 'null'
+			return s == 0 ? null : (s == 3 ? null : s);
+		}
+	};
+
+	private static PhTree12<Integer> create(int dims, boolean subtreeCounts) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(subtreeCounts);
+		return new PhTree12<>(cfg);
+	}
+
+	/**
+	 * Apply the same random operations to a PhTree12 and to the default implementation 
+	 * in PhTree11.
+	 */
+	private void runRandom(int dims, int range, boolean subtreeCounts) {
+		Random R = new Random(dims);
+		PhTree12<Integer> tree = create(dims, subtreeCounts);
+		PhTree<Integer> ref = new PhTree11<>(dims);
+		for (int i = 0; i < 50000; i++) {
+			final long[] key = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				key[d] = R.nextInt(range) - range/2;
+			}
+			final int x = R.nextInt(5) - 2;
+			PhBiFunction<long[], Integer, Integer> add = new PhBiFunction<long[], Integer, Integer>() {
+				@Override
+				public Integer apply(long[] k, Integer v) {
+					assertTrue(Arrays.equals(key, k));
+					int s = (v == null ? 0 : v) + x;
+					return s == 0 ? null : s;
+				}
+			};
+			PhFunction<long[], Integer> init = new PhFunction<long[], Integer>() {
+				@Override
+				public Integer apply(long[] k) {
+					return x == 0 ? null : x;
+				}
+			};
+			switch (R.nextInt(6)) {
+			case 0: 
+				assertEquals(ref.compute(key, add), tree.compute(key, add));
+				break;
+			case 1: 
+				assertEquals(ref.computeIfAbsent(key, init), tree.computeIfAbsent(key, init));
+				break;
+			case 2: 
+				assertEquals(ref.computeIfPresent(key, add), tree.computeIfPresent(key, add));
+				break;
+			case 3: 
+				assertEquals(ref.merge(key, x, SUM), tree.merge(key, x, SUM));
+				break;
+			case 4: 
+				Integer v = x == 0 ? null : x;
+				assertEquals(ref.putIfAbsent(key, v), tree.putIfAbsent(key, v));
+				break;
+			default:
+				//PhTree11 returns the internal representation of 'null'
+				Object r = ref.remove(key);
+				assertEquals(r == PhTreeHelper.NULL ? null : r, tree.remove(key));
+			}
+			assertEquals(ref.size(), tree.size());
+		}
+		check(tree, ref, subtreeCounts);
+	}
+
+	/**
+	 * Compare entries and structure. The structure of a PH-tree only depends on its entries, 
+	 * so it must be the same as that of a new tree.
+	 */
+	private static void check(PhTree12<Integer> tree, PhTree<Integer> ref, boolean subtreeCounts) {
+		PhTree12<Integer> tree2 = create(tree.getDim(), subtreeCounts);
+		PhTree.PhExtent<Integer> it = ref.queryExtent();
+		while (it.hasNext()) {
+			long[] key = it.nextKey();
+			assertTrue(tree.contains(key));
+			assertEquals(ref.get(key), tree.get(key));
+			tree2.put(key, ref.get(key));
+		}
+		assertEquals(ref.size(), tree.size());
+		assertEquals(tree2.getStats().getNodeCount(), tree.getStats().getNodeCount());
+		if (subtreeCounts) {
+			Random R = new Random(0);
+			long[] min = new long[tree.getDim()];
+			long[] max = new long[tree.getDim()];
+			for (int i = 0; i < 100; i++) {
+				for (int d = 0; d < min.length; d++) {
+					min[d] = R.nextInt(100) - 50;
+					max[d] = min[d] + R.nextInt(50);
+				}
+				assertEquals(tree.queryAll(min, max).size(), tree.count(min, max));
+			}
+		}
+	}
+
+	@Test
+	public void testRandom1D() {
+		runRandom(1, 1000, false);
+	}
+
+	@Test
+	public void testRandom3D() {
+		runRandom(3, 30, false);
+	}
+
+	@Test
+	public void testRandomHighDim() {
+		//large nodes, this uses the NT representation
+		runRandom(10, 4, false);
+	}
+
+	@Test
+	public void testRandomSubtreeCounts() {
+		runRandom(3, 30, true);
+		runRandom(10, 4, true);
+	}
+
+	@Test
+	public void testNullValues() {
+		PhTree12<String> tree = new PhTree12<>(2);
+		long[] key = {1, 2};
+		assertNull(tree.putIfAbsent(key, null));
+		assertTrue(tree.contains(key));
+		//a 'null' value is treated as absent
+		assertEquals("a", tree.computeIfAbsent(key, new PhFunction<long[], String>() {
+			@Override
+			public String apply(long[] k) {
+				return "a";
+			}
+		}));
+		assertEquals("a", tree.putIfAbsent(key, "b"));
+		assertEquals("a", tree.get(key));
+		//returning 'null' removes the entry
+		assertNull(tree.computeIfPresent(key, new PhBiFunction<long[], String, String>() {
+			@Override
+			public String apply(long[] k, String v) {
+				return null;
+			}
+		}));
+		assertEquals(0, tree.size());
+		assertTrue(tree.queryAll(new long[]{0, 0}, new long[]{5, 5}).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeNull() {
+		new PhTree12<Integer>(2).merge(new long[]{1, 2}, null, SUM);
+	}
+
+	@Test
+	public void testPhTreeF() {
+		PhTreeF<Integer> tree = PhTreeF.create(2);
+		final double[] key = {1.5, -2.5};
+		for (int i = 0; i < 10; i++) {
+			tree.merge(key, 1, new PhBiFunction<Integer, Integer, Integer>() {
+				@Override
+				public Integer apply(Integer a, Integer b) {
+					return a + b;
+				}
+			});
+		}
+		assertEquals(10, (int) tree.get(key));
+		assertEquals(11, (int) tree.compute(key, new PhBiFunction<double[], Integer, Integer>() {
+			@Override
+			public Integer apply(double[] k, Integer v) {
+				assertTrue(Arrays.equals(key, k));
+				return v + 1;
+			}
+		}));
+		assertEquals(11, (int) tree.putIfAbsent(key, 0));
+		assertEquals(1, tree.size());
+	}
+}
@@ -0,0 +1,199 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PersProviderOffHeap;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestCount {
+
+	private static PhTree12<Integer> create(int dims) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(true);
+		return new PhTree12<>(cfg);
+	}
+	
+	private static long[] randomKey(Random R, int dims, int range) {
+		long[] key = new long[dims];
+		for (int d = 0; d < dims; d++) {
+			key[d] = R.nextInt(range) - range/2;
+		}
+		return key;
+	}
+	
+	/**
+	 * Compare the counts of the tree with the counts of a reference tree, which are 
+	 * calculated by iteration.
+	 */
+	private static void checkCounts(Random R, PhTree12<Integer> tree, PhTree12<Integer> ref, 
+			int range, int nQueries) {
+		int dims = tree.getDim();
+		assertEquals(ref.size(), tree.size());
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		Arrays.fill(min, Long.MIN_VALUE);
+		Arrays.fill(max, Long.MAX_VALUE);
+		assertEquals(ref.size(), tree.count(min, max));
+		for (int i = 0; i < nQueries; i++) {
+			for (int d = 0; d < dims; d++) {
+				long a = R.nextInt(range) - range/2;
+				long b = R.nextInt(range) - range/2;
+				min[d] = Math.min(a, b);
+				max[d] = Math.max(a, b);
+			}
+			int expected = countByIteration(ref, min, max);
+			assertEquals(expected, tree.count(min, max));
+			assertEquals(expected, ref.count(min, max));
+			checkCountUpTo(tree, min, max, expected);
+			checkCountUpTo(ref, min, max, expected);
+		}
+	}
+
+	private static int countByIteration(PhTree12<Integer> tree, long[] min, long[] max) {
+		int n = 0;
+		PhQuery<Integer> q = tree.query(min, max);
+		while (q.hasNext()) {
+			q.nextEntryReuse();
+			n++;
+		}
+		return n;
+	}
+
+	private static void checkCountUpTo(PhTree12<Integer> tree, long[] min, long[] max, 
+			int expected) {
+		assertEquals(expected == 0, tree.isEmpty(min, max));
+		assertEquals(0, tree.countUpTo(min, max, 0));
+		for (int limit = 1; limit <= 4; limit++) {
+			assertEquals(Math.min(expected, limit), tree.countUpTo(min, max, limit));
+		}
+		assertEquals(Math.min(expected, 100), tree.countUpTo(min, max, 100));
+	}
+	
+	private void checkOperations(int dims, int range) {
+		Random R = new Random(dims);
+		PhTree12<Integer> tree = create(dims);
+		PhTree12<Integer> ref = new PhTree12<>(dims);
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		assertEquals(0, tree.count(min, max));
+		assertTrue(tree.isEmpty(min, max));
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 2000; i++) {
+				long[] key = randomKey(R, dims, range);
+				assertEquals(ref.put(key, i), tree.put(key, i));
+			}
+			checkCounts(R, tree, ref, range, 100);
+			for (int i = 0; i < 1000; i++) {
+				long[] key = randomKey(R, dims, range);
+				assertEquals(ref.remove(key), tree.remove(key));
+			}
+			checkCounts(R, tree, ref, range, 100);
+			for (int i = 0; i < 1000; i++) {
+				long[] key = randomKey(R, dims, range);
+				long[] newKey = key.clone();
+				newKey[R.nextInt(dims)] += R.nextInt(range/10+1) - range/20;
+				if (R.nextInt(10) == 0) {
+					newKey = randomKey(R, dims, range);
+				}
+				assertEquals(ref.update(key, newKey), tree.update(key, newKey));
+			}
+			checkCounts(R, tree, ref, range, 100);
+		}
+	}
+	
+	@Test
+	public void testCount1D() {
+		checkOperations(1, 10000);
+	}
+	
+	@Test
+	public void testCount2D() {
+		checkOperations(2, 1000);
+		checkOperations(2, 1000*1000);
+	}
+	
+	@Test
+	public void testCount3D() {
+		checkOperations(3, 100);
+		checkOperations(3, 1000*1000);
+	}
+	
+	@Test
+	public void testCountNT() {
+		//large nodes are stored as nested trees
+		checkOperations(10, 4);
+		checkOperations(12, 1000*1000);
+	}
+	
+	@Test
+	public void testCountUpdateAll() {
+		int dims = 3;
+		int n = 10000;
+		Random R = new Random(0);
+		PhTree12<Integer> tree = create(dims);
+		PhTree12<Integer> ref = new PhTree12<>(dims);
+		long[][] keys = new long[n][];
+		for (int i = 0; i < n; i++) {
+			keys[i] = randomKey(R, dims, 100000);
+			tree.put(keys[i], i);
+			ref.put(keys[i], i);
+		}
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			for (int round = 0; round < 5; round++) {
+				long[][] newKeys = new long[n][];
+				for (int i = 0; i < n; i++) {
+					newKeys[i] = keys[i].clone();
+					newKeys[i][0] += R.nextInt(101) - 50;
+				}
+				tree.updateAll(keys, newKeys, es);
+				ref.updateAll(keys, newKeys);
+				keys = newKeys;
+				checkCounts(R, tree, ref, 100000, 100);
+			}
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPersistenceProvider() {
+		PhTreeConfig cfg = new PhTreeConfig(2);
+		cfg.setSubtreeCounts(true);
+		cfg.setPersistenceProvider(new PersProviderOffHeap());
+		new PhTree12<>(cfg);
+	}
+}
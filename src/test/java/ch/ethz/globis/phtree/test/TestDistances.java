@@ -0,0 +1,220 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceChebyshev;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceHaversine;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhDistanceManhattan;
+import ch.ethz.globis.phtree.PhDistanceMinkowski;
+import ch.ethz.globis.phtree.PhDistanceNode;
+import ch.ethz.globis.phtree.PhDistanceSqEuclidean;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Test distance functions: MBB, node distance, range queries and kNN queries.
+ */
+public class TestDistances {
+
+	private static final int N = 2000;
+	
+	private static long[][] createLong(int dims, Random R) {
+		long[][] data = new long[N][dims];
+		for (int i = 0; i < N; i++) {
+			for (int d = 0; d < dims; d++) {
+				data[i][d] = R.nextInt(20000) - 10000;
+			}
+		}
+		return data;
+	}
+	
+	private static long[][] createDouble(int dims, Random R) {
+		long[][] data = new long[N][dims];
+		for (int i = 0; i < N; i++) {
+			for (int d = 0; d < dims; d++) {
+				data[i][d] = BitTools.toSortableLong(R.nextDouble()*200 - 100);
+			}
+		}
+		return data;
+	}
+	
+	private static long[][] createLatLon(Random R) {
+		long[][] data = new long[N][2];
+		for (int i = 0; i < N; i++) {
+			//cluster some points around poles and antimeridian
+			double lat = i % 3 == 0 ? 90 - R.nextDouble()*5 : R.nextDouble()*180 - 90;
+			double lon = i % 3 == 1 ? 180 - R.nextDouble()*10 : R.nextDouble()*360 - 180;
+			data[i][0] = BitTools.toSortableLong(lat);
+			data[i][1] = BitTools.toSortableLong(lon);
+		}
+		return data;
+	}
+	
+	private void check(long[][] data, PhDistanceNode dist, Random R) {
+		int dims = data[0].length;
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		ArrayList<long[]> list = new ArrayList<>();
+		for (long[] v: data) {
+			if (tree.put(v, v) == null) {
+				list.add(v);
+			}
+		}
+		
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		for (int q = 0; q < 50; q++) {
+			long[] center = list.get(R.nextInt(list.size()));
+			double radius = dist.dist(center, list.get(R.nextInt(list.size())));
+
+			//MBB and node distance
+			dist.toMBB(radius, center, min, max);
+			int nExpected = 0;
+			for (long[] v: list) {
+				double d = dist.dist(center, v);
+				if (d <= radius) {
+					nExpected++;
+					for (int i = 0; i < dims; i++) {
+						assertTrue(min[i] <= v[i] && v[i] <= max[i]);
+					}
+				}
+				for (int bits = 0; bits < 64; bits += 7) {
+					assertTrue(dist.distToNode(center, v, bits) <= d*(1+1e-12));
+				}
+				assertEquals(d, dist.distToNode(center, v, 0), d*1e-12);
+			}
+			
+			//range query
+			PhRangeQuery<long[]> rq = tree.rangeQuery(radius, dist, center);
+			int n = 0;
+			while (rq.hasNext()) {
+				assertTrue(dist.dist(center, rq.nextValue()) <= radius);
+				n++;
+			}
+			assertEquals(nExpected, n);
+			
+			//kNN
+			int k = 1 + R.nextInt(10);
+			double[] expected = new double[list.size()];
+			for (int i = 0; i < expected.length; i++) {
+				expected[i] = dist.dist(center, list.get(i));
+			}
+			Arrays.sort(expected);
+			PhKnnQuery<long[]> knn = tree.nearestNeighbour(k, dist, null, center);
+			n = 0;
+			while (knn.hasNext()) {
+				PhEntryDist<long[]> e = knn.nextEntryReuse();
+				assertEquals(expected[n], e.dist(), 0.0);
+				n++;
+			}
+			assertEquals(k, n);
+		}
+	}
+	
+	@Test
+	public void testEuclidean() {
+		Random R = new Random(0);
+		check(createLong(3, R), PhDistanceL.THIS, R);
+		check(createDouble(3, R), PhDistanceF.THIS, R);
+	}
+
+	@Test
+	public void testManhattan() {
+		Random R = new Random(0);
+		check(createLong(3, R), PhDistanceManhattan.L, R);
+		check(createDouble(4, R), PhDistanceManhattan.F, R);
+	}
+
+	@Test
+	public void testChebyshev() {
+		Random R = new Random(0);
+		check(createLong(3, R), PhDistanceChebyshev.L, R);
+		check(createDouble(4, R), PhDistanceChebyshev.F, R);
+	}
+
+	@Test
+	public void testSqEuclidean() {
+		Random R = new Random(0);
+		check(createLong(3, R), PhDistanceSqEuclidean.L, R);
+		check(createDouble(4, R), PhDistanceSqEuclidean.F, R);
+	}
+
+	@Test
+	public void testMinkowski() {
+		Random R = new Random(0);
+		check(createLong(3, R), new PhDistanceMinkowski(3, new double[]{1, 2, 0.5}, false), R);
+		check(createDouble(3, R), new PhDistanceMinkowski(1.5, null, true), R);
+		check(createDouble(3, R), new PhDistanceMinkowski(2, new double[]{4, 1, 1}, true), R);
+		check(createLong(3, R), new PhDistanceMinkowski(Double.POSITIVE_INFINITY, 
+				new double[]{1, 3, 1}, false), R);
+	}
+
+	@Test
+	public void testMinkowskiEqualsEuclidean() {
+		PhDistance d2 = new PhDistanceMinkowski(2, null, false);
+		long[] v1 = {1, 2, 3};
+		long[] v2 = {-4, 7, 0};
+		assertEquals(PhDistanceL.THIS.dist(v1, v2), d2.dist(v1, v2), 0.0);
+		PhDistance d1 = new PhDistanceMinkowski(1, null, false);
+		assertEquals(PhDistanceManhattan.L.dist(v1, v2), d1.dist(v1, v2), 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMinkowskiInvalidP() {
+		new PhDistanceMinkowski(0.5, null, false);
+	}
+
+	@Test
+	public void testHaversine() {
+		Random R = new Random(0);
+		check(createLatLon(R), PhDistanceHaversine.EARTH_KM, R);
+		check(createLatLon(R), new PhDistanceHaversine(1), R);
+	}
+
+	@Test
+	public void testHaversineKnown() {
+		//Zurich - New York
+		long[] zrh = {BitTools.toSortableLong(47.3769), BitTools.toSortableLong(8.5417)};
+		long[] nyc = {BitTools.toSortableLong(40.7128), BitTools.toSortableLong(-74.0060)};
+		assertEquals(6326, PhDistanceHaversine.EARTH_KM.dist(zrh, nyc), 5);
+		//across the antimeridian
+		long[] p1 = {BitTools.toSortableLong(0.0), BitTools.toSortableLong(179.5)};
+		long[] p2 = {BitTools.toSortableLong(0.0), BitTools.toSortableLong(-179.5)};
+		assertEquals(Math.PI/180, new PhDistanceHaversine(1).dist(p1, p2), 1e-12);
+	}
+}
@@ -0,0 +1,253 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceManhattan;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhFilterDimensions;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import ch.ethz.globis.phtree.v12.PhTreeFrozen;
+
+public class TestFrozen {
+
+	private static PhTree12<Integer> createTree(Random R, int dims, int n, int range) {
+		PhTree12<Integer> tree = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			tree.put(randomKey(R, dims, range), i);
+		}
+		return tree;
+	}
+	
+	private static long[] randomKey(Random R, int dims, int range) {
+		long[] key = new long[dims];
+		for (int d = 0; d < dims; d++) {
+			key[d] = range <= 0 ? R.nextLong() : R.nextInt(range) - range/2;
+		}
+		return key;
+	}
+	
+	private static List<String> toStrings(List<PhEntry<Integer>> list) {
+		List<String> ret = new ArrayList<>();
+		for (PhEntry<Integer> e : list) {
+			ret.add(Arrays.toString(e.getKey()) + "=" + e.getValue());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+	
+	private static List<PhEntry<Integer>> drain(PhQuery<Integer> q) {
+		List<PhEntry<Integer>> ret = new ArrayList<>();
+		while (q.hasNext()) {
+			ret.add(q.nextEntry());
+		}
+		return ret;
+	}
+
+	private void checkQueries(int dims, int n, int range) {
+		Random R = new Random(dims*n + range);
+		PhTree12<Integer> tree = createTree(R, dims, n, range);
+		PhTreeFrozen<Integer> frozen = tree.freeze();
+		assertEquals(tree.size(), frozen.size());
+		
+		//point queries
+		PhExtent<Integer> ext = tree.queryExtent();
+		while (ext.hasNext()) {
+			PhEntry<Integer> e = ext.nextEntry();
+			assertTrue(frozen.contains(e.getKey()));
+			assertEquals(e.getValue(), frozen.get(e.getKey()));
+		}
+		for (int i = 0; i < 100; i++) {
+			long[] key = randomKey(R, dims, range);
+			assertEquals(tree.get(key), frozen.get(key));
+			assertEquals(tree.contains(key), frozen.contains(key));
+		}
+		
+		//extent
+		List<PhEntry<Integer>> all = new ArrayList<>();
+		ext = frozen.queryExtent();
+		while (ext.hasNext()) {
+			all.add(ext.nextEntry());
+		}
+		assertEquals(tree.size(), all.size());
+		
+		//window queries
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		PhQuery<Integer> q = frozen.query(min, max);
+		for (int i = 0; i < 100; i++) {
+			long[] a = randomKey(R, dims, range);
+			long[] b = randomKey(R, dims, range);
+			for (int d = 0; d < dims; d++) {
+				min[d] = Math.min(a[d], b[d]);
+				max[d] = Math.max(a[d], b[d]);
+			}
+			List<String> exp = toStrings(drain(tree.query(min, max)));
+			q.reset(min, max);
+			assertEquals(exp, toStrings(drain(q)));
+			assertEquals(exp, toStrings(frozen.queryAll(min, max)));
+		}
+		
+		//kNN
+		for (int i = 0; i < 50; i++) {
+			long[] center = randomKey(R, dims, range);
+			int k = 1 + R.nextInt(10);
+			checkKnn(tree.nearestNeighbour(k, center), frozen.nearestNeighbour(k, center));
+			checkKnn(tree.nearestNeighbour(k, PhDistanceManhattan.L, null, center), 
+					frozen.nearestNeighbour(k, PhDistanceManhattan.L, null, center));
+			//projected distance, this is not a PhDistanceNode
+			PhFilterDimensions f = new PhFilterDimensions(dims, 0, dims - 1);
+			checkKnn(tree.nearestNeighbour(k, null, f, center), 
+					frozen.nearestNeighbour(k, null, f, center));
+		}
+		
+		//range queries
+		for (int i = 0; i < 50; i++) {
+			long[] center = randomKey(R, dims, range);
+			double dist = range <= 0 ? Long.MAX_VALUE/4.0 : R.nextInt(range/4 + 1);
+			PhRangeQuery<Integer> rq1 = tree.rangeQuery(dist, center);
+			PhRangeQuery<Integer> rq2 = frozen.rangeQuery(dist, center);
+			assertEquals(toStrings(drain(rq1)), toStrings(drain(rq2)));
+		}
+	}
+	
+	private static void checkKnn(PhKnnQuery<Integer> exp, PhKnnQuery<Integer> act) {
+		List<Double> expDist = new ArrayList<>();
+		while (exp.hasNext()) {
+			expDist.add(exp.nextEntry().dist());
+		}
+		List<Double> actDist = new ArrayList<>();
+		while (act.hasNext()) {
+			PhEntryDist<Integer> e = act.nextEntry();
+			actDist.add(e.dist());
+		}
+		assertEquals(expDist, actDist);
+	}
+
+	private static List<PhEntry<Integer>> drain(PhRangeQuery<Integer> q) {
+		List<PhEntry<Integer>> ret = new ArrayList<>();
+		while (q.hasNext()) {
+			ret.add(q.nextEntry());
+		}
+		return ret;
+	}
+
+	@Test
+	public void testQueries2D() {
+		checkQueries(2, 1000, 1000);
+		checkQueries(2, 10000, 100);
+	}
+
+	@Test
+	public void testQueries3D() {
+		checkQueries(3, 5000, 1000);
+	}
+
+	@Test
+	public void testQueriesLargeKeys() {
+		checkQueries(3, 2000, 0);
+	}
+
+	@Test
+	public void testQueries10D() {
+		checkQueries(10, 5000, 20);
+	}
+
+	@Test
+	public void testEmpty() {
+		PhTreeFrozen<Integer> frozen = new PhTree12<Integer>(3).freeze();
+		assertEquals(0, frozen.size());
+		assertNull(frozen.get(1, 2, 3));
+		assertFalse(frozen.queryExtent().hasNext());
+		assertFalse(frozen.query(new long[]{-5, -5, -5}, new long[]{5, 5, 5}).hasNext());
+		assertFalse(frozen.nearestNeighbour(3, 1, 2, 3).hasNext());
+	}
+
+	@Test
+	public void testNullValues() {
+		PhTree12<Integer> tree = new PhTree12<>(2);
+		tree.put(new long[]{1, 2}, null);
+		tree.put(new long[]{3, 4}, 7);
+		PhTreeFrozen<Integer> frozen = tree.freeze();
+		assertTrue(frozen.contains(1, 2));
+		assertNull(frozen.get(1, 2));
+		assertEquals(7, (int) frozen.get(3, 4));
+		assertFalse(frozen.contains(1, 3));
+	}
+
+	@Test
+	public void testIndependentCopy() {
+		PhTree12<Integer> tree = new PhTree12<>(2);
+		tree.put(new long[]{1, 2}, 1);
+		PhTreeFrozen<Integer> frozen = tree.freeze();
+		tree.put(new long[]{3, 4}, 2);
+		tree.remove(1, 2);
+		assertEquals(1, frozen.size());
+		assertEquals(1, (int) frozen.get(1, 2));
+		assertFalse(frozen.contains(3, 4));
+		PhEntry<Integer> e = frozen.queryExtent().nextEntryReuse();
+		assertArrayEquals(new long[]{1, 2}, e.getKey());
+	}
+
+	@Test
+	public void testReadOnly() {
+		PhTreeFrozen<Integer> frozen = new PhTree12<Integer>(2).freeze();
+		try {
+			frozen.put(new long[]{1, 2}, 1);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+		try {
+			frozen.remove(1, 2);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+		try {
+			frozen.update(new long[]{1, 2}, new long[]{2, 3});
+			fail();
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+	}
+}
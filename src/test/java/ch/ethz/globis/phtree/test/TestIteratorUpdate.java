@@ -0,0 +1,282 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree.PhIterator;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhIteratorFullNoGC;
+import ch.ethz.globis.phtree.v12.PhIteratorNoGC;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestIteratorUpdate {
+
+	private static PhTree12<long[]> create(int dims, boolean subtreeCounts) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(subtreeCounts);
+		return new PhTree12<>(cfg);
+	}
+
+	private static List<long[]> fill(PhTree12<long[]> tree, int n, int range, Random R) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				key[d] = R.nextInt(range) - range/2;
+			}
+			if (!tree.contains(key)) {
+				tree.put(key, key);
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static boolean isInside(long[] key, long[] min, long[] max) {
+		for (int d = 0; d < key.length; d++) {
+			if (key[d] < min[d] || key[d] > max[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the entries and the structure of the tree. The structure of a PH-tree only 
+	 * depends on its entries, so it must be the same as that of a new tree.
+	 */
+	private static void check(PhTree12<long[]> tree, List<long[]> keys, boolean subtreeCounts) {
+		assertEquals(keys.size(), tree.size());
+		PhTree12<long[]> ref = create(tree.getDim(), subtreeCounts);
+		for (long[] key: keys) {
+			assertTrue(Arrays.equals(key, tree.get(key)));
+			ref.put(key, key);
+		}
+		int n = 0;
+		for (PhIterator<long[]> it = tree.queryExtent(); it.hasNext(); it.next()) {
+			n++;
+		}
+		assertEquals(keys.size(), n);
+		assertEquals(ref.getStats().getNodeCount(), tree.getStats().getNodeCount());
+		if (subtreeCounts) {
+			long[] min = new long[tree.getDim()];
+			long[] max = new long[tree.getDim()];
+			Random R = new Random(0);
+			for (int i = 0; i < 20; i++) {
+				for (int d = 0; d < min.length; d++) {
+					min[d] = R.nextInt(100) - 50;
+					max[d] = min[d] + R.nextInt(50);
+				}
+				assertEquals(ref.count(min, max), tree.count(min, max));
+			}
+		}
+	}
+
+	/**
+	 * Iterate over a window and remove a random subset of the entries. Every entry in 
+	 * the window must be visited exactly once.
+	 */
+	private void runRemove(int dims, int n, int range, double ratio, boolean subtreeCounts) {
+		Random R = new Random(dims);
+		PhTree12<long[]> tree = create(dims, subtreeCounts);
+		List<long[]> keys = fill(tree, n, range, R);
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		for (int round = 0; round < 10; round++) {
+			for (int d = 0; d < dims; d++) {
+				min[d] = R.nextInt(range) - range/2;
+				max[d] = min[d] + R.nextInt(range);
+			}
+			Set<List<Long>> removed = new HashSet<>();
+			int nVisited = 0;
+			PhIteratorNoGC<long[]> it = tree.query(min, max);
+			while (it.hasNext()) {
+				PhEntry<long[]> e = it.nextEntryReuse();
+				assertTrue(isInside(e.getKey(), min, max));
+				assertTrue(Arrays.equals(e.getKey(), e.getValue()));
+				nVisited++;
+				if (R.nextDouble() < ratio) {
+					assertTrue(removed.add(asList(e.getKey())));
+					it.remove();
+				}
+			}
+			List<long[]> remaining = new ArrayList<>();
+			int nInside = 0;
+			for (long[] key: keys) {
+				nInside += isInside(key, min, max) ? 1 : 0;
+				if (!removed.contains(asList(key))) {
+					remaining.add(key);
+				}
+			}
+			assertEquals(nInside, nVisited);
+			assertEquals(keys.size() - removed.size(), remaining.size());
+			keys = remaining;
+			check(tree, keys, subtreeCounts);
+			keys.addAll(fill(tree, n/10, range, R));
+		}
+	}
+
+	private static List<Long> asList(long[] key) {
+		List<Long> l = new ArrayList<>();
+		for (long k: key) {
+			l.add(k);
+		}
+		return l;
+	}
+
+	@Test
+	public void testRemove1D() {
+		runRemove(1, 1000, 2000, 0.5, false);
+	}
+
+	@Test
+	public void testRemove2D() {
+		runRemove(2, 20000, 1000, 0.5, false);
+		runRemove(2, 20000, 1000, 1.0, false);
+	}
+
+	@Test
+	public void testRemove3D() {
+		runRemove(3, 20000, 100, 0.3, false);
+		runRemove(3, 20000, 100, 0.9, false);
+	}
+
+	@Test
+	public void testRemoveHighDim() {
+		//large nodes, this uses the NT representation
+		runRemove(10, 20000, 4, 0.5, false);
+		runRemove(10, 20000, 4, 1.0, false);
+	}
+
+	@Test
+	public void testRemoveSubtreeCounts() {
+		runRemove(3, 20000, 100, 0.5, true);
+		runRemove(10, 20000, 4, 0.5, true);
+	}
+
+	@Test
+	public void testRemoveExtent() {
+		for (int dims: new int[]{1, 3, 10}) {
+			Random R = new Random(dims);
+			PhTree12<long[]> tree = create(dims, true);
+			List<long[]> keys = fill(tree, 10000, dims == 10 ? 4 : 1000, R);
+			List<long[]> remaining = new ArrayList<>();
+			int n = 0;
+			PhIteratorFullNoGC<long[]> it = tree.queryExtent();
+			while (it.hasNext()) {
+				long[] key = it.nextKey();
+				n++;
+				if (key[0] % 2 != 0) {
+					it.remove();
+				} else {
+					remaining.add(key);
+				}
+			}
+			assertEquals(keys.size(), n);
+			check(tree, remaining, true);
+		}
+	}
+
+	@Test
+	public void testSetValue() {
+		for (int dims: new int[]{1, 3, 10}) {
+			Random R = new Random(dims);
+			PhTree12<long[]> tree = create(dims, false);
+			int range = dims == 10 ? 4 : 100;
+			List<long[]> keys = fill(tree, 10000, range, R);
+			long[] min = new long[dims];
+			long[] max = new long[dims];
+			Arrays.fill(min, -range/4);
+			Arrays.fill(max, range/4);
+			long[] marker = new long[0];
+			PhIteratorNoGC<long[]> it = tree.query(min, max);
+			while (it.hasNext()) {
+				PhEntry<long[]> e = it.nextEntryReuse();
+				assertTrue(Arrays.equals(e.getKey(), e.getValue()));
+				it.setValue(marker);
+				assertTrue(e.getValue() == marker);
+			}
+			for (long[] key: keys) {
+				assertTrue(isInside(key, min, max) == (tree.get(key) == marker));
+			}
+			PhIteratorFullNoGC<long[]> it2 = tree.queryExtent();
+			while (it2.hasNext()) {
+				long[] key = it2.nextKey();
+				it2.setValue(null);
+				assertTrue(tree.contains(key));
+			}
+			for (long[] key: keys) {
+				assertNull(tree.get(key));
+			}
+			assertEquals(keys.size(), tree.size());
+		}
+	}
+
+	@Test
+	public void testIllegalState() {
+		PhTree12<long[]> tree = create(2, false);
+		fill(tree, 100, 100, new Random(0));
+		PhIteratorNoGC<long[]> it = tree.query(new long[]{-100, -100}, new long[]{100, 100});
+		try {
+			it.remove();
+			fail();
+		} catch (IllegalStateException e) {
+			//good
+		}
+		it.next();
+		it.remove();
+		try {
+			it.remove();
+			fail();
+		} catch (IllegalStateException e) {
+			//good
+		}
+		it.next();
+		assertTrue(it.hasNext());
+		try {
+			//the iterator has moved on
+			it.remove();
+			fail();
+		} catch (IllegalStateException e) {
+			//good
+		}
+		assertFalse(tree.size() == 100);
+		assertEquals(99, tree.size());
+	}
+}
@@ -0,0 +1,241 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree.PhIterator;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v12.PhIteratorFullNoGC;
+import ch.ethz.globis.phtree.v12.PhIteratorNoGC;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Modification of the tree during an iteration.
+ */
+public class TestIteratorWeaklyConsistent {
+
+	private static long[] randomKey(int dims, int range, Random R) {
+		long[] key = new long[dims];
+		for (int d = 0; d < dims; d++) {
+			key[d] = R.nextInt(range) - range/2;
+		}
+		return key;
+	}
+
+	private static boolean isInside(long[] key, long[] min, long[] max) {
+		for (int d = 0; d < key.length; d++) {
+			if (key[d] < min[d] || key[d] > max[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Modify the tree randomly.
+	 * @param stable keys that are never removed
+	 */
+	private static void modify(PhTree12<long[]> tree, int range, Random R, 
+			Map<List<Long>, long[]> stable) {
+		int dims = tree.getDim();
+		for (int i = 0; i < 5; i++) {
+			long[] key = randomKey(dims, range, R);
+			if (stable.containsKey(asList(key))) {
+				continue;
+			}
+			switch (R.nextInt(10)) {
+			case 0: case 1: case 2:
+				tree.put(key, key);
+				break;
+			case 3: case 4: case 5:
+				tree.remove(key);
+				break;
+			case 6: case 7: case 8:
+				long[] key2 = randomKey(dims, range, R);
+				if (!stable.containsKey(asList(key2)) && tree.update(key, key2) != null) {
+					tree.put(key2, key2);
+				}
+				break;
+			default:
+				tree.compact(10);
+			}
+		}
+	}
+
+	private static List<Long> asList(long[] key) {
+		List<Long> l = new ArrayList<>();
+		for (long k: key) {
+			l.add(k);
+		}
+		return l;
+	}
+
+	/**
+	 * The tree is modified after every step of the iteration. Entries that are never 
+	 * removed must be returned exactly once, all returned entries must be in the tree 
+	 * and must be in z-order.
+	 */
+	private void runModify(int dims, int range, boolean extent, boolean betweenHasNextAndNext) {
+		Random R = new Random(dims);
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		Map<List<Long>, long[]> stable = new HashMap<>();
+		for (int i = 0; i < 2000; i++) {
+			long[] key = randomKey(dims, range, R);
+			tree.put(key, key);
+			if (i % 3 == 0) {
+				stable.put(asList(key), key);
+			}
+		}
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		for (int d = 0; d < dims; d++) {
+			min[d] = extent ? Long.MIN_VALUE : -range/4;
+			max[d] = extent ? Long.MAX_VALUE : range/3;
+		}
+		PhIterator<long[]> it = extent ? tree.queryExtent() : tree.query(min, max);
+		Map<List<Long>, long[]> found = new HashMap<>();
+		long[] prev = null;
+		while (it.hasNext()) {
+			if (betweenHasNextAndNext) {
+				modify(tree, range, R, stable);
+			}
+			PhEntry<long[]> e = it.nextEntryReuse();
+			long[] key = e.getKey();
+			assertTrue(isInside(key, min, max));
+			assertTrue(Arrays.equals(key, tree.get(key)));
+			assertTrue(Arrays.equals(key, e.getValue()));
+			assertNull(found.put(asList(key), key));
+			if (prev != null) {
+				assertTrue(PhTreeHelper.compareZ(prev, key, -1L) < 0);
+			}
+			prev = key.clone();
+			modify(tree, range, R, stable);
+		}
+		for (long[] key: stable.values()) {
+			assertEquals(isInside(key, min, max), found.containsKey(asList(key)));
+		}
+	}
+
+	@Test
+	public void testQuery() {
+		runModify(2, 200, false, false);
+		runModify(3, 50, false, false);
+		runModify(10, 4, false, false);
+	}
+
+	@Test
+	public void testQueryBetweenHasNextAndNext() {
+		runModify(2, 200, false, true);
+		runModify(3, 50, false, true);
+		runModify(10, 4, false, true);
+	}
+
+	@Test
+	public void testExtent() {
+		runModify(2, 200, true, false);
+		runModify(3, 50, true, false);
+		runModify(10, 4, true, false);
+	}
+
+	@Test
+	public void testExtentBetweenHasNextAndNext() {
+		runModify(2, 200, true, true);
+		runModify(3, 50, true, true);
+	}
+
+	@Test
+	public void testClear() {
+		PhTree12<long[]> tree = new PhTree12<>(2);
+		Random R = new Random(0);
+		for (int i = 0; i < 1000; i++) {
+			long[] key = randomKey(2, 1000, R);
+			tree.put(key, key);
+		}
+		PhIteratorNoGC<long[]> it = tree.query(new long[]{-500, -500}, new long[]{500, 500});
+		it.next();
+		tree.clear();
+		assertFalse(it.hasNext());
+		tree.put(new long[]{1, 2}, null);
+		tree.put(new long[]{3, 4}, null);
+		PhIteratorFullNoGC<long[]> it2 = tree.queryExtent();
+		assertTrue(it2.hasNext());
+		tree.clear();
+		assertFalse(it2.hasNext());
+	}
+
+	/**
+	 * setValue() and remove() after the tree has been modified.
+	 */
+	@Test
+	public void testSetValueAndRemove() {
+		for (int dims: new int[]{2, 10}) {
+			int range = dims == 10 ? 4 : 100;
+			Random R = new Random(dims);
+			PhTree12<long[]> tree = new PhTree12<>(dims);
+			for (int i = 0; i < 5000; i++) {
+				long[] key = randomKey(dims, range, R);
+				tree.put(key, key);
+			}
+			long[] marker = new long[0];
+			int nRemoved = 0;
+			int size = tree.size();
+			PhIteratorFullNoGC<long[]> it = tree.queryExtent();
+			while (it.hasNext()) {
+				long[] key = it.nextKey();
+				//move a random other entry
+				long[] key2 = randomKey(dims, range, R);
+				if (!Arrays.equals(key, key2) && tree.contains(key2)) {
+					long[] key3 = randomKey(dims, range, R);
+					if (!tree.contains(key3) && !Arrays.equals(key, key3)) {
+						tree.update(key2, key3);
+						tree.put(key3, key3);
+					}
+				}
+				if (R.nextBoolean()) {
+					it.setValue(marker);
+					assertTrue(tree.get(key) == marker);
+				} else {
+					it.remove();
+					assertFalse(tree.contains(key));
+					nRemoved++;
+				}
+			}
+			assertEquals(size - nRemoved, tree.size());
+		}
+	}
+}
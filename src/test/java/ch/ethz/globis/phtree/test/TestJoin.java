@@ -0,0 +1,173 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceChebyshev;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import ch.ethz.globis.phtree.v12.PhTreeJoin;
+import ch.ethz.globis.phtree.v12.PhTreeJoin.JoinConsumer;
+
+public class TestJoin {
+
+	private static List<long[]> fill(PhTree12<Integer> tree, int n, int range, Random R, 
+			boolean isDouble) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				if (isDouble) {
+					key[d] = BitTools.toSortableLong(R.nextDouble() * range - range/2);
+				} else {
+					key[d] = R.nextInt(range) - range/2;
+				}
+			}
+			if (!tree.contains(key)) {
+				tree.put(key, keys.size());
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static List<String> bruteForce(List<long[]> a, List<long[]> b, double maxDist, 
+			PhDistance dist) {
+		List<String> ret = new ArrayList<>();
+		for (int i = 0; i < a.size(); i++) {
+			for (int j = 0; j < b.size(); j++) {
+				if (dist.dist(a.get(i), b.get(j)) <= maxDist) {
+					ret.add(i + "/" + j);
+				}
+			}
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static List<String> join(PhTree12<Integer> a, PhTree12<Integer> b, 
+			final List<long[]> keysA, final List<long[]> keysB, 
+			double maxDist, final PhDistance dist, ExecutorService es) {
+		final List<String> ret = new ArrayList<>();
+		JoinConsumer<Integer, Integer> c = new JoinConsumer<Integer, Integer>() {
+			@Override
+			public void accept(long[] keyA, Integer valueA, long[] keyB, Integer valueB) {
+				assertTrue(Arrays.equals(keysA.get(valueA), keyA));
+				assertTrue(Arrays.equals(keysB.get(valueB), keyB));
+				synchronized (ret) {
+					ret.add(valueA + "/" + valueB);
+				}
+			}
+		};
+		PhTreeJoin.distanceJoin(a, b, maxDist, dist, c, es);
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private void check(int dims, int nA, int nB, int range, double maxDist, PhDistance dist) {
+		Random R = new Random(dims * 1000 + nA);
+		boolean isDouble = dist instanceof PhDistanceF;
+		PhTree12<Integer> a = new PhTree12<>(dims);
+		PhTree12<Integer> b = new PhTree12<>(dims);
+		List<long[]> keysA = fill(a, nA, range, R, isDouble);
+		List<long[]> keysB = fill(b, nB, range, R, isDouble);
+		List<String> expected = bruteForce(keysA, keysB, maxDist, dist);
+		assertEquals(expected, join(a, b, keysA, keysB, maxDist, dist, null));
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			assertEquals(expected, join(a, b, keysA, keysB, maxDist, dist, es));
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	@Test
+	public void testJoinL() {
+		for (int dims = 1; dims <= 6; dims++) {
+			check(dims, 1000, 800, 1000, 30, PhDistanceL.THIS);
+			check(dims, 300, 1000, 100, 10, PhDistanceL.THIS);
+		}
+	}
+
+	@Test
+	public void testJoinLHighDims() {
+		check(10, 1000, 1000, 4, 1.5, PhDistanceL.THIS);
+		check(12, 500, 500, 100, 150, PhDistanceL.THIS);
+	}
+
+	@Test
+	public void testJoinF() {
+		for (int dims = 1; dims <= 5; dims++) {
+			check(dims, 1000, 1000, 100, 3.5, PhDistanceF.THIS);
+		}
+	}
+
+	@Test
+	public void testJoinChebyshev() {
+		check(3, 1000, 1000, 1000, 20, PhDistanceChebyshev.L);
+	}
+
+	@Test
+	public void testJoinSmall() {
+		check(2, 1, 1000, 100, 5, PhDistanceL.THIS);
+		check(2, 1000, 1, 100, 5, PhDistanceL.THIS);
+		check(2, 1000, 1000, 100, 0, PhDistanceL.THIS);
+	}
+
+	@Test
+	public void testJoinEmpty() {
+		PhTree12<Integer> a = new PhTree12<>(2);
+		PhTree12<Integer> b = new PhTree12<>(2);
+		b.put(new long[]{1, 2}, 1);
+		List<long[]> keys = new ArrayList<>();
+		assertTrue(join(a, b, keys, keys, 10, null, null).isEmpty());
+		assertTrue(join(b, a, keys, keys, 10, null, null).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDimMismatch() {
+		PhTreeJoin.distanceJoin(new PhTree12<Integer>(2), new PhTree12<Integer>(3), 1, null, 
+				new JoinConsumer<Integer, Integer>() {
+			@Override
+			public void accept(long[] keyA, Integer valueA, long[] keyB, Integer valueB) {
+				//nothing
+			}
+		});
+	}
+}
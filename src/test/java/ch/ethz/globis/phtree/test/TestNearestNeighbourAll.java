@@ -0,0 +1,140 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhKnnAllResult;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestNearestNeighbourAll {
+
+	private static List<long[]> fill(PhTree12<Integer> tree, int n, int range, Random R, 
+			boolean isDouble) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				if (isDouble) {
+					key[d] = BitTools.toSortableLong(R.nextDouble() * range - range/2);
+				} else {
+					key[d] = R.nextInt(range) - range/2;
+				}
+			}
+			if (!tree.contains(key)) {
+				tree.put(key, keys.size());
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static void check(PhTree12<Integer> tree, List<long[]> keys, int k, 
+			PhDistance dist, PhKnnAllResult<Integer> r) {
+		int nNeighbours = Math.min(k, keys.size() - 1);
+		assertEquals(keys.size(), r.size());
+		assertEquals(nNeighbours, r.getNeighbourCount());
+		double[] ref = new double[keys.size()];
+		for (int i = 0; i < r.size(); i++) {
+			long[] key = r.getKey(i);
+			assertEquals(i, r.indexOf(key));
+			assertArrayEquals(keys.get(r.getValue(i)), key);
+			//brute force
+			for (int j = 0; j < keys.size(); j++) {
+				ref[j] = dist.dist(key, keys.get(j));
+			}
+			ref[r.getValue(i)] = Double.POSITIVE_INFINITY;
+			Arrays.sort(ref);
+			for (int j = 0; j < nNeighbours; j++) {
+				int nb = r.getNeighbour(i, j);
+				assertNotEquals(i, nb);
+				assertEquals(ref[j], r.getDistance(i, j), 0.0);
+				assertEquals(ref[j], dist.dist(key, r.getKey(nb)), 0.0);
+			}
+		}
+	}
+
+	private void check(int dims, int n, int range, int k, PhDistance dist) {
+		Random R = new Random(dims*100 + k);
+		PhTree12<Integer> tree = new PhTree12<>(dims);
+		List<long[]> keys = fill(tree, n, range, R, dist instanceof PhDistanceF);
+		check(tree, keys, k, dist, tree.nearestNeighbourAll(k, dist, null));
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			check(tree, keys, k, dist, tree.nearestNeighbourAll(k, dist, es));
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	@Test
+	public void testL() {
+		for (int dims = 1; dims <= 6; dims++) {
+			check(dims, 1000, 10000, 1, PhDistanceL.THIS);
+			check(dims, 1000, 100, 5, PhDistanceL.THIS);
+		}
+	}
+
+	@Test
+	public void testHighDims() {
+		check(10, 1000, 4, 3, PhDistanceL.THIS);
+		check(15, 500, 1000, 10, PhDistanceL.THIS);
+	}
+
+	@Test
+	public void testF() {
+		for (int dims = 1; dims <= 4; dims++) {
+			check(dims, 1000, 100, 4, PhDistanceF.THIS);
+		}
+	}
+
+	@Test
+	public void testSmall() {
+		check(2, 1, 100, 3, PhDistanceL.THIS);
+		check(2, 3, 100, 3, PhDistanceL.THIS);
+		check(2, 4, 100, 3, PhDistanceL.THIS);
+		check(2, 5, 100, 3, PhDistanceL.THIS);
+	}
+
+	@Test
+	public void testEmpty() {
+		PhTree12<Integer> tree = new PhTree12<>(3);
+		assertEquals(0, tree.nearestNeighbourAll(3, null, null).size());
+	}
+}
@@ -0,0 +1,143 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.v12.PhQueryKnnMbbPPList;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestNearestNeighbourApprox {
+
+	private static PhTree12<long[]> create(int dims, int n, Random R) {
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			long[] v = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				v[d] = R.nextInt(1000000);
+			}
+			tree.put(v, v);
+		}
+		return tree;
+	}
+	
+	private static double[] exact(PhTree12<long[]> tree, int k, long[] center) {
+		double[] ret = new double[k];
+		PhKnnQuery<long[]> q = tree.nearestNeighbour(k, PhDistanceL.THIS, null, center);
+		for (int i = 0; i < k; i++) {
+			ret[i] = q.nextEntryReuse().dist();
+		}
+		return ret;
+	}
+	
+	private static long[] randomKey(int dims, Random R) {
+		long[] v = new long[dims];
+		for (int d = 0; d < dims; d++) {
+			v[d] = R.nextInt(1000000);
+		}
+		return v;
+	}
+	
+	@Test
+	public void testExact() {
+		Random R = new Random(0);
+		int dims = 10;
+		PhTree12<long[]> tree = create(dims, 10000, R);
+		for (int i = 0; i < 100; i++) {
+			long[] center = randomKey(dims, R);
+			double[] exact = exact(tree, 5, center);
+			PhKnnQuery<long[]> q = tree.nearestNeighbourApprox(5, 0, Integer.MAX_VALUE, null, center);
+			for (int j = 0; j < 5; j++) {
+				assertEquals(exact[j], q.nextEntryReuse().dist(), 0.0);
+			}
+			assertTrue(!q.hasNext());
+		}
+	}
+
+	@Test
+	public void testEpsilon() {
+		Random R = new Random(0);
+		for (int dims: new int[]{3, 10, 30}) {
+			PhTree12<long[]> tree = create(dims, 10000, R);
+			for (double eps: new double[]{0.1, 0.5, 2}) {
+				for (int i = 0; i < 50; i++) {
+					long[] center = randomKey(dims, R);
+					int k = 1 + R.nextInt(10);
+					double[] exact = exact(tree, k, center);
+					PhKnnQuery<long[]> q = 
+							tree.nearestNeighbourApprox(k, eps, Integer.MAX_VALUE, null, center);
+					double prev = 0;
+					for (int j = 0; j < k; j++) {
+						PhEntryDist<long[]> e = q.nextEntryReuse();
+						assertEquals(PhDistanceL.THIS.dist(center, e.getKey()), e.dist(), 0.0);
+						assertTrue(e.dist() >= prev);
+						assertTrue(e.dist() <= exact[j]*(1+eps));
+						prev = e.dist();
+					}
+					assertTrue(!q.hasNext());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBudget() {
+		Random R = new Random(0);
+		int dims = 20;
+		PhTree12<long[]> tree = create(dims, 10000, R);
+		PhQueryKnnMbbPPList<long[]> q = new PhQueryKnnMbbPPList<>(tree);
+		for (int budget: new int[]{1, 10, 100}) {
+			q.setApproximation(0, budget);
+			for (int i = 0; i < 20; i++) {
+				long[] center = randomKey(dims, R);
+				double[] exact = exact(tree, 10, center);
+				q.reset(10, PhDistanceL.THIS, center);
+				assertTrue(q.getNodeVisits() <= budget);
+				int n = 0;
+				while (q.hasNext()) {
+					PhEntryDist<long[]> e = q.nextEntryReuse();
+					assertEquals(PhDistanceL.THIS.dist(center, e.getKey()), e.dist(), 0.0);
+					assertTrue(e.dist() >= exact[n]);
+					assertTrue(Arrays.equals(e.getKey(), e.getValue()));
+					n++;
+				}
+				assertTrue(n <= 10);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidEpsilon() {
+		new PhQueryKnnMbbPPList<>(new PhTree12<Object>(2)).setApproximation(-1, 10);
+	}
+}
@@ -0,0 +1,159 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import ch.ethz.globis.phtree.v12.PhTree12.KnnBatchConsumer;
+
+public class TestNearestNeighbourBatch {
+
+	private static long[] createKey(int dims, int range, Random R, boolean isDouble) {
+		long[] key = new long[dims];
+		for (int d = 0; d < key.length; d++) {
+			if (isDouble) {
+				key[d] = BitTools.toSortableLong(R.nextDouble() * range - range/2);
+			} else {
+				key[d] = R.nextInt(range) - range/2;
+			}
+		}
+		return key;
+	}
+
+	private static double[] bruteForce(List<long[]> keys, int k, PhDistance dist, 
+			long[] center) {
+		double[] d = new double[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			d[i] = dist.dist(center, keys.get(i));
+		}
+		Arrays.sort(d);
+		return Arrays.copyOf(d, Math.min(k, d.length));
+	}
+
+	private static void check(int dims, int n, int nCenters, int range, int k, 
+			PhDistance dist, ExecutorService es) {
+		Random R = new Random(dims*100 + k);
+		boolean isDouble = dist instanceof PhDistanceF;
+		PhTree12<Integer> tree = new PhTree12<>(dims);
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = createKey(dims, range, R, isDouble);
+			if (!tree.contains(key)) {
+				tree.put(key, keys.size());
+				keys.add(key);
+			}
+		}
+		long[][] centers = new long[nCenters][];
+		for (int i = 0; i < nCenters; i++) {
+			if (i % 5 == 0 && !keys.isEmpty()) {
+				centers[i] = keys.get(R.nextInt(keys.size()));
+			} else if (i % 7 == 0 && i > 0) {
+				//duplicate query point
+				centers[i] = centers[i-1];
+			} else {
+				centers[i] = createKey(dims, range, R, isDouble);
+			}
+		}
+		
+		final double[][] result = new double[nCenters][];
+		tree.nearestNeighbourBatch(k, centers, dist, new KnnBatchConsumer<Integer>() {
+			@Override
+			public void accept(int index, PhKnnQuery<Integer> neighbours) {
+				assertNull(result[index]);
+				List<Double> d = new ArrayList<>();
+				while (neighbours.hasNext()) {
+					PhEntryDist<Integer> e = neighbours.nextEntryReuse();
+					d.add(e.dist());
+				}
+				result[index] = new double[d.size()];
+				for (int i = 0; i < d.size(); i++) {
+					result[index][i] = d.get(i);
+				}
+			}
+		}, es);
+		
+		for (int i = 0; i < nCenters; i++) {
+			double[] ref = bruteForce(keys, k, dist, centers[i]);
+			assertArrayEquals(ref, Arrays.copyOf(result[i], ref.length), 0.0);
+			assertEquals(ref.length, result[i].length);
+		}
+	}
+
+	private static void check(int dims, int n, int nCenters, int range, int k, 
+			PhDistance dist) {
+		check(dims, n, nCenters, range, k, dist, null);
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			check(dims, n, nCenters, range, k, dist, es);
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	@Test
+	public void testL() {
+		for (int dims = 1; dims <= 6; dims++) {
+			check(dims, 1000, 2000, 10000, 1, PhDistanceL.THIS);
+			check(dims, 1000, 2000, 100, 5, PhDistanceL.THIS);
+		}
+	}
+
+	@Test
+	public void testHighDims() {
+		check(10, 1000, 1000, 4, 3, PhDistanceL.THIS);
+		check(15, 500, 1000, 1000, 10, PhDistanceL.THIS);
+	}
+
+	@Test
+	public void testF() {
+		for (int dims = 1; dims <= 4; dims++) {
+			check(dims, 1000, 1000, 100, 4, PhDistanceF.THIS);
+		}
+	}
+
+	@Test
+	public void testSmall() {
+		for (int n = 0; n <= 5; n++) {
+			check(2, n, 100, 100, 3, PhDistanceL.THIS);
+		}
+	}
+}
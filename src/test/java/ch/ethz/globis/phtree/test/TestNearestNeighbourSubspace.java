@@ -0,0 +1,233 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhDistanceNode;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhFilterDimensions;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestNearestNeighbourSubspace {
+
+	private static double distSub(long[] v1, long[] v2, int ... selected) {
+		double d = 0;
+		for (int i: selected) {
+			double dl = (double)v1[i] - (double)v2[i];
+			d += dl*dl;
+		}
+		return Math.sqrt(d);
+	}
+
+	private void checkKnn(int dims, int n, int k, int ... selected) {
+		Random R = new Random(dims*1000 + n);
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		long[][] data = new long[n][dims];
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < dims; d++) {
+				data[i][d] = R.nextInt(1000000);
+			}
+			tree.put(data[i], data[i]);
+		}
+		
+		PhFilterDimensions filter = new PhFilterDimensions(dims, selected);
+		for (int q = 0; q < 100; q++) {
+			long[] center = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				center[d] = R.nextInt(1000000);
+			}
+			double[] expected = new double[n];
+			for (int i = 0; i < n; i++) {
+				expected[i] = distSub(center, data[i], selected);
+			}
+			Arrays.sort(expected);
+			
+			PhKnnQuery<long[]> knn = tree.nearestNeighbour(k, null, filter, center);
+			int nFound = 0;
+			double prev = 0;
+			while (knn.hasNext()) {
+				PhEntryDist<long[]> e = knn.nextEntryReuse();
+				double d = distSub(center, e.getKey(), selected);
+				assertEquals(d, e.dist(), 0.0);
+				assertTrue(d >= prev);
+				assertEquals(expected[nFound], d, 0.0);
+				prev = d;
+				nFound++;
+			}
+			assertEquals(k, nFound);
+		}
+	}
+
+	@Test
+	public void testKnn3Dof4D() {
+		checkKnn(4, 10000, 1, 0, 1, 2);
+		checkKnn(4, 10000, 10, 0, 1, 2);
+	}
+
+	@Test
+	public void testKnn1Dof3D() {
+		checkKnn(3, 5000, 5, 1);
+	}
+
+	@Test
+	public void testKnn2Dof10D() {
+		checkKnn(10, 10000, 3, 2, 7);
+	}
+
+	@Test
+	public void testKnnDoubles() {
+		int dims = 3;
+		PhTree12<Integer> tree = new PhTree12<>(dims);
+		for (int i = 0; i < 100; i++) {
+			//The time dimension (2) is very different for all points
+			tree.put(new long[]{BitTools.toSortableLong((double)i), BitTools.toSortableLong((double)i), 
+					BitTools.toSortableLong(1e6*(i%2 == 0 ? i : -i))}, i);
+		}
+		long[] center = {BitTools.toSortableLong(10.1), BitTools.toSortableLong(10.1), 
+				BitTools.toSortableLong(0.0)};
+		PhFilterDimensions filter = new PhFilterDimensions(dims, 0, 1);
+		PhKnnQuery<Integer> knn = tree.nearestNeighbour(3, PhDistanceF.THIS, filter, center);
+		assertEquals(10, (int) knn.nextValue());
+		int v2 = knn.nextValue();
+		int v3 = knn.nextValue();
+		assertTrue((v2 == 9 && v3 == 11) || (v2 == 11 && v3 == 9));
+		assertFalse(knn.hasNext());
+	}
+
+	@Test
+	public void testWindow() {
+		int dims = 3;
+		Random R = new Random(0);
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		long[][] data = new long[10000][dims];
+		for (int i = 0; i < data.length; i++) {
+			for (int d = 0; d < dims; d++) {
+				data[i][d] = R.nextInt(2000) - 1000;
+			}
+			tree.put(data[i], data[i]);
+		}
+		PhFilterDimensions filter = new PhFilterDimensions(dims, 0, 2);
+		long[] min = {-100, 12345, -50};
+		long[] max = {100, 12345, 150};
+		filter.widen(min, max);
+		assertEquals(Long.MIN_VALUE, min[1]);
+		assertEquals(Long.MAX_VALUE, max[1]);
+		int nExpected = 0;
+		for (PhEntry<long[]> v: tree.queryAll(new long[]{-100, -1000, -50}, new long[]{100, 1000, 150})) {
+			assertTrue(v != null);
+			nExpected++;
+		}
+		int n = 0;
+		PhQuery<long[]> q = tree.query(min, max);
+		while (q.hasNext()) {
+			PhEntry<long[]> e = q.nextEntryReuse();
+			assertTrue(e.getKey()[0] >= -100 && e.getKey()[0] <= 100);
+			assertTrue(e.getKey()[2] >= -50 && e.getKey()[2] <= 150);
+			n++;
+		}
+		assertEquals(nExpected, n);
+	}
+
+	@Test
+	public void testRangeQuery() {
+		int dims = 3;
+		Random R = new Random(1);
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		for (int i = 0; i < 10000; i++) {
+			long[] v = {R.nextInt(1000), R.nextInt(1000), R.nextInt(1000)};
+			tree.put(v, v);
+		}
+		PhDistance dist = new PhFilterDimensions(dims, 0, 1).project(PhDistanceL.THIS);
+		long[] center = {500, 500, 0};
+		int nExpected = 0;
+		PhExtent<long[]> all = tree.queryExtent();
+		while (all.hasNext()) {
+			if (distSub(center, all.nextKey(), 0, 1) <= 50) {
+				nExpected++;
+			}
+		}
+		int n = 0;
+		for (PhRangeQuery<long[]> q = tree.rangeQuery(50, dist, center); q.hasNext(); ) {
+			assertTrue(distSub(center, q.nextKey(), 0, 1) <= 50);
+			n++;
+		}
+		assertEquals(nExpected, n);
+	}
+
+	private static void checkDistToNode(PhDistance full) {
+		int dims = 4;
+		Random R = new Random(0);
+		PhDistanceNode dist = (PhDistanceNode) new PhFilterDimensions(dims, 0, 2).project(full);
+		for (int i = 0; i < 10000; i++) {
+			long[] center = new long[dims];
+			long[] key = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				center[d] = R.nextInt(1000);
+				key[d] = R.nextInt(1000);
+			}
+			int bitsToIgnore = R.nextInt(12);
+			double d = dist.dist(center, key);
+			assertEquals(distSub(center, key, 0, 2), d, 0.0);
+			assertTrue(dist.distToNode(center, key, bitsToIgnore) <= d);
+		}
+		//the unselected dimensions are ignored
+		long[] center = {100, 100, 100, 100};
+		long[] prefix = {100, 5000, 100, 5000};
+		assertEquals(0, dist.distToNode(center, prefix, 4), 0.0);
+	}
+
+	@Test
+	public void testProjectedDistToNode() {
+		checkDistToNode(PhDistanceL.THIS);
+		//distance without distToNode()
+		checkDistToNode(new PhDistance() {
+			@Override
+			public double dist(long[] v1, long[] v2) {
+				return PhDistanceL.THIS.dist(v1, v2);
+			}
+			
+			@Override
+			public void toMBB(double distance, long[] center, long[] outMin, long[] outMax) {
+				PhDistanceL.THIS.toMBB(distance, center, outMin, outMax);
+			}
+		});
+	}
+}
@@ -0,0 +1,120 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.util.PhTreeStats;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestNodeConfig {
+
+	private static PhTree12<long[]> create(int dims, double bias, int ntThreshold) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setAhcLhcBias(bias);
+		cfg.setNtThreshold(ntThreshold);
+		return new PhTree12<>(cfg);
+	}
+
+	/**
+	 * Inserts, queries and removes random points and checks the tree content.
+	 */
+	private static void runMixed(PhTree12<long[]> tree, int n, int range, double readRatio) {
+		Random R = new Random(0);
+		int dims = tree.getDim();
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			double x = R.nextDouble();
+			if (x < readRatio && !keys.isEmpty()) {
+				long[] key = keys.get(R.nextInt(keys.size()));
+				assertTrue(Arrays.equals(key, tree.get(key)));
+			} else if (x < (1 + readRatio)/2 || keys.isEmpty()) {
+				long[] key = new long[dims];
+				for (int d = 0; d < dims; d++) {
+					key[d] = R.nextInt(range);
+				}
+				if (tree.put(key, key) == null) {
+					keys.add(key);
+				}
+			} else {
+				long[] key = keys.remove(R.nextInt(keys.size()));
+				assertTrue(Arrays.equals(key, tree.remove(key)));
+			}
+		}
+		assertEquals(keys.size(), tree.size());
+		for (long[] key: keys) {
+			assertTrue(Arrays.equals(key, tree.get(key)));
+		}
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		Arrays.fill(max, range);
+		int nFound = 0;
+		for (PhQuery<long[]> q = tree.query(min, max); q.hasNext(); q.next()) {
+			nFound++;
+		}
+		assertEquals(keys.size(), nFound);
+	}
+
+	@Test
+	public void testNtThreshold() {
+		PhTree12<long[]> tree = create(8, 2.0, 20);
+		runMixed(tree, 50000, 8, 0);
+		PhTreeStats s1 = tree.getStats();
+		PhTree12<long[]> tree2 = create(8, 2.0, 1000);
+		runMixed(tree2, 50000, 8, 0);
+		PhTreeStats s2 = tree2.getStats();
+		assertTrue(s1.getNtCount() > 0);
+		assertEquals(0, s2.getNtCount());
+	}
+
+	@Test
+	public void testAhcLhcBias() {
+		PhTree12<long[]> tree = create(4, 0.1, 150);
+		runMixed(tree, 50000, 100, 0.3);
+		PhTree12<long[]> tree2 = create(4, 100, 150);
+		runMixed(tree2, 50000, 100, 0.3);
+		//a small bias means less AHC nodes
+		assertTrue(tree.getStats().getAhcCount() < tree2.getStats().getAhcCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBias() {
+		new PhTreeConfig(3).setAhcLhcBias(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidNtThreshold() {
+		new PhTreeConfig(3).setNtThreshold(1);
+	}
+}
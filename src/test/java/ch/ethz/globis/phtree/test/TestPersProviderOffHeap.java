@@ -0,0 +1,214 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhExtent;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PersProviderOffHeap;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestPersProviderOffHeap {
+
+	private static PhTree12<Integer> create(int dims, PersProviderOffHeap pp) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setPersistenceProvider(pp);
+		return new PhTree12<>(cfg);
+	}
+	
+	private static long[][] createKeys(int n, int dims, Random R) {
+		long[][] keys = new long[n][dims];
+		PhTree12<Integer> unique = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < dims; d++) {
+				keys[i][d] = R.nextInt(1000*1000);
+			}
+			if (unique.put(keys[i], i) != null) {
+				i--;
+			}
+		}
+		return keys;
+	}
+	
+	private static void check(PhTree<Integer> tree, long[][] keys, int[] values) {
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] == Integer.MIN_VALUE) {
+				assertNull(tree.get(keys[i]));
+			} else {
+				assertEquals(values[i], (int) tree.get(keys[i]));
+				n++;
+			}
+		}
+		assertEquals(n, tree.size());
+		PhExtent<Integer> it = tree.queryExtent();
+		int nIt = 0;
+		while (it.hasNext()) {
+			it.next();
+			nIt++;
+		}
+		assertEquals(n, nIt);
+	}
+	
+	private void checkOperations(int dims, int n) {
+		Random R = new Random(dims);
+		PersProviderOffHeap pp = new PersProviderOffHeap(64*1024);
+		PhTree12<Integer> tree = create(dims, pp);
+		long[][] keys = createKeys(n, dims, R);
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			assertNull(tree.put(keys[i], i));
+			values[i] = i;
+			if (i % 1000 == 0) {
+				pp.flush();
+				assertEquals(0, pp.getCachedNodeCount());
+			}
+		}
+		pp.flush();
+		check(tree, keys, values);
+		pp.flush();
+
+		//reload
+		PhTree<Integer> tree2 = pp.loadTree();
+		check(tree2, keys, values);
+		
+		for (int i = 0; i < n; i++) {
+			if (i % 3 == 0) {
+				assertEquals(i, (int) tree2.remove(keys[i]));
+				values[i] = Integer.MIN_VALUE;
+			} else if (i % 3 == 1) {
+				assertEquals(i, (int) tree2.put(keys[i], n + i));
+				values[i] = n + i;
+			}
+			if (i % 500 == 0) {
+				pp.flush();
+			}
+		}
+		pp.flush();
+		check(tree2, keys, values);
+		
+		//insert again, this reuses discarded nodes 
+		for (int i = 0; i < n; i += 3) {
+			assertNull(tree2.put(keys[i], i));
+			values[i] = i;
+			if (i % 900 == 0) {
+				pp.flush();
+			}
+		}
+		pp.flush();
+		check(tree2, keys, values);
+		
+		//remove all
+		long bytesFull = pp.getOffHeapBytes();
+		for (int i = 0; i < n; i++) {
+			assertEquals(values[i], (int) tree2.remove(keys[i]));
+			values[i] = Integer.MIN_VALUE;
+			if (i % 1000 == 0) {
+				pp.flush();
+			}
+		}
+		pp.flush();
+		check(tree2, keys, values);
+		assertEquals(bytesFull, pp.getOffHeapBytes());
+		//all nodes have been released, except the empty root
+		assertEquals(pp.toString(), 1, pp.getNodeCount());
+	}
+	
+	@Test
+	public void test2D() {
+		checkOperations(2, 20000);
+	}
+	
+	@Test
+	public void test3D() {
+		checkOperations(3, 20000);
+	}
+	
+	@Test
+	public void testNT() {
+		//large nodes are stored as nested trees
+		checkOperations(10, 20000);
+	}
+	
+	@Test
+	public void testArenaReuse() {
+		int dims = 3;
+		Random R = new Random(0);
+		PersProviderOffHeap pp = new PersProviderOffHeap(64*1024);
+		PhTree12<Integer> tree = create(dims, pp);
+		long[][] keys = createKeys(10000, dims, R);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < keys.length; i++) {
+				tree.put(keys[i], i);
+			}
+			pp.flush();
+			long bytes = pp.getOffHeapBytes();
+			for (int i = 0; i < keys.length; i++) {
+				tree.remove(keys[i]);
+			}
+			pp.flush();
+			assertEquals(0, tree.size());
+			//memory is reused, not reserved again 
+			assertEquals(bytes, pp.getOffHeapBytes());
+			assertTrue(pp.toString(), bytes > 0);
+		}
+	}
+
+	@Test
+	public void testUnsupportedValue() {
+		PersProviderOffHeap pp = new PersProviderOffHeap(64*1024);
+		PhTreeConfig cfg = new PhTreeConfig(2);
+		cfg.setPersistenceProvider(pp);
+		PhTree12<Object> tree = new PhTree12<>(cfg);
+		tree.put(new long[]{1, 1}, 1);
+		for (Object v: new Object[]{"1", null, -1}) {
+			try {
+				tree.put(new long[]{2, 2}, v);
+				fail();
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+			try {
+				tree.putIfAbsent(new long[]{2, 2}, v);
+				fail();
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		}
+		//the tree is unchanged and can be written
+		pp.flush();
+		assertEquals(1, tree.size());
+		assertEquals(1, tree.get(1, 1));
+		assertNull(tree.get(2, 2));
+	}
+}
@@ -0,0 +1,196 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTreeHD;
+
+public class TestPhTreeHD {
+
+	private static long[][] createData(int dims, int n, Random R) {
+		//random walks, similar to time series
+		long[][] data = new long[n][dims];
+		for (int i = 0; i < n; i++) {
+			long v = R.nextInt(100000);
+			for (int d = 0; d < dims; d++) {
+				v += R.nextInt(2001) - 1000;
+				data[i][d] = v;
+			}
+		}
+		return data;
+	}
+	
+	private static PhTreeHD<long[]> create(long[][] data) {
+		PhTreeHD<long[]> tree = new PhTreeHD<>(data[0].length);
+		for (long[] v: data) {
+			assertNull(tree.put(v, v));
+		}
+		return tree;
+	}
+
+	@Test
+	public void testPutGetRemove() {
+		Random R = new Random(0);
+		for (int dims: new int[]{10, 64, 100, 256}) {
+			long[][] data = createData(dims, 2000, R);
+			PhTreeHD<long[]> tree = create(data);
+			assertEquals(data.length, tree.size());
+			for (long[] v: data) {
+				assertTrue(tree.contains(v));
+				assertTrue(Arrays.equals(v, tree.get(v)));
+			}
+			for (int i = 0; i < data.length; i += 2) {
+				assertTrue(Arrays.equals(data[i], tree.remove(data[i])));
+				assertNull(tree.remove(data[i]));
+			}
+			assertEquals(data.length/2, tree.size());
+			for (int i = 0; i < data.length; i++) {
+				assertEquals(i % 2 == 1, tree.contains(data[i]));
+			}
+			assertEquals(data.length/2, tree.queryExtent().size());
+		}
+	}
+
+	@Test
+	public void testSameGroupSums() {
+		int dims = 120;
+		PhTreeHD<Integer> tree = new PhTreeHD<>(dims);
+		//all keys have the same group sums
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			long[] key = new long[dims];
+			key[0] = i;
+			key[1] = -i;
+			keys.add(key);
+			assertNull(tree.put(key, i));
+		}
+		assertEquals(10, tree.size());
+		assertEquals(3, (int) tree.put(keys.get(3), 33));
+		assertEquals(10, tree.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i == 3 ? 33 : i, (int) tree.get(keys.get(i)));
+		}
+		assertEquals(0, (int) tree.remove(keys.get(0)));
+		assertEquals(9, (int) tree.remove(keys.get(9)));
+		assertEquals(5, (int) tree.remove(keys.get(5)));
+		assertEquals(7, tree.size());
+		assertFalse(tree.contains(keys.get(5)));
+		assertEquals(4, (int) tree.get(keys.get(4)));
+		List<PhEntryDist<Integer>> knn = tree.nearestNeighbour(3, keys.get(4));
+		assertEquals(4, (int) knn.get(0).getValue());
+		//replace every remaining entry twice, this includes the head of the chain
+		for (int r = 0; r < 2; r++) {
+			for (int i = 0; i < 10; i++) {
+				if (tree.contains(keys.get(i))) {
+					tree.put(keys.get(i), 100*r + i);
+					assertEquals(100*r + i, (int) tree.get(keys.get(i)));
+				}
+			}
+		}
+		assertEquals(7, tree.size());
+		assertEquals(7, tree.queryExtent().size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i == 0 || i == 5 || i == 9 ? null : 100 + i, tree.remove(keys.get(i)));
+		}
+		assertEquals(0, tree.size());
+		assertTrue(tree.queryExtent().isEmpty());
+	}
+
+	@Test
+	public void testQuery() {
+		Random R = new Random(0);
+		for (int dims: new int[]{64, 100, 256}) {
+			long[][] data = createData(dims, 5000, R);
+			PhTreeHD<long[]> tree = create(data);
+			for (int q = 0; q < 50; q++) {
+				long[] c = data[R.nextInt(data.length)];
+				long[] min = new long[dims];
+				long[] max = new long[dims];
+				int w = R.nextInt(50000);
+				for (int d = 0; d < dims; d++) {
+					min[d] = c[d] - w;
+					max[d] = c[d] + w;
+				}
+				//wildcard
+				min[5] = Long.MIN_VALUE;
+				max[5] = Long.MAX_VALUE;
+				int nExpected = 0;
+				for (long[] v: data) {
+					boolean match = true;
+					for (int d = 0; d < dims; d++) {
+						match &= v[d] >= min[d] && v[d] <= max[d];
+					}
+					nExpected += match ? 1 : 0;
+				}
+				List<PhEntry<long[]>> result = tree.queryAll(min, max);
+				assertEquals(nExpected, result.size());
+				for (PhEntry<long[]> e: result) {
+					assertTrue(Arrays.equals(e.getKey(), e.getValue()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testKnn() {
+		Random R = new Random(0);
+		for (int dims: new int[]{64, 100, 256}) {
+			long[][] data = createData(dims, 5000, R);
+			PhTreeHD<long[]> tree = create(data);
+			for (int q = 0; q < 50; q++) {
+				long[] c = createData(dims, 1, R)[0];
+				int k = 1 + R.nextInt(20);
+				double[] dist = new double[data.length];
+				for (int i = 0; i < data.length; i++) {
+					dist[i] = PhDistanceL.THIS.dist(c, data[i]);
+				}
+				Arrays.sort(dist);
+				List<PhEntryDist<long[]>> result = tree.nearestNeighbour(k, c);
+				assertEquals(k, result.size());
+				for (int i = 0; i < k; i++) {
+					assertEquals(dist[i], result.get(i).dist(), 0.0);
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyIndexDims() {
+		new PhTreeHD<>(100, 61);
+	}
+}
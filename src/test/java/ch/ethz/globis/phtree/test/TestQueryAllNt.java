@@ -0,0 +1,76 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestQueryAllNt {
+
+	/**
+	 * queryAll() on NT nodes with sub-nodes whose infix lies outside the window.
+	 */
+	private void runSubNodesOutside(PhTree<long[]> ind) {
+		int dims = ind.getDim();
+		Random R = new Random(10);
+		for (int i = 0; i < 20000; i++) {
+			long[] v = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				v[d] = R.nextInt(4) - 2;
+			}
+			ind.put(v, v);
+		}
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		for (int i = 0; i < 100; i++) {
+			for (int d = 0; d < dims; d++) {
+				min[d] = R.nextInt(100) - 50;
+				max[d] = min[d] + R.nextInt(50);
+			}
+			int n = 0;
+			for (PhQuery<long[]> q = ind.query(min, max); q.hasNext(); q.next()) {
+				n++;
+			}
+			assertEquals(n, ind.queryAll(min, max).size());
+		}
+	}
+
+	@Test
+	public void testSubNodesOutsideV11() {
+		runSubNodesOutside(new PhTree11<long[]>(10));
+	}
+
+	@Test
+	public void testSubNodesOutsideV12() {
+		runSubNodesOutside(new PhTree12<long[]>(10));
+	}
+}
@@ -0,0 +1,282 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhCursor;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeHelper;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v12.PhIteratorNoGC;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import ch.ethz.globis.phtree.v12.PhTreeFrozen;
+
+public class TestQueryCursor {
+
+	private static List<long[]> fill(PhTree<?> tree, int n, int range, Random R) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				key[d] = R.nextInt(range) - range/2;
+			}
+			if (tree.put(key, null) == null) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static List<long[]> queryAll(PhTree<?> tree, long[] min, long[] max) {
+		List<long[]> list = new ArrayList<>();
+		PhQuery<?> q = tree.query(min, max);
+		while (q.hasNext()) {
+			list.add(q.nextKey());
+		}
+		return list;
+	}
+
+	/**
+	 * Create a query that is resumed at the cursor position. 'resume()' is provided by the
+	 * query iterators of the different tree versions.
+	 */
+	private static PhQuery<?> resume(PhTree<?> tree, PhCursor cursor) {
+		long[] min = cursor.getMin();
+		long[] max = cursor.getMax();
+		if (tree instanceof PhTree12) {
+			PhIteratorNoGC<?> q = ((PhTree12<?>) tree).query(min, max);
+			q.resume(cursor);
+			return q;
+		}
+		if (tree instanceof PhTree11) {
+			ch.ethz.globis.phtree.v11.PhIteratorNoGC<?> q = ((PhTree11<?>) tree).query(min, max);
+			q.resume(cursor);
+			return q;
+		}
+		PhTreeFrozen<?>.FrozenIterator q = ((PhTreeFrozen<?>) tree).query(min, max);
+		q.resume(cursor);
+		return q;
+	}
+
+	/**
+	 * Query the window in pages. Every page uses a new query that is resumed with the
+	 * cursor of the previous page.
+	 */
+	private static List<long[]> queryPaged(PhTree<?> tree, long[] min, long[] max, 
+			int pageSize) {
+		List<long[]> list = new ArrayList<>();
+		PhCursor cursor = new PhCursor(min, max);
+		while (true) {
+			PhQuery<?> q = resume(tree, cursor);
+			int n = 0;
+			while (n < pageSize && q.hasNext()) {
+				long[] key = q.nextKey();
+				list.add(key);
+				cursor = cursor.after(key);
+				n++;
+			}
+			if (n < pageSize) {
+				return list;
+			}
+		}
+	}
+
+	private static void assertKeysEquals(List<long[]> expected, List<long[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), actual.get(i));
+		}
+	}
+
+	private void runPaged(PhTree<?> tree, int n, int range, long seed) {
+		int dims = tree.getDim();
+		Random R = new Random(seed);
+		fill(tree, n, range, R);
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		for (int round = 0; round < 20; round++) {
+			for (int d = 0; d < dims; d++) {
+				min[d] = R.nextInt(range) - range/2;
+				max[d] = min[d] + R.nextInt(range);
+			}
+			if (round == 0) {
+				//the whole tree, including negative and positive values
+				for (int d = 0; d < dims; d++) {
+					min[d] = -range;
+					max[d] = range;
+				}
+			}
+			List<long[]> expected = queryAll(tree, min, max);
+			for (int pageSize: new int[]{1, 7, 100}) {
+				assertKeysEquals(expected, queryPaged(tree, min, max, pageSize));
+			}
+		}
+	}
+
+	@Test
+	public void testPaged1D() {
+		runPaged(new PhTree12<>(1), 1000, 10000, 1);
+	}
+
+	@Test
+	public void testPaged2D() {
+		runPaged(new PhTree12<>(2), 10000, 1000, 2);
+	}
+
+	@Test
+	public void testPaged3D() {
+		runPaged(new PhTree12<>(3), 10000, 100, 3);
+	}
+
+	@Test
+	public void testPagedHighDim() {
+		//large nodes, this uses the NT representation
+		runPaged(new PhTree12<>(10), 10000, 4, 10);
+	}
+
+	@Test
+	public void testPagedV11() {
+		runPaged(new PhTree11<>(3), 10000, 100, 3);
+	}
+
+	@Test
+	public void testPagedFrozen() {
+		PhTree12<Object> tree = new PhTree12<>(3);
+		Random R = new Random(0);
+		fill(tree, 10000, 100, R);
+		PhTree<Object> frozen = tree.freeze();
+		long[] min = {-30, -40, -50};
+		long[] max = {40, 30, 20};
+		assertKeysEquals(queryAll(tree, min, max), queryPaged(frozen, min, max, 10));
+	}
+
+	/**
+	 * The tree is modified between pages. The resumed query must return exactly the 
+	 * entries that come after the cursor key, even if the cursor key has been removed.
+	 */
+	@Test
+	public void testModifiedBetweenPages() {
+		for (int dims: new int[]{2, 3, 10}) {
+			Random R = new Random(dims);
+			int range = dims == 10 ? 4 : 200;
+			PhTree12<Object> tree = new PhTree12<>(dims);
+			List<long[]> keys = fill(tree, 5000, range, R);
+			long[] min = new long[dims];
+			long[] max = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				min[d] = -range/4;
+				max[d] = range/2;
+			}
+			PhCursor cursor = new PhCursor(min, max);
+			boolean finished = false;
+			while (!finished) {
+				PhIteratorNoGC<Object> q = tree.query(min, max);
+				q.resume(cursor);
+				List<long[]> expected = new ArrayList<>();
+				for (long[] key: queryAll(tree, min, max)) {
+					if (cursor.isAfter(key)) {
+						expected.add(key);
+					}
+				}
+				List<long[]> page = new ArrayList<>();
+				while (page.size() < 50 && q.hasNext()) {
+					page.add(q.nextKey());
+				}
+				finished = page.size() < 50;
+				assertKeysEquals(expected.subList(0, page.size()), page);
+				if (!finished) {
+					cursor = cursor.after(page.get(page.size()-1));
+				}
+				
+				//remove the cursor key and some random keys, add new keys
+				tree.remove(page.isEmpty() ? min : page.get(page.size()-1));
+				for (int i = 0; i < 20; i++) {
+					tree.remove(keys.get(R.nextInt(keys.size())));
+				}
+				fill(tree, 20, range, R);
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyAndStart() {
+		PhTree12<Object> tree = new PhTree12<>(2);
+		long[] min = {-10, -10};
+		long[] max = {10, 10};
+		PhIteratorNoGC<Object> q = tree.query(min, max);
+		q.resume(new PhCursor(min, max, new long[]{0, 0}));
+		assertFalse(q.hasNext());
+		
+		tree.put(new long[]{1, 1}, null);
+		tree.put(new long[]{-1, 1}, null);
+		q.resume(new PhCursor(min, max));
+		assertTrue(q.hasNext());
+		long[] first = q.nextKey();
+		q.resume(new PhCursor(min, max, first));
+		assertTrue(q.hasNext());
+		long[] second = q.nextKey();
+		assertTrue(PhTreeHelper.compareZ(first, second, -1L) < 0);
+		assertFalse(q.hasNext());
+		q.resume(new PhCursor(min, max, second));
+		assertFalse(q.hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyOutsideWindow() {
+		new PhCursor(new long[]{0, 0}, new long[]{10, 10}, new long[]{5, 11});
+	}
+
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		PhCursor cursor = new PhCursor(new long[]{0, 0}, new long[]{10, 10}, new long[]{5, 7});
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+			out.writeObject(cursor);
+		}
+		PhCursor c2;
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bos.toByteArray()))) {
+			c2 = (PhCursor) in.readObject();
+		}
+		assertArrayEquals(cursor.getMin(), c2.getMin());
+		assertArrayEquals(cursor.getMax(), c2.getMax());
+		assertArrayEquals(cursor.getKey(), c2.getKey());
+	}
+}
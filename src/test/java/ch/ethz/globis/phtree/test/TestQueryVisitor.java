@@ -0,0 +1,242 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhVisitor;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestQueryVisitor {
+
+	private static PhTree<long[]> create(int dims, boolean v12) {
+		return v12 ? new PhTree12<long[]>(dims) : new PhTree11<long[]>(dims);
+	}
+
+	private static void fill(PhTree<long[]> tree, int n, Random R) {
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				key[d] = R.nextInt(1000) - 500;
+			}
+			tree.put(key, key);
+		}
+	}
+
+	private static long[] box(int dims, long v) {
+		long[] a = new long[dims];
+		Arrays.fill(a, v);
+		return a;
+	}
+
+	private static Set<String> toSet(PhQuery<long[]> q) {
+		Set<String> set = new HashSet<>();
+		while (q.hasNext()) {
+			set.add(Arrays.toString(q.nextKey()));
+		}
+		return set;
+	}
+
+	private void testAll(boolean v12) {
+		Random R = new Random(0);
+		for (int dims = 1; dims <= 12; dims++) {
+			PhTree<long[]> tree = create(dims, v12);
+			fill(tree, 5000, R);
+			for (int i = 0; i < 20; i++) {
+				long[] min = new long[dims];
+				long[] max = new long[dims];
+				for (int d = 0; d < dims; d++) {
+					min[d] = R.nextInt(1000) - 500;
+					max[d] = min[d] + R.nextInt(500);
+				}
+				final Set<String> visited = new HashSet<>();
+				assertTrue(tree.query(min, max, new PhVisitor<long[]>() {
+					@Override
+					public Action visit(long[] key, long[] value) {
+						assertTrue(Arrays.equals(key, value));
+						assertTrue(visited.add(Arrays.toString(key)));
+						return Action.CONTINUE;
+					}
+				}));
+				assertEquals(toSet(tree.query(min, max)), visited);
+			}
+		}
+	}
+
+	@Test
+	public void testAll() {
+		testAll(true);
+	}
+
+	@Test
+	public void testAllDefaultImpl() {
+		testAll(false);
+	}
+
+	@Test
+	public void testStop() {
+		Random R = new Random(0);
+		for (int dims = 1; dims <= 10; dims++) {
+			PhTree12<long[]> tree = new PhTree12<>(dims);
+			fill(tree, 2000, R);
+			final int[] n = new int[1];
+			assertFalse(tree.query(box(dims, -500), box(dims, 500), new PhVisitor<long[]>() {
+				@Override
+				public Action visit(long[] key, long[] value) {
+					return ++n[0] == 10 ? Action.STOP : Action.CONTINUE;
+				}
+			}));
+			assertEquals(10, n[0]);
+		}
+	}
+
+	@Test
+	public void testSkipSubtree() {
+		Random R = new Random(0);
+		for (int dims = 1; dims <= 10; dims++) {
+			PhTree12<long[]> tree = new PhTree12<>(dims);
+			fill(tree, 2000, R);
+			final long[] min = box(dims, -200);
+			final long[] max = box(dims, 300);
+			final List<long[]> visited = new ArrayList<>();
+			//skip after every second entry
+			assertTrue(tree.query(min, max, new PhVisitor<long[]>() {
+				@Override
+				public Action visit(long[] key, long[] value) {
+					for (int d = 0; d < key.length; d++) {
+						assertTrue(key[d] >= min[d] && key[d] <= max[d]);
+					}
+					visited.add(key.clone());
+					return (visited.size() & 1) == 0 ? Action.SKIP_SUBTREE : Action.CONTINUE;
+				}
+			}));
+			int nAll = tree.queryAll(min, max).size();
+			assertTrue(visited.size() <= nAll);
+			assertTrue(nAll == 0 || !visited.isEmpty());
+			//skipping the root node terminates the query
+			final int[] n = new int[1];
+			tree.query(box(dims, 0), box(dims, 0), new PhVisitor<long[]>() {
+				@Override
+				public Action visit(long[] key, long[] value) {
+					n[0]++;
+					return Action.SKIP_SUBTREE;
+				}
+			});
+			assertTrue(n[0] <= 1);
+		}
+	}
+
+	private static long[] key(int dims, long v, long last) {
+		long[] key = box(dims, v);
+		key[dims-1] = last;
+		return key;
+	}
+
+	private static List<String> visitSkipping(PhTree12<long[]> tree, final long[] skipKey) {
+		final List<String> visited = new ArrayList<>();
+		int dims = tree.getDim();
+		tree.query(box(dims, 0), box(dims, 100), new PhVisitor<long[]>() {
+			@Override
+			public Action visit(long[] key, long[] value) {
+				visited.add(Arrays.toString(key));
+				return Arrays.equals(key, skipKey) ? Action.SKIP_SUBTREE : Action.CONTINUE;
+			}
+		});
+		return visited;
+	}
+
+	/**
+	 * The tree has a root node with postfix length 6 that contains a sub-node and the key 
+	 * {100, ...}. The sub-node has postfix length 3 and contains two leaf nodes with the 
+	 * keys {0, ...}/{0, ..., 1} and {8, ...}/{8, ..., 9}.
+	 */
+	@Test
+	public void testSkipSubtreeStructure() {
+		for (int dims = 1; dims <= 10; dims++) {
+			PhTree12<long[]> tree = new PhTree12<>(dims);
+			long[] a1 = box(dims, 0);
+			long[] a2 = key(dims, 0, 1);
+			long[] b1 = box(dims, 8);
+			long[] b2 = key(dims, 8, 9);
+			long[] c = box(dims, 100);
+			for (long[] key: new long[][]{a1, a2, b1, b2, c}) {
+				tree.put(key, key);
+			}
+			String sa1 = Arrays.toString(a1);
+			String sa2 = Arrays.toString(a2);
+			String sb1 = Arrays.toString(b1);
+			String sb2 = Arrays.toString(b2);
+			String sc = Arrays.toString(c);
+			assertEquals(Arrays.asList(sa1, sa2, sb1, sb2, sc), visitSkipping(tree, null));
+			//the other entry of the leaf node is skipped, the sibling node and the entry 
+			//in the root node are not
+			assertEquals(Arrays.asList(sa1, sb1, sb2, sc), visitSkipping(tree, a1));
+			assertEquals(Arrays.asList(sa1, sa2, sb1, sc), visitSkipping(tree, b1));
+			//the last entry of a node: nothing to skip
+			assertEquals(Arrays.asList(sa1, sa2, sb1, sb2, sc), visitSkipping(tree, a2));
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		PhTree12<long[]> tree = new PhTree12<>(3);
+		assertTrue(tree.query(box(3, 0), box(3, 10), new PhVisitor<long[]>() {
+			@Override
+			public Action visit(long[] key, long[] value) {
+				throw new IllegalStateException();
+			}
+		}));
+	}
+
+	@Test
+	public void testNullValue() {
+		PhTree12<long[]> tree = new PhTree12<>(2);
+		tree.put(new long[]{1, 2}, null);
+		final int[] n = new int[1];
+		tree.query(box(2, 0), box(2, 5), new PhVisitor<long[]>() {
+			@Override
+			public Action visit(long[] key, long[] value) {
+				assertEquals(null, value);
+				n[0]++;
+				return Action.CONTINUE;
+			}
+		});
+		assertEquals(1, n[0]);
+	}
+
+}
@@ -0,0 +1,129 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhRangeQuery;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Range queries with quadrant pruning, compared to brute force.
+ */
+public class TestRangeQueryQuadrant {
+
+	private interface Generator {
+		long next(Random R);
+	}
+	
+	private static final Generator SMALL = new Generator() {
+		@Override
+		public long next(Random R) {
+			return R.nextInt(2000) - 1000;
+		}
+	};
+	
+	private static final Generator LARGE = new Generator() {
+		@Override
+		public long next(Random R) {
+			return R.nextLong() >> R.nextInt(3);
+		}
+	};
+	
+	private static final Generator DOUBLE = new Generator() {
+		@Override
+		public long next(Random R) {
+			return BitTools.toSortableLong((R.nextDouble() - 0.5) * 100);
+		}
+	};
+
+	private void check(int dims, int n, Generator gen, PhDistance dist) {
+		Random R = new Random(dims);
+		PhTree12<long[]> tree = new PhTree12<>(dims);
+		ArrayList<long[]> data = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] v = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				v[d] = gen.next(R);
+			}
+			//ignore duplicates
+			if (tree.put(v, v) == null) {
+				data.add(v);
+			}
+		}
+		n = data.size();
+		
+		PhRangeQuery<long[]> q = tree.rangeQuery(0, dist, data.get(0));
+		for (int i = 0; i < 100; i++) {
+			long[] center = data.get(R.nextInt(n)).clone();
+			center[0] = gen.next(R);
+			//use a fraction of the distance to a random point as radius 
+			double radius = dist.dist(center, data.get(R.nextInt(n))) * R.nextDouble();
+			int nExpected = 0;
+			for (long[] v: data) {
+				if (dist.dist(center, v) <= radius) {
+					nExpected++;
+				}
+			}
+			q.reset(radius, center);
+			int nFound = 0;
+			while (q.hasNext()) {
+				long[] v = q.nextValue();
+				assertEquals(true, dist.dist(center, v) <= radius);
+				nFound++;
+			}
+			assertEquals(nExpected, nFound);
+		}
+	}
+
+	@Test
+	public void testSmall() {
+		for (int dims = 1; dims <= 16; dims++) {
+			check(dims, 5000, SMALL, PhDistanceL.THIS);
+		}
+	}
+
+	@Test
+	public void testLarge() {
+		for (int dims = 1; dims <= 16; dims++) {
+			check(dims, 5000, LARGE, PhDistanceL.THIS);
+		}
+	}
+
+	@Test
+	public void testDouble() {
+		for (int dims = 1; dims <= 16; dims++) {
+			check(dims, 5000, DOUBLE, PhDistanceF.THIS);
+		}
+	}
+}
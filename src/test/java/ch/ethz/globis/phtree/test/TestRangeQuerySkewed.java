@@ -0,0 +1,137 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+/**
+ * Window queries on skewed data and with skewed windows. These are the cases where
+ * the iterator switches between scanning, binary search and the HC-incrementer.
+ */
+public class TestRangeQuerySkewed {
+
+	private static final int RANGE = 1_000_000;
+
+	private static List<long[]> fill(PhTree12<long[]> tree, int n, Random R) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				key[d] = (long) (-Math.log(1 - R.nextDouble()) * RANGE * 0.05);
+			}
+			if (!tree.contains(key)) {
+				tree.put(key, key);
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static int countBrute(List<long[]> keys, long[] min, long[] max) {
+		int n = 0;
+		for (long[] key: keys) {
+			boolean match = true;
+			for (int d = 0; d < key.length; d++) {
+				if (key[d] < min[d] || key[d] > max[d]) {
+					match = false;
+					break;
+				}
+			}
+			if (match) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private static int count(PhQuery<long[]> q, long[] min, long[] max) {
+		q.reset(min, max);
+		int n = 0;
+		while (q.hasNext()) {
+			long[] key = q.nextKey();
+			for (int d = 0; d < key.length; d++) {
+				if (key[d] < min[d] || key[d] > max[d]) {
+					throw new IllegalStateException();
+				}
+			}
+			n++;
+		}
+		return n;
+	}
+
+	private void runTest(int dims, int n) {
+		Random R = new Random(dims);
+		PhTree12<long[]> tree = new PhTree12<>(new PhTreeConfig(dims));
+		List<long[]> keys = fill(tree, n, R);
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		PhQuery<long[]> q = tree.query(min, max);
+		for (int i = 0; i < 200; i++) {
+			int type = i % 3;
+			for (int d = 0; d < dims; d++) {
+				long c = (long) (-Math.log(1 - R.nextDouble()) * RANGE * 0.05);
+				long w;
+				if (type == 0) {
+					//slab
+					w = d == 0 ? RANGE / 1000 : RANGE;
+				} else if (type == 1) {
+					//every second dimension restricted
+					w = (d & 1) == 0 ? RANGE / 100 : RANGE;
+				} else {
+					//small cube in the dense region
+					w = RANGE / 20;
+				}
+				min[d] = c - w/2;
+				max[d] = c + w/2;
+			}
+			assertEquals("i=" + i, countBrute(keys, min, max), count(q, min, max));
+		}
+	}
+
+	@Test
+	public void test3D() {
+		runTest(3, 20000);
+	}
+
+	@Test
+	public void test10D() {
+		runTest(10, 20000);
+	}
+
+	@Test
+	public void test16D() {
+		runTest(16, 20000);
+	}
+
+}
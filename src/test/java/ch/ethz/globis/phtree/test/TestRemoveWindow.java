@@ -0,0 +1,238 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhPredicate;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v11.PhTree11;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestRemoveWindow {
+
+	private static PhTree12<long[]> create(int dims, boolean subtreeCounts) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(subtreeCounts);
+		return new PhTree12<>(cfg);
+	}
+
+	private static List<long[]> fill(PhTree<long[]> tree, int n, int range, Random R) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[tree.getDim()];
+			for (int d = 0; d < key.length; d++) {
+				key[d] = R.nextInt(range) - range/2;
+			}
+			if (!tree.contains(key)) {
+				tree.put(key, key);
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static boolean isInside(long[] key, long[] min, long[] max) {
+		for (int d = 0; d < key.length; d++) {
+			if (key[d] < min[d] || key[d] > max[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the entries and the structure of the tree. The structure of a PH-tree only 
+	 * depends on its entries, so it must be the same as that of a new tree.
+	 */
+	private static void check(PhTree12<long[]> tree, List<long[]> keys, boolean subtreeCounts, 
+			Random R) {
+		assertEquals(keys.size(), tree.size());
+		PhTree12<long[]> ref = create(tree.getDim(), subtreeCounts);
+		for (long[] key: keys) {
+			assertTrue(Arrays.equals(key, tree.get(key)));
+			ref.put(key, key);
+		}
+		long[] min = new long[tree.getDim()];
+		long[] max = new long[tree.getDim()];
+		Arrays.fill(min, Long.MIN_VALUE);
+		Arrays.fill(max, Long.MAX_VALUE);
+		assertEquals(keys.size(), tree.queryAll(min, max).size());
+		assertEquals(ref.getStats().getNodeCount(), tree.getStats().getNodeCount());
+		if (subtreeCounts) {
+			for (int i = 0; i < 20; i++) {
+				randomWindow(min, max, 100, R);
+				assertEquals(ref.count(min, max), tree.count(min, max));
+			}
+		}
+	}
+
+	private static void randomWindow(long[] min, long[] max, int range, Random R) {
+		for (int d = 0; d < min.length; d++) {
+			min[d] = R.nextInt(range) - range/2;
+			max[d] = min[d] + R.nextInt(range/2);
+		}
+	}
+
+	private void runRemoveAll(int dims, int n, int range, boolean subtreeCounts) {
+		Random R = new Random(dims);
+		PhTree12<long[]> tree = create(dims, subtreeCounts);
+		List<long[]> keys = fill(tree, n, range, R);
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		for (int round = 0; round < 20 && !keys.isEmpty(); round++) {
+			randomWindow(min, max, range, R);
+			List<long[]> remaining = new ArrayList<>();
+			for (long[] key: keys) {
+				if (!isInside(key, min, max)) {
+					remaining.add(key);
+				}
+			}
+			assertEquals(keys.size() - remaining.size(), tree.removeAll(min, max));
+			assertTrue(tree.isEmpty(min, max));
+			keys = remaining;
+			check(tree, keys, subtreeCounts, R);
+			keys.addAll(fill(tree, n/20, range, R));
+		}
+	}
+
+	@Test
+	public void testRemoveAll1D() {
+		runRemoveAll(1, 1000, 1000, false);
+	}
+
+	@Test
+	public void testRemoveAll2D() {
+		runRemoveAll(2, 20000, 1000, false);
+	}
+
+	@Test
+	public void testRemoveAll3D() {
+		runRemoveAll(3, 20000, 100, false);
+	}
+
+	@Test
+	public void testRemoveAllHighDim() {
+		//large nodes, this uses the NT representation
+		runRemoveAll(10, 20000, 4, false);
+	}
+
+	@Test
+	public void testRemoveAllSubtreeCounts() {
+		runRemoveAll(2, 20000, 100, true);
+		runRemoveAll(3, 20000, 100, true);
+		runRemoveAll(10, 20000, 4, true);
+	}
+
+	@Test
+	public void testRemoveEverything() {
+		Random R = new Random(0);
+		PhTree12<long[]> tree = create(3, true);
+		fill(tree, 10000, 1000, R);
+		long[] min = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+		long[] max = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+		assertEquals(10000, tree.removeAll(min, max));
+		assertEquals(0, tree.size());
+		assertEquals(0, tree.removeAll(min, max));
+		List<long[]> keys = fill(tree, 1000, 1000, R);
+		check(tree, keys, true, R);
+	}
+
+	@Test
+	public void testRemoveIf() {
+		Random R = new Random(0);
+		for (boolean subtreeCounts: new boolean[]{false, true}) {
+			PhTree12<long[]> tree = create(3, subtreeCounts);
+			List<long[]> keys = fill(tree, 20000, 100, R);
+			long[] min = new long[3];
+			long[] max = new long[3];
+			//remove keys with an even sum
+			PhPredicate<long[]> even = new PhPredicate<long[]>() {
+				@Override
+				public boolean test(long[] key, long[] value) {
+					assertTrue(Arrays.equals(key, value));
+					return (key[0] + key[1] + key[2]) % 2 == 0;
+				}
+			};
+			for (int round = 0; round < 20; round++) {
+				randomWindow(min, max, 100, R);
+				List<long[]> remaining = new ArrayList<>();
+				for (long[] key: keys) {
+					if (!isInside(key, min, max) || !even.test(key, key)) {
+						remaining.add(key);
+					}
+				}
+				assertEquals(keys.size() - remaining.size(), tree.removeIf(min, max, even));
+				keys = remaining;
+				check(tree, keys, subtreeCounts, R);
+			}
+		}
+	}
+
+	@Test
+	public void testNullValues() {
+		PhTree12<Object> tree = new PhTree12<>(new PhTreeConfig(2));
+		tree.put(new long[]{1, 1}, null);
+		tree.put(new long[]{2, 2}, null);
+		tree.put(new long[]{5, 5}, "x");
+		int n = tree.removeIf(new long[]{0, 0}, new long[]{10, 10}, new PhPredicate<Object>() {
+			@Override
+			public boolean test(long[] key, Object value) {
+				return value == null;
+			}
+		});
+		assertEquals(2, n);
+		assertEquals(1, tree.size());
+		assertFalse(tree.contains(1, 1));
+		assertNull(tree.get(2, 2));
+		assertEquals("x", tree.get(5, 5));
+	}
+
+	@Test
+	public void testDefaultImplementation() {
+		Random R = new Random(0);
+		PhTree<long[]> tree = new PhTree11<>(2);
+		List<long[]> keys = fill(tree, 1000, 100, R);
+		long[] min = {-20, -10};
+		long[] max = {10, 30};
+		int n = 0;
+		for (long[] key: keys) {
+			n += isInside(key, min, max) ? 1 : 0;
+		}
+		assertEquals(n, tree.removeAll(min, max));
+		assertEquals(keys.size() - n, tree.size());
+		assertTrue(tree.isEmpty(min, max));
+	}
+}
@@ -0,0 +1,182 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhDistance;
+import ch.ethz.globis.phtree.PhDistanceF;
+import ch.ethz.globis.phtree.PhDistanceL;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhFilter;
+import ch.ethz.globis.phtree.PhFilterDimensions;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.util.BitTools;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestReverseNearestNeighbour {
+
+	private static List<long[]> fill(PhTree<Integer> tree, int n, int range, Random R, 
+			boolean isDouble) {
+		List<long[]> keys = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			long[] key = createKey(tree.getDim(), range, R, isDouble);
+			if (!tree.contains(key)) {
+				tree.put(key, keys.size());
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static long[] createKey(int dims, int range, Random R, boolean isDouble) {
+		long[] key = new long[dims];
+		for (int d = 0; d < key.length; d++) {
+			if (isDouble) {
+				key[d] = BitTools.toSortableLong(R.nextDouble() * range - range/2);
+			} else {
+				key[d] = R.nextInt(range) - range/2;
+			}
+		}
+		return key;
+	}
+
+	private static Map<Integer, Double> bruteForce(List<long[]> keys, int k, PhDistance dist, 
+			long[] center) {
+		Map<Integer, Double> ret = new HashMap<>();
+		for (int i = 0; i < keys.size(); i++) {
+			long[] p = keys.get(i);
+			double d = dist.dist(center, p);
+			if (Arrays.equals(p, center)) {
+				continue;
+			}
+			int nCloser = 0;
+			for (int j = 0; j < keys.size(); j++) {
+				if (j != i && dist.dist(p, keys.get(j)) < d) {
+					nCloser++;
+				}
+			}
+			if (nCloser < k) {
+				ret.put(i, d);
+			}
+		}
+		return ret;
+	}
+
+	private static void check(PhTree<Integer> tree, List<long[]> keys, int k, 
+			PhDistance dist, PhFilter filter, long[] center) {
+		PhDistance d2 = filter == null ? dist : ((PhFilterDimensions) filter).project(dist);
+		Map<Integer, Double> ref = bruteForce(keys, k, d2, center);
+		List<PhEntryDist<Integer>> res = tree.reverseNearestNeighbour(k, dist, filter, center);
+		assertEquals(ref.size(), res.size());
+		for (PhEntryDist<Integer> e: res) {
+			Double d = ref.get(e.getValue());
+			assertTrue(d != null);
+			assertEquals(d, e.dist(), 0.0);
+		}
+	}
+
+	private static void check(PhTree<Integer> tree, int n, int range, int k, 
+			PhDistance dist, PhFilter filter, long seed) {
+		Random R = new Random(seed);
+		boolean isDouble = dist instanceof PhDistanceF;
+		List<long[]> keys = fill(tree, n, range, R, isDouble);
+		for (int i = 0; i < 10; i++) {
+			check(tree, keys, k, dist, filter, createKey(tree.getDim(), range, R, isDouble));
+		}
+		//centers that exist in the tree
+		for (int i = 0; i < 5 && i < keys.size(); i++) {
+			check(tree, keys, k, dist, filter, keys.get(R.nextInt(keys.size())));
+		}
+	}
+
+	private static PhTree12<Integer> create(int dims, boolean subtreeCounts) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(subtreeCounts);
+		return new PhTree12<>(cfg);
+	}
+
+	@Test
+	public void testL() {
+		for (int dims = 1; dims <= 5; dims++) {
+			for (int k: new int[]{1, 3, 10}) {
+				check(create(dims, false), 400, 1000, k, PhDistanceL.THIS, null, dims*100 + k);
+				check(create(dims, true), 400, 1000, k, PhDistanceL.THIS, null, dims*100 + k);
+			}
+		}
+	}
+
+	@Test
+	public void testDense() {
+		check(create(2, false), 1000, 30, 2, PhDistanceL.THIS, null, 0);
+		check(create(3, true), 1000, 8, 5, PhDistanceL.THIS, null, 1);
+	}
+
+	@Test
+	public void testHighDims() {
+		check(create(10, false), 400, 20, 3, PhDistanceL.THIS, null, 10);
+	}
+
+	@Test
+	public void testF() {
+		for (int dims = 1; dims <= 3; dims++) {
+			check(create(dims, false), 500, 100, 4, PhDistanceF.THIS, null, dims);
+		}
+	}
+
+	@Test
+	public void testSubspace() {
+		check(create(3, false), 500, 100, 2, PhDistanceL.THIS, 
+				new PhFilterDimensions(3, 0, 2), 3);
+	}
+
+	@Test
+	public void testSmall() {
+		for (int n = 0; n <= 5; n++) {
+			check(create(2, false), n, 100, 3, PhDistanceL.THIS, null, n);
+		}
+	}
+
+	@Test
+	public void testDefaultImplementation() {
+		check(PhTree.<Integer>create(2), 300, 1000, 2, PhDistanceL.THIS, null, 0);
+		check(PhTree.<Integer>create(3), 300, 1000, 5, PhDistanceL.THIS, null, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidK() {
+		create(2, false).reverseNearestNeighbour(0, 1, 2);
+	}
+}
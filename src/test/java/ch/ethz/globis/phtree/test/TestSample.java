@@ -0,0 +1,174 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestSample {
+
+	private static PhTree12<long[]> create(int dims, int n, boolean subtreeCounts, Random R) {
+		PhTreeConfig cfg = new PhTreeConfig(dims);
+		cfg.setSubtreeCounts(subtreeCounts);
+		PhTree12<long[]> tree = new PhTree12<>(cfg);
+		for (int i = 0; i < n; i++) {
+			long[] key = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				key[d] = R.nextInt(1000) - 500;
+			}
+			tree.put(key, key);
+		}
+		return tree;
+	}
+	
+	private static Set<List<Long>> toSet(List<PhEntry<long[]>> entries) {
+		Set<List<Long>> set = new HashSet<>();
+		for (PhEntry<long[]> e: entries) {
+			set.add(toList(e.getKey()));
+		}
+		return set;
+	}
+	
+	private static List<Long> toList(long[] key) {
+		Long[] a = new Long[key.length];
+		for (int i = 0; i < key.length; i++) {
+			a[i] = key[i];
+		}
+		return Arrays.asList(a);
+	}
+
+	private static void checkUniform(PhTree<long[]> tree, long[] min, long[] max, Random R) {
+		Set<List<Long>> inWindow = toSet(tree.queryAll(min, max));
+		int nPerEntry = 1000;
+		List<PhEntry<long[]>> samples = 
+				tree.sample(min, max, nPerEntry*inWindow.size(), R);
+		assertEquals(nPerEntry*inWindow.size(), samples.size());
+		Map<List<Long>, Integer> hist = new HashMap<>();
+		for (PhEntry<long[]> e: samples) {
+			List<Long> key = toList(e.getKey());
+			assertTrue(inWindow.contains(key));
+			assertTrue(Arrays.equals(e.getKey(), e.getValue()));
+			Integer n = hist.get(key);
+			hist.put(key, n == null ? 1 : n + 1);
+		}
+		assertEquals(inWindow.size(), hist.size());
+		for (int n: hist.values()) {
+			//standard deviation is about 31
+			assertTrue("n=" + n, Math.abs(n - nPerEntry) < 200);
+		}
+	}
+	
+	@Test
+	public void testSampleUniform() {
+		Random R = new Random(0);
+		for (boolean subtreeCounts: new boolean[]{false, true}) {
+			for (int dims: new int[]{1, 2, 3, 10}) {
+				PhTree12<long[]> tree = create(dims, 10000, subtreeCounts, R);
+				long[] min = new long[dims];
+				long[] max = new long[dims];
+				//about 20 entries
+				long w = Math.round(1000 * Math.pow(20./10000, 1./dims));
+				for (int i = 0; i < 5; i++) {
+					for (int d = 0; d < dims; d++) {
+						min[d] = R.nextInt(1000) - 500;
+						max[d] = min[d] + w;
+					}
+					checkUniform(tree, min, max, R);
+				}
+				//whole space
+				Arrays.fill(min, Long.MIN_VALUE);
+				Arrays.fill(max, Long.MAX_VALUE);
+				List<PhEntry<long[]>> samples = tree.sample(min, max, 1000, R);
+				assertEquals(1000, samples.size());
+			}
+		}
+	}
+	
+	@Test
+	public void testSampleWithoutReplacement() {
+		Random R = new Random(0);
+		for (boolean subtreeCounts: new boolean[]{false, true}) {
+			for (int dims: new int[]{1, 2, 3, 10}) {
+				PhTree12<long[]> tree = create(dims, 10000, subtreeCounts, R);
+				for (int i = 0; i < 10; i++) {
+					long[] min = new long[dims];
+					long[] max = new long[dims];
+					for (int d = 0; d < dims; d++) {
+						long a = R.nextInt(1000) - 500;
+						long b = R.nextInt(1000) - 500;
+						min[d] = Math.min(a, b);
+						max[d] = Math.max(a, b);
+					}
+					Set<List<Long>> expected = toSet(tree.queryAll(min, max));
+					Set<List<Long>> found = new HashSet<>();
+					Iterator<PhEntry<long[]>> it = tree.sampleWithoutReplacement(min, max, R);
+					while (it.hasNext()) {
+						PhEntry<long[]> e = it.next();
+						assertTrue(found.add(toList(e.getKey())));
+					}
+					assertEquals(expected, found);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testEmptyAndNullValues() {
+		Random R = new Random(0);
+		PhTreeConfig cfg = new PhTreeConfig(2);
+		cfg.setSubtreeCounts(true);
+		PhTree12<String> tree = new PhTree12<>(cfg);
+		long[] min = {0, 0};
+		long[] max = {10, 10};
+		assertTrue(tree.sample(min, max, 10, R).isEmpty());
+		assertFalse(tree.sampleWithoutReplacement(min, max, R).hasNext());
+		tree.put(new long[]{1, 1}, null);
+		tree.put(new long[]{20, 20}, "outside");
+		List<PhEntry<String>> samples = tree.sample(min, max, 10, R);
+		assertEquals(10, samples.size());
+		for (PhEntry<String> e: samples) {
+			assertTrue(Arrays.equals(new long[]{1, 1}, e.getKey()));
+			assertNull(e.getValue());
+		}
+		assertTrue(tree.sample(new long[]{2, 2}, new long[]{19, 19}, 10, R).isEmpty());
+	}
+}
@@ -0,0 +1,259 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.PhEntry;
+import ch.ethz.globis.phtree.PhEntryDist;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTreeConfig;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import ch.ethz.globis.phtree.v12.ShardedPhTree;
+import ch.ethz.globis.phtree.v12.ShardedPhTree.ZOrderPartitioner;
+
+public class TestShardedPhTree {
+
+	private static ShardedPhTree<Integer> create(int dims, int nShards, int topBit) {
+		return new ShardedPhTree<>(new PhTreeConfig(dims), nShards, 
+				new ZOrderPartitioner(dims, nShards, topBit));
+	}
+
+	private static long[] randomKey(Random R, int dims, int min, int max) {
+		long[] key = new long[dims];
+		for (int d = 0; d < dims; d++) {
+			key[d] = min + R.nextInt(max - min);
+		}
+		return key;
+	}
+
+	private static Set<List<Long>> toSet(List<? extends PhEntry<Integer>> entries) {
+		Set<List<Long>> ret = new HashSet<>();
+		for (PhEntry<Integer> e: entries) {
+			List<Long> key = new ArrayList<>();
+			for (long k: e.getKey()) {
+				key.add(k);
+			}
+			assertTrue(ret.add(key));
+		}
+		return ret;
+	}
+
+	private static void check(int dims, int nShards, int topBit, int min, int max, 
+			ExecutorService es) {
+		Random R = new Random(dims*100 + nShards);
+		ShardedPhTree<Integer> tree = create(dims, nShards, topBit);
+		PhTree12<Integer> ref = new PhTree12<>(dims);
+		for (int i = 0; i < 2000; i++) {
+			long[] key = randomKey(R, dims, min, max);
+			Integer v = i % 10 == 0 ? null : i;
+			assertEquals(ref.put(key, v), tree.put(key, v));
+		}
+		assertEquals(ref.size(), tree.size());
+		
+		//updates and removals, possibly across shards
+		for (int i = 0; i < 500; i++) {
+			long[] key1 = randomKey(R, dims, min, max);
+			long[] key2 = randomKey(R, dims, min, max);
+			assertEquals(ref.update(key1, key2), tree.update(key1, key2));
+			long[] key3 = randomKey(R, dims, min, max);
+			assertEquals(ref.remove(key3), tree.remove(key3));
+			assertEquals(ref.contains(key2), tree.contains(key2));
+			assertEquals(ref.get(key2), tree.get(key2));
+		}
+		assertEquals(ref.size(), tree.size());
+		
+		//window queries
+		for (int i = 0; i < 100; i++) {
+			long[] qMin = randomKey(R, dims, min, max);
+			long[] qMax = new long[dims];
+			for (int d = 0; d < dims; d++) {
+				qMax[d] = qMin[d] + R.nextInt((max - min)/2);
+			}
+			List<PhEntry<Integer>> res = tree.queryAll(qMin, qMax, es);
+			assertEquals(toSet(ref.queryAll(qMin, qMax)), toSet(res));
+		}
+		
+		//kNN queries
+		for (int i = 0; i < 100; i++) {
+			long[] center = randomKey(R, dims, min, max);
+			int k = 1 + R.nextInt(10);
+			List<PhEntryDist<Integer>> res = tree.nearestNeighbour(k, null, es, center);
+			PhKnnQuery<Integer> q = ref.nearestNeighbour(k, center);
+			assertEquals(k, res.size());
+			for (int j = 0; j < k; j++) {
+				assertEquals(q.nextEntryReuse().dist(), res.get(j).dist(), 0.0);
+				long[] key = res.get(j).getKey();
+				assertTrue(ref.contains(key));
+				assertEquals(ref.get(key), res.get(j).getValue());
+			}
+		}
+		
+		tree.clear();
+		assertEquals(0, tree.size());
+		assertTrue(tree.nearestNeighbour(3, null, es, new long[dims]).isEmpty());
+	}
+
+	private static void check(int dims, int nShards, int topBit, int min, int max) {
+		check(dims, nShards, topBit, min, max, null);
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			check(dims, nShards, topBit, min, max, es);
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	@Test
+	public void testSigned() {
+		for (int dims = 1; dims <= 5; dims++) {
+			check(dims, 1, 63, -1000, 1000);
+			check(dims, 4, 63, -1000, 1000);
+			check(dims, 16, 63, -1000, 1000);
+		}
+	}
+
+	@Test
+	public void testTopBit() {
+		for (int dims = 1; dims <= 5; dims++) {
+			check(dims, 8, 10, 0, 2048);
+			check(dims, 32, 10, 0, 2048);
+			//negative values have other bits above 'topBit'
+			check(dims, 16, 10, -2048, 2048);
+		}
+	}
+
+	@Test
+	public void testPartitioner() {
+		ZOrderPartitioner p = new ZOrderPartitioner(2, 16, 1);
+		//bits 1 and 0 of both dimensions
+		assertEquals(0, p.shardOf(new long[]{0, 0}));
+		assertEquals(1, p.shardOf(new long[]{0, 1}));
+		assertEquals(8 + 4 + 1, p.shardOf(new long[]{2, 3}));
+		//shard 5 contains (0, 3)
+		assertEquals(4 + 1, p.shardOf(new long[]{0, 3}));
+		assertTrue(p.overlaps(5, new long[]{0, 3}, new long[]{0, 3}));
+		assertTrue(p.overlaps(5, new long[]{0, 0}, new long[]{3, 3}));
+		assertFalse(p.overlaps(5, new long[]{1, 3}, new long[]{3, 3}));
+		assertFalse(p.overlaps(5, new long[]{0, 0}, new long[]{3, 2}));
+		//other bits above the top bit
+		assertTrue(p.overlaps(5, new long[]{4, 3}, new long[]{4, 3}));
+		assertFalse(p.overlaps(5, new long[]{5, 3}, new long[]{7, 3}));
+		assertTrue(p.overlaps(5, new long[]{3, 3}, new long[]{5, 3}));
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final int dims = 3;
+		final ShardedPhTree<Integer> tree = create(dims, 16, 15);
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(es.submit(new Runnable() {
+					@Override
+					public void run() {
+						Random R = new Random(thread);
+						for (int i = 0; i < 5000; i++) {
+							long[] key = randomKey(R, dims, 0, 1 << 16);
+							//every thread uses its own keys
+							key[0] = (key[0] & ~3L) | thread;
+							tree.put(key, thread);
+							if (i % 3 == 0) {
+								tree.remove(key);
+							} else {
+								assertEquals(thread, (int) tree.get(key));
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> f: futures) {
+				f.get();
+			}
+		} finally {
+			es.shutdown();
+		}
+		//compare with sequential execution
+		PhTree12<Integer> ref = new PhTree12<>(dims);
+		for (int thread = 0; thread < 4; thread++) {
+			Random R = new Random(thread);
+			for (int i = 0; i < 5000; i++) {
+				long[] key = randomKey(R, dims, 0, 1 << 16);
+				key[0] = (key[0] & ~3L) | thread;
+				ref.put(key, thread);
+				if (i % 3 == 0) {
+					ref.remove(key);
+				}
+			}
+		}
+		assertEquals(ref.size(), tree.size());
+		long[] min = new long[dims];
+		long[] max = new long[dims];
+		Arrays.fill(max, Long.MAX_VALUE);
+		assertEquals(toSet(ref.queryAll(min, max)), toSet(tree.queryAll(min, max, null)));
+	}
+
+	@Test
+	public void testPutAll() {
+		int dims = 2;
+		Random R = new Random(0);
+		long[][] keys = new long[5000][];
+		Integer[] values = new Integer[keys.length];
+		PhTree12<Integer> ref = new PhTree12<>(dims);
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = randomKey(R, dims, -5000, 5000);
+			values[i] = i;
+			ref.put(keys[i], i);
+		}
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			ShardedPhTree<Integer> tree = create(dims, 8, 12);
+			tree.putAll(keys, values, es);
+			assertEquals(ref.size(), tree.size());
+			for (long[] key: keys) {
+				assertEquals(ref.get(key), tree.get(key));
+			}
+		} finally {
+			es.shutdown();
+		}
+		assertNull(create(dims, 8, 12).get(1, 2));
+	}
+}
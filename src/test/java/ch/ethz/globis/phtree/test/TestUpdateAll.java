@@ -0,0 +1,154 @@
+package ch.ethz.globis.phtree.test;
+
+/*
+This file is part of ELKI:
+Environment for Developing KDD-Applications Supported by Index-Structures
+
+Copyright (C) 2011-2015
+Eidgenössische Technische Hochschule Zürich (ETH Zurich)
+Institute for Information Systems
+GlobIS Group
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU Affero General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Affero General Public License for more details.
+
+You should have received a copy of the GNU Affero General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.v12.PhTree12;
+
+public class TestUpdateAll {
+
+	private static long[][] createKeys(Random R, int n, int dims, int range) {
+		long[][] keys = new long[n][dims];
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < dims; d++) {
+				keys[i][d] = R.nextInt(range) - range/2;
+			}
+		}
+		return keys;
+	}
+	
+	private static PhTree12<Integer> fill(long[][] keys) {
+		PhTree12<Integer> tree = new PhTree12<>(keys[0].length);
+		for (int i = 0; i < keys.length; i++) {
+			tree.put(keys[i], i);
+		}
+		return tree;
+	}
+	
+	/**
+	 * Create unique keys.
+	 */
+	private static long[][] createUniqueKeys(Random R, int n, int dims, int range) {
+		long[][] keys = createKeys(R, n, dims, range);
+		PhTree12<Integer> tree = new PhTree12<>(dims);
+		for (int i = 0; i < n; i++) {
+			while (tree.put(keys[i], i) != null) {
+				keys[i][0]++;
+			}
+		}
+		return keys;
+	}
+	
+	private void checkMoves(int dims, int n, int nRounds, int range, int step, 
+			ExecutorService executor) {
+		Random R = new Random(dims);
+		long[][] keys = createUniqueKeys(R, n, dims, range);
+		PhTree12<Integer> tree = fill(keys);
+		for (int r = 0; r < nRounds; r++) {
+			long[][] newKeys = new long[n][dims];
+			//Avoid collisions with old and new keys
+			PhTree12<Integer> targets = new PhTree12<>(dims);
+			for (int i = 0; i < n; i++) {
+				targets.put(keys[i], i);
+			}
+			for (int i = 0; i < n; i++) {
+				do {
+					for (int d = 0; d < dims; d++) {
+						newKeys[i][d] = keys[i][d] + R.nextInt(2*step+1) - step;
+					}
+				} while (targets.contains(newKeys[i]));
+				targets.put(newKeys[i], i);
+			}
+			assertEquals(n, tree.updateAll(keys, newKeys, executor));
+			assertEquals(n, tree.size());
+			for (int i = 0; i < n; i++) {
+				assertEquals(i, (int) tree.get(newKeys[i]));
+			}
+			PhTree12<Integer> newSet = fill(newKeys);
+			for (int i = 0; i < n; i++) {
+				assertEquals(newSet.contains(keys[i]), tree.contains(keys[i]));
+			}
+			keys = newKeys;
+		}
+	}
+
+	@Test
+	public void testMoveSmallSteps2D() {
+		checkMoves(2, 10000, 5, 100000, 10, null);
+	}
+
+	@Test
+	public void testMoveLargeSteps3D() {
+		checkMoves(3, 10000, 5, 10000, 1000, null);
+	}
+
+	@Test
+	public void testMove10D() {
+		checkMoves(10, 5000, 3, 1000, 5, null);
+	}
+
+	@Test
+	public void testMoveParallel2D() {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			checkMoves(2, 20000, 5, 100000, 10, executor);
+			checkMoves(3, 20000, 5, 10000, 1000, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testMissingKeys() {
+		PhTree12<Integer> tree = new PhTree12<>(2);
+		tree.put(new long[]{1, 1}, 1);
+		tree.put(new long[]{5, 5}, 5);
+		long[][] oldKeys = {{1, 1}, {2, 2}, {5, 5}};
+		long[][] newKeys = {{1, 2}, {3, 3}, {6, 6}};
+		assertEquals(2, tree.updateAll(oldKeys, newKeys));
+		assertEquals(2, tree.size());
+		assertEquals(1, (int) tree.get(1, 2));
+		assertEquals(5, (int) tree.get(6, 6));
+		assertFalse(tree.contains(3, 3));
+	}
+
+	@Test
+	public void testNullValue() {
+		PhTree12<Integer> tree = new PhTree12<>(2);
+		tree.put(new long[]{1, 1}, null);
+		tree.put(new long[]{1000, 1000}, 2);
+		assertEquals(1, tree.updateAll(new long[][]{{1, 1}}, new long[][]{{-1000, 7}}));
+		assertTrue(tree.contains(-1000, 7));
+		assertFalse(tree.contains(1, 1));
+	}
+}
@@ -0,0 +1,96 @@
+package de.lmu.ifi.dbs.elki.index.tree.spatial.ph;
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2016
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.ethz.globis.phtree.util.PhTreeStats;
+import ch.ethz.globis.phtree.v12.PhTree12;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+
+public class TestMemoryPHTree {
+
+  private static Relation<NumberVector> createRelation(int n, int dims, int range) {
+    Random R = new Random(0);
+    double[][] data = new double[n][dims];
+    for (int i = 0; i < n; i++) {
+      for (int d = 0; d < dims; d++) {
+        data[i][d] = R.nextInt(range);
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  private static PhTreeStats build(Relation<NumberVector> rel, PhtSettings settings) {
+    MemoryPHTree<NumberVector> idx = 
+        new MemoryPHTree.Factory<NumberVector>(settings).instantiate(rel);
+    idx.initialize();
+    PhTree12<?> pht = (PhTree12<?>) idx.getTree().getInternalTree();
+    assertTrue(pht.toString(), pht.toString().contains(
+        "AHC/LHC=" + settings.ahcLhcBias + " NtLimit=" + settings.ntThreshold));
+    return pht.getStats();
+  }
+
+  @Test
+  public void testDefaultTree() {
+    Relation<NumberVector> rel = createRelation(1000, 3, 1000000);
+    MemoryPHTree<NumberVector> idx = new MemoryPHTree.Factory<NumberVector>().instantiate(rel);
+    idx.initialize();
+    assertFalse(idx.getTree().getInternalTree() instanceof PhTree12);
+    assertEquals(1000, idx.getTree().size());
+  }
+
+  @Test
+  public void testNtThreshold() {
+    Relation<NumberVector> rel = createRelation(20000, 8, 8);
+    PhtSettings settings = new PhtSettings();
+    settings.ntThreshold = 20;
+    assertTrue(build(rel, settings).getNtCount() > 0);
+    settings.ntThreshold = 1000;
+    assertEquals(0, build(rel, settings).getNtCount());
+  }
+
+  @Test
+  public void testAhcLhcBias() {
+    Relation<NumberVector> rel = createRelation(20000, 4, 100);
+    PhtSettings settings = new PhtSettings();
+    settings.ahcLhcBias = 0.1;
+    int nAhcSmall = build(rel, settings).getAhcCount();
+    settings.ahcLhcBias = 100;
+    //a small bias means less AHC nodes
+    assertTrue(nAhcSmall < build(rel, settings).getAhcCount());
+  }
+}